@@ -0,0 +1,344 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.ca;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import netscape.security.util.DerOutputStream;
+import netscape.security.x509.RevokedCertImpl;
+import netscape.security.x509.X509ExtensionException;
+
+/**
+ * An append-only journal of the changes made to the CRL cache of
+ * an issuing point since the cache was last saved in its CRL issuing
+ * point record.
+ * <P>
+ * Each journal has a generation which is stored in the record when the
+ * first change is journaled, so that on restart a journal is only
+ * replayed on top of the snapshot it belongs to. The file starts with
+ * a header:
+ *
+ * <pre>
+ * magic       4 bytes, "CRLJ"
+ * version     1 byte
+ * generation  8 bytes
+ * </pre>
+ *
+ * followed by the entries:
+ *
+ * <pre>
+ * length      4 bytes, length of the data
+ * data        type (1 byte), serial number (length-prefixed),
+ *             date (8 bytes), revoked entry (length-prefixed DER)
+ * checksum    4 bytes, CRC32 of the data
+ * </pre>
+ *
+ * Reading stops at the first incomplete or corrupt entry, which is
+ * what an interrupted append leaves behind.
+ */
+public class CRLCacheJournal {
+
+    public final static byte[] MAGIC = { 'C', 'R', 'L', 'J' };
+    public final static int VERSION = 1;
+
+    public final static int REVOKED = 1;
+    public final static int UNREVOKED = 2;
+    public final static int EXPIRED = 3;
+
+    private final static int MAX_ENTRY_SIZE = 1024 * 1024;
+
+    private File mFile;
+    private FileOutputStream mOut;
+    private long mGeneration;
+    private int mSize;
+
+    public CRLCacheJournal(File file) {
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the number of entries appended since the last reset.
+     */
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Discards the journal and starts an empty one with a new generation.
+     *
+     * @return the new generation
+     * @exception IOException if the journal cannot be written
+     */
+    public synchronized long reset() throws IOException {
+
+        close();
+
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        long generation = Math.max(System.currentTimeMillis(), mGeneration + 1);
+
+        FileOutputStream out = new FileOutputStream(mFile, false);
+        try {
+            DataOutputStream os = new DataOutputStream(out);
+            os.write(MAGIC);
+            os.write(VERSION);
+            os.writeLong(generation);
+            os.flush();
+            out.getFD().sync();
+
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+
+        mOut = out;
+        mGeneration = generation;
+        mSize = 0;
+
+        return generation;
+    }
+
+    /**
+     * Appends an entry and waits until it is on disk.
+     *
+     * @param entry the change
+     * @exception IOException if the entry cannot be written
+     */
+    public synchronized void append(Entry entry) throws IOException {
+
+        if (mOut == null) {
+            throw new IOException("CRL cache journal " + mFile + " is not open");
+        }
+
+        byte[] data = entry.encode();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length + 8);
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeInt(data.length);
+        os.write(data);
+        os.writeInt((int) crc.getValue());
+        os.flush();
+
+        mOut.write(bos.toByteArray());
+        mOut.getFD().sync();
+
+        mSize++;
+    }
+
+    /**
+     * Reads the entries of a journal generation.
+     *
+     * @param generation the generation recorded with the snapshot
+     * @return the entries in the order they were appended, or null if
+     *         there is no journal of this generation
+     * @exception IOException if the journal cannot be read
+     */
+    public synchronized List<Entry> read(long generation) throws IOException {
+
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+
+            byte[] magic = new byte[MAGIC.length];
+            int version;
+            long fileGeneration;
+
+            try {
+                is.readFully(magic);
+                version = is.readUnsignedByte();
+                fileGeneration = is.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION || fileGeneration != generation) {
+                return null;
+            }
+
+            List<Entry> entries = new ArrayList<Entry>();
+
+            while (true) {
+                Entry entry;
+                try {
+                    int length = is.readInt();
+                    if (length <= 0 || length > MAX_ENTRY_SIZE) {
+                        break;
+                    }
+
+                    byte[] data = new byte[length];
+                    is.readFully(data);
+                    int checksum = is.readInt();
+
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    entry = Entry.decode(data);
+
+                } catch (EOFException | CRLException | X509ExtensionException e) {
+                    break;
+                }
+
+                entries.add(entry);
+            }
+
+            return entries;
+        }
+    }
+
+    public synchronized void close() {
+
+        if (mOut == null) {
+            return;
+        }
+
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            // nothing is buffered
+        }
+
+        mOut = null;
+    }
+
+    /**
+     * A change made to the CRL cache.
+     */
+    public static class Entry {
+
+        int type;
+        BigInteger serialNumber;
+        Date date;
+        RevokedCertImpl revokedCert;
+
+        public Entry(int type, BigInteger serialNumber, Date date, RevokedCertImpl revokedCert) {
+            this.type = type;
+            this.serialNumber = serialNumber;
+            this.date = date;
+            this.revokedCert = revokedCert;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public BigInteger getSerialNumber() {
+            return serialNumber;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public RevokedCertImpl getRevokedCert() {
+            return revokedCert;
+        }
+
+        byte[] encode() throws IOException {
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream os = new DataOutputStream(bos);
+
+            os.write(type);
+
+            byte[] serial = serialNumber.toByteArray();
+            os.writeShort(serial.length);
+            os.write(serial);
+
+            os.writeLong(date == null ? 0 : date.getTime());
+
+            if (revokedCert == null) {
+                os.writeInt(0);
+
+            } else {
+                try (DerOutputStream out = new DerOutputStream()) {
+                    revokedCert.encode(out);
+                    byte[] encoded = out.toByteArray();
+                    os.writeInt(encoded.length);
+                    os.write(encoded);
+                } catch (CRLException | X509ExtensionException e) {
+                    throw new IOException("Unable to encode revoked certificate: " + e.getMessage(), e);
+                }
+            }
+
+            os.flush();
+            return bos.toByteArray();
+        }
+
+        static Entry decode(byte[] data) throws IOException, CRLException, X509ExtensionException {
+
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+
+            int type = is.readUnsignedByte();
+
+            byte[] serial = new byte[is.readUnsignedShort()];
+            is.readFully(serial);
+
+            long time = is.readLong();
+
+            int length = is.readInt();
+            if (length < 0 || length > data.length) {
+                throw new EOFException();
+            }
+
+            RevokedCertImpl revokedCert = null;
+            if (length > 0) {
+                byte[] encoded = new byte[length];
+                is.readFully(encoded);
+                revokedCert = new RevokedCertImpl(encoded);
+            }
+
+            return new Entry(type, new BigInteger(serial), time == 0 ? null : new Date(time), revokedCert);
+        }
+    }
+}
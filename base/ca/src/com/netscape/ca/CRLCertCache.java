@@ -0,0 +1,282 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.ca;
+
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
+
+/**
+ * The CRL cache of an issuing point.
+ * <P>
+ * The entries settled at the last CRL update are kept in a compact
+ * {@link RevokedSerialIndex}, and the changes made since then in a small
+ * overlay on top of it. {@link #settle} merges the overlay into a new
+ * index, so only the pending changes are kept as objects on the heap.
+ * <P>
+ * Like the Hashtable it replaces, the cache is synchronized. Its
+ * iterators work on a snapshot taken when the key or entry set is
+ * requested, so they are not affected by later changes.
+ */
+public class CRLCertCache extends AbstractMap<BigInteger, RevokedCertificate> {
+
+    private RevokedSerialIndex mIndex = null;
+
+    // changes made since the index was built, null for removed entries
+    private HashMap<BigInteger, RevokedCertificate> mChanges = new HashMap<BigInteger, RevokedCertificate>();
+
+    private int mSize = 0;
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized boolean containsKey(Object key) {
+        if (!(key instanceof BigInteger))
+            return false;
+        if (mChanges.containsKey(key))
+            return mChanges.get(key) != null;
+        return mIndex != null && mIndex.contains((BigInteger) key);
+    }
+
+    public synchronized RevokedCertificate get(Object key) {
+        if (!(key instanceof BigInteger))
+            return null;
+        if (mChanges.containsKey(key))
+            return mChanges.get(key);
+        return getIndexed(mIndex, (BigInteger) key);
+    }
+
+    /**
+     * Returns the revocation date of a certificate without rebuilding
+     * its CRL entry.
+     *
+     * @return the revocation date, or null if the certificate is not in the cache
+     */
+    public synchronized Date getRevocationDate(BigInteger serialNumber) {
+        if (mChanges.containsKey(serialNumber)) {
+            RevokedCertificate entry = mChanges.get(serialNumber);
+            return entry == null ? null : entry.getRevocationDate();
+        }
+        return mIndex == null ? null : mIndex.getRevocationDate(serialNumber);
+    }
+
+    public synchronized RevokedCertificate put(BigInteger serialNumber, RevokedCertificate entry) {
+        if (serialNumber == null || entry == null)
+            throw new NullPointerException();
+
+        RevokedCertificate previous = get(serialNumber);
+        if (previous == null)
+            mSize++;
+
+        mChanges.put(serialNumber, entry);
+        return previous;
+    }
+
+    public synchronized RevokedCertificate remove(Object key) {
+        if (!containsKey(key))
+            return null;
+
+        BigInteger serialNumber = (BigInteger) key;
+        RevokedCertificate previous = get(serialNumber);
+
+        if (mIndex != null && mIndex.contains(serialNumber)) {
+            mChanges.put(serialNumber, null);
+        } else {
+            mChanges.remove(serialNumber);
+        }
+
+        mSize--;
+        return previous;
+    }
+
+    public synchronized void clear() {
+        mIndex = null;
+        mChanges = new HashMap<BigInteger, RevokedCertificate>();
+        mSize = 0;
+    }
+
+    /**
+     * Merges the changes made since the last call into the index.
+     *
+     * @exception CRLException if the changed entries cannot be indexed;
+     *                the cache is left unchanged
+     */
+    public synchronized void settle() throws CRLException {
+
+        if (mIndex == null) {
+            mIndex = new RevokedSerialIndex(new ArrayList<RevokedCertificate>(mChanges.values()));
+        } else {
+            mIndex = mIndex.merge(mChanges);
+        }
+
+        // a new map, the old one may have grown large while the cache was rebuilt
+        mChanges = new HashMap<BigInteger, RevokedCertificate>();
+    }
+
+    /**
+     * Returns the number of changes made since the cache was last settled.
+     */
+    public synchronized int getChangeCount() {
+        return mChanges.size();
+    }
+
+    /**
+     * Returns the index of the cache if there have been no changes
+     * since the cache was last settled.
+     *
+     * @return the index, or null if the cache has changed or has never been settled
+     */
+    public synchronized RevokedSerialIndex getIndex() {
+        return mChanges.isEmpty() ? mIndex : null;
+    }
+
+    public synchronized Set<BigInteger> keySet() {
+
+        final Snapshot snapshot = new Snapshot();
+
+        return new AbstractSet<BigInteger>() {
+
+            public int size() {
+                return snapshot.size;
+            }
+
+            public Iterator<BigInteger> iterator() {
+                return snapshot.serialNumbers();
+            }
+        };
+    }
+
+    public synchronized Set<Map.Entry<BigInteger, RevokedCertificate>> entrySet() {
+
+        final Snapshot snapshot = new Snapshot();
+
+        return new AbstractSet<Map.Entry<BigInteger, RevokedCertificate>>() {
+
+            public int size() {
+                return snapshot.size;
+            }
+
+            public Iterator<Map.Entry<BigInteger, RevokedCertificate>> iterator() {
+
+                final Iterator<BigInteger> serialNumbers = snapshot.serialNumbers();
+
+                return new Iterator<Map.Entry<BigInteger, RevokedCertificate>>() {
+
+                    public boolean hasNext() {
+                        return serialNumbers.hasNext();
+                    }
+
+                    public Map.Entry<BigInteger, RevokedCertificate> next() {
+                        BigInteger serialNumber = serialNumbers.next();
+                        return new SimpleImmutableEntry<BigInteger, RevokedCertificate>(
+                                serialNumber, snapshot.get(serialNumber));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static RevokedCertificate getIndexed(RevokedSerialIndex index, BigInteger serialNumber) {
+        if (index == null)
+            return null;
+        try {
+            return index.getRevokedCertificate(serialNumber);
+        } catch (CRLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The entries of the cache at a point in time. The index is
+     * immutable, so only the changes are copied.
+     */
+    private class Snapshot {
+
+        final RevokedSerialIndex index = mIndex;
+        final HashMap<BigInteger, RevokedCertificate> changes = new HashMap<BigInteger, RevokedCertificate>(mChanges);
+        final int size = mSize;
+
+        RevokedCertificate get(BigInteger serialNumber) {
+            if (changes.containsKey(serialNumber))
+                return changes.get(serialNumber);
+            return getIndexed(index, serialNumber);
+        }
+
+        /**
+         * Returns the indexed serial numbers that have not changed,
+         * followed by the serial numbers added or replaced.
+         */
+        Iterator<BigInteger> serialNumbers() {
+
+            return new Iterator<BigInteger>() {
+
+                Iterator<BigInteger> indexed = index == null ?
+                        Collections.<BigInteger> emptyIterator() : index.asMap().keySet().iterator();
+                Iterator<Map.Entry<BigInteger, RevokedCertificate>> changed = changes.entrySet().iterator();
+                BigInteger next = findNext();
+
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                public BigInteger next() {
+                    if (next == null)
+                        throw new NoSuchElementException();
+                    BigInteger serialNumber = next;
+                    next = findNext();
+                    return serialNumber;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private BigInteger findNext() {
+                    while (indexed.hasNext()) {
+                        BigInteger serialNumber = indexed.next();
+                        if (!changes.containsKey(serialNumber))
+                            return serialNumber;
+                    }
+                    while (changed.hasNext()) {
+                        Map.Entry<BigInteger, RevokedCertificate> change = changed.next();
+                        if (change.getValue() != null)
+                            return change.getKey();
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+}
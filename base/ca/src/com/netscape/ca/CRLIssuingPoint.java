@@ -17,16 +17,27 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.ca;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.Vector;
 
 import com.netscape.certsrv.apps.CMS;
@@ -83,7 +94,9 @@ import netscape.security.x509.IssuingDistributionPointExtension;
 import netscape.security.x509.RevocationReason;
 import netscape.security.x509.RevokedCertImpl;
 import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
 import netscape.security.x509.X509CRLImpl;
+import netscape.security.x509.X509CRLStreamWriter;
 import netscape.security.x509.X509CertImpl;
 
 /**
@@ -167,7 +180,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
     /**
      * CRL cache
      */
-    private Hashtable<BigInteger, RevokedCertificate> mCRLCerts = new Hashtable<BigInteger, RevokedCertificate>();
+    private CRLCertCache mCRLCerts = new CRLCertCache();
     private Hashtable<BigInteger, RevokedCertificate> mRevokedCerts = new Hashtable<BigInteger, RevokedCertificate>();
     private Hashtable<BigInteger, RevokedCertificate> mUnrevokedCerts = new Hashtable<BigInteger, RevokedCertificate>();
     private Hashtable<BigInteger, RevokedCertificate> mExpiredCerts = new Hashtable<BigInteger, RevokedCertificate>();
@@ -358,6 +371,34 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
 
     private boolean mSaveMemory = false;
 
+    /**
+     * Encode full CRLs with X509CRLStreamWriter, spooling to files
+     * in mStreamCRLDir, instead of building them in memory.
+     */
+    private boolean mStreamCRL = false;
+    private File mStreamCRLDir = null;
+
+    /**
+     * With incrementalCRL, the encoded entries of the last full CRL are
+     * kept in mCRLEntriesFile, and the next full CRL is produced by
+     * merging mCRLCertsPatch, the changes made to mCRLCerts since then.
+     * A null patch means there is no usable entries file.
+     */
+    private boolean mIncrementalCRL = false;
+    private File mCRLEntriesFile = null;
+    private TreeMap<BigInteger, RevokedCertificate> mCRLCertsPatch = null;
+    private Object patchMonitor = new Object();
+
+    /**
+     * With cacheJournal, changes to the CRL cache are appended to
+     * mCacheJournal instead of rewriting the cache in the CRL issuing
+     * point record. The record keeps the journal generation in
+     * firstUnsaved, and the journal is compacted into the record after
+     * mCacheJournalSize entries and whenever the cache is saved.
+     */
+    private CRLCacheJournal mCacheJournal = null;
+    private int mCacheJournalSize = 10000;
+
     /**
      * Constructs a CRL issuing point from instantiating from class name.
      * CRL Issuing point must be followed by method call init(CA, id, config);
@@ -765,6 +806,23 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
 
         mSaveMemory = config.getBoolean("saveMemory", false);
 
+        mStreamCRL = config.getBoolean("streamCRL", false);
+        String streamCRLDir = config.getString("streamCRLDir", null);
+        mStreamCRLDir = (streamCRLDir != null && streamCRLDir.length() > 0) ? new File(streamCRLDir) : null;
+
+        // incremental CRLs rely on the sorted entries written by the streaming encoder
+        mIncrementalCRL = mStreamCRL && config.getBoolean("incrementalCRL", false);
+
+        if (config.getBoolean("cacheJournal", false)) {
+            String cacheJournalFile = config.getString("cacheJournalFile", null);
+            if (cacheJournalFile == null || cacheJournalFile.length() == 0) {
+                cacheJournalFile = CMS.getInstanceDir() + File.separator + "ca" + File.separator +
+                        "journal" + File.separator + "crl-" + mId + ".journal";
+            }
+            mCacheJournal = new CRLCacheJournal(new File(cacheJournalFile));
+            mCacheJournalSize = config.getInteger("cacheJournalSize", 10000);
+        }
+
         mCMSCRLExtensions = new CMSCRLExtensions(this, config);
 
         mExtendedNextUpdate =
@@ -897,9 +955,19 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
                                 if (isDeltaCRLEnabled()) {
                                     mNextUpdate = x509crl.getNextUpdate();
                                 }
-                                mCRLCerts = x509crl.getListOfRevokedCertificates();
+                                mCRLCerts.clear();
+                                Hashtable<BigInteger, RevokedCertificate> crlCerts =
+                                        x509crl.getListOfRevokedCertificates();
+                                if (crlCerts != null) {
+                                    mCRLCerts.putAll(crlCerts);
+                                }
+                                discardCRLEntries();
+                                settleCRLCerts();
                             }
-                            if (mFirstUnsaved != null && !mFirstUnsaved.equals(ICRLIssuingPointRecord.CLEAN_CACHE)) {
+                            if (mFirstUnsaved != null && mFirstUnsaved.startsWith(JOURNAL_PREFIX)) {
+                                replayCacheJournal();
+                            } else if (mFirstUnsaved != null &&
+                                    !mFirstUnsaved.equals(ICRLIssuingPointRecord.CLEAN_CACHE)) {
                                 recoverCRLCache();
                             } else {
                                 mCRLCacheIsCleared = false;
@@ -1304,6 +1372,11 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
         mEnable = false;
 
         setAutoUpdates();
+        discardCRLEntries();
+
+        if (mCacheJournal != null) {
+            mCacheJournal.close();
+        }
         /*
         if (mUpdateThread != null) {
             try {
@@ -1466,7 +1539,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
      * @return set of all the revoked certificates or null if there are none.
      */
     public Set<RevokedCertificate> getRevokedCertificates(int start, int end) {
-        if (mCRLCacheIsCleared || mCRLCerts == null || mCRLCerts.isEmpty()) {
+        if (mCRLCacheIsCleared || mCRLCerts.isEmpty()) {
             return null;
         } else {
             Set<RevokedCertificate> certSet = new LinkedHashSet<RevokedCertificate>(mCRLCerts.values());
@@ -2033,6 +2106,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
     public void clearCRLCache() {
         mCRLCacheIsCleared = true;
         mCRLCerts.clear();
+        discardCRLEntries();
         mRevokedCerts.clear();
         mUnrevokedCerts.clear();
         mExpiredCerts.clear();
@@ -2144,6 +2218,52 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
         }
     }
 
+    /**
+     * recovers CRL cache from the journal of the saved cache
+     */
+    private void replayCacheJournal() {
+
+        List<CRLCacheJournal.Entry> entries = null;
+
+        if (mCacheJournal != null) {
+            try {
+                long generation = Long.parseLong(mFirstUnsaved.substring(JOURNAL_PREFIX.length()));
+                entries = mCacheJournal.read(generation);
+            } catch (NumberFormatException | IOException e) {
+                CMS.debug("CRLIssuingPoint: unable to read CRL cache journal: " + e);
+            }
+        }
+
+        if (entries == null) {
+            // the changes since the cache was saved are lost
+            log(ILogger.LL_FAILURE, "CRL cache journal for " + mId + " is missing, rebuilding CRL cache");
+            clearCRLCache();
+            updateCRLCacheRepository();
+            return;
+        }
+
+        if (Debug.on()) {
+            Debug.trace("replayCacheJournal  mFirstUnsaved=" + mFirstUnsaved + "  entries=" + entries.size());
+        }
+
+        for (CRLCacheJournal.Entry entry : entries) {
+            switch (entry.getType()) {
+            case CRLCacheJournal.REVOKED:
+                updateRevokedCert(REVOKED_CERT, entry.getSerialNumber(), entry.getRevokedCert());
+                break;
+            case CRLCacheJournal.UNREVOKED:
+                updateRevokedCert(UNREVOKED_CERT, entry.getSerialNumber(), null);
+                break;
+            case CRLCacheJournal.EXPIRED:
+                updateExpiredCert(entry.getSerialNumber(), entry.getDate());
+                break;
+            }
+        }
+
+        updateCRLCacheRepository();
+        mCRLCacheIsCleared = false;
+    }
+
     public int getNumberOfRecentlyRevokedCerts() {
         return mRevokedCerts.size();
     }
@@ -2226,6 +2346,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
 
     private static final int REVOKED_CERT = 1;
     private static final int UNREVOKED_CERT = 2;
+    private static final String JOURNAL_PREFIX = "journal-";
     private Object cacheMonitor = new Object();
 
     /**
@@ -2261,6 +2382,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
                                 new RevokedCertImpl(serialNumber, revocationDate, entryExt);
 
                         mCRLCerts.put(serialNumber, newRevokedCert);
+                        patchCRLCerts(serialNumber, newRevokedCert);
                     }
                 } else {
                     Date revocationDate = revokedCert.getRevocationDate();
@@ -2306,6 +2428,20 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
             includeCert = cp.checkRevokedCertExtensions(revokedCert.getExtensions());
 
         if (mEnable && mEnableCRLCache && includeCert == true) {
+            if (mCacheJournal != null) {
+                boolean journaled;
+                synchronized (cacheMonitor) {
+                    journaled = isCacheJournaled();
+                    updateRevokedCert(REVOKED_CERT, serialNumber, revokedCert, journaled ? null : requestId);
+                    if (journaled) {
+                        journaled = journalCacheChange(new CRLCacheJournal.Entry(
+                                CRLCacheJournal.REVOKED, serialNumber, null, revokedCert));
+                    }
+                }
+                saveCacheJournal(journaled);
+                return;
+            }
+
             updateRevokedCert(REVOKED_CERT, serialNumber, revokedCert, requestId);
 
             if (mCacheUpdateInterval == 0) {
@@ -2329,6 +2465,20 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
 
     public void addUnrevokedCert(BigInteger serialNumber, String requestId) {
         if (mEnable && mEnableCRLCache) {
+            if (mCacheJournal != null) {
+                boolean journaled;
+                synchronized (cacheMonitor) {
+                    journaled = isCacheJournaled();
+                    updateRevokedCert(UNREVOKED_CERT, serialNumber, null, journaled ? null : requestId);
+                    if (journaled) {
+                        journaled = journalCacheChange(new CRLCacheJournal.Entry(
+                                CRLCacheJournal.UNREVOKED, serialNumber, null, null));
+                    }
+                }
+                saveCacheJournal(journaled);
+                return;
+            }
+
             updateRevokedCert(UNREVOKED_CERT, serialNumber, null, requestId);
 
             if (mCacheUpdateInterval == 0) {
@@ -2349,20 +2499,22 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
     public void addExpiredCert(BigInteger serialNumber) {
 
         if (mEnable && mEnableCRLCache && (!mIncludeExpiredCerts)) {
-            if (!(mExpiredCerts.containsKey(serialNumber))) {
-                CRLExtensions entryExt = new CRLExtensions();
-
-                try {
-                    entryExt.set(CRLReasonExtension.REMOVE_FROM_CRL.getName(),
-                            CRLReasonExtension.REMOVE_FROM_CRL);
-                } catch (IOException e) {
+            if (mCacheJournal != null) {
+                boolean journaled;
+                synchronized (cacheMonitor) {
+                    journaled = isCacheJournaled();
+                    Date expirationDate = CMS.getCurrentDate();
+                    if (updateExpiredCert(serialNumber, expirationDate) && journaled) {
+                        journaled = journalCacheChange(new CRLCacheJournal.Entry(
+                                CRLCacheJournal.EXPIRED, serialNumber, expirationDate, null));
+                    }
                 }
-                RevokedCertImpl newRevokedCert = new RevokedCertImpl(serialNumber,
-                        CMS.getCurrentDate(), entryExt);
-
-                mExpiredCerts.put(serialNumber, newRevokedCert);
+                saveCacheJournal(journaled);
+                return;
             }
 
+            updateExpiredCert(serialNumber, CMS.getCurrentDate());
+
             if (mCacheUpdateInterval == 0) {
                 try {
                     mCRLRepository.updateExpiredCerts(mId, mExpiredCerts);
@@ -2374,20 +2526,123 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
         }
     }
 
+    /**
+     * adds expired certificate to CRL cache
+     *
+     * @return true if the certificate was not in the cache yet
+     */
+    private boolean updateExpiredCert(BigInteger serialNumber, Date expirationDate) {
+
+        if (mExpiredCerts.containsKey(serialNumber)) {
+            return false;
+        }
+
+        CRLExtensions entryExt = new CRLExtensions();
+
+        try {
+            entryExt.set(CRLReasonExtension.REMOVE_FROM_CRL.getName(),
+                    CRLReasonExtension.REMOVE_FROM_CRL);
+        } catch (IOException e) {
+        }
+        RevokedCertImpl newRevokedCert = new RevokedCertImpl(serialNumber,
+                expirationDate, entryExt);
+
+        mExpiredCerts.put(serialNumber, newRevokedCert);
+        return true;
+    }
+
+    /**
+     * Checks whether changes to the CRL cache can be journaled, which
+     * requires the saved cache to be clean or already journaled.
+     * Otherwise the request ID in firstUnsaved is kept for recovery
+     * until the cache is saved again.
+     */
+    private boolean isCacheJournaled() {
+        return mCacheJournal != null && mFirstUnsaved != null &&
+                (mFirstUnsaved.equals(ICRLIssuingPointRecord.CLEAN_CACHE) ||
+                 mFirstUnsaved.startsWith(JOURNAL_PREFIX));
+    }
+
+    /**
+     * Appends a change to the CRL cache journal. Must be called
+     * holding cacheMonitor, right after the change is made.
+     *
+     * @return false if the change could not be journaled
+     */
+    private boolean journalCacheChange(CRLCacheJournal.Entry entry) {
+        try {
+            if (!mFirstUnsaved.startsWith(JOURNAL_PREFIX)) {
+                // first change since the cache was saved
+                long generation = mCacheJournal.reset();
+                mCRLRepository.updateFirstUnsaved(mId, JOURNAL_PREFIX + generation);
+                mFirstUnsaved = JOURNAL_PREFIX + generation;
+            }
+            mCacheJournal.append(entry);
+            return true;
+
+        } catch (IOException | EBaseException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_CA_ISSUING_STORE_CRL_CACHE", e.toString()));
+            return false;
+        }
+    }
+
+    /**
+     * Saves the CRL cache if a change could not be journaled or
+     * the journal is due for compaction.
+     */
+    private void saveCacheJournal(boolean journaled) {
+        if (!journaled && (mCacheUpdateInterval == 0 || isCacheJournaled())) {
+            updateCRLCacheRepository();
+        } else if (mCacheJournal.getSize() >= mCacheJournalSize) {
+            CMS.debug("CRLIssuingPoint: compacting CRL cache journal of " + mId);
+            updateCRLCacheRepository();
+        }
+    }
+
+    /**
+     * Truncates the journal after the CRL cache has been saved.
+     * Must be called holding cacheMonitor.
+     */
+    private void resetCacheJournal() {
+
+        if (mCacheJournal == null || mCacheJournal.getSize() == 0) {
+            return;
+        }
+
+        try {
+            mCacheJournal.reset();
+        } catch (IOException e) {
+            // the journal is not replayed until the next change resets it
+            CMS.debug("CRLIssuingPoint: unable to reset CRL cache journal: " + e);
+        }
+    }
+
     private Object repositoryMonitor = new Object();
 
     public void updateCRLCacheRepository() {
         synchronized (repositoryMonitor) {
-            try {
-                mCRLRepository.updateCRLCache(mId, Long.valueOf(mCRLSize),
-                        mRevokedCerts, mUnrevokedCerts, mExpiredCerts);
-                mFirstUnsaved = ICRLIssuingPointRecord.CLEAN_CACHE;
-            } catch (EBaseException e) {
-                log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_CA_ISSUING_STORE_CRL_CACHE", e.toString()));
+            if (mCacheJournal != null) {
+                // keep changes from being journaled while the cache is saved
+                synchronized (cacheMonitor) {
+                    saveCRLCache();
+                }
+            } else {
+                saveCRLCache();
             }
         }
     }
 
+    private void saveCRLCache() {
+        try {
+            mCRLRepository.updateCRLCache(mId, Long.valueOf(mCRLSize),
+                    mRevokedCerts, mUnrevokedCerts, mExpiredCerts);
+            mFirstUnsaved = ICRLIssuingPointRecord.CLEAN_CACHE;
+            resetCacheJournal();
+        } catch (EBaseException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_CA_ISSUING_STORE_CRL_CACHE", e.toString()));
+        }
+    }
+
     public boolean isDeltaCRLEnabled() {
         return (mAllowExtensions && mEnableCRLCache &&
                 mCMSCRLExtensions.isCRLExtensionEnabled(DeltaCRLIndicatorExtension.NAME) &&
@@ -2431,7 +2686,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
     }
 
     public boolean isCRLCacheEmpty() {
-        return ((mCRLCerts != null) ? mCRLCerts.isEmpty() : true);
+        return mCRLCerts.isEmpty();
     }
 
     public boolean isCRLCacheTestingEnabled() {
@@ -2441,11 +2696,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
     public Date getRevocationDateFromCache(BigInteger serialNumber,
             boolean checkDeltaCache,
             boolean includeExpiredCerts) {
-        Date revocationDate = null;
-
-        if (mCRLCerts.containsKey(serialNumber)) {
-            revocationDate = mCRLCerts.get(serialNumber).getRevocationDate();
-        }
+        Date revocationDate = mCRLCerts.getRevocationDate(serialNumber);
 
         if (checkDeltaCache && isDeltaCRLEnabled()) {
             if (mUnrevokedCerts.containsKey(serialNumber)) {
@@ -2603,6 +2854,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
             }
             CertRecProcessor cp = new CertRecProcessor(mCRLCerts, this, mAllowExtensions);
             processRevokedCerts(cp);
+            settleCRLCerts();
 
             if (statsSub != null) {
                 statsSub.endTiming("generation");
@@ -2638,6 +2890,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
 
                             if (mCRLCerts.containsKey(serialNumber)) {
                                 mCRLCerts.remove(serialNumber);
+                                patchCRLCerts(serialNumber, null);
                             }
                             mUnrevokedCerts.remove(serialNumber);
                         }
@@ -2647,7 +2900,10 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
                         for (Enumeration<BigInteger> e = clonedRevokedCerts.keys(); e.hasMoreElements();) {
                             BigInteger serialNumber = e.nextElement();
 
-                            mCRLCerts.put(serialNumber, mRevokedCerts.get(serialNumber));
+                            RevokedCertificate revokedCert = mRevokedCerts.get(serialNumber);
+
+                            mCRLCerts.put(serialNumber, revokedCert);
+                            patchCRLCerts(serialNumber, revokedCert);
                             mRevokedCerts.remove(serialNumber);
                         }
                     }
@@ -2662,6 +2918,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
                                     mLastFullUpdate == null) {
                                 if (mCRLCerts.containsKey(serialNumber)) {
                                     mCRLCerts.remove(serialNumber);
+                                    patchCRLCerts(serialNumber, null);
                                 }
                                 mExpiredCerts.remove(serialNumber);
                             }
@@ -2680,6 +2937,8 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
         clonedUnrevokedCerts = null;
         clonedExpiredCerts = null;
 
+        settleCRLCerts();
+
         if ((!isDeltaCRLEnabled()) || mSchemaCounter == 0) {
 
             generateFullCRL(signingAlgorithm, thisUpdate, nextUpdate);
@@ -2887,16 +3146,28 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
                 }
             }
 
-            CMS.debug("CRLIssuingPoint: creating CRL object");
-            X509CRLImpl crl = new X509CRLImpl(mCA.getCRLX500Name(),
-                    AlgorithmId.get(signingAlgorithm),
-                    thisUpdate, nextUpdate, mCRLCerts, ext);
+            byte[] newCRL;
+
+            if (mStreamCRL) {
+                CMS.debug("CRLIssuingPoint: streaming CRL");
+                newCRL = streamFullCRL(signingAlgorithm, thisUpdate, nextUpdate, ext);
+
+                // the entries are not parsed back, publishers only need the encoding
+                newX509CRL = new X509CRLImpl(newCRL, false);
+
+            } else {
+                CMS.debug("CRLIssuingPoint: creating CRL object");
+                X509CRLImpl crl = new X509CRLImpl(mCA.getCRLX500Name(),
+                        AlgorithmId.get(signingAlgorithm),
+                        thisUpdate, nextUpdate,
+                        mCRLCerts.values().toArray(new RevokedCertificate[0]), ext);
 
-            CMS.debug("CRLIssuingPoint: signing CRL");
-            newX509CRL = mCA.sign(crl, signingAlgorithm);
+                CMS.debug("CRLIssuingPoint: signing CRL");
+                newX509CRL = mCA.sign(crl, signingAlgorithm);
 
-            CMS.debug("CRLIssuingPoint: encoding CRL");
-            byte[] newCRL = newX509CRL.getEncoded();
+                CMS.debug("CRLIssuingPoint: encoding CRL");
+                newCRL = newX509CRL.getEncoded();
+            }
 
             mSplits[7] += System.currentTimeMillis();
 
@@ -2915,6 +3186,16 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
                         mNextCRLNumber, Long.valueOf(mCRLCerts.size()));
                 updateCRLCacheRepository();
 
+            } else if (mCacheJournal != null) {
+                synchronized (cacheMonitor) {
+                    mCRLRepository.updateCRLIssuingPointRecord(
+                            mId, newCRL, thisUpdate, nextUpdateDate,
+                            mNextCRLNumber, Long.valueOf(mCRLCerts.size()),
+                            mRevokedCerts, mUnrevokedCerts, mExpiredCerts);
+                    mFirstUnsaved = ICRLIssuingPointRecord.CLEAN_CACHE;
+                    resetCacheJournal();
+                }
+
             } else {
                 mCRLRepository.updateCRLIssuingPointRecord(
                         mId, newCRL, thisUpdate, nextUpdateDate,
@@ -3007,6 +3288,174 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
         }
     }
 
+    /**
+     * Encodes and signs the full CRL from the CRL cache in serial number
+     * order through X509CRLStreamWriter. The signed CRL is spooled to a
+     * file and read back once, so the only copy held in memory is the
+     * one stored in the CRL issuing point record.
+     * <P>
+     * With incrementalCRL, the entries of the previous CRL are reused and
+     * only the entries changed since then are encoded.
+     */
+    private byte[] streamFullCRL(
+            String signingAlgorithm,
+            Date thisUpdate,
+            Date nextUpdate,
+            CRLExtensions ext) throws EBaseException, IOException, NoSuchAlgorithmException {
+
+        X509CRLStreamWriter crl = new X509CRLStreamWriter(mCA.getCRLX500Name(),
+                AlgorithmId.get(signingAlgorithm),
+                thisUpdate, nextUpdate, ext);
+        crl.setTempDir(mStreamCRLDir);
+
+        File previousEntries = null;
+        TreeMap<BigInteger, RevokedCertificate> patch = null;
+        File entriesFile = null;
+
+        if (mIncrementalCRL) {
+            synchronized (patchMonitor) {
+                previousEntries = mCRLEntriesFile;
+                patch = mCRLCertsPatch;
+                // record the changes made from now on for the next CRL
+                mCRLCertsPatch = new TreeMap<BigInteger, RevokedCertificate>();
+            }
+            entriesFile = File.createTempFile("crl-" + mId, ".entries", mStreamCRLDir);
+            crl.setEntriesFile(entriesFile);
+        }
+
+        File file = File.createTempFile("crl-" + mId, ".der", mStreamCRLDir);
+        boolean done = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                long size;
+                if (previousEntries != null && patch != null) {
+                    CMS.debug("CRLIssuingPoint: merging " + patch.size() + " changes into previous CRL entries");
+                    size = mCA.sign(crl, previousEntries, patch, out, signingAlgorithm);
+                } else {
+                    size = mCA.sign(crl, getSortedCRLCerts(), out, signingAlgorithm);
+                }
+                CMS.debug("CRLIssuingPoint: streamed CRL with " + crl.getEntryCount()
+                        + " entries, " + size + " bytes");
+            }
+            byte[] newCRL = Files.readAllBytes(file.toPath());
+            done = true;
+            return newCRL;
+
+        } finally {
+            if (!file.delete()) {
+                CMS.debug("CRLIssuingPoint: unable to delete " + file);
+            }
+            if (entriesFile != null) {
+                if (done) {
+                    keepCRLEntries(entriesFile);
+                } else {
+                    discardCRLEntries();
+                    entriesFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entries of the CRL cache in serial number order.
+     */
+    private Iterator<RevokedCertificate> getSortedCRLCerts() {
+        final BigInteger[] serials = mCRLCerts.keySet().toArray(new BigInteger[0]);
+        Arrays.sort(serials);
+
+        return new Iterator<RevokedCertificate>() {
+            int next = 0;
+
+            public boolean hasNext() {
+                return next < serials.length;
+            }
+
+            public RevokedCertificate next() {
+                // null if the entry was removed meanwhile; the writer skips it
+                return mCRLCerts.get(serials[next++]);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Records a change made to mCRLCerts since the last full CRL.
+     *
+     * @param revokedCert new entry, or null if the entry was removed
+     */
+    private void patchCRLCerts(BigInteger serialNumber, RevokedCertificate revokedCert) {
+        synchronized (patchMonitor) {
+            if (mCRLCertsPatch != null) {
+                mCRLCertsPatch.put(serialNumber, revokedCert);
+            }
+        }
+    }
+
+    /**
+     * Makes the entries of the CRL just generated the base for the next one,
+     * unless the CRL cache was rebuilt meanwhile.
+     */
+    private void keepCRLEntries(File entriesFile) {
+        File previousEntries;
+        synchronized (patchMonitor) {
+            if (mCRLCertsPatch == null) {
+                previousEntries = entriesFile;
+            } else {
+                previousEntries = mCRLEntriesFile;
+                mCRLEntriesFile = entriesFile;
+            }
+        }
+        if (previousEntries != null && !previousEntries.delete()) {
+            CMS.debug("CRLIssuingPoint: unable to delete " + previousEntries);
+        }
+    }
+
+    /**
+     * Drops the entries kept from the last full CRL when mCRLCerts is
+     * rebuilt, so the next CRL is encoded from the whole cache.
+     */
+    private void discardCRLEntries() {
+        File previousEntries;
+        synchronized (patchMonitor) {
+            mCRLCertsPatch = null;
+            previousEntries = mCRLEntriesFile;
+            mCRLEntriesFile = null;
+        }
+        if (previousEntries != null && !previousEntries.delete()) {
+            CMS.debug("CRLIssuingPoint: unable to delete " + previousEntries);
+        }
+    }
+
+    /**
+     * Returns the index of mCRLCerts if mCRLCerts has not changed
+     * since it was last settled.
+     */
+    public RevokedSerialIndex getRevokedSerialIndex() {
+        return mCRLCerts.getIndex();
+    }
+
+    /**
+     * Merges the changes made to mCRLCerts into its index. If the
+     * changes cannot be indexed they are kept in mCRLCerts, and
+     * merged on the next attempt.
+     */
+    private void settleCRLCerts() {
+        int changes = mCRLCerts.getChangeCount();
+        try {
+            mCRLCerts.settle();
+            RevokedSerialIndex index = mCRLCerts.getIndex();
+            if (changes > 0 && index != null) {
+                CMS.debug("CRLIssuingPoint: indexed " + changes + " changes to CRL cache of " + mId +
+                        ", " + index.size() + " entries in " + index.getBufferSize() + " bytes");
+            }
+        } catch (CRLException e) {
+            CMS.debug("CRLIssuingPoint: unable to index CRL cache: " + e);
+        }
+    }
+
     /**
      * publish CRL. called from updateCRLNow() and init().
      */
@@ -3207,7 +3656,7 @@ public class CRLIssuingPoint implements ICRLIssuingPoint, Runnable {
 }
 
 class CertRecProcessor implements IElementProcessor {
-    private Hashtable<BigInteger, RevokedCertificate> mCRLCerts = null;
+    private Map<BigInteger, RevokedCertificate> mCRLCerts = null;
     private boolean mAllowExtensions = false;
     private CRLIssuingPoint mIP = null;
 
@@ -3215,7 +3664,7 @@ class CertRecProcessor implements IElementProcessor {
     private boolean mIssuingDistPointEnabled = false;
     private BitArray mOnlySomeReasons = null;
 
-    public CertRecProcessor(Hashtable<BigInteger, RevokedCertificate> crlCerts, CRLIssuingPoint ip,
+    public CertRecProcessor(Map<BigInteger, RevokedCertificate> crlCerts, CRLIssuingPoint ip,
             boolean allowExtensions) {
         mCRLCerts = crlCerts;
         mIP = ip;
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
@@ -31,6 +32,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
+import java.security.SignatureException;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
@@ -41,9 +43,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -188,9 +192,11 @@ import netscape.security.x509.CertificateIssuerName;
 import netscape.security.x509.CertificateSubjectName;
 import netscape.security.x509.CertificateVersion;
 import netscape.security.x509.RevocationReason;
+import netscape.security.x509.RevokedCertificate;
 import netscape.security.x509.X500Name;
 import netscape.security.x509.X500Signer;
 import netscape.security.x509.X509CRLImpl;
+import netscape.security.x509.X509CRLStreamWriter;
 import netscape.security.x509.X509CertImpl;
 import netscape.security.x509.X509CertInfo;
 import netscape.security.x509.X509ExtensionException;
@@ -612,6 +618,11 @@ public class CertificateAuthority
                 mCertRepot.setSkipIfInConsistent(
                     mConfig.getBoolean("SkipIfInConsistent", false));
 
+                // public key lookups for UniqueKeyConstraint
+                mCertRepot.setPublicKeyLookup(
+                    mConfig.getBoolean("publicKeyFingerprintSearch", false),
+                    mConfig.getInteger("publicKeyBloomFilterSize", 0));
+
                 // set serial number update task to run every 10 minutes
                 mCertRepot.setSerialNumberUpdateInterval(
                     mRequestQueue.getRequestRepository(),
@@ -1016,6 +1027,14 @@ public class CertificateAuthority
             mPublisherProcessor.shutdown();
         }
 
+        logSignaturePool("cert signing", mSigningUnit);
+        if (mCRLSigningUnit != mSigningUnit) {
+            logSignaturePool("CRL signing", mCRLSigningUnit);
+        }
+        if (mOCSPSigningUnit != mSigningUnit) {
+            logSignaturePool("OCSP signing", mOCSPSigningUnit);
+        }
+
         /* Stop the activityMonitor thread
          *
          * dbFactory.reset() will disconnect all connections,
@@ -1033,6 +1052,17 @@ public class CertificateAuthority
         }
     }
 
+    private void logSignaturePool(String name, SigningUnit signingUnit) {
+        if (signingUnit == null) {
+            return;
+        }
+
+        SignaturePool pool = signingUnit.getSignaturePool();
+        if (pool != null) {
+            CMS.debug("CertificateAuthority: " + name + " " + pool);
+        }
+    }
+
     /**
      * Retrieves the configuration store of this subsystem.
      * <P>
@@ -1478,6 +1508,83 @@ public class CertificateAuthority
         return signedcrl;
     }
 
+    public long sign(X509CRLStreamWriter crl,
+            Iterator<? extends RevokedCertificate> entries,
+            OutputStream out, String algname)
+            throws EBaseException {
+        return sign(crl, entries, null, null, out, algname);
+    }
+
+    public long sign(X509CRLStreamWriter crl,
+            File previousEntries,
+            SortedMap<BigInteger, ? extends RevokedCertificate> changes,
+            OutputStream out, String algname)
+            throws EBaseException {
+        return sign(crl, null, previousEntries, changes, out, algname);
+    }
+
+    private long sign(X509CRLStreamWriter crl,
+            Iterator<? extends RevokedCertificate> entries,
+            File previousEntries,
+            SortedMap<BigInteger, ? extends RevokedCertificate> changes,
+            OutputStream out, String algname)
+            throws EBaseException {
+        ensureReady();
+
+        IStatsSubsystem statsSub = (IStatsSubsystem) CMS.getSubsystem("stats");
+        if (statsSub != null) {
+            statsSub.startTiming("signing");
+        }
+
+        try {
+            final org.mozilla.jss.crypto.Signature signer =
+                    mCRLSigningUnit.getSignatureContext(algname);
+
+            X509CRLStreamWriter.Signer crlSigner = new X509CRLStreamWriter.Signer() {
+                public void update(byte[] data, int offset, int length)
+                        throws SignatureException {
+                    try {
+                        signer.update(data, offset, length);
+                    } catch (TokenException e) {
+                        throw new SignatureException(e.getMessage(), e);
+                    }
+                }
+
+                public byte[] sign() throws SignatureException {
+                    try {
+                        return signer.sign();
+                    } catch (TokenException e) {
+                        throw new SignatureException(e.getMessage(), e);
+                    }
+                }
+            };
+
+            if (previousEntries != null) {
+                return crl.write(previousEntries, changes, crlSigner, out);
+            }
+
+            return crl.write(entries, crlSigner, out);
+
+        } catch (CRLException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_CA_CA_SIGN_CRL", e.toString(), e.getMessage()));
+            throw new ECAException(
+                    CMS.getUserMessage("CMS_CA_SIGNING_CRL_FAILED", e.getMessage()));
+        } catch (X509ExtensionException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_CA_CA_SIGN_CRL", e.toString(), e.getMessage()));
+            throw new ECAException(
+                    CMS.getUserMessage("CMS_CA_SIGNING_CRL_FAILED", e.getMessage()));
+        } catch (SignatureException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_CA_CA_SIGN_CRL", e.toString(), e.getMessage()));
+            CMS.checkForAndAutoShutdown();
+            throw new ECAException(
+                    CMS.getUserMessage("CMS_CA_SIGNING_CRL_FAILED", e.getMessage()));
+        } finally {
+            if (statsSub != null) {
+                statsSub.endTiming("signing");
+            }
+        }
+    }
+
     /**
      * Signs the given certificate info using specified signing algorithm
      * If no algorithm is specified the CA's default algorithm is used.
@@ -0,0 +1,191 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.ca;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.crypto.PrivateKey;
+import org.mozilla.jss.crypto.Signature;
+import org.mozilla.jss.crypto.SignatureAlgorithm;
+import org.mozilla.jss.crypto.TokenException;
+
+/**
+ * A pool of signature contexts initialized with a signing key, one
+ * pool per signature algorithm.
+ * <P>
+ * A signature context is reset to its initialized state after each
+ * signature, so it can be checked out, used for one signature and
+ * checked in again. The number of contexts per algorithm is limited
+ * to the pool size, which should not exceed the number of sessions
+ * the token supports; callers wait when all contexts are in use.
+ * A context that failed is discarded instead of being checked in.
+ */
+public class SignaturePool {
+
+    private CryptoToken mToken;
+    private PrivateKey mPrivateKey;
+    private int mSize;
+
+    private ConcurrentHashMap<SignatureAlgorithm, Pool> mPools =
+            new ConcurrentHashMap<SignatureAlgorithm, Pool>();
+
+    private AtomicLong mCheckouts = new AtomicLong();
+    private AtomicLong mWaits = new AtomicLong();
+    private AtomicLong mWaitTime = new AtomicLong();
+    private AtomicLong mCreated = new AtomicLong();
+    private AtomicLong mDiscarded = new AtomicLong();
+
+    /**
+     * Constructs a signature pool.
+     *
+     * @param token token of the signing key
+     * @param privateKey signing key
+     * @param size maximum number of contexts per algorithm
+     */
+    public SignaturePool(CryptoToken token, PrivateKey privateKey, int size) {
+        mToken = token;
+        mPrivateKey = privateKey;
+        mSize = size;
+    }
+
+    /**
+     * Returns a signature context initialized for signing, waiting
+     * until one is available. The context must be returned with
+     * checkin().
+     */
+    public Signature checkout(SignatureAlgorithm algorithm)
+            throws NoSuchAlgorithmException, TokenException, InvalidKeyException {
+
+        Pool pool = getPool(algorithm);
+
+        if (!pool.permits.tryAcquire()) {
+            mWaits.incrementAndGet();
+            long start = System.nanoTime();
+            pool.permits.acquireUninterruptibly();
+            mWaitTime.addAndGet(System.nanoTime() - start);
+        }
+
+        mCheckouts.incrementAndGet();
+
+        Signature signer = pool.idle.poll();
+        if (signer != null) {
+            return signer;
+        }
+
+        boolean created = false;
+        try {
+            signer = mToken.getSignatureContext(algorithm);
+            signer.initSign(mPrivateKey);
+            mCreated.incrementAndGet();
+            created = true;
+            return signer;
+
+        } finally {
+            if (!created) {
+                pool.permits.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a signature context to the pool.
+     *
+     * @param algorithm algorithm the context was checked out for
+     * @param signer the context
+     * @param failed true if the context failed and must be discarded
+     */
+    public void checkin(SignatureAlgorithm algorithm, Signature signer, boolean failed) {
+
+        Pool pool = getPool(algorithm);
+
+        if (failed) {
+            mDiscarded.incrementAndGet();
+        } else {
+            pool.idle.offer(signer);
+        }
+
+        pool.permits.release();
+    }
+
+    private Pool getPool(SignatureAlgorithm algorithm) {
+        Pool pool = mPools.get(algorithm);
+        if (pool == null) {
+            pool = new Pool(mSize);
+            Pool current = mPools.putIfAbsent(algorithm, pool);
+            if (current != null) {
+                pool = current;
+            }
+        }
+        return pool;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public long getCheckouts() {
+        return mCheckouts.get();
+    }
+
+    /**
+     * Returns how many checkouts found the pool saturated and waited.
+     */
+    public long getWaits() {
+        return mWaits.get();
+    }
+
+    /**
+     * Returns the total time spent waiting in milliseconds.
+     */
+    public long getWaitTime() {
+        return mWaitTime.get() / 1000000;
+    }
+
+    public long getCreated() {
+        return mCreated.get();
+    }
+
+    public long getDiscarded() {
+        return mDiscarded.get();
+    }
+
+    public String toString() {
+        return "SignaturePool: size=" + mSize
+                + " checkouts=" + getCheckouts()
+                + " waits=" + getWaits()
+                + " wait time=" + getWaitTime() + " ms"
+                + " created=" + getCreated()
+                + " discarded=" + getDiscarded();
+    }
+
+    static class Pool {
+
+        Semaphore permits;
+        ConcurrentLinkedQueue<Signature> idle = new ConcurrentLinkedQueue<Signature>();
+
+        Pool(int size) {
+            permits = new Semaphore(size, true);
+        }
+    }
+}
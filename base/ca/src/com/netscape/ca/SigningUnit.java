@@ -21,6 +21,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.SignatureException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mozilla.jss.CryptoManager;
 import org.mozilla.jss.NoSuchTokenException;
@@ -66,6 +67,8 @@ public final class SigningUnit implements ISigningUnit {
     public static final String PROP_RENAMED_CERT_NICKNAME = "certnickname";
     public static final String PROP_TOKEN_NAME = "tokenname";
     public static final String PROP_NEW_NICKNAME = "newNickname";
+    public static final String PROP_SIGNATURE_POOL_SIZE = "signaturePoolSize";
+    public static final int DEFAULT_SIGNATURE_POOL_SIZE = 8;
 
     private CryptoManager mManager = null;
     private CryptoToken mToken = null;
@@ -86,6 +89,13 @@ public final class SigningUnit implements ISigningUnit {
     private String mDefSigningAlgname = null;
     private SignatureAlgorithm mDefSigningAlgorithm = null;
 
+    // initialized signature contexts, null if disabled
+    private SignaturePool mSignaturePool = null;
+
+    // algorithms already checked against the signing key
+    private ConcurrentHashMap<String, SignatureAlgorithm> mSigningAlgorithms =
+            new ConcurrentHashMap<String, SignatureAlgorithm>();
+
     public SigningUnit() {
     }
 
@@ -198,6 +208,12 @@ public final class SigningUnit implements ISigningUnit {
             mDefSigningAlgorithm = checkSigningAlgorithmFromName(mDefSigningAlgname);
             CMS.debug("SigningUnit: signing algorithm: " + mDefSigningAlgorithm);
 
+            mSigningAlgorithms.clear();
+
+            int poolSize = config.getInteger(PROP_SIGNATURE_POOL_SIZE, DEFAULT_SIGNATURE_POOL_SIZE);
+            CMS.debug("SigningUnit: signature pool size: " + poolSize);
+            mSignaturePool = poolSize > 0 ? new SignaturePool(mToken, mPrivk, poolSize) : null;
+
             mInited = true;
 
         } catch (java.security.cert.CertificateException e) {
@@ -266,6 +282,29 @@ public final class SigningUnit implements ISigningUnit {
         }
     }
 
+    /**
+     * Maps the algorithm name and checks it against the signing key
+     * the first time it is used.
+     */
+    private SignatureAlgorithm getSigningAlgorithm(String algname)
+            throws EBaseException {
+
+        SignatureAlgorithm sigalg = mSigningAlgorithms.get(algname);
+        if (sigalg == null) {
+            sigalg = checkSigningAlgorithmFromName(algname);
+            mSigningAlgorithms.put(algname, sigalg);
+        }
+        return sigalg;
+    }
+
+    /**
+     * Returns the pool of signature contexts, or null if contexts
+     * are not pooled.
+     */
+    public SignaturePool getSignaturePool() {
+        return mSignaturePool;
+    }
+
     /**
      * @param algname is expected to be one of JCA's algorithm names.
      */
@@ -280,30 +319,46 @@ public final class SigningUnit implements ISigningUnit {
             SignatureAlgorithm signAlg = mDefSigningAlgorithm;
 
             if (algname != null) {
-                signAlg = checkSigningAlgorithmFromName(algname);
+                signAlg = getSigningAlgorithm(algname);
             }
 
-            // XXX use a pool of signers based on alg ?
-            // XXX Map algor. name to id. hack: use hardcoded define for now.
             CMS.debug(
                     "Getting algorithm context for " + algname + " " + signAlg);
-            Signature signer = mToken.getSignatureContext(signAlg);
+            SignaturePool pool = mSignaturePool;
+            Signature signer;
 
-            signer.initSign(mPrivk);
-            signer.update(data);
-
-            /* debugging
-            boolean testAutoShutdown = false;
-            testAutoShutdown = mConfig.getBoolean("autoShutdown.test", false);
-            if (testAutoShutdown) {
-                CMS.debug("SigningUnit.sign: test auto shutdown");
-                CMS.checkForAndAutoShutdown();
+            if (pool == null) {
+                signer = mToken.getSignatureContext(signAlg);
+                signer.initSign(mPrivk);
+            } else {
+                signer = pool.checkout(signAlg);
             }
-            */
 
-            // XXX add something more descriptive.
-            CMS.debug("Signing Certificate");
-            return signer.sign();
+            boolean failed = true;
+            try {
+                signer.update(data);
+
+                /* debugging
+                boolean testAutoShutdown = false;
+                testAutoShutdown = mConfig.getBoolean("autoShutdown.test", false);
+                if (testAutoShutdown) {
+                    CMS.debug("SigningUnit.sign: test auto shutdown");
+                    CMS.checkForAndAutoShutdown();
+                }
+                */
+
+                // XXX add something more descriptive.
+                CMS.debug("Signing Certificate");
+                byte[] signature = signer.sign();
+                failed = false;
+                return signature;
+
+            } finally {
+                // a context that failed may be left in any state
+                if (pool != null) {
+                    pool.checkin(signAlg, signer, failed);
+                }
+            }
         } catch (NoSuchAlgorithmException e) {
             log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
             throw new ECAException(
@@ -325,6 +380,41 @@ public final class SigningUnit implements ISigningUnit {
         }
     }
 
+    /**
+     * Returns a signature context initialized with the signing key,
+     * for callers that feed the data to be signed incrementally.
+     *
+     * @param algname is expected to be one of JCA's algorithm names.
+     */
+    public Signature getSignatureContext(String algname)
+            throws EBaseException {
+        if (!mInited) {
+            throw new EBaseException("CASigningUnit not initialized!");
+        }
+        try {
+            SignatureAlgorithm signAlg = mDefSigningAlgorithm;
+
+            if (algname != null) {
+                signAlg = getSigningAlgorithm(algname);
+            }
+
+            CMS.debug("Getting algorithm context for " + algname + " " + signAlg);
+            Signature signer = mToken.getSignatureContext(signAlg);
+
+            signer.initSign(mPrivk);
+            return signer;
+        } catch (NoSuchAlgorithmException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            throw new ECAException(
+                    CMS.getUserMessage("CMS_CA_SIGNING_ALGOR_NOT_SUPPORTED", algname), e);
+        } catch (TokenException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            throw new EBaseException(e);
+        } catch (InvalidKeyException e) {
+            throw new EBaseException(e);
+        }
+    }
+
     public boolean verify(byte[] data, byte[] signature, String algname)
             throws EBaseException {
         if (!mInited) {
@@ -28,10 +28,8 @@ import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.core.Response;
@@ -379,7 +377,8 @@ public class CertService extends PKIService implements CertResource {
     }
 
     @Override
-    public Response listCerts(String status, Integer maxResults, Integer maxTime, Integer start, Integer size) {
+    public Response listCerts(String status, Integer maxResults, Integer maxTime, Integer start, Integer size,
+            CertId after) {
 
         maxResults = maxResults == null ? DEFAULT_MAXRESULTS : maxResults;
         maxTime    = maxTime == null ? DEFAULT_MAXTIME : maxTime;
@@ -389,6 +388,10 @@ public class CertService extends PKIService implements CertResource {
         String filter = createSearchFilter(status);
         CMS.debug("CertService.listCerts: filter: " + filter);
 
+        if (after != null) {
+            return listCertsAfter(filter, after, size);
+        }
+
         CertDataInfos infos = new CertDataInfos();
         try {
             Enumeration<ICertRecord> e = repo.searchCertificates(filter, maxResults, maxTime);
@@ -396,22 +399,19 @@ public class CertService extends PKIService implements CertResource {
                 throw new EBaseException("search results are null");
             }
 
-            // store non-null results in a list
-            List<CertDataInfo> results = new ArrayList<CertDataInfo>();
+            // convert only the entries in the requested page
+            int total = 0;
             while (e.hasMoreElements()) {
                 ICertRecord rec = e.nextElement();
                 if (rec == null) continue;
-                results.add(createCertDataInfo(rec));
+                if (total >= start && total < start + size) {
+                    infos.addEntry(createCertDataInfo(rec));
+                }
+                total++;
             }
 
-            int total = results.size();
             infos.setTotal(total);
 
-            // return entries in the requested page
-            for (int i = start; i < start + size && i < total ; i++) {
-                infos.addEntry(results.get(i));
-            }
-
             if (start > 0) {
                 URI uri = uriInfo.getRequestUriBuilder().replaceQueryParam("start", Math.max(start - size, 0)).build();
                 infos.addLink(new Link("prev", uri));
@@ -430,6 +430,61 @@ public class CertService extends PKIService implements CertResource {
         return createOKResponse(infos);
     }
 
+    /**
+     * Returns the page of certificates following a cursor, which is
+     * the last serial number of the previous page. The page is read
+     * from a virtual list view positioned at the cursor, so the cost
+     * does not grow with the number of certificates before it.
+     */
+    private Response listCertsAfter(String filter, CertId after, int size) {
+
+        BigInteger next = after.toBigInteger().add(BigInteger.ONE);
+        CMS.debug("CertService.listCerts: after: " + after.toHexString());
+
+        CertDataInfos infos = new CertDataInfos();
+        try {
+            // retrieve one more entry to find out if there is a next page
+            ICertRecordList list = repo.findCertRecordsInList(filter, null, next.toString(), "serialno", size + 1);
+            Enumeration<ICertRecord> e = list.getCertRecords(0, size);
+
+            BigInteger last = null;
+            int count = 0;
+            boolean more = false;
+
+            while (e.hasMoreElements()) {
+                ICertRecord rec = e.nextElement();
+
+                // the list is positioned at the last entry if there is none after the cursor
+                if (rec.getSerialNumber().compareTo(next) < 0) continue;
+
+                if (count == size) {
+                    more = true;
+                    break;
+                }
+
+                infos.addEntry(createCertDataInfo(rec));
+                last = rec.getSerialNumber();
+                count++;
+            }
+
+            infos.setTotal(list.getSize());
+
+            if (more && last != null) {
+                URI uri = uriInfo.getRequestUriBuilder()
+                        .replaceQueryParam("start")
+                        .replaceQueryParam("after", new CertId(last).toHexString())
+                        .build();
+                infos.addLink(new Link("next", uri));
+            }
+
+        } catch (Exception e) {
+            CMS.debug(e);
+            throw new PKIException("Unable to list certificates: " + e, e);
+        }
+
+        return createOKResponse(infos);
+    }
+
     @Override
     public Response searchCerts(CertSearchRequest data, Integer start, Integer size) {
 
@@ -73,7 +73,17 @@ public class CACertClient extends Client {
     }
 
     public CertDataInfos listCerts(String status, Integer maxResults, Integer maxTime, Integer start, Integer size) {
-        Response response = certClient.listCerts(status, maxResults, maxTime, start, size);
+        Response response = certClient.listCerts(status, maxResults, maxTime, start, size, null);
+        return client.getEntity(response, CertDataInfos.class);
+    }
+
+    /**
+     * Lists the certificates with serial numbers greater than the given
+     * one, in serial number order. The last serial number of a page is
+     * the cursor of the next page.
+     */
+    public CertDataInfos listCerts(String status, CertId after, Integer size) {
+        Response response = certClient.listCerts(status, null, null, null, size, after);
         return client.getEntity(response, CertDataInfos.class);
     }
 
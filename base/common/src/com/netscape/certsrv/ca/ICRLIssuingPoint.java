@@ -25,6 +25,7 @@ import java.util.Vector;
 import netscape.security.x509.CRLExtensions;
 import netscape.security.x509.RevokedCertImpl;
 import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
 import netscape.security.x509.X509CRLImpl;
 
 import com.netscape.certsrv.base.EBaseException;
@@ -368,6 +369,16 @@ public interface ICRLIssuingPoint {
                                            boolean checkDeltaCache,
                                            boolean includeExpiredCerts);
 
+    /**
+     * Returns the compact, lock-free index backing the CRL cache,
+     * if no certificates have been revoked or released from hold
+     * since the last CRL update.
+     *
+     * @return index of the CRL cache or null if the cache
+     *         has changed since the last CRL update
+     */
+    public RevokedSerialIndex getRevokedSerialIndex();
+
     /**
      * Returns split times from CRL generation.
      *
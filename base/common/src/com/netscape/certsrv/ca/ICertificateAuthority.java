@@ -17,9 +17,14 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.certsrv.ca;
 
+import java.io.File;
+import java.io.OutputStream;
+import java.math.BigInteger;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -45,8 +50,10 @@ import netscape.security.x509.CertificateChain;
 import netscape.security.x509.CertificateIssuerName;
 import netscape.security.x509.CertificateSubjectName;
 import netscape.security.x509.CertificateVersion;
+import netscape.security.x509.RevokedCertificate;
 import netscape.security.x509.X500Name;
 import netscape.security.x509.X509CRLImpl;
+import netscape.security.x509.X509CRLStreamWriter;
 import netscape.security.x509.X509CertImpl;
 import netscape.security.x509.X509CertInfo;
 
@@ -427,6 +434,41 @@ public interface ICertificateAuthority extends ISubsystem {
     public X509CRLImpl sign(X509CRLImpl crl, String algname)
             throws EBaseException;
 
+    /**
+     * Encodes and signs a CRL from the given revoked entries
+     * without building it in memory.
+     *
+     * @param crl streaming CRL writer
+     * @param entries revoked entries in the order they appear in the CRL
+     * @param out stream receiving the signed CRL
+     * @param algname algorithm used for signing
+     * @return size of the signed CRL in bytes
+     * @exception EBaseException failed to sign CRL
+     */
+    public long sign(X509CRLStreamWriter crl,
+            Iterator<? extends RevokedCertificate> entries,
+            OutputStream out, String algname)
+            throws EBaseException;
+
+    /**
+     * Encodes and signs a CRL by applying changes to the revoked
+     * entries of a previous CRL, without building it in memory.
+     *
+     * @param crl streaming CRL writer
+     * @param previousEntries sorted entries file kept from a previous CRL
+     * @param changes new or updated entries by serial number, null values
+     *            for removed entries
+     * @param out stream receiving the signed CRL
+     * @param algname algorithm used for signing
+     * @return size of the signed CRL in bytes
+     * @exception EBaseException failed to sign CRL
+     */
+    public long sign(X509CRLStreamWriter crl,
+            File previousEntries,
+            SortedMap<BigInteger, ? extends RevokedCertificate> changes,
+            OutputStream out, String algname)
+            throws EBaseException;
+
     /**
      * Logs a message to this certificate authority.
      *
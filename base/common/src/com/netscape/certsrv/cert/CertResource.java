@@ -24,7 +24,8 @@ public interface CertResource {
             @QueryParam("maxResults") Integer maxResults,
             @QueryParam("maxTime") Integer maxTime,
             @QueryParam("start") Integer start,
-            @QueryParam("size") Integer size);
+            @QueryParam("size") Integer size,
+            @QueryParam("after") CertId after);
 
     @POST
     @Path("certs/search")
@@ -76,6 +76,7 @@ public interface ICertRecord extends IDBObj {
     public final static String X509CERT_SUBJECT = "subject";
     public final static String X509CERT_ISSUER = "issuer";
     public final static String X509CERT_PUBLIC_KEY_DATA = "publicKeyData";
+    public final static String X509CERT_PUBLIC_KEY_FINGERPRINT = "publicKeyFingerprint";
     public final static String X509CERT_VERSION = "version";
     public final static String X509CERT_ALGORITHM = "algorithm";
     public final static String X509CERT_SIGNING_ALGORITHM = "signingAlgorithm";
@@ -104,6 +105,8 @@ public interface ICertRecord extends IDBObj {
             ATTR_X509CERT + "." + X509CERT_SERIAL_NUMBER;
     public final static String ATTR_X509CERT_PUBLIC_KEY_DATA =
             ATTR_X509CERT + "." + X509CERT_PUBLIC_KEY_DATA;
+    public final static String ATTR_X509CERT_PUBLIC_KEY_FINGERPRINT =
+            ATTR_X509CERT + "." + X509CERT_PUBLIC_KEY_FINGERPRINT;
 
     /**
      * Retrieves serial number from stored certificate.
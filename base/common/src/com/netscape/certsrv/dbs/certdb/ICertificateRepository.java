@@ -22,6 +22,7 @@ import java.security.cert.Certificate;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
 
 import netscape.ldap.LDAPEntry;
 import netscape.security.x509.X509CertImpl;
@@ -266,7 +267,9 @@ public interface ICertificateRepository extends IRepository {
      * the filter.
      *
      * @param filter search filter
-     * @param attrs selected attribute
+     * @param attrs selected attribute; if the certificate is not
+     *            selected, notBefore and notAfter can be selected to
+     *            retrieve its validity without fetching the certificate
      * @param pageSize page size
      * @return a list of certificates
      * @exception EBaseException failed to search
@@ -325,6 +328,17 @@ public interface ICertificateRepository extends IRepository {
             String attrs[], String jumpTo, String sortKey, int pageSize)
             throws EBaseException;
 
+    /**
+     * Finds the certificate records with the given public key.
+     *
+     * @param publicKey encoded public key (SubjectPublicKeyInfo)
+     * @param pageSize page size
+     * @return certificate records, or an empty list
+     * @exception EBaseException failed to search
+     */
+    public List<ICertRecord> findCertRecordsByPublicKey(byte[] publicKey,
+            int pageSize) throws EBaseException;
+
     public static final int ALL_CERTS = 0;
     public static final int ALL_VALID_CERTS = 1;
     public static final int ALL_UNREVOKED_CERTS = 2;
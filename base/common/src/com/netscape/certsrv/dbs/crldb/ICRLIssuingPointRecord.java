@@ -20,8 +20,10 @@ package com.netscape.certsrv.dbs.crldb;
 import java.math.BigInteger;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.Map;
 
 import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
 
 import com.netscape.certsrv.dbs.IDBObj;
 
@@ -132,12 +134,21 @@ public interface ICRLIssuingPointRecord extends IDBObj {
     /**
      * Retrieves cache information about CRL.
      *
-     * @return list of recently revoked certificates
+     * @return list of recently revoked certificates, not to be modified
      */
-    public Hashtable<BigInteger, RevokedCertificate> getCRLCacheNoClone();
+    public Map<BigInteger, RevokedCertificate> getCRLCacheNoClone();
 
     public Hashtable<BigInteger, RevokedCertificate> getCRLCache();
 
+    /**
+     * Retrieves a compact, lock-free index of the CRL cache.
+     * Once built, the index replaces the cache in this record;
+     * the cache is rebuilt from the index only if requested again.
+     *
+     * @return index of the cached CRL entries, or null if there is no cache
+     */
+    public RevokedSerialIndex getRevokedSerialIndex();
+
     /**
      * Retrieves cache information about revoked certificates.
      *
@@ -38,6 +38,13 @@ public interface ILogEvent extends Serializable {
      */
     public long getTimeStamp();
 
+    /**
+     * Retrieves the name of the thread which created the event.
+     *
+     * @return String containing the thread name.
+     */
+    public String getThreadName();
+
     /**
      * Retrieves log source.
      * This is the subsystem responsible
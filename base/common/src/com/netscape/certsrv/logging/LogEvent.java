@@ -36,6 +36,7 @@ public class LogEvent implements ILogEvent {
     LogSource mSource;
     boolean mMultiline = false;
     long mTimeStamp = System.currentTimeMillis();
+    String mThreadName = Thread.currentThread().getName();
 
     public LogEvent() {
     }
@@ -262,6 +263,15 @@ public class LogEvent implements ILogEvent {
         return mTimeStamp;
     }
 
+    /**
+     * Retrieves the name of the thread which created the event.
+     *
+     * @return String containing the thread name.
+     */
+    public String getThreadName() {
+        return mThreadName;
+    }
+
     /**
      * Retrieves log event type. Each type of event
      * has an associated String type value.
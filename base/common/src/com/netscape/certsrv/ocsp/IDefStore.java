@@ -91,6 +91,16 @@ public interface IDefStore extends IOCSPStore {
      */
     public void updateCRL(X509CRL crl) throws EBaseException;
 
+    /**
+     * This method applies a delta CRL to the CRL cache of the
+     * issuing point whose current CRL is the base of the delta CRL.
+     * <P>
+     *
+     * @param crl the delta CRL
+     * @exception EBaseException occurs when the delta CRL cannot be applied
+     */
+    public void updateDeltaCRL(X509CRL crl) throws EBaseException;
+
     /**
      * This method attempts to read the CRL issuing point.
      * <P>
@@ -17,6 +17,8 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.certsrv.ocsp;
 
+import java.util.Map;
+
 import org.mozilla.jss.asn1.OBJECT_IDENTIFIER;
 
 import com.netscape.certsrv.base.EBaseException;
@@ -43,6 +45,8 @@ public interface IOCSPAuthority extends ISubsystem {
     public final static String PROP_DEF_STORE_ID = "storeId";
     public final static String PROP_STORE = "store";
     public final static String PROP_SIGNING_SUBSTORE = "signing";
+    public final static String PROP_SIGNING_THREADS = "threads";
+    public final static String PROP_SIGNING_BATCH_SIZE = "batchSize";
     public static final String PROP_NICKNAME = "certNickname";
     public final static String PROP_NEW_NICKNAME = "newNickname";
 
@@ -153,6 +157,51 @@ public interface IOCSPAuthority extends ISubsystem {
     public BasicOCSPResponse sign(ResponseData rd)
             throws EBaseException;
 
+    /**
+     * Returns the number of responses waiting for a signing thread.
+     * Always 0 unless a signing thread pool is configured.
+     */
+    public long getSigningQueueDepth();
+
+    /**
+     * Returns the highest number of responses that have been waiting
+     * for a signing thread at the same time.
+     */
+    public long getMaxSigningQueueDepth();
+
+    /**
+     * Returns the number of batches processed by the signing threads.
+     */
+    public long getSigningBatches();
+
+    /**
+     * Returns the average time (in ms) a response spends in the signing
+     * queue, including the signing itself.
+     */
+    public long getSigningLatency();
+
+    /**
+     * Returns the percentage of time the signing threads have been busy.
+     */
+    public long getSigningUtilization();
+
+    /**
+     * Returns the request statistics of the whole responder.
+     */
+    public OCSPStats getStats();
+
+    /**
+     * Returns the request statistics of an issuer, created on first use.
+     *
+     * @param issuerID CRL issuing point ID of the issuer
+     */
+    public OCSPStats getIssuerStats(String issuerID);
+
+    /**
+     * Returns the request statistics of all issuers by issuing point ID.
+     */
+    public Map<String, OCSPStats> getAllIssuerStats();
+
     public void incTotalTime(long inc);
 
     public void incSignTime(long inc);
@@ -0,0 +1,91 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.certsrv.ocsp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.netscape.cmsutil.util.LatencyHistogram;
+
+/**
+ * OCSP request statistics of the whole responder or of one issuer.
+ * All counters can be updated concurrently without locking.
+ */
+public class OCSPStats {
+
+    public final static String LOOKUP = "lookup";
+    public final static String SIGN = "sign";
+    public final static String ENCODE = "encode";
+    public final static String TOTAL = "total";
+
+    public final static String[] TIMERS = { LOOKUP, SIGN, ENCODE, TOTAL };
+
+    private LongAdder requests = new LongAdder();
+    private LongAdder data = new LongAdder();
+
+    private LatencyHistogram lookup = new LatencyHistogram();
+    private LatencyHistogram sign = new LatencyHistogram();
+    private LatencyHistogram encode = new LatencyHistogram();
+    private LatencyHistogram total = new LatencyHistogram();
+
+    public void incRequests(long inc) {
+        requests.add(inc);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public void incData(long inc) {
+        data.add(inc);
+    }
+
+    public long getData() {
+        return data.sum();
+    }
+
+    /**
+     * Returns one of the latency histograms.
+     *
+     * @param name LOOKUP, SIGN, ENCODE or TOTAL
+     * @return the histogram, or null if the name is unknown
+     */
+    public LatencyHistogram getTimer(String name) {
+        if (LOOKUP.equals(name))
+            return lookup;
+        if (SIGN.equals(name))
+            return sign;
+        if (ENCODE.equals(name))
+            return encode;
+        if (TOTAL.equals(name))
+            return total;
+        return null;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param name LOOKUP, SIGN, ENCODE or TOTAL
+     * @param micros latency in microseconds
+     */
+    public void record(String name, long micros) {
+        LatencyHistogram timer = getTimer(name);
+        if (timer != null) {
+            timer.record(micros);
+        }
+    }
+}
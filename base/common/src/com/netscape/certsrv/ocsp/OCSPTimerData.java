@@ -0,0 +1,126 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.certsrv.ocsp;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.netscape.cmsutil.util.LatencyHistogram;
+
+/**
+ * Summary of an OCSP latency histogram. Latencies are in microseconds.
+ */
+@XmlRootElement(name="Timer")
+public class OCSPTimerData {
+
+    String name;
+    long count;
+    long total;
+    long mean;
+    long max;
+    long p50;
+    long p90;
+    long p99;
+
+    public OCSPTimerData() {
+    }
+
+    public OCSPTimerData(String name, LatencyHistogram histogram) {
+        this.name = name;
+        count = histogram.getCount();
+        total = histogram.getTotal();
+        mean = histogram.getMean();
+        max = histogram.getMax();
+        p50 = histogram.getPercentile(50);
+        p90 = histogram.getPercentile(90);
+        p99 = histogram.getPercentile(99);
+    }
+
+    @XmlAttribute(name="name")
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @XmlElement(name="Count")
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    @XmlElement(name="Total")
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    @XmlElement(name="Mean")
+    public long getMean() {
+        return mean;
+    }
+
+    public void setMean(long mean) {
+        this.mean = mean;
+    }
+
+    @XmlElement(name="Max")
+    public long getMax() {
+        return max;
+    }
+
+    public void setMax(long max) {
+        this.max = max;
+    }
+
+    @XmlElement(name="P50")
+    public long getP50() {
+        return p50;
+    }
+
+    public void setP50(long p50) {
+        this.p50 = p50;
+    }
+
+    @XmlElement(name="P90")
+    public long getP90() {
+        return p90;
+    }
+
+    public void setP90(long p90) {
+        this.p90 = p90;
+    }
+
+    @XmlElement(name="P99")
+    public long getP99() {
+        return p99;
+    }
+
+    public void setP99(long p99) {
+        this.p99 = p99;
+    }
+}
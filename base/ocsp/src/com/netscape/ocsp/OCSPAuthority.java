@@ -24,8 +24,11 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mozilla.jss.CryptoManager;
 import org.mozilla.jss.asn1.ASN1Util;
@@ -45,6 +48,7 @@ import com.netscape.certsrv.logging.event.OCSPSigningInfoEvent;
 import com.netscape.certsrv.ocsp.IDefStore;
 import com.netscape.certsrv.ocsp.IOCSPAuthority;
 import com.netscape.certsrv.ocsp.IOCSPService;
+import com.netscape.certsrv.ocsp.OCSPStats;
 import com.netscape.certsrv.ocsp.IOCSPStore;
 import com.netscape.certsrv.request.IRequestListener;
 import com.netscape.certsrv.request.IRequestQueue;
@@ -89,6 +93,7 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
     private String mId = "ocsp";
     private IConfigStore mConfig = null;
     private SigningUnit mSigningUnit;
+    private SigningQueue mSigningQueue;
     private CertificateChain mCertChain = null;
     private X509CertImpl mCert = null;
     private X500Name mName = null;
@@ -96,11 +101,8 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
     private String[] mOCSPSigningAlgorithms = null;
     private IOCSPStore mDefStore = null;
 
-    public long mNumOCSPRequest = 0;
-    public long mTotalTime = 0;
-    public long mTotalData = 0;
-    public long mSignTime = 0;
-    public long mLookupTime = 0;
+    private OCSPStats mStats = new OCSPStats();
+    private ConcurrentHashMap<String, OCSPStats> mIssuerStats = new ConcurrentHashMap<String, OCSPStats>();
 
     protected Logger systemLogger = Logger.getLogger(ILogger.EV_SYSTEM, ILogger.S_OCSP);
     protected Logger transactionLogger = Logger.getLogger(ILogger.EV_AUDIT, ILogger.S_OCSP);
@@ -292,6 +294,18 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
             mSigningUnit.init(this, mConfig.getSubStore(PROP_SIGNING_SUBSTORE));
             CMS.debug("OCSP signing unit inited");
 
+            // optional pool of signing threads, disabled by default
+            IConfigStore signingConfig = mConfig.getSubStore(PROP_SIGNING_SUBSTORE);
+            int threads = signingConfig.getInteger(PROP_SIGNING_THREADS, 0);
+            if (threads < 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            if (threads > 0) {
+                int batchSize = signingConfig.getInteger(PROP_SIGNING_BATCH_SIZE, 32);
+                mSigningQueue = new SigningQueue(mSigningUnit, threads, batchSize);
+                mSigningQueue.start();
+            }
+
             // init cert chain
             CryptoManager manager = CryptoManager.getInstance();
             org.mozilla.jss.crypto.X509Certificate[] chain =
@@ -371,6 +385,10 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
      * <P>
      */
     public void shutdown() {
+        if (mSigningQueue != null) {
+            mSigningQueue.shutdown();
+            mSigningQueue = null;
+        }
     }
 
     /**
@@ -419,14 +437,19 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
 
             byte rd_data[] = ASN1Util.encode(rd);
             if (rd_data != null) {
-                mTotalData += rd_data.length;
+                mStats.incData(rd_data.length);
             }
 
             rd.encode(tmp);
             AlgorithmId.get(algname).encode(tmp);
 
             CMS.debug("OCSPAuthority: adding signature");
-            byte[] signature = mSigningUnit.sign(rd_data, algname);
+            byte[] signature;
+            if (mSigningQueue != null) {
+                signature = mSigningQueue.sign(rd_data, algname);
+            } else {
+                signature = mSigningUnit.sign(rd_data, algname);
+            }
 
             tmp.putBitString(signature);
             // XXX - optional, put the certificate chains in also
@@ -570,7 +593,7 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
      * @return number of processed OCSP requests in memory
      */
     public long getNumOCSPRequest() {
-        return mNumOCSPRequest;
+        return mStats.getRequests();
     }
 
     /**
@@ -580,7 +603,7 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
      * @return processed times for OCSP requests
      */
     public long getOCSPRequestTotalTime() {
-        return mTotalTime;
+        return mStats.getTimer(OCSPStats.TOTAL).getTotal() / 1000;
     }
 
     /**
@@ -590,11 +613,11 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
      * @return processed times for OCSP requests
      */
     public long getOCSPTotalSignTime() {
-        return mSignTime;
+        return mStats.getTimer(OCSPStats.SIGN).getTotal() / 1000;
     }
 
     public long getOCSPTotalLookupTime() {
-        return mLookupTime;
+        return mStats.getTimer(OCSPStats.LOOKUP).getTotal() / 1000;
     }
 
     /**
@@ -604,22 +627,62 @@ public class OCSPAuthority implements IOCSPAuthority, IOCSPService, ISubsystem,
      * @return processed times for OCSP requests
      */
     public long getOCSPTotalData() {
-        return mTotalData;
+        return mStats.getData();
+    }
+
+    public OCSPStats getStats() {
+        return mStats;
+    }
+
+    public OCSPStats getIssuerStats(String issuerID) {
+        OCSPStats stats = mIssuerStats.get(issuerID);
+        if (stats == null) {
+            OCSPStats newStats = new OCSPStats();
+            stats = mIssuerStats.putIfAbsent(issuerID, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    public Map<String, OCSPStats> getAllIssuerStats() {
+        return Collections.unmodifiableMap(mIssuerStats);
+    }
+
+    public long getSigningQueueDepth() {
+        return mSigningQueue == null ? 0 : mSigningQueue.getQueueDepth();
+    }
+
+    public long getMaxSigningQueueDepth() {
+        return mSigningQueue == null ? 0 : mSigningQueue.getMaxQueueDepth();
+    }
+
+    public long getSigningBatches() {
+        return mSigningQueue == null ? 0 : mSigningQueue.getNumBatches();
+    }
+
+    public long getSigningLatency() {
+        return mSigningQueue == null ? 0 : mSigningQueue.getAverageLatency();
+    }
+
+    public long getSigningUtilization() {
+        return mSigningQueue == null ? 0 : mSigningQueue.getUtilization();
     }
 
     public void incTotalTime(long inc) {
-        mTotalTime += inc;
+        mStats.record(OCSPStats.TOTAL, inc * 1000);
     }
 
     public void incSignTime(long inc) {
-        mSignTime += inc;
+        mStats.record(OCSPStats.SIGN, inc * 1000);
     }
 
     public void incLookupTime(long inc) {
-        mLookupTime += inc;
+        mStats.record(OCSPStats.LOOKUP, inc * 1000);
     }
 
     public void incNumOCSPRequest(long inc) {
-        mNumOCSPRequest += inc;
+        mStats.incRequests(inc);
     }
 }
@@ -0,0 +1,293 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.ocsp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.mozilla.jss.crypto.PrivateKey;
+import org.mozilla.jss.crypto.Signature;
+
+import com.netscape.certsrv.apps.CMS;
+import com.netscape.certsrv.base.EBaseException;
+
+/**
+ * Signs OCSP responses on a pool of worker threads.
+ * <p>
+ * Servlet threads queue the data to be signed and wait for the
+ * signature. Each worker owns its own signature contexts on the
+ * signing token, so the number of workers should match the number
+ * of signing operations the token can run in parallel. A worker
+ * drains all queued requests (up to the batch size) at once and
+ * signs them back to back without going back to the queue.
+ */
+public class SigningQueue {
+
+    private SigningUnit mSigningUnit;
+    private int mBatchSize;
+
+    private LinkedBlockingQueue<SigningTask> mQueue = new LinkedBlockingQueue<SigningTask>();
+    private SigningWorker[] mWorkers;
+    private volatile boolean mRunning;
+
+    private long mStartTime;
+    private AtomicLong mMaxQueueDepth = new AtomicLong();
+    private AtomicLong mNumSigned = new AtomicLong();
+    private AtomicLong mNumBatches = new AtomicLong();
+    private AtomicLong mTotalLatency = new AtomicLong();
+    private AtomicLongArray mBusyTime;
+
+    public SigningQueue(SigningUnit signingUnit, int threads, int batchSize) {
+        mSigningUnit = signingUnit;
+        mBatchSize = batchSize > 0 ? batchSize : 1;
+        mWorkers = new SigningWorker[threads];
+        mBusyTime = new AtomicLongArray(threads);
+    }
+
+    public void start() {
+        CMS.debug("SigningQueue: starting " + mWorkers.length + " signing threads");
+
+        mRunning = true;
+        mStartTime = System.currentTimeMillis();
+
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new SigningWorker(i);
+            mWorkers[i].start();
+        }
+    }
+
+    public void shutdown() {
+        CMS.debug("SigningQueue: stopping signing threads");
+
+        mRunning = false;
+
+        for (SigningWorker worker : mWorkers) {
+            if (worker != null)
+                worker.interrupt();
+        }
+
+        // fail the requests that will not be picked up anymore
+        List<SigningTask> tasks = new ArrayList<SigningTask>();
+        mQueue.drainTo(tasks);
+
+        for (SigningTask task : tasks) {
+            task.fail(new EOCSPException("OCSP signing queue stopped"));
+        }
+    }
+
+    /**
+     * Queues the data for signing and waits for the signature.
+     *
+     * @param algname is expected to be one of JCA's algorithm names.
+     */
+    public byte[] sign(byte[] data, String algname) throws EBaseException {
+
+        if (!mRunning) {
+            throw new EOCSPException("OCSP signing queue stopped");
+        }
+
+        SigningTask task = new SigningTask(data, algname);
+        mQueue.add(task);
+
+        // shutdown() may have drained the queue before the task was added
+        if (!mRunning && mQueue.remove(task)) {
+            throw new EOCSPException("OCSP signing queue stopped");
+        }
+
+        long depth = mQueue.size();
+        long max = mMaxQueueDepth.get();
+        while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth)) {
+            max = mMaxQueueDepth.get();
+        }
+
+        try {
+            task.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EOCSPException("Interrupted while waiting for OCSP signature", e);
+        }
+
+        if (task.exception != null) {
+            throw task.exception;
+        }
+
+        return task.signature;
+    }
+
+    /**
+     * Returns the number of requests waiting for a signing thread.
+     */
+    public long getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Returns the highest number of requests that have been waiting
+     * for a signing thread at the same time.
+     */
+    public long getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of batches taken from the queue.
+     */
+    public long getNumBatches() {
+        return mNumBatches.get();
+    }
+
+    /**
+     * Returns the average time (in ms) between queuing a request and
+     * getting its signature.
+     */
+    public long getAverageLatency() {
+        long count = mNumSigned.get();
+        if (count == 0)
+            return 0;
+        return mTotalLatency.get() / count / 1000000;
+    }
+
+    /**
+     * Returns the percentage of time the signing threads have spent
+     * signing since the queue was started.
+     */
+    public long getUtilization() {
+        long elapsed = (System.currentTimeMillis() - mStartTime) * 1000000 * mWorkers.length;
+        if (elapsed <= 0)
+            return 0;
+
+        long busy = 0;
+        for (int i = 0; i < mBusyTime.length(); i++) {
+            busy += mBusyTime.get(i);
+        }
+
+        return busy * 100 / elapsed;
+    }
+
+    class SigningTask {
+
+        byte[] data;
+        String algname;
+        long queued = System.nanoTime();
+
+        byte[] signature;
+        EBaseException exception;
+        CountDownLatch done = new CountDownLatch(1);
+
+        SigningTask(byte[] data, String algname) {
+            this.data = data;
+            this.algname = algname;
+        }
+
+        void complete(byte[] signature) {
+            this.signature = signature;
+            done.countDown();
+        }
+
+        void fail(EBaseException exception) {
+            this.exception = exception;
+            done.countDown();
+        }
+    }
+
+    class SigningWorker extends Thread {
+
+        int index;
+
+        // signature contexts by algorithm, only used by this thread
+        Map<String, Signature> signers = new HashMap<String, Signature>();
+
+        // signing key of the cached contexts
+        PrivateKey key;
+
+        SigningWorker(int index) {
+            super("OCSPSigningThread-" + index);
+            this.index = index;
+            setDaemon(true);
+        }
+
+        public void run() {
+
+            List<SigningTask> batch = new ArrayList<SigningTask>(mBatchSize);
+
+            while (mRunning) {
+                try {
+                    batch.add(mQueue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                mQueue.drainTo(batch, mBatchSize - 1);
+                mNumBatches.incrementAndGet();
+
+                long start = System.nanoTime();
+
+                for (SigningTask task : batch) {
+                    try {
+                        task.complete(sign(task));
+                    } catch (EBaseException e) {
+                        task.fail(e);
+                    } catch (RuntimeException e) {
+                        task.fail(new EOCSPException(e.toString(), e));
+                    }
+
+                    mNumSigned.incrementAndGet();
+                    mTotalLatency.addAndGet(System.nanoTime() - task.queued);
+                }
+
+                mBusyTime.addAndGet(index, System.nanoTime() - start);
+                batch.clear();
+            }
+
+            signers.clear();
+        }
+
+        byte[] sign(SigningTask task) throws EBaseException {
+
+            // the signing unit may have been initialized with a new key
+            PrivateKey privateKey = mSigningUnit.getPrivateKey();
+            if (privateKey != key) {
+                signers.clear();
+                key = privateKey;
+            }
+
+            String algname = task.algname == null ? "" : task.algname;
+
+            Signature signer = signers.get(algname);
+            if (signer == null) {
+                signer = mSigningUnit.getSignatureContext(task.algname);
+                signers.put(algname, signer);
+            }
+
+            try {
+                return mSigningUnit.sign(signer, task.data);
+
+            } catch (EBaseException e) {
+                // the context may be in an unknown state, get a new one next time
+                signers.remove(algname);
+                throw e;
+            }
+        }
+    }
+}
@@ -64,7 +64,7 @@ public final class SigningUnit implements ISigningUnit {
     private CryptoManager mManager = null;
     private CryptoToken mToken = null;
     private PublicKey mPubk = null;
-    private PrivateKey mPrivk = null;
+    private volatile PrivateKey mPrivk = null;
 
     protected X509Certificate mCert = null;
     protected X509CertImpl mCertImpl = null;
@@ -281,6 +281,62 @@ public final class SigningUnit implements ISigningUnit {
         }
     }
 
+    /**
+     * Returns a new signature context initialized with the signing key.
+     * The context is reset after each signature, so the caller may keep
+     * it to sign more data, but it must not be shared between threads.
+     *
+     * @param algname is expected to be one of JCA's algorithm names.
+     */
+    public Signature getSignatureContext(String algname)
+            throws EBaseException {
+        if (!mInited) {
+            throw new EBaseException("OCSPSigningUnit not initialized!");
+        }
+        try {
+            SignatureAlgorithm signAlg = mDefSigningAlgorithm;
+
+            if (algname != null) {
+                signAlg = checkSigningAlgorithmFromName(algname);
+            }
+
+            CMS.debug("Getting algorithm context for " + algname + " " + signAlg);
+            Signature signer = mToken.getSignatureContext(signAlg);
+
+            signer.initSign(mPrivk);
+            return signer;
+        } catch (NoSuchAlgorithmException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            throw new EOCSPException(CMS.getUserMessage("CMS_BASE_INTERNAL_ERROR", e.toString()), e);
+        } catch (TokenException e) {
+            // from get signature context or from initSign
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            throw new EOCSPException(CMS.getUserMessage("CMS_BASE_INTERNAL_ERROR", e.toString()), e);
+        } catch (InvalidKeyException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            throw new EOCSPException(CMS.getUserMessage("CMS_BASE_INTERNAL_ERROR", e.toString()), e);
+        }
+    }
+
+    /**
+     * Signs data with a context returned by getSignatureContext().
+     */
+    public byte[] sign(Signature signer, byte[] data)
+            throws EBaseException {
+        try {
+            signer.update(data);
+            CMS.debug("Signing OCSP Response");
+            return signer.sign();
+        } catch (TokenException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            throw new EOCSPException(CMS.getUserMessage("CMS_BASE_INTERNAL_ERROR", e.toString()), e);
+        } catch (SignatureException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OPERATION_ERROR", e.toString()));
+            CMS.checkForAndAutoShutdown();
+            throw new EOCSPException(CMS.getUserMessage("CMS_BASE_INTERNAL_ERROR", e.toString()), e);
+        }
+    }
+
     public boolean verify(byte[] data, byte[] signature, String algname)
             throws EBaseException {
         if (!mInited) {
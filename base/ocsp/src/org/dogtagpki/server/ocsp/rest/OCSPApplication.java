@@ -53,6 +53,9 @@ public class OCSPApplication extends Application {
         // selftests
         classes.add(SelfTestService.class);
 
+        // statistics
+        classes.add(OCSPStatsService.class);
+
         // user and group management
         classes.add(GroupService.class);
         classes.add(UserService.class);
@@ -0,0 +1,82 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package org.dogtagpki.server.ocsp.rest;
+
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+import com.netscape.certsrv.apps.CMS;
+import com.netscape.certsrv.base.BadRequestException;
+import com.netscape.certsrv.base.ResourceNotFoundException;
+import com.netscape.certsrv.ocsp.IOCSPAuthority;
+import com.netscape.certsrv.ocsp.OCSPStats;
+import com.netscape.certsrv.ocsp.OCSPStatsCollection;
+import com.netscape.certsrv.ocsp.OCSPStatsData;
+import com.netscape.certsrv.ocsp.OCSPStatsResource;
+import com.netscape.cms.servlet.base.PKIService;
+
+/**
+ * Exports the OCSP request statistics. Latencies are in microseconds.
+ */
+public class OCSPStatsService extends PKIService implements OCSPStatsResource {
+
+    public IOCSPAuthority getOCSPAuthority() {
+        return (IOCSPAuthority) CMS.getSubsystem(IOCSPAuthority.ID);
+    }
+
+    @Override
+    public Response getStats() {
+
+        CMS.debug("OCSPStatsService.getStats()");
+
+        OCSPStatsData data = new OCSPStatsData(null, getOCSPAuthority().getStats());
+        return createOKResponse(data);
+    }
+
+    @Override
+    public Response findIssuerStats() {
+
+        CMS.debug("OCSPStatsService.findIssuerStats()");
+
+        OCSPStatsCollection response = new OCSPStatsCollection();
+
+        for (Map.Entry<String, OCSPStats> entry : getOCSPAuthority().getAllIssuerStats().entrySet()) {
+            response.addEntry(new OCSPStatsData(entry.getKey(), entry.getValue()));
+        }
+
+        response.setTotal(response.getEntries().size());
+
+        return createOKResponse(response);
+    }
+
+    @Override
+    public Response getIssuerStats(String issuerID) {
+
+        if (issuerID == null) throw new BadRequestException("Issuer ID is null.");
+
+        CMS.debug("OCSPStatsService.getIssuerStats(\"" + issuerID + "\")");
+
+        OCSPStats stats = getOCSPAuthority().getAllIssuerStats().get(issuerID);
+        if (stats == null) {
+            throw new ResourceNotFoundException("No statistics for issuer " + issuerID);
+        }
+
+        return createOKResponse(new OCSPStatsData(issuerID, stats));
+    }
+}
@@ -17,6 +17,7 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cms.authorization;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Locale;
@@ -72,6 +73,13 @@ public abstract class AAclAuthz implements IAuthzManager {
 
     protected static final String ACLS_ATTR = "aclResources";
 
+    protected static final String PROP_DECISION_CACHE_SIZE = "authz.decisionCacheSize";
+    protected static final int DEFAULT_DECISION_CACHE_SIZE = 1000;
+
+    private static final Object GRANTED = "granted";
+    private static final Object DENIED = "denied";
+    private static final Object NOT_PERMITTED = "not permitted";
+
     /* name of this authorization manager instance */
     private String mName = null;
 
@@ -81,9 +89,16 @@ public abstract class AAclAuthz implements IAuthzManager {
     private IConfigStore mConfig = null;
 
     private Hashtable<String, ACL> mACLs = new Hashtable<String, ACL>();
-    private Hashtable<String, IAccessEvaluator> mEvaluators = new Hashtable<String, IAccessEvaluator>();
+    private Hashtable<String, IAccessEvaluator> mEvaluators = new EvaluatorTable();
     private ILogger mLogger = null;
 
+    /* ACLs with parsed expressions, compiled on demand after a change */
+    private volatile CompiledACLs mCompiledACLs = null;
+    private Object mCompiledACLsLock = new Object();
+
+    /* maximum number of cached decisions, 0 to disable the cache */
+    private int mDecisionCacheSize = DEFAULT_DECISION_CACHE_SIZE;
+
     /* Vector of extendedPluginInfo strings */
     protected static Vector<String> mExtendedPluginInfo = null;
 
@@ -112,6 +127,7 @@ public abstract class AAclAuthz implements IAuthzManager {
 
         // load access evaluators specified in the config file
         IConfigStore mainConfig = CMS.getConfigStore();
+        mDecisionCacheSize = mainConfig.getInteger(PROP_DECISION_CACHE_SIZE, DEFAULT_DECISION_CACHE_SIZE);
         IConfigStore evalConfig = mainConfig.getSubStore(PROP_EVAL);
         IConfigStore i = evalConfig.getSubStore(PROP_IMPL);
 
@@ -196,6 +212,7 @@ public abstract class AAclAuthz implements IAuthzManager {
                     curACL.addRight(rights.nextElement());
                 }
             }
+            invalidateACLs();
         } else {
             log(ILogger.LL_FAILURE, "parseACL failed");
         }
@@ -256,6 +273,35 @@ public abstract class AAclAuthz implements IAuthzManager {
         log(ILogger.LL_INFO, type + " evaluator registered");
     }
 
+    /**
+     * Discards the compiled ACLs and the cached decisions. Must be
+     * called after the ACLs are modified.
+     */
+    protected void invalidateACLs() {
+        synchronized (mCompiledACLsLock) {
+            mCompiledACLs = null;
+        }
+    }
+
+    /**
+     * Returns the compiled ACLs, compiling them if they have changed.
+     */
+    protected CompiledACLs getCompiledACLs() {
+
+        CompiledACLs compiledACLs = mCompiledACLs;
+        if (compiledACLs != null) {
+            return compiledACLs;
+        }
+
+        synchronized (mCompiledACLsLock) {
+            if (mCompiledACLs == null) {
+                CMS.debug("AAclAuthz: compiling ACLs");
+                mCompiledACLs = new CompiledACLs(mACLs.values(), mEvaluators);
+            }
+            return mCompiledACLs;
+        }
+    }
+
     /*******************************************************
      * with session context
      *******************************************************/
@@ -504,53 +550,30 @@ public abstract class AAclAuthz implements IAuthzManager {
      * @param perm permission requested
      * @exception EACLsException access permission denied
      */
-    public synchronized void checkPermission(IAuthToken authToken, String name,
+    public void checkPermission(IAuthToken authToken, String name,
             String perm)
             throws EACLsException {
 
         CMS.debug("AAclAuthz.checkPermission(" + name + ", " + perm + ")");
 
-        Vector<String> nodev = getNodes(name);
-        Enumeration<String> nodes = nodev.elements();
+        CompiledACLs compiledACLs = getCompiledACLs();
         String order = getOrder();
-        Enumeration<ACLEntry> entries = null;
-
-        if (order.equals("deny")) {
-            entries = getDenyEntries(nodes, perm);
-        } else {
-            entries = getAllowEntries(nodes, perm);
-        }
-
-        while (entries.hasMoreElements()) {
-            ACLEntry entry = entries.nextElement();
+        String key = getDecisionKey(authToken, order, name, perm);
 
-            CMS.debug("checkPermission(): expressions: " + entry.getAttributeExpressions());
-            if (evaluateExpressions(authToken, entry.getAttributeExpressions())) {
-                log(ILogger.LL_SECURITY, "checkPermission(): permission denied");
-                throw new EACLsException(CMS.getUserMessage("CMS_ACL_PERMISSION_DENIED"));
-            }
-        }
+        Object decision = key == null ? null : compiledACLs.getDecision(key);
 
-        nodes = nodev.elements();
-        if (order.equals("deny")) {
-            entries = getAllowEntries(nodes, perm);
+        if (decision == null) {
+            decision = checkACLs(compiledACLs, authToken, order, name, perm, key);
         } else {
-            entries = getDenyEntries(nodes, perm);
+            CMS.debug("checkPermission(): cached decision: " + decision);
         }
 
-        boolean permitted = false;
-
-        while (entries.hasMoreElements()) {
-            ACLEntry entry = entries.nextElement();
-
-            CMS.debug("checkPermission(): expressions: " + entry.getAttributeExpressions());
-            if (evaluateExpressions(authToken, entry.getAttributeExpressions())) {
-                permitted = true;
-            }
+        if (decision == DENIED) {
+            log(ILogger.LL_SECURITY, "checkPermission(): permission denied");
+            throw new EACLsException(CMS.getUserMessage("CMS_ACL_PERMISSION_DENIED"));
         }
 
-        nodev = null;
-        if (!permitted) {
+        if (decision == NOT_PERMITTED) {
             String[] params = new String[2];
             params[0] = name;
             params[1] = perm;
@@ -567,6 +590,102 @@ public abstract class AAclAuthz implements IAuthzManager {
         log(ILogger.LL_INFO, infoMsg);
     }
 
+    /**
+     * Evaluates the ACL entries of a resource and its parents, and
+     * caches the decision if all evaluated expressions only depend on
+     * the user and the groups of the authentication token.
+     */
+    private Object checkACLs(CompiledACLs compiledACLs, IAuthToken authToken,
+            String order, String name, String perm, String key) {
+
+        Vector<String> nodes = getNodes(name);
+        boolean cacheable = key != null;
+        Object decision = null;
+
+        // with "deny" order the deny entries are checked first
+        boolean negative = order.equals("deny");
+
+        for (String node : nodes) {
+            for (CompiledACLs.CompiledEntry entry : compiledACLs.getEntries(node)) {
+                if (entry.isNegative() != negative || !entry.containPermission(perm))
+                    continue;
+
+                cacheable &= entry.getExpression().isCacheable();
+
+                CMS.debug("checkPermission(): expressions: " + entry.getAttributeExpressions());
+                if (evaluateExpressions(authToken, entry.getExpression())) {
+                    decision = DENIED;
+                    break;
+                }
+            }
+            if (decision != null)
+                break;
+        }
+
+        if (decision == null) {
+            boolean permitted = false;
+
+            for (String node : nodes) {
+                for (CompiledACLs.CompiledEntry entry : compiledACLs.getEntries(node)) {
+                    if (entry.isNegative() == negative || !entry.containPermission(perm))
+                        continue;
+
+                    cacheable &= entry.getExpression().isCacheable();
+
+                    CMS.debug("checkPermission(): expressions: " + entry.getAttributeExpressions());
+                    if (evaluateExpressions(authToken, entry.getExpression())) {
+                        permitted = true;
+                    }
+                }
+            }
+
+            decision = permitted ? GRANTED : NOT_PERMITTED;
+        }
+
+        if (cacheable) {
+            compiledACLs.putDecision(key, decision, mDecisionCacheSize);
+        }
+
+        return decision;
+    }
+
+    /**
+     * Returns the key of a decision in the decision cache, or null if
+     * the decision cannot be cached. The group evaluator only looks up
+     * the groups in the database if the token has none, so tokens
+     * without groups are not cached; since the groups are part of the
+     * key, a change of group membership is picked up with the next
+     * authentication.
+     */
+    private String getDecisionKey(IAuthToken authToken, String order, String name, String perm) {
+
+        if (mDecisionCacheSize <= 0 || authToken == null || name == null || perm == null)
+            return null;
+
+        String userID = authToken.getInString(IAuthToken.USER_ID);
+        String uid = authToken.getInString(IAuthToken.UID);
+        String[] groups = authToken.getInStringArray(IAuthToken.GROUPS);
+
+        if ((userID == null && uid == null) || groups == null)
+            return null;
+
+        groups = groups.clone();
+        Arrays.sort(groups);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(order).append('\n');
+        sb.append(userID).append('\n');
+        sb.append(uid).append('\n');
+        for (String group : groups) {
+            sb.append(group).append('\t');
+        }
+        sb.append('\n');
+        sb.append(name).append('\n');
+        sb.append(perm);
+
+        return sb.toString();
+    }
+
     protected Enumeration<ACLEntry> getAllowEntries(Enumeration<String> nodes, String operation) {
         String name = "";
         ACL acl = null;
@@ -624,67 +743,29 @@ public abstract class AAclAuthz implements IAuthzManager {
      * group="Administrators" || group="Operators"
      */
     private boolean evaluateExpressions(IAuthToken authToken, String s) {
-        // XXX - just handle "||" (or) among multiple expressions for now
-        // XXX - could use some optimization ... later
-        CMS.debug("evaluating expressions: " + s);
-
-        Vector<Object> v = new Vector<Object>();
-
-        while (s.length() > 0) {
-            int orIndex = s.indexOf("||");
-            int andIndex = s.indexOf("&&");
+        return evaluateExpressions(authToken, CompiledACLs.compile(s, mEvaluators));
+    }
 
-            // this is the last expression
-            if (orIndex == -1 && andIndex == -1) {
-                boolean passed = evaluateExpression(authToken, s.trim());
+    /**
+     * Resolves compiled expressions from left to right.
+     */
+    private boolean evaluateExpressions(IAuthToken authToken, CompiledACLs.Expression expression) {
+        CMS.debug("evaluating expressions: " + expression.getExpressions());
 
-                CMS.debug("evaluated expression: " + s.trim() + " to be " + passed);
-                v.addElement(Boolean.valueOf(passed));
-                break;
+        CompiledACLs.Term[] terms = expression.getTerms();
+        boolean left = false;
 
-                // || first
-            } else if (andIndex == -1 || (orIndex != -1 && orIndex < andIndex)) {
-                String s1 = s.substring(0, orIndex);
-                boolean passed = evaluateExpression(authToken, s1.trim());
+        for (int i = 0; i < terms.length; i++) {
+            boolean passed = evaluateExpression(authToken, terms[i]);
 
-                CMS.debug("evaluated expression: " + s1.trim() + " to be " + passed);
-                v.addElement(new Boolean(passed));
-                v.addElement("||");
-                s = s.substring(orIndex + 2);
-                // && first
+            CMS.debug("evaluated expression: " + terms[i].getExpression() + " to be " + passed);
+            if (i == 0) {
+                left = passed;
             } else {
-                String s1 = s.substring(0, andIndex);
-                boolean passed = evaluateExpression(authToken, s1.trim());
-
-                CMS.debug("evaluated expression: " + s1.trim() + " to be " + passed);
-                v.addElement(new Boolean(passed));
-                v.addElement("&&");
-                s = s.substring(andIndex + 2);
+                left = evaluateExp(left, expression.isAnd(i - 1) ? "&&" : "||", passed);
             }
         }
 
-        if (v.size() == 0) {
-            return false;
-        }
-
-        if (v.size() == 1) {
-            Boolean bool = (Boolean) v.remove(0);
-
-            return bool.booleanValue();
-        }
-
-        boolean left = false;
-        String op = "";
-        boolean right = false;
-
-        while (v.size() > 0) {
-            if (op.equals(""))
-                left = ((Boolean) v.remove(0)).booleanValue();
-            op = (String) v.remove(0);
-            right = ((Boolean) v.remove(0)).booleanValue();
-            left = evaluateExp(left, op, right);
-        }
-
         return left;
     }
 
@@ -711,26 +792,19 @@ public abstract class AAclAuthz implements IAuthzManager {
     /**
      * Resolves the given expression.
      */
-    private boolean evaluateExpression(IAuthToken authToken, String expression) {
-        String op = getOp(expression);
-        String type = "";
-        String value = "";
-
-        if (!op.equals("")) {
-            int len = op.length();
-            int i = expression.indexOf(op);
-
-            type = expression.substring(0, i).trim();
-            value = expression.substring(i + len).trim();
+    private boolean evaluateExpression(IAuthToken authToken, CompiledACLs.Term term) {
+        if (term.getOp().equals("")) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("AUTHZ_OP_NOT_SUPPORTED", term.getExpression()));
         }
-        IAccessEvaluator evaluator = mEvaluators.get(type);
+
+        IAccessEvaluator evaluator = term.getEvaluator();
 
         if (evaluator == null) {
-            log(ILogger.LL_FAILURE, CMS.getLogMessage("AUTHZ_EVALUATOR_NOT_FOUND", type));
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("AUTHZ_EVALUATOR_NOT_FOUND", term.getType()));
             return false;
         }
 
-        return evaluator.evaluate(authToken, type, op, value);
+        return evaluator.evaluate(authToken, term.getType(), term.getOp(), term.getValue());
     }
 
     private String getOp(String exp) {
@@ -797,6 +871,7 @@ public abstract class AAclAuthz implements IAuthzManager {
         }
 
         mACLs.put(ac.getName(), ac);
+        invalidateACLs();
     }
 
     /**
@@ -922,4 +997,27 @@ public abstract class AAclAuthz implements IAuthzManager {
     public boolean evaluateACLs(IAuthToken authToken, String exp) {
         return evaluateExpressions(authToken, exp);
     }
+
+    /**
+     * The evaluators can also be removed through getAccessEvaluators(),
+     * so the compiled ACLs are discarded on any change of the table.
+     */
+    private class EvaluatorTable extends Hashtable<String, IAccessEvaluator> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public IAccessEvaluator put(String type, IAccessEvaluator evaluator) {
+            IAccessEvaluator old = super.put(type, evaluator);
+            invalidateACLs();
+            return old;
+        }
+
+        @Override
+        public IAccessEvaluator remove(Object type) {
+            IAccessEvaluator old = super.remove(type);
+            invalidateACLs();
+            return old;
+        }
+    }
 }
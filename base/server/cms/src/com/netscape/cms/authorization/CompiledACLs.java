@@ -0,0 +1,297 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cms.authorization;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.netscape.certsrv.acls.ACL;
+import com.netscape.certsrv.acls.ACLEntry;
+import com.netscape.certsrv.evaluators.IAccessEvaluator;
+import com.netscape.cms.evaluators.GroupAccessEvaluator;
+import com.netscape.cms.evaluators.UserAccessEvaluator;
+
+/**
+ * An immutable snapshot of the ACLs of an authorization manager with
+ * the attribute expressions of the ACL entries parsed and bound to
+ * their evaluators. A new snapshot is compiled whenever the ACLs or
+ * the evaluators change, so that permission checks neither lock nor
+ * parse expressions.
+ * <P>
+ * The snapshot also holds the permission decisions made with it, so
+ * that they are discarded together with the ACLs they were based on.
+ */
+public class CompiledACLs {
+
+    private Map<String, List<CompiledEntry>> mEntries = new HashMap<String, List<CompiledEntry>>();
+    private ConcurrentHashMap<String, Object> mDecisions = new ConcurrentHashMap<String, Object>();
+
+    public CompiledACLs(Collection<ACL> acls, Map<String, IAccessEvaluator> evaluators) {
+
+        for (ACL acl : acls) {
+            List<CompiledEntry> entries = new ArrayList<CompiledEntry>();
+
+            for (Enumeration<ACLEntry> e = acl.entries(); e.hasMoreElements();) {
+                ACLEntry entry = e.nextElement();
+                entries.add(new CompiledEntry(entry, compile(entry.getAttributeExpressions(), evaluators)));
+            }
+
+            mEntries.put(acl.getName(), Collections.unmodifiableList(entries));
+        }
+    }
+
+    /**
+     * Returns the entries of a resource node, in ACL order.
+     */
+    public List<CompiledEntry> getEntries(String name) {
+        List<CompiledEntry> entries = mEntries.get(name);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a cached decision, or null if there is none.
+     */
+    public Object getDecision(String key) {
+        return mDecisions.get(key);
+    }
+
+    /**
+     * Caches a decision. The cache is emptied when it reaches the
+     * maximum size.
+     */
+    public void putDecision(String key, Object decision, int maxSize) {
+        if (mDecisions.size() >= maxSize) {
+            mDecisions.clear();
+        }
+        mDecisions.put(key, decision);
+    }
+
+    /**
+     * Parses expressions in the form expression || expression && ...
+     * which are evaluated from left to right without precedence.
+     */
+    static Expression compile(String expressions, Map<String, IAccessEvaluator> evaluators) {
+
+        List<Term> terms = new ArrayList<Term>();
+        List<Boolean> ands = new ArrayList<Boolean>();
+
+        if (expressions == null) {
+            expressions = "";
+        }
+        String s = expressions;
+
+        while (s.length() > 0) {
+            int orIndex = s.indexOf("||");
+            int andIndex = s.indexOf("&&");
+
+            // this is the last expression
+            if (orIndex == -1 && andIndex == -1) {
+                terms.add(compileTerm(s.trim(), evaluators));
+                break;
+
+                // || first
+            } else if (andIndex == -1 || (orIndex != -1 && orIndex < andIndex)) {
+                terms.add(compileTerm(s.substring(0, orIndex).trim(), evaluators));
+                ands.add(Boolean.FALSE);
+                s = s.substring(orIndex + 2);
+
+                // && first
+            } else {
+                terms.add(compileTerm(s.substring(0, andIndex).trim(), evaluators));
+                ands.add(Boolean.TRUE);
+                s = s.substring(andIndex + 2);
+            }
+        }
+
+        // an operator at the end is followed by an empty expression
+        if (!ands.isEmpty() && ands.size() == terms.size()) {
+            terms.add(compileTerm("", evaluators));
+        }
+
+        return new Expression(expressions, terms, ands);
+    }
+
+    static Term compileTerm(String expression, Map<String, IAccessEvaluator> evaluators) {
+
+        String op = getOp(expression);
+        String type = "";
+        String value = "";
+
+        if (!op.equals("")) {
+            int i = expression.indexOf(op);
+            type = expression.substring(0, i).trim();
+            value = expression.substring(i + op.length()).trim();
+        }
+
+        return new Term(expression, type, op, value, evaluators.get(type));
+    }
+
+    /**
+     * Returns the operator of an expression, or an empty string if
+     * the operator is not supported.
+     */
+    static String getOp(String exp) {
+        if (exp.indexOf("!=") != -1)
+            return "!=";
+        if (exp.indexOf("=") != -1)
+            return "=";
+        if (exp.indexOf(">") != -1)
+            return ">";
+        if (exp.indexOf("<") != -1)
+            return "<";
+        return "";
+    }
+
+    /**
+     * An ACL entry with its compiled attribute expressions.
+     */
+    public static class CompiledEntry {
+
+        private ACLEntry mEntry;
+        private Expression mExpression;
+
+        CompiledEntry(ACLEntry entry, Expression expression) {
+            mEntry = entry;
+            mExpression = expression;
+        }
+
+        public boolean isNegative() {
+            return mEntry.isNegative();
+        }
+
+        public boolean containPermission(String permission) {
+            return mEntry.containPermission(permission);
+        }
+
+        public String getAttributeExpressions() {
+            return mEntry.getAttributeExpressions();
+        }
+
+        public Expression getExpression() {
+            return mExpression;
+        }
+    }
+
+    /**
+     * Terms joined by || and && operators.
+     */
+    public static class Expression {
+
+        private String mExpressions;
+        private Term[] mTerms;
+        private boolean[] mAnds;
+        private boolean mCacheable = true;
+
+        Expression(String expressions, List<Term> terms, List<Boolean> ands) {
+            mExpressions = expressions;
+            mTerms = terms.toArray(new Term[terms.size()]);
+            mAnds = new boolean[ands.size()];
+            for (int i = 0; i < mAnds.length; i++) {
+                mAnds[i] = ands.get(i);
+            }
+            for (Term term : mTerms) {
+                if (!term.isCacheable()) {
+                    mCacheable = false;
+                }
+            }
+        }
+
+        public String getExpressions() {
+            return mExpressions;
+        }
+
+        public Term[] getTerms() {
+            return mTerms;
+        }
+
+        /**
+         * Returns whether the operator before term i + 1 is &&.
+         */
+        public boolean isAnd(int i) {
+            return mAnds[i];
+        }
+
+        /**
+         * Returns whether the result depends only on the user and the
+         * groups of the authentication token.
+         */
+        public boolean isCacheable() {
+            return mCacheable;
+        }
+    }
+
+    /**
+     * A single attribute expression, e.g. group="Administrators".
+     */
+    public static class Term {
+
+        private String mExpression;
+        private String mType;
+        private String mOp;
+        private String mValue;
+        private IAccessEvaluator mEvaluator;
+
+        Term(String expression, String type, String op, String value, IAccessEvaluator evaluator) {
+            mExpression = expression;
+            mType = type;
+            mOp = op;
+            mValue = value;
+            mEvaluator = evaluator;
+        }
+
+        public String getExpression() {
+            return mExpression;
+        }
+
+        public String getType() {
+            return mType;
+        }
+
+        public String getOp() {
+            return mOp;
+        }
+
+        public String getValue() {
+            return mValue;
+        }
+
+        public IAccessEvaluator getEvaluator() {
+            return mEvaluator;
+        }
+
+        /**
+         * Unknown expressions always evaluate to false; user and group
+         * expressions only depend on the authentication token. Other
+         * evaluators may look at the request, e.g. the client address.
+         */
+        public boolean isCacheable() {
+            return mEvaluator == null
+                    || mEvaluator instanceof UserAccessEvaluator
+                    || mEvaluator instanceof GroupAccessEvaluator;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cms.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.netscape.certsrv.apps.CMS;
+import com.netscape.certsrv.logging.ELogException;
+import com.netscape.certsrv.logging.ILogEvent;
+import com.netscape.certsrv.logging.ILogEventListener;
+import com.netscape.cmsutil.util.LatencyHistogram;
+
+/**
+ * Delivers log events to a single listener from its own queue and
+ * worker thread, so that a slow listener does not delay the thread
+ * which has logged the event.
+ * <P>
+ * When the queue is full, the BLOCK policy makes the logging thread
+ * wait for space up to the configured timeout, while the DROP_OLDEST
+ * policy discards the oldest queued event.
+ * <P>
+ * A fail-closed dispatcher (used for the signed audit log) shuts down
+ * CMS when an event cannot be queued in time or cannot be written by
+ * the listener, like a signed audit log written synchronously.
+ */
+public class LogDispatcher {
+
+    public final static String BLOCK = "block";
+    public final static String DROP_OLDEST = "dropOldest";
+
+    ILogEventListener listener;
+    BlockingQueue<QueuedEvent> queue;
+    boolean dropOldest;
+    long timeout;
+    boolean failClosed;
+
+    DispatcherThread thread;
+
+    LongAdder dispatched = new LongAdder();
+    LongAdder dropped = new LongAdder();
+    LongAdder failed = new LongAdder();
+    volatile int maxQueueDepth;
+
+    /**
+     * Time from queuing an event until the listener has processed it,
+     * in microseconds.
+     */
+    LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param listener the log event listener
+     * @param queueSize the maximum number of queued events
+     * @param policy the overflow policy, BLOCK or DROP_OLDEST
+     * @param timeout the time in milliseconds to wait for space in the
+     *            queue with the BLOCK policy
+     * @param failClosed whether to shut down CMS when an event is lost
+     */
+    public LogDispatcher(ILogEventListener listener, int queueSize, String policy,
+            long timeout, boolean failClosed) {
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<QueuedEvent>(queueSize);
+        this.dropOldest = DROP_OLDEST.equalsIgnoreCase(policy);
+        this.timeout = timeout;
+        this.failClosed = failClosed;
+    }
+
+    public void start() {
+        thread = new DispatcherThread();
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the worker thread after it has delivered all queued events.
+     * When called on the worker thread the queued events are delivered
+     * on the current thread instead.
+     */
+    public void shutdown() {
+
+        if (thread == null) {
+            return;
+        }
+
+        thread.running = false;
+
+        // the worker itself shuts down CMS when a fail-closed listener
+        // fails, it cannot wait for itself
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        thread = null;
+
+        // deliver events queued after the worker has stopped
+        QueuedEvent qe;
+        while ((qe = queue.poll()) != null) {
+            deliver(qe);
+        }
+    }
+
+    /**
+     * Queues an event for the listener.
+     *
+     * @param event the log event
+     */
+    public void dispatch(ILogEvent event) {
+
+        QueuedEvent qe = new QueuedEvent(event);
+
+        if (dropOldest) {
+            while (!queue.offer(qe)) {
+                if (queue.poll() != null) {
+                    dropped.increment();
+                }
+            }
+
+        } else {
+            boolean queued;
+
+            try {
+                queued = queue.offer(qe, timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // deliver the event on the current thread rather than lose it
+                deliver(qe);
+                return;
+            }
+
+            if (!queued) {
+                dropped.increment();
+                CMS.debug("LogDispatcher: " + getName() + " queue is full, event lost: " + event);
+                if (failClosed) {
+                    // Unable to write to audit log, shut down CMS
+                    LogFile.shutdownCMS();
+                }
+                return;
+            }
+        }
+
+        int depth = queue.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    void deliver(QueuedEvent qe) {
+        try {
+            listener.log(qe.event);
+
+        } catch (ELogException | RuntimeException e) {
+            failed.increment();
+            CMS.debug("LogDispatcher: " + getName() + " unable to log event: " + e);
+            if (failClosed) {
+                // Unable to write to audit log, shut down CMS
+                LogFile.shutdownCMS();
+            }
+            return;
+        }
+
+        dispatched.increment();
+        latency.record((System.nanoTime() - qe.queueTime) / 1000);
+    }
+
+    String getName() {
+        return listener.getClass().getSimpleName();
+    }
+
+    public ILogEventListener getListener() {
+        return listener;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of events the listener has failed to log.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    static class QueuedEvent {
+
+        ILogEvent event;
+        long queueTime = System.nanoTime();
+
+        QueuedEvent(ILogEvent event) {
+            this.event = event;
+        }
+    }
+
+    class DispatcherThread extends Thread {
+
+        volatile boolean running = true;
+
+        public DispatcherThread() {
+            super("LogDispatcher-" + listener.getClass().getSimpleName() + "-" + (Thread.activeCount() + 1));
+        }
+
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    QueuedEvent qe = queue.poll(1, TimeUnit.SECONDS);
+                    if (qe != null) {
+                        deliver(qe);
+                    }
+                } catch (InterruptedException e) {
+                    // check whether the dispatcher is stopping
+                }
+            }
+        }
+    }
+}
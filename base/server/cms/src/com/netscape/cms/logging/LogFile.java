@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.CharArrayReader;
 import java.io.CharArrayWriter;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -45,15 +46,20 @@ import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 
@@ -118,6 +124,10 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
     static final String PROP_LAST_HASH_FILE_NAME = "lastHashFileName";
     static final String PROP_BUFFER_SIZE = "bufferSize";
     static final String PROP_FLUSH_INTERVAL = "flushInterval";
+    static final String PROP_ASYNC_QUEUE_SIZE = "asyncQueueSize";
+    static final String PROP_ASYNC_BATCH_SIZE = "asyncBatchSize";
+    static final String PROP_ASYNC_SYNC_INTERVAL = "asyncSyncInterval";
+    static final String PROP_ASYNC_TIMEOUT = "asyncTimeout";
 
     private final static String LOG_SIGNED_AUDIT_EXCEPTION =
                                "LOG_SIGNED_AUDIT_EXCEPTION_1";
@@ -197,6 +207,51 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
      */
     private Thread mFlushThread = null;
 
+    /**
+     * The default maximum number of queued events written in one batch
+     */
+    static final int ASYNC_BATCH_SIZE = 256;
+
+    /**
+     * The default time in milliseconds to wait for space in the queue
+     */
+    static final int ASYNC_TIMEOUT = 10000;
+
+    /**
+     * The maximum number of queued events, 0 to write synchronously
+     */
+    protected int mAsyncQueueSize = 0;
+
+    /**
+     * The maximum number of queued events written in one batch
+     */
+    protected int mAsyncBatchSize = ASYNC_BATCH_SIZE;
+
+    /**
+     * The interval in milliseconds between file syncs, 0 to disable
+     */
+    protected int mAsyncSyncInterval = 0;
+
+    /**
+     * The time in milliseconds to wait for space in the queue
+     */
+    protected int mAsyncTimeout = ASYNC_TIMEOUT;
+
+    /**
+     * The queued events
+     */
+    private BlockingQueue<ILogEvent> mQueue = null;
+
+    /**
+     * The asynchronous writer thread
+     */
+    private AsyncWriterThread mAsyncWriterThread = null;
+
+    /**
+     * The log file descriptor, used to sync the file
+     */
+    private FileDescriptor mLogFD = null;
+
     /**
      * The mandatory log event types
      */
@@ -416,7 +471,7 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
 
     private static boolean mInSignedAuditLogFailureMode = false;
 
-    private static synchronized void shutdownCMS() {
+    static synchronized void shutdownCMS() {
         if (mInSignedAuditLogFailureMode == false) {
 
             // Set signed audit log failure mode true
@@ -554,6 +609,11 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
                     config.getName() + "." + PROP_FILE_NAME));
         }
 
+        mAsyncQueueSize = config.getInteger(PROP_ASYNC_QUEUE_SIZE, 0);
+        mAsyncBatchSize = config.getInteger(PROP_ASYNC_BATCH_SIZE, ASYNC_BATCH_SIZE);
+        mAsyncSyncInterval = config.getInteger(PROP_ASYNC_SYNC_INTERVAL, 0);
+        mAsyncTimeout = config.getInteger(PROP_ASYNC_TIMEOUT, ASYNC_TIMEOUT);
+
         if (mOn) {
             init(fileName, config.getInteger(PROP_BUFFER_SIZE, BUFFER_SIZE),
                     config.getInteger(PROP_FLUSH_INTERVAL, FLUSH_INTERVAL));
@@ -585,6 +645,14 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
         mBufferSize = bufferSize;
         setFlushInterval(flushInterval);
         open();
+
+        if (mAsyncQueueSize > 0 && mAsyncWriterThread == null) {
+            CMS.debug("LogFile: writing " + mFileName + " asynchronously, queue size: " + mAsyncQueueSize);
+            mQueue = new ArrayBlockingQueue<ILogEvent>(mAsyncQueueSize);
+            mAsyncWriterThread = new AsyncWriterThread();
+            mAsyncWriterThread.setDaemon(true);
+            mAsyncWriterThread.start();
+        }
     }
 
     private PrivateKey mSigningKey = null;
@@ -803,8 +871,9 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
                              + mFile.toString());
                 }
             }
+            mLogFD = out.getFD();
             mLogWriter = new BufferedWriter(
-                        new FileWriter(out.getFD()), mBufferSize);
+                        new FileWriter(mLogFD), mBufferSize);
 
             // The first time we open, mSignature will not have been
             // initialized yet. That's ok, we will push our first signature
@@ -879,6 +948,27 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
             ConsoleError.send(new SystemEvent(CMS.getUserMessage("CMS_LOG_CLOSE_FAILED", mFileName, e.toString())));
         }
         mLogWriter = null;
+        mLogFD = null;
+    }
+
+    /**
+     * Flush the log file and force the data to the disk.
+     */
+    protected synchronized void sync() {
+        flush();
+
+        try {
+            if (mLogFD != null) {
+                mLogFD.sync();
+            }
+        } catch (IOException e) {
+            ConsoleError.send(new SystemEvent(CMS.getUserMessage("CMS_LOG_FLUSH_LOG_FAILED", mFileName, e.toString())));
+            if (mLogSigning) {
+                //error in syncing the signed audit log, shut down CMS
+                e.printStackTrace();
+                shutdownCMS();
+            }
+        }
     }
 
     /**
@@ -905,9 +995,44 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
 
         signedAuditLogger.log(auditMessage);
 
+        stopAsyncWriter();
         close();
     }
 
+    /**
+     * Stop the asynchronous writer thread after it has written
+     * all queued events.
+     */
+    protected synchronized void stopAsyncWriter() {
+
+        AsyncWriterThread thread = mAsyncWriterThread;
+        if (thread == null) {
+            return;
+        }
+
+        mAsyncWriterThread = null;
+        thread.running = false;
+
+        if (Thread.currentThread() == thread) {
+            // the writer itself is shutting down CMS after a failure,
+            // it cannot wait for itself
+            writeQueuedEvents();
+            return;
+        }
+
+        // wait() releases the monitor so the writer can finish
+        while (thread.isAlive()) {
+            try {
+                this.wait(1000);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        // write events queued after the writer has stopped
+        writeQueuedEvents();
+    }
+
     /**
      * Set the flush interval
      * <P>
@@ -969,12 +1094,161 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
     }
 
     /**
-     * Synchronized method to write an event to the log file.
+     * Asynchronous writer thread. Takes the queued events and writes
+     * them in batches, then flushes the log, which also updates the
+     * signature, and syncs the file at the configured interval.
+     */
+    final class AsyncWriterThread extends Thread {
+
+        volatile boolean running = true;
+
+        long lastSync = System.currentTimeMillis();
+
+        public AsyncWriterThread() {
+            super();
+            super.setName(mFileName + ".writer-" + (Thread.activeCount() + 1));
+        }
+
+        public void run() {
+            List<ILogEvent> batch = new ArrayList<ILogEvent>(mAsyncBatchSize);
+            long timeout = mAsyncSyncInterval > 0 ? mAsyncSyncInterval : 1000;
+
+            while (running || !mQueue.isEmpty()) {
+                try {
+                    ILogEvent first = mQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        mQueue.drainTo(batch, mAsyncBatchSize - 1);
+                    }
+                } catch (InterruptedException e) {
+                    // check whether the writer is stopping
+                }
+
+                synchronized (LogFile.this) {
+                    if (!batch.isEmpty()) {
+                        writeBatch(batch);
+                        batch.clear();
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (mAsyncSyncInterval > 0 && now - lastSync >= mAsyncSyncInterval) {
+                        if (mBytesUnflushed > 0) {
+                            sync();
+                        }
+                        lastSync = now;
+                    }
+                }
+            }
+
+            synchronized (LogFile.this) {
+                if (mAsyncSyncInterval > 0) {
+                    sync();
+                }
+                LogFile.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write a batch of queued events. The log is flushed once after
+     * the batch if the buffer is full.
+     */
+    private synchronized void writeBatch(List<ILogEvent> batch) {
+
+        for (ILogEvent event : batch) {
+            try {
+                doLog(event, true);
+            } catch (ELogException e) {
+                ConsoleError.send(new SystemEvent(CMS.getUserMessage("CMS_LOG_WRITE_FAILED", mFileName,
+                        event.toString(), e.toString())));
+            }
+        }
+
+        if (mBufferSize > 0 && mBytesUnflushed > mBufferSize) {
+            flush();
+        }
+
+        try {
+            logWritten();
+        } catch (ELogException e) {
+            ConsoleError.send(new SystemEvent(e.toString()));
+        }
+    }
+
+    /**
+     * Write the events left in the queue on the current thread.
+     */
+    private synchronized void writeQueuedEvents() {
+
+        if (mQueue == null) {
+            return;
+        }
+
+        List<ILogEvent> batch = new ArrayList<ILogEvent>();
+        mQueue.drainTo(batch);
+
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    /**
+     * Put an event into the queue. Waits for the configured timeout
+     * if the queue is full. A signed audit log which cannot drain its
+     * queue is treated like a write failure and shuts down CMS.
+     */
+    private void enqueue(ILogEvent event) throws ELogException {
+
+        if (mLogSigning && mInSignedAuditLogFailureMode) {
+            String[] params = { mFileName, event.toString() };
+            throw new ELogException(CMS.getUserMessage("CMS_LOG_LOGFILE_CLOSED", params));
+        }
+
+        boolean queued = false;
+
+        try {
+            queued = mQueue.offer(event, mAsyncTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!queued) {
+            String message = CMS.getUserMessage("CMS_LOG_WRITE_FAILED", mFileName, event.toString(),
+                    "log queue is full");
+            ConsoleError.send(new SystemEvent(message));
+            if (mLogSigning) {
+                // Unable to write to audit log, shut down CMS
+                shutdownCMS();
+            }
+            throw new ELogException(message);
+        }
+    }
+
+    /**
+     * Called after events have been written to the log file, with
+     * the monitor held.
+     */
+    protected void logWritten() throws ELogException {
+    }
+
+    /**
+     * Method to write an event to the log file. If the log is
+     * asynchronous the event is queued for the writer thread.
      *
      * @param event The log event
      */
-    protected synchronized void doLog(ILogEvent event) throws ELogException {
-        doLog(event, false);
+    protected void doLog(ILogEvent event) throws ELogException {
+
+        // trace needs the stack of the logging thread
+        if (mAsyncWriterThread != null && !mTrace) {
+            enqueue(event);
+            return;
+        }
+
+        synchronized (this) {
+            doLog(event, false);
+            logWritten();
+        }
     }
 
     // Standard line separator byte. We always sign this line separator,
@@ -1282,12 +1556,12 @@ public class LogFile implements ILogEventListener, IExtendedPluginInfo {
         // This should follow the Common Log Format which still needs
         // some work.
         if (ev.getMultiline() == ILogger.L_MULTILINE) {
-            entry = CMS.getPID() + "." + Thread.currentThread().getName() + " - ["
+            entry = CMS.getPID() + "." + ev.getThreadName() + " - ["
                     + mLogDateFormat.format(mDate) + "] [" +
                     ev.getSource().value() + "] [" + Integer.toString(ev.getLevel())
                     + "] " + prepareMultiline(ev.toString());
         } else {
-            entry = CMS.getPID() + "." + Thread.currentThread().getName() + " - ["
+            entry = CMS.getPID() + "." + ev.getThreadName() + " - ["
                     + mLogDateFormat.format(mDate) + "] [" +
                     ev.getSource().value() + "] [" + Integer.toString(ev.getLevel())
                     + "] " + ev.toString();
@@ -17,16 +17,33 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cms.logging;
 
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.netscape.certsrv.apps.CMS;
+import com.netscape.certsrv.base.EBaseException;
+import com.netscape.certsrv.base.IConfigStore;
 import com.netscape.certsrv.logging.ELogException;
 import com.netscape.certsrv.logging.ILogEvent;
 import com.netscape.certsrv.logging.ILogEventListener;
 import com.netscape.certsrv.logging.ILogQueue;
+import com.netscape.certsrv.logging.ILogger;
 
 /**
  * A class represents a log queue.
  * <P>
+ * A listener whose configuration sets dispatchQueueSize to a positive
+ * value receives the events from its own LogDispatcher. The
+ * dispatchOverflowPolicy parameter selects what happens when that
+ * queue is full: "block" (the default for signed audit logs) or
+ * "dropOldest" (the default for the others). With "block", the logging
+ * thread waits up to dispatchTimeout milliseconds; a signed audit event
+ * which cannot be queued or written shuts down CMS.
+ * <P>
+ * A log file written asynchronously (asyncQueueSize) already queues its
+ * events, so it is called directly rather than through a second queue.
+ * <P>
  *
  * @author mzhao
  * @version $Revision$, $Date$
@@ -35,6 +52,12 @@ public class LogQueue implements ILogQueue {
 
     private static LogQueue mLogQueue = new LogQueue();
     protected Vector<ILogEventListener> mListeners = new Vector<ILogEventListener>();
+    protected Map<ILogEventListener, LogDispatcher> mDispatchers =
+            new ConcurrentHashMap<ILogEventListener, LogDispatcher>();
+
+    public static final String PROP_DISPATCH_QUEUE_SIZE = "dispatchQueueSize";
+    public static final String PROP_DISPATCH_OVERFLOW_POLICY = "dispatchOverflowPolicy";
+    public static final String PROP_DISPATCH_TIMEOUT = "dispatchTimeout";
 
     /**
      * Constructs a log queue.
@@ -52,6 +75,7 @@ public class LogQueue implements ILogQueue {
      *
      */
     public void init() {
+        stopDispatchers();
         mListeners.clear();
 
     }
@@ -61,6 +85,9 @@ public class LogQueue implements ILogQueue {
      * <P>
      */
     public void shutdown() {
+        // deliver the queued events before the listeners are closed
+        stopDispatchers();
+
         for (int i = 0; i < mListeners.size(); i++) {
             ILogEventListener listener = mListeners.elementAt(i);
             listener.shutdown();
@@ -75,10 +102,74 @@ public class LogQueue implements ILogQueue {
     public void addLogEventListener(ILogEventListener listener) {
         //Make sure we don't have duplicated listener
         if (!mListeners.contains(listener)) {
+            startDispatcher(listener);
             mListeners.addElement(listener);
         }
     }
 
+    private void startDispatcher(ILogEventListener listener) {
+
+        IConfigStore config = listener.getConfigStore();
+        if (config == null) {
+            return;
+        }
+
+        try {
+            int queueSize = config.getInteger(PROP_DISPATCH_QUEUE_SIZE, 0);
+            if (queueSize <= 0) {
+                return;
+            }
+
+            if (config.getInteger(LogFile.PROP_ASYNC_QUEUE_SIZE, 0) > 0) {
+                CMS.debug("LogQueue: " + config.getName() + " is written asynchronously, ignoring "
+                        + PROP_DISPATCH_QUEUE_SIZE);
+                return;
+            }
+
+            String type = config.getString(LogFile.PROP_TYPE, null);
+            boolean signedAudit = ILogger.PROP_SIGNED_AUDIT.equals(type);
+            String policy = config.getString(PROP_DISPATCH_OVERFLOW_POLICY,
+                    signedAudit ? LogDispatcher.BLOCK : LogDispatcher.DROP_OLDEST);
+            int timeout = config.getInteger(PROP_DISPATCH_TIMEOUT, LogFile.ASYNC_TIMEOUT);
+
+            CMS.debug("LogQueue: dispatching " + config.getName() + " events from a queue of "
+                    + queueSize + ", overflow policy: " + policy);
+
+            LogDispatcher dispatcher = new LogDispatcher(listener, queueSize, policy, timeout, signedAudit);
+            dispatcher.start();
+            mDispatchers.put(listener, dispatcher);
+
+        } catch (EBaseException e) {
+            CMS.debug("LogQueue: unable to configure dispatcher for " + config.getName() + ": " + e);
+        }
+    }
+
+    private void stopDispatchers() {
+        for (ILogEventListener listener : mDispatchers.keySet()) {
+            LogDispatcher dispatcher = mDispatchers.remove(listener);
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the dispatcher of a listener.
+     *
+     * @param listener the log event listener
+     * @return the dispatcher, or null if the listener is called directly
+     */
+    public LogDispatcher getDispatcher(ILogEventListener listener) {
+        return mDispatchers.get(listener);
+    }
+
+    /**
+     * Returns the dispatchers of all listeners with a dispatch queue.
+     */
+    public Map<ILogEventListener, LogDispatcher> getDispatchers() {
+        return mDispatchers;
+    }
+
     /**
      * Removes an event listener.
      *
@@ -86,6 +177,11 @@ public class LogQueue implements ILogQueue {
      */
     public void removeLogEventListener(ILogEventListener listener) {
         mListeners.removeElement(listener);
+
+        LogDispatcher dispatcher = mDispatchers.remove(listener);
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
     }
 
     /**
@@ -95,8 +191,16 @@ public class LogQueue implements ILogQueue {
      */
     public void log(ILogEvent event) {
         for (int i = 0; i < mListeners.size(); i++) {
+            ILogEventListener listener = mListeners.elementAt(i);
+
+            LogDispatcher dispatcher = mDispatchers.get(listener);
+            if (dispatcher != null) {
+                dispatcher.dispatch(event);
+                continue;
+            }
+
             try {
-                mListeners.elementAt(i).log(event);
+                listener.log(event);
             } catch (ELogException e) {
                 // Raidzilla Bug #57592:  Don't display potentially
                 //                        incorrect log message.
@@ -37,7 +37,6 @@ import com.netscape.certsrv.common.NameValuePairs;
 import com.netscape.certsrv.logging.AuditEvent;
 import com.netscape.certsrv.logging.ConsoleError;
 import com.netscape.certsrv.logging.ELogException;
-import com.netscape.certsrv.logging.ILogEvent;
 import com.netscape.certsrv.logging.ILogger;
 import com.netscape.certsrv.logging.SystemEvent;
 import com.netscape.cmsutil.util.Utils;
@@ -493,14 +492,11 @@ public class RollingLogFile extends LogFile {
     }
 
     /**
-     * Write an event to the log file
-     *
-     * @param ev The event to be logged.
+     * Rotate the log file if it exceeds the maximum size. Called
+     * after events have been written to the log file.
      **/
-    public synchronized void log(ILogEvent ev) throws ELogException {
+    protected void logWritten() throws ELogException {
         //xxx, Shall we log first without checking if it exceed the maximum?
-        super.log(ev); // Will increment mBytesWritten
-
         if ((0 != mMaxFileSize) && (mBytesWritten > mMaxFileSize)) {
             flush();
             try {
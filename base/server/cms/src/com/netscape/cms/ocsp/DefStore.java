@@ -17,21 +17,32 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cms.ocsp;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.mozilla.jss.asn1.ASN1Util;
 import org.mozilla.jss.asn1.GeneralizedTime;
 import org.mozilla.jss.asn1.INTEGER;
 import org.mozilla.jss.asn1.OCTET_STRING;
+import org.mozilla.jss.asn1.SEQUENCE;
 import org.mozilla.jss.pkix.cert.Extension;
 
 import com.netscape.certsrv.apps.CMS;
@@ -53,6 +64,7 @@ import com.netscape.certsrv.logging.AuditFormat;
 import com.netscape.certsrv.logging.ILogger;
 import com.netscape.certsrv.ocsp.IDefStore;
 import com.netscape.certsrv.ocsp.IOCSPAuthority;
+import com.netscape.certsrv.ocsp.OCSPStats;
 import com.netscape.certsrv.util.IStatsSubsystem;
 import com.netscape.cmsutil.ocsp.BasicOCSPResponse;
 import com.netscape.cmsutil.ocsp.CertID;
@@ -69,10 +81,17 @@ import com.netscape.cmsutil.ocsp.RevokedInfo;
 import com.netscape.cmsutil.ocsp.SingleResponse;
 import com.netscape.cmsutil.ocsp.TBSRequest;
 import com.netscape.cmsutil.ocsp.UnknownInfo;
+import com.netscape.cmsutil.util.Utils;
 
+import netscape.security.x509.CRLExtensions;
+import netscape.security.x509.CRLReasonExtension;
+import netscape.security.x509.RevocationReason;
 import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
+import netscape.security.x509.X500Name;
 import netscape.security.x509.X509CRLImpl;
 import netscape.security.x509.X509CertImpl;
+import netscape.security.x509.X509ExtensionException;
 import netscape.security.x509.X509Key;
 
 /**
@@ -102,12 +121,35 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
     private final static String PROP_INCLUDE_NEXT_UPDATE =
             "includeNextUpdate";
 
-    protected Hashtable<String, Long> mReqCounts = new Hashtable<String, Long>();
+    // responseCacheSize is the number of signed responses kept per
+    // issuer for requests without a nonce (by default no cache).
+    // responseCachePrefetch is the number of most requested responses
+    // per issuer signed again in the background after a CRL update.
+    private final static String PROP_RESPONSE_CACHE_SIZE = "responseCacheSize";
+    private final static String PROP_RESPONSE_CACHE_PREFETCH = "responseCachePrefetch";
+
+    // hash algorithms precomputed for every issuer, others are
+    // added to the issuer index the first time they are requested
+    private final static String[] INDEX_DIGESTS = { "SHA-1", "SHA-256" };
+
     protected boolean mNotFoundGood = true;
     protected boolean mUseCache = true;
     protected boolean mByName = true;
     protected boolean mIncludeNextUpdate = false;
-    protected Hashtable<String, CRLIPContainer> mCacheCRLIssuingPoints = new Hashtable<String, CRLIPContainer>();
+    protected int mResponseCacheSize = 0;
+    protected int mResponseCachePrefetch = 0;
+
+    // issuing points by record ID, and the same issuing points by
+    // hash algorithm, issuer name hash and issuer key hash
+    protected volatile Map<String, CRLIPContainer> mCacheCRLIssuingPoints =
+            new ConcurrentHashMap<String, CRLIPContainer>();
+    protected volatile Map<String, CRLIPContainer> mIssuerIndex =
+            new ConcurrentHashMap<String, CRLIPContainer>();
+    protected Set<String> mIssuerIndexDigests = new CopyOnWriteArraySet<String>(
+            Arrays.asList(INDEX_DIGESTS));
+    private Object mIssuerIndexMonitor = new Object();
+    // serializes the updates of the CRL of each issuer
+    private Map<String, Object> mIssuerLocks = new ConcurrentHashMap<String, Object>();
     private IOCSPAuthority mOCSPAuthority = null;
     private IConfigStore mConfig = null;
     private String mId = null;
@@ -162,6 +204,12 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
         mIncludeNextUpdate = mConfig.getBoolean(PROP_INCLUDE_NEXT_UPDATE,
                     false);
 
+        // Without a nonce, the response for a certificate only changes
+        // when a new CRL arrives, so it can be signed once and served
+        // again until then.
+        mResponseCacheSize = mConfig.getInteger(PROP_RESPONSE_CACHE_SIZE, 0);
+        mResponseCachePrefetch = mConfig.getInteger(PROP_RESPONSE_CACHE_PREFETCH, 0);
+
         // init web gateway.
         initWebGateway();
 
@@ -205,16 +253,30 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
     }
 
     public long getReqCount(String id) {
-        Long c = mReqCounts.get(id);
-
-        if (c == null)
-            return 0;
-        else
-            return c.longValue();
+        return mOCSPAuthority.getIssuerStats(id).getRequests();
     }
 
     public void incReqCount(String id) {
-        mReqCounts.put(id, Long.valueOf(getReqCount(id) + 1));
+        mOCSPAuthority.getIssuerStats(id).incRequests(1);
+    }
+
+    /**
+     * Records the time elapsed since startTime in the responder
+     * statistics and, if known, in the issuer statistics.
+     *
+     * @param issuer issuing point, or null
+     * @param timer OCSPStats timer name
+     * @param startTime start time from System.nanoTime()
+     */
+    private void recordTime(CRLIPContainer issuer, String timer, long startTime) {
+
+        long micros = (System.nanoTime() - startTime) / 1000;
+        mOCSPAuthority.getStats().record(timer, micros);
+
+        if (issuer != null) {
+            String id = issuer.getCRLIssuingPointRecord().getId();
+            mOCSPAuthority.getIssuerStats(id).record(timer, micros);
+        }
     }
 
     /**
@@ -294,15 +356,250 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
     }
 
     public void startup() throws EBaseException {
+        loadIssuerIndex();
+
         int refresh = mConfig.getInteger(PROP_REFRESH_IN_SEC,
                 DEF_REFRESH_IN_SEC);
         if (refresh > 0) {
             DefStoreCRLUpdater updater =
-                    new DefStoreCRLUpdater(mCacheCRLIssuingPoints, refresh);
+                    new DefStoreCRLUpdater(this, refresh);
             updater.start();
         }
     }
 
+    /**
+     * Reads all issuing points from the database and replaces
+     * the issuer index.
+     */
+    public void loadIssuerIndex() throws EBaseException {
+
+        CMS.debug("DefStore: loading issuer index");
+
+        Map<String, CRLIPContainer> issuers = new ConcurrentHashMap<String, CRLIPContainer>();
+        Map<String, CRLIPContainer> index = new ConcurrentHashMap<String, CRLIPContainer>();
+
+        Enumeration<ICRLIssuingPointRecord> recs = searchAllCRLIssuingPointRecord(100);
+
+        synchronized (mIssuerIndexMonitor) {
+            while (recs.hasMoreElements()) {
+                ICRLIssuingPointRecord rec = recs.nextElement();
+
+                CRLIPContainer container = createContainer(rec);
+                if (container == null) {
+                    continue;
+                }
+
+                issuers.put(rec.getId(), container);
+                for (String digestName : mIssuerIndexDigests) {
+                    putIssuerKey(index, digestName, container);
+                }
+            }
+
+            mCacheCRLIssuingPoints = issuers;
+            mIssuerIndex = index;
+        }
+
+        CMS.debug("DefStore: issuer index loaded with " + issuers.size() + " issuing points");
+    }
+
+    /**
+     * Adds an issuing point to the issuer index, replacing the
+     * previous version of the same issuing point.
+     *
+     * @return the replaced issuing point, or null
+     */
+    private CRLIPContainer indexIssuer(ICRLIssuingPointRecord rec) {
+
+        CRLIPContainer container = createContainer(rec);
+        if (container == null) {
+            return null;
+        }
+
+        return indexIssuer(container);
+    }
+
+    private CRLIPContainer indexIssuer(CRLIPContainer container) {
+
+        ICRLIssuingPointRecord rec = container.getCRLIssuingPointRecord();
+
+        synchronized (mIssuerIndexMonitor) {
+            CRLIPContainer previous = mCacheCRLIssuingPoints.put(rec.getId(), container);
+
+            for (String digestName : mIssuerIndexDigests) {
+                putIssuerKey(mIssuerIndex, digestName, container);
+            }
+
+            if (previous != null) {
+                // drop keys of a replaced issuer certificate
+                Iterator<CRLIPContainer> i = mIssuerIndex.values().iterator();
+                while (i.hasNext()) {
+                    if (i.next() == previous) {
+                        i.remove();
+                    }
+                }
+            }
+
+            return previous;
+        }
+    }
+
+    /**
+     * Decodes the CA certificate of an issuing point. The CRL is only
+     * decoded when the issuing point is used by a request.
+     *
+     * @return the issuing point, or null if it cannot be decoded
+     */
+    private CRLIPContainer createContainer(ICRLIssuingPointRecord rec) {
+
+        byte certdata[] = rec.getCACert();
+        if (certdata == null) {
+            CMS.debug("DefStore: missing CA certificate in " + rec.getId());
+            return null;
+        }
+
+        X509CertImpl cert;
+        try {
+            cert = new X509CertImpl(certdata);
+        } catch (Exception e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_DECODE_CERT", e.toString()));
+            return null;
+        }
+
+        CRLIPContainer container = new CRLIPContainer(rec, cert, null, mResponseCacheSize);
+
+        byte deltadata[] = rec.getDeltaCRL();
+        if (deltadata != null) {
+            try {
+                X509CRLImpl deltaCRL = new X509CRLImpl(deltadata);
+
+                // a delta CRL of an older CRL is replaced by the new CRL
+                if (rec.getCRLNumber() != null &&
+                        rec.getCRLNumber().equals(deltaCRL.getDeltaBaseCRLNumber())) {
+                    container.setDeltaCRL(deltaCRL.getCRLNumber(), getDeltaEntries(deltaCRL),
+                            deltaCRL.getThisUpdate(), deltaCRL.getNextUpdate());
+                }
+
+            } catch (Exception e) {
+                log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_DECODE_CRL", e.toString()));
+            }
+        }
+
+        return container;
+    }
+
+    /**
+     * Returns the entries of a delta CRL by serial number.
+     */
+    private Map<BigInteger, RevokedCertificate> getDeltaEntries(X509CRLImpl deltaCRL) {
+
+        Map<BigInteger, RevokedCertificate> entries = new HashMap<BigInteger, RevokedCertificate>();
+
+        Set<RevokedCertificate> revokedCerts = deltaCRL.getRevokedCertificates();
+        if (revokedCerts != null) {
+            for (RevokedCertificate entry : revokedCerts) {
+                entries.put(entry.getSerialNumber(), entry);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the CRL of an issuing point, decoding it on first use,
+     * or null if the revoked certificates are available in the CRL
+     * cache instead.
+     */
+    private X509CRLImpl getCRL(CRLIPContainer container) throws CRLException {
+
+        X509CRLImpl crl = container.getX509CRLImpl();
+        if (crl != null) {
+            return crl;
+        }
+
+        ICRLIssuingPointRecord rec = container.getCRLIssuingPointRecord();
+        byte crldata[] = rec.getCRL();
+
+        if (crldata == null || rec.getRevokedSerialIndex() != null) {
+            return null;
+        }
+
+        synchronized (container) {
+            crl = container.getX509CRLImpl();
+            if (crl == null) {
+                CMS.debug("DefStore: start building x509 crl impl");
+                try {
+                    crl = new X509CRLImpl(crldata);
+                } catch (Exception e) {
+                    log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_DECODE_CRL", e.toString()));
+                    throw new CRLException(e.toString());
+                }
+                CMS.debug("DefStore: done building x509 crl impl");
+                container.setX509CRLImpl(crl);
+            }
+            return crl;
+        }
+    }
+
+    private void putIssuerKey(Map<String, CRLIPContainer> index, String digestName,
+            CRLIPContainer container) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(digestName);
+            X509CertImpl cert = container.getX509CertImpl();
+
+            byte nameHash[] = md.digest(((X500Name) cert.getSubjectDN()).getEncoded());
+            byte keyHash[] = md.digest(((X509Key) cert.getPublicKey()).getKey());
+
+            index.put(getIssuerKey(digestName, nameHash, keyHash), container);
+            index.put(getIssuerKey(digestName, null, keyHash), container);
+
+        } catch (NoSuchAlgorithmException | IOException e) {
+            CMS.debug("DefStore: unable to index issuer with " + digestName + ": " + e);
+        }
+    }
+
+    private String getIssuerKey(String digestName, byte[] nameHash, byte[] keyHash) {
+        return digestName + ":" + (nameHash == null ? "" : Utils.base64encodeSingleLine(nameHash)) +
+                ":" + Utils.base64encodeSingleLine(keyHash);
+    }
+
+    /**
+     * Finds the issuing point of the requested certificate in the
+     * issuer index. The database is not searched. If no issuer matches
+     * both the issuer name hash and the issuer key hash, the issuer is
+     * found by its key hash only, like before the index was added.
+     *
+     * @return the issuing point, or null if the issuer is unknown
+     */
+    private CRLIPContainer getIssuer(CertID cid) {
+
+        String digestName = cid.getDigestName();
+        if (digestName == null) {
+            return null;
+        }
+
+        if (!mIssuerIndexDigests.contains(digestName)) {
+            // index the known issuers with a new hash algorithm
+            synchronized (mIssuerIndexMonitor) {
+                if (mIssuerIndexDigests.add(digestName)) {
+                    CMS.debug("DefStore: adding " + digestName + " to issuer index");
+                    for (CRLIPContainer container : mCacheCRLIssuingPoints.values()) {
+                        putIssuerKey(mIssuerIndex, digestName, container);
+                    }
+                }
+            }
+        }
+
+        byte keyHash[] = cid.getIssuerKeyHash().toByteArray();
+
+        CRLIPContainer container = mIssuerIndex.get(getIssuerKey(digestName,
+                cid.getIssuerNameHash().toByteArray(), keyHash));
+        if (container != null) {
+            return container;
+        }
+
+        return mIssuerIndex.get(getIssuerKey(digestName, null, keyHash));
+    }
+
     public void shutdown() {
     }
 
@@ -333,202 +630,275 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
             throw new EBaseException("OCSP request is empty");
         }
 
-        IStatsSubsystem statsSub = (IStatsSubsystem) CMS.getSubsystem("stats");
-
         mOCSPAuthority.incNumOCSPRequest(1);
-        long startTime = CMS.getCurrentDate().getTime();
+        long startTime = System.nanoTime();
 
         try {
             mOCSPAuthority.log(ILogger.LL_INFO, "start OCSP request");
 
-            // (3) look into database to check the
-            //     certificate's status
-            Vector<SingleResponse> singleResponses = new Vector<SingleResponse>();
+            OCSPResponse response = null;
 
-            if (statsSub != null) {
-                statsSub.startTiming("lookup");
+            CertID cid = getCacheableCertID(tbsReq);
+            if (cid != null) {
+                response = getCachedResponse(cid);
             }
 
-            long lookupStartTime = CMS.getCurrentDate().getTime();
-
-            for (int i = 0; i < tbsReq.getRequestCount(); i++) {
-                Request req = tbsReq.getRequestAt(i);
-                SingleResponse sr = processRequest(req);
-                singleResponses.addElement(sr);
+            if (response == null) {
+                response = createResponse(tbsReq, cid, false);
+            } else {
+                CMS.debug("DefStore: using cached response for cert 0x" +
+                        cid.getSerialNumber().toString(16));
+                audit(AuditFormat.LEVEL, "Checked Status of certificate 0x" +
+                        cid.getSerialNumber().toString(16));
             }
 
-            long lookupEndTime = CMS.getCurrentDate().getTime();
-            mOCSPAuthority.incLookupTime(lookupEndTime - lookupStartTime);
+            log(ILogger.LL_INFO, "done OCSP request");
 
-            if (statsSub != null) {
-                statsSub.endTiming("lookup");
-            }
+            // responses for several issuers are counted with the first one
+            recordTime(getIssuer(tbsReq.getRequestAt(0).getCertID()), OCSPStats.TOTAL, startTime);
 
-            if (statsSub != null) {
-                statsSub.startTiming("build_response");
-            }
+            return response;
 
-            SingleResponse res[] = new SingleResponse[singleResponses.size()];
-            singleResponses.copyInto(res);
+        } catch (EBaseException e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_REQUEST_FAILURE", e.toString()));
+            throw e;
 
-            ResponderID rid = null;
+        } catch (Exception e) {
+            log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_REQUEST_FAILURE", e.toString()));
+            throw new EBaseException(e);
+        }
+    }
 
-            if (mByName) {
-                rid = mOCSPAuthority.getResponderIDByName();
-            } else {
-                rid = mOCSPAuthority.getResponderIDByHash();
-            }
+    /**
+     * Looks up the status of the requested certificates
+     * and signs the response.
+     *
+     * Prefetched responses were not requested by a client, so they
+     * are neither counted in the request statistics nor audited.
+     *
+     * @param cid CertID of a cacheable request, or null
+     * @param prefetch true if the response is prefetched
+     */
+    private OCSPResponse createResponse(TBSRequest tbsReq, CertID cid, boolean prefetch)
+            throws Exception {
 
-            Extension nonce[] = null;
+        IStatsSubsystem statsSub = prefetch ? null : (IStatsSubsystem) CMS.getSubsystem("stats");
 
-            for (int j = 0; j < tbsReq.getExtensionsCount(); j++) {
-                Extension thisExt = tbsReq.getRequestExtensionAt(j);
+        // (3) look into database to check the
+        //     certificate's status
+        Vector<SingleResponse> singleResponses = new Vector<SingleResponse>();
 
-                if (thisExt.getExtnId().equals(IOCSPAuthority.OCSP_NONCE)) {
-                    nonce = new Extension[1];
-                    nonce[0] = thisExt;
-                }
+        if (statsSub != null) {
+            statsSub.startTiming("lookup");
+        }
+
+        for (int i = 0; i < tbsReq.getRequestCount(); i++) {
+            Request req = tbsReq.getRequestAt(i);
+            long lookupStartTime = System.nanoTime();
+            SingleResponse sr = processRequest(req, prefetch);
+            if (!prefetch) {
+                recordTime(getIssuer(req.getCertID()), OCSPStats.LOOKUP, lookupStartTime);
             }
+            singleResponses.addElement(sr);
+        }
 
-            ResponseData rd = new ResponseData(rid,
-                    new GeneralizedTime(CMS.getCurrentDate()), res, nonce);
+        if (statsSub != null) {
+            statsSub.endTiming("lookup");
+        }
 
-            if (statsSub != null) {
-                statsSub.endTiming("build_response");
-            }
+        if (statsSub != null) {
+            statsSub.startTiming("build_response");
+        }
 
-            if (statsSub != null) {
-                statsSub.startTiming("signing");
-            }
+        SingleResponse res[] = new SingleResponse[singleResponses.size()];
+        singleResponses.copyInto(res);
 
-            long signStartTime = CMS.getCurrentDate().getTime();
+        ResponderID rid = null;
 
-            BasicOCSPResponse basicRes = mOCSPAuthority.sign(rd);
+        if (mByName) {
+            rid = mOCSPAuthority.getResponderIDByName();
+        } else {
+            rid = mOCSPAuthority.getResponderIDByHash();
+        }
 
-            long signEndTime = CMS.getCurrentDate().getTime();
-            mOCSPAuthority.incSignTime(signEndTime - signStartTime);
+        Extension nonce[] = null;
 
-            if (statsSub != null) {
-                statsSub.endTiming("signing");
+        for (int j = 0; j < tbsReq.getExtensionsCount(); j++) {
+            Extension thisExt = tbsReq.getRequestExtensionAt(j);
+
+            if (thisExt.getExtnId().equals(IOCSPAuthority.OCSP_NONCE)) {
+                nonce = new Extension[1];
+                nonce[0] = thisExt;
             }
+        }
 
-            OCSPResponse response = new OCSPResponse(
-                    OCSPResponseStatus.SUCCESSFUL,
-                    new ResponseBytes(ResponseBytes.OCSP_BASIC,
-                            new OCTET_STRING(ASN1Util.encode(basicRes))));
+        ResponseData rd = new ResponseData(rid,
+                new GeneralizedTime(CMS.getCurrentDate()), res, nonce);
 
-            log(ILogger.LL_INFO, "done OCSP request");
+        if (statsSub != null) {
+            statsSub.endTiming("build_response");
+        }
 
-            long endTime = CMS.getCurrentDate().getTime();
-            mOCSPAuthority.incTotalTime(endTime - startTime);
+        if (statsSub != null) {
+            statsSub.startTiming("signing");
+        }
 
-            return response;
+        CRLIPContainer issuer = getIssuer(tbsReq.getRequestAt(0).getCertID());
+        long signStartTime = System.nanoTime();
 
-        } catch (EBaseException e) {
-            log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_REQUEST_FAILURE", e.toString()));
-            throw e;
+        BasicOCSPResponse basicRes = mOCSPAuthority.sign(rd);
 
-        } catch (Exception e) {
-            log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_REQUEST_FAILURE", e.toString()));
-            throw new EBaseException(e);
+        if (!prefetch) {
+            recordTime(issuer, OCSPStats.SIGN, signStartTime);
         }
+
+        if (statsSub != null) {
+            statsSub.endTiming("signing");
+        }
+
+        long encodeStartTime = System.nanoTime();
+
+        OCSPResponse response = new OCSPResponse(
+                OCSPResponseStatus.SUCCESSFUL,
+                new ResponseBytes(ResponseBytes.OCSP_BASIC,
+                        new OCTET_STRING(ASN1Util.encode(basicRes))));
+
+        if (!prefetch) {
+            recordTime(issuer, OCSPStats.ENCODE, encodeStartTime);
+        }
+
+        if (cid != null) {
+            cacheResponse(cid, res[0], response);
+        }
+
+        return response;
     }
 
     /**
-     * Check against the database for status.
+     * Returns the CertID of a request whose response can be cached:
+     * a request for a single certificate without a nonce.
+     *
+     * @return CertID, or null if the response cannot be cached
      */
-    private SingleResponse processRequest(Request req) throws Exception {
-        // need to find the right CA
+    private CertID getCacheableCertID(TBSRequest tbsReq) {
 
-        CertID cid = req.getCertID();
-        INTEGER serialNo = cid.getSerialNumber();
-        CMS.debug("DefStore: processing request for cert 0x" + serialNo.toString(16));
+        if (mResponseCacheSize <= 0 || tbsReq.getRequestCount() != 1) {
+            return null;
+        }
 
-        // cache result to speed up the performance
-        X509CertImpl theCert = null;
-        X509CRLImpl theCRL = null;
-        ICRLIssuingPointRecord theRec = null;
-        byte keyhsh[] = cid.getIssuerKeyHash().toByteArray();
-        CRLIPContainer matched = mCacheCRLIssuingPoints.get(new String(keyhsh));
+        for (int j = 0; j < tbsReq.getExtensionsCount(); j++) {
+            Extension thisExt = tbsReq.getRequestExtensionAt(j);
+
+            if (thisExt.getExtnId().equals(IOCSPAuthority.OCSP_NONCE)) {
+                return null;
+            }
+        }
+
+        return tbsReq.getRequestAt(0).getCertID();
+    }
+
+    private OCSPResponse getCachedResponse(CertID cid) {
+
+        CRLIPContainer matched = getIssuer(cid);
 
         if (matched == null) {
-            Enumeration<ICRLIssuingPointRecord> recs = searchCRLIssuingPointRecord(
-                    "objectclass=" +
-                            CMS.getCRLIssuingPointRecordName(),
-                    100);
+            return null;
+        }
 
-            while (recs.hasMoreElements()) {
-                ICRLIssuingPointRecord rec = recs.nextElement();
-                byte certdata[] = rec.getCACert();
-                X509CertImpl cert = null;
+        OCSPResponse response = matched.getResponse(cid);
+        if (response != null) {
+            incReqCount(matched.getCRLIssuingPointRecord().getId());
+        }
 
-                try {
-                    cert = new X509CertImpl(certdata);
-                } catch (Exception e) {
-                    // error
-                    log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_DECODE_CERT", e.toString()));
-                    throw e;
-                }
+        return response;
+    }
 
-                MessageDigest md = MessageDigest.getInstance(cid.getDigestName());
-                X509Key key = (X509Key) cert.getPublicKey();
-                byte digest[] = md.digest(key.getKey());
+    /**
+     * Keeps a signed response with the issuer, unless the issuer
+     * has been refreshed with another CRL since the lookup.
+     */
+    private void cacheResponse(CertID cid, SingleResponse sr, OCSPResponse response)
+            throws IOException {
 
-                if (!Arrays.equals(digest, keyhsh)) {
-                    continue;
-                }
+        CRLIPContainer matched = getIssuer(cid);
+
+        if (matched == null) {
+            return;
+        }
 
-                theCert = cert;
-                theRec = rec;
-                incReqCount(theRec.getId());
+        Date thisUpdate = matched.getThisUpdate();
+        if (thisUpdate == null || !thisUpdate.equals(sr.getThisUpdate().toDate())) {
+            return;
+        }
 
-                byte crldata[] = rec.getCRL();
+        // encode once, cached responses are served as they are
+        response.getEncoded();
 
-                if (crldata == null) {
-                    throw new Exception("Missing CRL data");
-                }
+        matched.putResponse(cid, response);
+    }
 
-                if (rec.getCRLCache() == null) {
-                    CMS.debug("DefStore: start building x509 crl impl");
-                    try {
-                        theCRL = new X509CRLImpl(crldata);
-                    } catch (Exception e) {
-                        log(ILogger.LL_FAILURE, CMS.getLogMessage("OCSP_DECODE_CRL", e.toString()));
-                        throw e;
-                    }
-                    CMS.debug("DefStore: done building x509 crl impl");
-                } else {
-                    CMS.debug("DefStore: using crl cache");
-                }
+    /**
+     * Signs responses for the given certificates so they are
+     * already cached when requested.
+     */
+    void prefetchResponses(Vector<CertID> cids) {
+
+        CMS.debug("DefStore: prefetching " + cids.size() + " responses");
+
+        for (CertID cid : cids) {
+            try {
+                SEQUENCE requestList = new SEQUENCE();
+                requestList.addElement(new Request(cid, null));
+
+                createResponse(new TBSRequest(null, null, requestList, null), cid, true);
 
-                mCacheCRLIssuingPoints.put(new String(digest), new CRLIPContainer(theRec, theCert, theCRL));
-                break;
+            } catch (Exception e) {
+                CMS.debug("DefStore: unable to prefetch response for cert 0x" +
+                        cid.getSerialNumber().toString(16) + ": " + e);
             }
+        }
+    }
 
-        } else {
-            theCert = matched.getX509CertImpl();
-            theRec = matched.getCRLIssuingPointRecord();
-            theCRL = matched.getX509CRLImpl();
+    /**
+     * Check against the database for status.
+     */
+    private SingleResponse processRequest(Request req, boolean prefetch) throws Exception {
+        // need to find the right CA
+
+        CertID cid = req.getCertID();
+        INTEGER serialNo = cid.getSerialNumber();
+        CMS.debug("DefStore: processing request for cert 0x" + serialNo.toString(16));
+
+        CRLIPContainer matched = getIssuer(cid);
+
+        if (matched == null) {
+            throw new Exception("Missing issuer certificate");
+        }
+
+        ICRLIssuingPointRecord theRec = matched.getCRLIssuingPointRecord();
+        if (!prefetch) {
             incReqCount(theRec.getId());
         }
 
-        if (theCert == null) {
-            throw new Exception("Missing issuer certificate");
+        if (theRec.getCRL() == null) {
+            throw new Exception("Missing CRL data");
         }
 
-        // check the serial number
-        audit(AuditFormat.LEVEL, "Checked Status of certificate 0x" + serialNo.toString(16));
+        X509CRLImpl theCRL = getCRL(matched);
 
-        GeneralizedTime thisUpdate;
+        if (theCRL == null) {
+            CMS.debug("DefStore: using crl cache");
+        }
 
-        if (theRec == null) {
-            thisUpdate = new GeneralizedTime(CMS.getCurrentDate());
-        } else {
-            Date d = theRec.getThisUpdate();
-            CMS.debug("DefStore: CRL record this update: " + d);
-            thisUpdate = new GeneralizedTime(d);
+        // check the serial number
+        if (!prefetch) {
+            audit(AuditFormat.LEVEL, "Checked Status of certificate 0x" + serialNo.toString(16));
         }
 
+        Date thisUpdateDate = matched.getThisUpdate();
+        CMS.debug("DefStore: CRL record this update: " + thisUpdateDate);
+        GeneralizedTime thisUpdate = new GeneralizedTime(thisUpdateDate);
+
         CMS.debug("DefStore: this update: " + thisUpdate.toDate());
 
         // this is an optional field
@@ -537,11 +907,8 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
         if (!includeNextUpdate()) {
             nextUpdate = null;
 
-        } else if (theRec == null) {
-            nextUpdate = new GeneralizedTime(CMS.getCurrentDate());
-
         } else {
-            Date d = theRec.getNextUpdate();
+            Date d = matched.getNextUpdate();
             CMS.debug("DefStore: CRL record next update: " + d);
             nextUpdate = new GeneralizedTime(d);
         }
@@ -550,20 +917,33 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
 
         CertStatus certStatus;
 
+        // changes since the CRL
+        RevokedCertificate deltaEntry = matched.getDeltaEntry(new BigInteger(serialNo.toString()));
+        if (deltaEntry != null) {
+            CMS.debug("DefStore: evaluating delta crl");
+
+            if (!isRemoveFromCRL(deltaEntry)) {
+                certStatus = new RevokedInfo(new GeneralizedTime(deltaEntry.getRevocationDate()));
+            } else if (isNotFoundGood()) {
+                certStatus = new GoodInfo();
+            } else {
+                certStatus = new UnknownInfo();
+            }
+
+            return new SingleResponse(cid, certStatus, thisUpdate,
+                    nextUpdate);
+        }
+
         if (theCRL == null) {
 
             certStatus = new UnknownInfo();
 
-            if (theRec == null) {
-                return new SingleResponse(cid, certStatus, thisUpdate, nextUpdate);
-            }
-
             // if crl is not available, we can try crl cache
             CMS.debug("DefStore: evaluating crl cache");
-            Hashtable<BigInteger, RevokedCertificate> cache = theRec.getCRLCacheNoClone();
+            RevokedSerialIndex cache = theRec.getRevokedSerialIndex();
             if (cache != null) {
-                RevokedCertificate rc = cache.get(new BigInteger(serialNo.toString()));
-                if (rc == null) {
+                Date revocationDate = cache.getRevocationDate(new BigInteger(serialNo.toString()));
+                if (revocationDate == null) {
                     if (isNotFoundGood()) {
                         certStatus = new GoodInfo();
                     } else {
@@ -572,8 +952,7 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
                 } else {
 
                     certStatus = new RevokedInfo(
-                            new GeneralizedTime(
-                                    rc.getRevocationDate()));
+                            new GeneralizedTime(revocationDate));
                 }
             }
 
@@ -704,6 +1083,8 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
             if (s != null)
                 s.close();
         }
+
+        loadIssuerIndex();
     }
 
     /**
@@ -722,6 +1103,8 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
             if (s != null)
                 s.close();
         }
+
+        indexIssuer(rec);
     }
 
     public Enumeration<IRepositoryRecord> searchRepository(String name, String filter)
@@ -863,74 +1246,254 @@ public class DefStore implements IDefStore, IExtendedPluginInfo {
     }
 
     public void updateCRL(X509CRL crl) throws EBaseException {
-        try {
-            mStateCount++;
+        synchronized (getIssuerLock(crl.getIssuerDN().getName())) {
+            try {
+                mStateCount++;
 
-            CMS.debug("DefStore: Ready to update Issuer");
+                CMS.debug("DefStore: Ready to update Issuer");
 
-            try {
-                if (!((X509CRLImpl) crl).areEntriesIncluded())
-                    crl = new X509CRLImpl(((X509CRLImpl) crl).getEncoded());
-            } catch (Exception e) {
-                CMS.debug(e);
-            }
+                try {
+                    if (!((X509CRLImpl) crl).areEntriesIncluded())
+                        crl = new X509CRLImpl(((X509CRLImpl) crl).getEncoded());
+                } catch (Exception e) {
+                    CMS.debug(e);
+                }
 
-            // commit update
-            ModificationSet mods = new ModificationSet();
-
-            if (crl.getThisUpdate() != null)
-                mods.add(ICRLIssuingPointRecord.ATTR_THIS_UPDATE,
-                        Modification.MOD_REPLACE, crl.getThisUpdate());
-            if (crl.getNextUpdate() != null)
-                mods.add(ICRLIssuingPointRecord.ATTR_NEXT_UPDATE,
-                        Modification.MOD_REPLACE, crl.getNextUpdate());
-            if (mUseCache) {
-                if (((X509CRLImpl) crl).getListOfRevokedCertificates() != null) {
-                    mods.add(ICRLIssuingPointRecord.ATTR_CRL_CACHE,
-                            Modification.MOD_REPLACE,
-                            ((X509CRLImpl) crl).getListOfRevokedCertificates());
+                // commit update
+                ModificationSet mods = new ModificationSet();
+
+                if (crl.getThisUpdate() != null)
+                    mods.add(ICRLIssuingPointRecord.ATTR_THIS_UPDATE,
+                            Modification.MOD_REPLACE, crl.getThisUpdate());
+                if (crl.getNextUpdate() != null)
+                    mods.add(ICRLIssuingPointRecord.ATTR_NEXT_UPDATE,
+                            Modification.MOD_REPLACE, crl.getNextUpdate());
+                if (mUseCache) {
+                    if (((X509CRLImpl) crl).getListOfRevokedCertificates() != null) {
+                        mods.add(ICRLIssuingPointRecord.ATTR_CRL_CACHE,
+                                Modification.MOD_REPLACE,
+                                ((X509CRLImpl) crl).getListOfRevokedCertificates());
+                    }
                 }
+                if (((X509CRLImpl) crl).getNumberOfRevokedCertificates() < 0) {
+                    mods.add(ICRLIssuingPointRecord.ATTR_CRL_SIZE,
+                            Modification.MOD_REPLACE, Long.valueOf(0));
+                } else {
+                    mods.add(ICRLIssuingPointRecord.ATTR_CRL_SIZE,
+                            Modification.MOD_REPLACE, Long.valueOf(((X509CRLImpl) crl).getNumberOfRevokedCertificates()));
+                }
+                BigInteger crlNumber = ((X509CRLImpl) crl).getCRLNumber();
+                if (crlNumber == null) {
+                    mods.add(ICRLIssuingPointRecord.ATTR_CRL_NUMBER,
+                            Modification.MOD_REPLACE, new BigInteger("-1"));
+                } else {
+                    mods.add(ICRLIssuingPointRecord.ATTR_CRL_NUMBER,
+                            Modification.MOD_REPLACE, crlNumber);
+                }
+                try {
+                    mods.add(ICRLIssuingPointRecord.ATTR_CRL,
+                            Modification.MOD_REPLACE, crl.getEncoded());
+                } catch (Exception e) {
+                    // ignore
+                }
+                CMS.debug("DefStore: ready to CRL update " +
+                        crl.getIssuerDN().getName());
+                modifyCRLIssuingPointRecord(
+                        crl.getIssuerDN().getName(), mods);
+                CMS.debug("DefStore: done CRL update " +
+                        crl.getIssuerDN().getName());
+
+                // update cache
+                reindexIssuer(crl.getIssuerDN().getName());
+
+                log(ILogger.LL_INFO, "AddCRLServlet: Finish Committing CRL." +
+                        " thisUpdate=" + crl.getThisUpdate() +
+                        " nextUpdate=" + crl.getNextUpdate());
+
+            } finally {
+                mStateCount--;
             }
-            if (((X509CRLImpl) crl).getNumberOfRevokedCertificates() < 0) {
-                mods.add(ICRLIssuingPointRecord.ATTR_CRL_SIZE,
-                        Modification.MOD_REPLACE, Long.valueOf(0));
-            } else {
-                mods.add(ICRLIssuingPointRecord.ATTR_CRL_SIZE,
-                        Modification.MOD_REPLACE, Long.valueOf(((X509CRLImpl) crl).getNumberOfRevokedCertificates()));
-            }
-            BigInteger crlNumber = ((X509CRLImpl) crl).getCRLNumber();
-            if (crlNumber == null) {
-                mods.add(ICRLIssuingPointRecord.ATTR_CRL_NUMBER,
-                        Modification.MOD_REPLACE, new BigInteger("-1"));
-            } else {
-                mods.add(ICRLIssuingPointRecord.ATTR_CRL_NUMBER,
-                        Modification.MOD_REPLACE, crlNumber);
-            }
+        }
+    }
+
+    /**
+     * Applies a delta CRL to its issuing point. The entries of the delta
+     * CRL take precedence over the CRL or CRL cache of the issuing point:
+     * entries with the removeFromCRL reason are no longer revoked, the
+     * other entries are revoked. The full CRL of the issuing point is
+     * kept as the base of the next delta CRLs.
+     */
+    public void updateDeltaCRL(X509CRL crl) throws EBaseException {
+
+        try {
+            mStateCount++;
+
+            X509CRLImpl deltaCRL = (X509CRLImpl) crl;
             try {
-                mods.add(ICRLIssuingPointRecord.ATTR_CRL,
-                        Modification.MOD_REPLACE, crl.getEncoded());
-            } catch (Exception e) {
-                // ignore
+                if (!deltaCRL.areEntriesIncluded())
+                    deltaCRL = new X509CRLImpl(deltaCRL.getEncoded());
+            } catch (CRLException | X509ExtensionException e) {
+                throw new EBaseException(e.toString());
             }
-            CMS.debug("DefStore: ready to CRL update " +
-                    crl.getIssuerDN().getName());
-            modifyCRLIssuingPointRecord(
-                    crl.getIssuerDN().getName(), mods);
-            CMS.debug("DefStore: done CRL update " +
-                    crl.getIssuerDN().getName());
 
-            // update cache
-            mCacheCRLIssuingPoints.clear();
+            String name = deltaCRL.getIssuerDN().getName();
 
-            log(ILogger.LL_INFO, "AddCRLServlet: Finish Committing CRL." +
-                    " thisUpdate=" + crl.getThisUpdate() +
-                    " nextUpdate=" + crl.getNextUpdate());
+            // concurrent updates of the same issuer must not interleave
+            synchronized (getIssuerLock(name)) {
+                applyDeltaCRL(crl, deltaCRL, name);
+            }
 
         } finally {
             mStateCount--;
         }
     }
 
+    private Object getIssuerLock(String name) {
+        Object lock = mIssuerLocks.get(name);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = mIssuerLocks.putIfAbsent(name, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Applies a delta CRL with the lock of its issuer held.
+     * <P>
+     * A delta CRL lists all changes since its base CRL, so it replaces
+     * the delta CRL applied before. Only the delta CRL is stored with
+     * the issuing point, the CRL and CRL cache are neither read nor
+     * written again. The next full CRL replaces both.
+     */
+    private void applyDeltaCRL(X509CRL crl, X509CRLImpl deltaCRL, String name) throws EBaseException {
+
+        CRLIPContainer container = mCacheCRLIssuingPoints.get(name);
+        if (container == null) {
+            ICRLIssuingPointRecord rec = readCRLIssuingPoint(name);
+            container = rec == null ? null : createContainer(rec);
+        }
+
+        if (container == null) {
+            throw new EBaseException("Unknown issuing point " + name);
+        }
+
+        ICRLIssuingPointRecord rec = container.getCRLIssuingPointRecord();
+
+        BigInteger baseNumber = deltaCRL.getDeltaBaseCRLNumber();
+        if (baseNumber == null || !baseNumber.equals(rec.getCRLNumber())) {
+            throw new EBaseException("Delta CRL base " + baseNumber +
+                    " does not match current CRL " + rec.getCRLNumber());
+        }
+
+        // a delta applied to the current CRL must be newer than the
+        // last delta applied to it
+        BigInteger deltaNumber = container.getDeltaCRLNumber();
+        if (deltaNumber != null && deltaCRL.getCRLNumber() != null &&
+                deltaCRL.getCRLNumber().compareTo(deltaNumber) <= 0) {
+            throw new EBaseException("Delta CRL " + deltaCRL.getCRLNumber() +
+                    " is not newer than applied delta CRL " + deltaNumber);
+        }
+
+        byte[] encoded;
+        try {
+            encoded = deltaCRL.getEncoded();
+        } catch (CRLException e) {
+            throw new EBaseException(e.toString());
+        }
+
+        Map<BigInteger, RevokedCertificate> entries = getDeltaEntries(deltaCRL);
+
+        ModificationSet mods = new ModificationSet();
+
+        if (crl.getThisUpdate() != null)
+            mods.add(ICRLIssuingPointRecord.ATTR_THIS_UPDATE,
+                    Modification.MOD_REPLACE, crl.getThisUpdate());
+        if (crl.getNextUpdate() != null)
+            mods.add(ICRLIssuingPointRecord.ATTR_NEXT_UPDATE,
+                    Modification.MOD_REPLACE, crl.getNextUpdate());
+        if (deltaCRL.getCRLNumber() != null)
+            mods.add(ICRLIssuingPointRecord.ATTR_DELTA_NUMBER,
+                    Modification.MOD_REPLACE, deltaCRL.getCRLNumber());
+        mods.add(ICRLIssuingPointRecord.ATTR_DELTA_SIZE,
+                Modification.MOD_REPLACE, Long.valueOf(entries.size()));
+        mods.add(ICRLIssuingPointRecord.ATTR_DELTA_CRL,
+                Modification.MOD_REPLACE, encoded);
+
+        modifyCRLIssuingPointRecord(name, mods);
+
+        // keep the decoded CRL, the signed responses are outdated
+        CRLIPContainer updated = new CRLIPContainer(rec, container.getX509CertImpl(),
+                container.getX509CRLImpl(), mResponseCacheSize);
+        updated.setDeltaCRL(deltaCRL.getCRLNumber(), entries,
+                crl.getThisUpdate(), crl.getNextUpdate());
+
+        CMS.debug("DefStore: delta CRL " + deltaCRL.getCRLNumber() + " applied with " +
+                entries.size() + " entries");
+
+        reindexIssuer(updated);
+
+        log(ILogger.LL_INFO, "AddCRLServlet: Finish Applying Delta CRL." +
+                " thisUpdate=" + crl.getThisUpdate() +
+                " nextUpdate=" + crl.getNextUpdate());
+    }
+
+    private boolean isRemoveFromCRL(RevokedCertificate entry) {
+
+        CRLExtensions exts = entry.getExtensions();
+        if (exts == null) {
+            return false;
+        }
+
+        for (Object ext : exts) {
+            if (ext instanceof CRLReasonExtension &&
+                    ((CRLReasonExtension) ext).getReason().toInt() == RevocationReason.REMOVE_FROM_CRL.toInt()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads an updated issuing point into the issuer index and signs
+     * the most requested responses of the replaced issuing point again.
+     */
+    private void reindexIssuer(String name) throws EBaseException {
+
+        ICRLIssuingPointRecord rec = readCRLIssuingPoint(name);
+        if (rec == null) {
+            return;
+        }
+
+        CRLIPContainer container = createContainer(rec);
+        if (container != null) {
+            reindexIssuer(container);
+        }
+    }
+
+    /**
+     * Replaces an issuing point in the issuer index and signs the most
+     * requested responses of the replaced issuing point again.
+     */
+    private void reindexIssuer(CRLIPContainer container) {
+
+        CRLIPContainer previous = indexIssuer(container);
+
+        Vector<CertID> hotCIDs = new Vector<CertID>();
+        if (mResponseCachePrefetch > 0 && previous != null) {
+            hotCIDs.addAll(previous.getHotCertIDs(mResponseCachePrefetch));
+        }
+
+        if (!hotCIDs.isEmpty()) {
+            DefStoreResponsePrefetcher prefetcher =
+                    new DefStoreResponsePrefetcher(this, hotCIDs);
+            prefetcher.start();
+        }
+    }
+
     public int getStateCount() {
         return mStateCount;
     }
@@ -955,12 +1518,38 @@ class DeleteOldCRLsThread extends Thread {
 class CRLIPContainer {
     private ICRLIssuingPointRecord mRec = null;
     private X509CertImpl mCert = null;
-    private X509CRLImpl mCRL = null;
+    private volatile X509CRLImpl mCRL = null;
+    // entries of the delta CRL applied to the CRL, or null
+    private Map<BigInteger, RevokedCertificate> mDeltaEntries = null;
+    private BigInteger mDeltaNumber = null;
+    private Date mThisUpdate = null;
+    private Date mNextUpdate = null;
+    private LinkedHashMap<String, CachedResponse> mResponses = null;
 
     public CRLIPContainer(ICRLIssuingPointRecord rec, X509CertImpl cert, X509CRLImpl crl) {
+        this(rec, cert, crl, 0);
+    }
+
+    /**
+     * @param responseCacheSize maximum number of signed responses
+     *            to keep for this issuer, least recently used first out
+     */
+    public CRLIPContainer(ICRLIssuingPointRecord rec, X509CertImpl cert, X509CRLImpl crl,
+            final int responseCacheSize) {
         mRec = rec;
         mCert = cert;
         mCRL = crl;
+        mThisUpdate = rec.getThisUpdate();
+        mNextUpdate = rec.getNextUpdate();
+        if (responseCacheSize > 0) {
+            mResponses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                    return size() > responseCacheSize;
+                }
+            };
+        }
     }
 
     public ICRLIssuingPointRecord getCRLIssuingPointRecord() {
@@ -974,23 +1563,143 @@ class CRLIPContainer {
     public X509CRLImpl getX509CRLImpl() {
         return mCRL;
     }
+
+    public void setX509CRLImpl(X509CRLImpl crl) {
+        mCRL = crl;
+    }
+
+    /**
+     * Applies a delta CRL before the container is indexed.
+     */
+    public void setDeltaCRL(BigInteger deltaNumber, Map<BigInteger, RevokedCertificate> entries,
+            Date thisUpdate, Date nextUpdate) {
+        mDeltaNumber = deltaNumber;
+        mDeltaEntries = entries;
+        if (thisUpdate != null) {
+            mThisUpdate = thisUpdate;
+        }
+        if (nextUpdate != null) {
+            mNextUpdate = nextUpdate;
+        }
+    }
+
+    public BigInteger getDeltaCRLNumber() {
+        return mDeltaNumber;
+    }
+
+    /**
+     * Returns the delta CRL entry of a certificate, or null if the
+     * certificate has not changed since the CRL.
+     */
+    public RevokedCertificate getDeltaEntry(BigInteger serialNumber) {
+        if (mDeltaEntries == null)
+            return null;
+        return mDeltaEntries.get(serialNumber);
+    }
+
+    public Date getThisUpdate() {
+        return mThisUpdate;
+    }
+
+    public Date getNextUpdate() {
+        return mNextUpdate;
+    }
+
+    public OCSPResponse getResponse(CertID cid) {
+        if (mResponses == null)
+            return null;
+
+        String key = getResponseKey(cid);
+        synchronized (mResponses) {
+            CachedResponse cached = mResponses.get(key);
+            if (cached == null)
+                return null;
+            cached.mHits++;
+            return cached.mResponse;
+        }
+    }
+
+    public void putResponse(CertID cid, OCSPResponse response) {
+        if (mResponses == null)
+            return;
+
+        String key = getResponseKey(cid);
+        synchronized (mResponses) {
+            mResponses.put(key, new CachedResponse(cid, response));
+        }
+    }
+
+    /**
+     * Returns the CertIDs of the most requested cached responses.
+     */
+    public Vector<CertID> getHotCertIDs(int max) {
+        Vector<CertID> cids = new Vector<CertID>();
+        if (mResponses == null)
+            return cids;
+
+        CachedResponse cached[];
+        synchronized (mResponses) {
+            cached = mResponses.values().toArray(new CachedResponse[mResponses.size()]);
+        }
+
+        Arrays.sort(cached, new Comparator<CachedResponse>() {
+            public int compare(CachedResponse r1, CachedResponse r2) {
+                return Long.compare(r2.mHits, r1.mHits);
+            }
+        });
+
+        for (int i = 0; i < cached.length && i < max; i++) {
+            cids.addElement(cached[i].mCID);
+        }
+        return cids;
+    }
+
+    private String getResponseKey(CertID cid) {
+        return Utils.base64encodeSingleLine(ASN1Util.encode(cid));
+    }
+}
+
+class CachedResponse {
+    CertID mCID;
+    OCSPResponse mResponse;
+    long mHits = 0;
+
+    public CachedResponse(CertID cid, OCSPResponse response) {
+        mCID = cid;
+        mResponse = response;
+    }
+}
+
+class DefStoreResponsePrefetcher extends Thread {
+    private DefStore mDefStore = null;
+    private Vector<CertID> mCIDs = null;
+
+    public DefStoreResponsePrefetcher(DefStore defStore, Vector<CertID> cids) {
+        super("DefStoreResponsePrefetcher");
+        mDefStore = defStore;
+        mCIDs = cids;
+    }
+
+    public void run() {
+        mDefStore.prefetchResponses(mCIDs);
+    }
 }
 
 class DefStoreCRLUpdater extends Thread {
-    private Hashtable<String, CRLIPContainer> mCache = null;
+    private DefStore mDefStore = null;
     private int mSec = 0;
 
-    public DefStoreCRLUpdater(Hashtable<String, CRLIPContainer> cache, int sec) {
-        mCache = cache;
+    public DefStoreCRLUpdater(DefStore defStore, int sec) {
+        mDefStore = defStore;
         mSec = sec;
     }
 
     public void run() {
         while (true) {
             try {
-                CMS.debug("DefStore: CRLUpdater invoked");
-                mCache.clear();
                 sleep(mSec * 1000); // turn sec into millis-sec
+                CMS.debug("DefStore: CRLUpdater invoked");
+                mDefStore.loadIssuerIndex();
             } catch (Exception e) {
                 // ignore
             }
@@ -26,6 +26,7 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Vector;
 
 import org.mozilla.jss.asn1.ASN1Util;
@@ -70,6 +71,7 @@ import netscape.ldap.LDAPException;
 import netscape.ldap.LDAPSearchResults;
 import netscape.ldap.LDAPv2;
 import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
 import netscape.security.x509.X509CRLImpl;
 import netscape.security.x509.X509CertImpl;
 import netscape.security.x509.X509Key;
@@ -412,6 +414,10 @@ public class LDAPStore implements IDefStore, IExtendedPluginInfo {
         throw new EBaseException("NOT SUPPORTED");
     }
 
+    public void updateDeltaCRL(X509CRL crl) throws EBaseException {
+        throw new EBaseException(CMS.getUserMessage("CMS_GW_DELTA_CRL_NOT_SUPPORTED"));
+    }
+
     public ICRLIssuingPointRecord readCRLIssuingPoint(String name)
             throws EBaseException {
         throw new EBaseException("NOT SUPPORTED");
@@ -691,7 +697,7 @@ class TempCRLIssuingPointRecord implements ICRLIssuingPointRecord {
         return null;
     }
 
-    public Hashtable<BigInteger, RevokedCertificate> getCRLCacheNoClone() {
+    public Map<BigInteger, RevokedCertificate> getCRLCacheNoClone() {
         return null;
     }
 
@@ -699,6 +705,10 @@ class TempCRLIssuingPointRecord implements ICRLIssuingPointRecord {
         return null;
     }
 
+    public RevokedSerialIndex getRevokedSerialIndex() {
+        return null;
+    }
+
     /**
      * Retrieves CRL encodings.
      */
@@ -19,14 +19,14 @@ package com.netscape.cms.profile.constraint;
 
 import java.math.BigInteger;
 import java.util.Date;
-import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 
 import com.netscape.certsrv.apps.CMS;
 import com.netscape.certsrv.base.IConfigStore;
 import com.netscape.certsrv.ca.ICertificateAuthority;
 import com.netscape.certsrv.dbs.certdb.ICertRecord;
-import com.netscape.certsrv.dbs.certdb.ICertRecordList;
 import com.netscape.certsrv.profile.EProfileException;
 import com.netscape.certsrv.profile.ERejectException;
 import com.netscape.certsrv.profile.IPolicyDefault;
@@ -115,8 +115,8 @@ public class UniqueKeyConstraint extends EnrollConstraint {
      * In case of renewing with new key, it would be no different from
      * regular enrollment
      *
-     * Search by ICertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA
-     * would tell us if its reusing the same key or not.
+     * Search by public key (ICertRecord.ATTR_X509CERT_PUBLIC_KEY_FINGERPRINT
+     * or ICertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA) would tell us if its reusing the same key or not.
      * If any cert with the same key in the repository is found
      * to be revoked, then the request is rejected
      *
@@ -129,7 +129,7 @@ public class UniqueKeyConstraint extends EnrollConstraint {
         String msg = "";
         boolean rejected = false;
         int size = 0;
-        ICertRecordList list;
+        List<ICertRecord> list;
 
         /*
         mRevokeDupKeyCert =
@@ -147,11 +147,9 @@ public class UniqueKeyConstraint extends EnrollConstraint {
 
             // check for key uniqueness
             byte pub[] = key.getEncoded();
-            String pub_s = escapeBinaryData(pub);
-            String filter = "(" + ICertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA + "=" + pub_s + ")";
             list =
-                    mCA.getCertificateRepository().findCertRecordsInList(filter, null, 10);
-            size = list.getSize();
+                    mCA.getCertificateRepository().findCertRecordsByPublicKey(pub, 10);
+            size = list.size();
 
         } catch (Exception e) {
             throw new ERejectException(
@@ -214,13 +212,13 @@ public class UniqueKeyConstraint extends EnrollConstraint {
                         sjname_in_req =
                                 (X500Name) subName.get(CertificateSubjectName.DN_NAME);
                         CMS.debug(method +" cert request subject DN =" + sjname_in_req.toString());
-                        Enumeration<ICertRecord> e = list.getCertRecords(0, size - 1);
+                        Iterator<ICertRecord> e = list.iterator();
                         Date latestOrigNotAfter = null;
                         Date origNotAfter = null;
                         boolean first = true;
-                        while (e != null && e.hasMoreElements()) {
+                        while (e.hasNext()) {
                             CMS.debug(method +  msg);
-                            ICertRecord rec = e.nextElement();
+                            ICertRecord rec = e.next();
                             BigInteger serial = rec.getSerialNumber();
                             msg = msg + "existing cert with same key found: " + serial.toString() + ";";
 
@@ -341,18 +339,6 @@ public class UniqueKeyConstraint extends EnrollConstraint {
                 "CMS_PROFILE_CONSTRAINT_ALLOW_SAME_KEY_RENEWAL_TEXT", params);
     }
 
-    public static String escapeBinaryData(byte data[]) {
-        StringBuffer sb = new StringBuffer();
-
-        for (int i = 0; i < data.length; i++) {
-            int v = 0xff & data[i];
-            sb.append("\\");
-            sb.append((v < 16 ? "0" : ""));
-            sb.append(Integer.toHexString(v));
-        }
-        return sb.toString();
-    }
-
     public boolean isApplicable(IPolicyDefault def) {
         if (def instanceof NoDefault)
             return true;
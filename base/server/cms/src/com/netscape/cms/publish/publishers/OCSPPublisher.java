@@ -17,6 +17,7 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cms.publish.publishers;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -38,11 +39,14 @@ import com.netscape.certsrv.ldap.ELdapException;
 import com.netscape.certsrv.logging.ILogger;
 import com.netscape.certsrv.publish.ILdapPublisher;
 import com.netscape.cmsutil.crypto.CryptoUtil;
+import com.netscape.cmsutil.http.Http;
 import com.netscape.cmsutil.http.HttpRequest;
+import com.netscape.cmsutil.http.HttpResponse;
 import com.netscape.cmsutil.http.JssSSLSocketFactory;
 import com.netscape.cmsutil.util.Utils;
 
 import netscape.ldap.LDAPConnection;
+import netscape.security.x509.X509CRLImpl;
 
 /**
  * This publisher writes certificate and CRL into
@@ -56,6 +60,9 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
     private static final String PROP_PATH = "path";
     private static final String PROP_NICK = "nickName";
     private static final String PROP_CLIENT_AUTH_ENABLE = "enableClientAuth";
+    private static final String PROP_BINARY = "binary";
+
+    public static final String PKIX_CRL_CONTENT_TYPE = "application/pkix-crl";
 
     private IConfigStore mConfig = null;
     private String mHost = null;
@@ -63,8 +70,14 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
     private String mPath = null;
     private String mNickname = null;
     private boolean mClientAuthEnabled = true;
+    private boolean mBinary = false;
     private ILogger mLogger = CMS.getLogger();
 
+    // connection kept open between binary CRL publishes
+    private Socket mSocket = null;
+    private BufferedReader mReader = null;
+    private Object mConnectionMonitor = new Object();
+
     /**
      * Returns the implementation name.
      */
@@ -86,6 +99,9 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
                 PROP_PATH + ";string;URI of CMS's OCSP Secure agent service",
                 PROP_NICK + ";string;Nickname of cert used for client authentication",
                 PROP_CLIENT_AUTH_ENABLE + ";boolean;Client Authentication enabled",
+                PROP_BINARY + ";boolean;Send DER-encoded CRLs over a persistent connection " +
+                        "instead of base64-encoded forms. Requires an OCSP server which accepts " +
+                        PKIX_CRL_CONTENT_TYPE,
                 IExtendedPluginInfo.HELP_TOKEN +
                         ";configuration-ldappublish-publisher-ocsppublisher",
                 IExtendedPluginInfo.HELP_TEXT +
@@ -105,6 +121,7 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
         String path = "";
         String nickname = "";
         String clientAuthEnabled = "";
+        String binary = "";
 
         try {
             host = mConfig.getString(PROP_HOST);
@@ -131,6 +148,11 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
         } catch (EBaseException e) {
         }
         v.addElement(PROP_CLIENT_AUTH_ENABLE + "=" + clientAuthEnabled);
+        try {
+            binary = mConfig.getString(PROP_BINARY, "false");
+        } catch (EBaseException e) {
+        }
+        v.addElement(PROP_BINARY + "=" + binary);
         return v;
     }
 
@@ -156,6 +178,7 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
         v.addElement(PROP_PATH + "=/ocsp/agent/ocsp/addCRL");
         v.addElement(PROP_CLIENT_AUTH_ENABLE + "=true");
         v.addElement(PROP_NICK + "=" + nickname);
+        v.addElement(PROP_BINARY + "=false");
         return v;
     }
 
@@ -170,6 +193,7 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
             mPath = mConfig.getString(PROP_PATH, "");
             mNickname = mConfig.getString(PROP_NICK, "");
             mClientAuthEnabled = mConfig.getBoolean(PROP_CLIENT_AUTH_ENABLE, true);
+            mBinary = mConfig.getBoolean(PROP_BINARY, false);
         } catch (EBaseException e) {
         }
     }
@@ -203,6 +227,44 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
         return null;
     }
 
+    /**
+     * Opens a connection to the agent port of the OCSP server.
+     */
+    protected Socket openConnection() throws IOException, ELdapException {
+
+        boolean secure = true;
+        Socket socket = null;
+        JssSSLSocketFactory factory;
+
+        if (mClientAuthEnabled) {
+            factory = new JssSSLSocketFactory(mNickname);
+        } else {
+            factory = new JssSSLSocketFactory();
+        }
+
+        if (mHost != null && mHost.indexOf(' ') != -1) {
+            // support failover hosts configuration
+            // host parameter can be
+            // "directory.knowledge.com:1050 people.catalog.com 199.254.1.2"
+            do {
+                socket = Connect(mHost, secure, factory);
+            } while (socket == null);
+        } else {
+            if (secure) {
+                socket = factory.makeSocket(mHost, Integer.parseInt(mPort));
+            } else {
+                socket = new Socket(mHost, Integer.parseInt(mPort));
+            }
+        }
+
+        if (socket == null) {
+            CMS.debug("OCSPPublisher::openConnection() - socket is null!");
+            throw new ELdapException("socket is null");
+        }
+
+        return socket;
+    }
+
     /**
      * Publishs a object to the ldap directory.
      *
@@ -214,110 +276,173 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
      *            (java.security.cert.X509Certificate or,
      *            java.security.cert.X509CRL)
      */
-    public synchronized void publish(LDAPConnection conn, String dn, Object object)
+    public void publish(LDAPConnection conn, String dn, Object object)
             throws ELdapException {
         try {
             if (!(object instanceof X509CRL))
                 return;
             X509CRL crl = (X509CRL) object;
 
-            // talk to agent port of CMS
-
-            // open the connection and prepare it to POST
-            boolean secure = true;
-
-            String host = mHost;
-            int port = Integer.parseInt(mPort);
-            String path = mPath;
-
-            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
-                    ILogger.LL_INFO, "OCSPPublisher: " +
-                            "Host='" + host + "' Port='" + port +
-                            "' URL='" + path + "'");
-            CMS.debug("OCSPPublisher: " +
-                    "Host='" + host + "' Port='" + port +
-                    "' URL='" + path + "'");
-
-            StringBuffer query = new StringBuffer();
-            query.append("crl=");
-            query.append(URLEncoder.encode("-----BEGIN CERTIFICATE REVOCATION LIST-----\n", "UTF-8"));
-            query.append(URLEncoder.encode(Utils.base64encode(crl.getEncoded(), true), "UTF-8"));
-            query.append(URLEncoder.encode("\n-----END CERTIFICATE REVOCATION LIST-----", "UTF-8"));
-            query.append("&noui=true");
-
-            Socket socket = null;
-            JssSSLSocketFactory factory;
-
-            if (mClientAuthEnabled) {
-                factory = new JssSSLSocketFactory(mNickname);
+            if (mBinary) {
+                publishBinary(crl);
             } else {
-                factory = new JssSSLSocketFactory();
+                publishForm(crl);
             }
 
-            if (mHost != null && mHost.indexOf(' ') != -1) {
-                // support failover hosts configuration
-                // host parameter can be
-                // "directory.knowledge.com:1050 people.catalog.com 199.254.1.2"
-                do {
-                    socket = Connect(mHost, secure, factory);
-                } while (socket == null);
-            } else {
-                if (secure) {
-                    socket = factory.makeSocket(host, port);
-                } else {
-                    socket = new Socket(host, port);
+        } catch (IOException e) {
+            CMS.debug("OCSPPublisher: publish failed " + e.toString());
+            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                    ILogger.LL_FAILURE, CMS.getLogMessage("PUBLISH_OCSP_PUBLISHER_ERROR", e.toString()));
+        } catch (CRLException e) {
+            CMS.debug("OCSPPublisher: publish failed " + e.toString());
+            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                    ILogger.LL_FAILURE, CMS.getLogMessage("PUBLISH_OCSP_PUBLISHER_ERROR", e.toString()));
+        } catch (Exception e) {
+            CMS.debug("OCSPPublisher: publish failed " + e.toString());
+            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                    ILogger.LL_FAILURE, CMS.getLogMessage("PUBLISH_OCSP_PUBLISHER_ERROR", e.toString()));
+        }
+    }
+
+    /**
+     * Sends the CRL base64-encoded in a form to the OCSP server
+     * over a new connection.
+     */
+    protected synchronized void publishForm(X509CRL crl)
+            throws IOException, CRLException, ELdapException {
+        // talk to agent port of CMS
+
+        String host = mHost;
+        int port = Integer.parseInt(mPort);
+        String path = mPath;
+
+        mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                ILogger.LL_INFO, "OCSPPublisher: " +
+                        "Host='" + host + "' Port='" + port +
+                        "' URL='" + path + "'");
+        CMS.debug("OCSPPublisher: " +
+                "Host='" + host + "' Port='" + port +
+                "' URL='" + path + "'");
+
+        StringBuffer query = new StringBuffer();
+        query.append("crl=");
+        query.append(URLEncoder.encode("-----BEGIN CERTIFICATE REVOCATION LIST-----\n", "UTF-8"));
+        query.append(URLEncoder.encode(Utils.base64encode(crl.getEncoded(), true), "UTF-8"));
+        query.append(URLEncoder.encode("\n-----END CERTIFICATE REVOCATION LIST-----", "UTF-8"));
+        query.append("&noui=true");
+
+        Socket socket = openConnection();
+
+        // use HttpRequest and POST
+        HttpRequest httpReq = new HttpRequest();
+
+        httpReq.setMethod("POST");
+        httpReq.setURI(path);
+        httpReq.setHeader("Connection", "Keep-Alive");
+
+        httpReq.setHeader("Content-Type",
+                "application/x-www-form-urlencoded");
+        httpReq.setHeader("Content-Transfer-Encoding", "7bit");
+
+        httpReq.setHeader("Content-Length",
+                Integer.toString(query.length()));
+        httpReq.setContent(query.toString());
+        OutputStream os = socket.getOutputStream();
+        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(os, "UTF8");
+
+        mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                ILogger.LL_INFO, "OCSPPublisher: start sending CRL");
+        long startTime = CMS.getCurrentDate().getTime();
+        CMS.debug("OCSPPublisher: start CRL sending startTime=" + startTime);
+        httpReq.write(outputStreamWriter);
+        long endTime = CMS.getCurrentDate().getTime();
+        CMS.debug("OCSPPublisher: done CRL sending endTime=" + endTime + " diff=" + (endTime - startTime));
+
+        // Read the response
+        mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                ILogger.LL_INFO, "OCSPPublisher: start getting response");
+        BufferedReader dis = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        String nextline;
+        String error = "";
+        boolean status = false;
+
+        while ((nextline = dis.readLine()) != null) {
+            if (nextline.startsWith("status=")) {
+                if (nextline.substring(7, nextline.length()).equals("0")) {
+                    status = true;
                 }
             }
-
-            if (socket == null) {
-                CMS.debug("OCSPPublisher::publish() - socket is null!");
-                throw new ELdapException("socket is null");
+            if (nextline.startsWith("error=")) {
+                error = nextline.substring(6, nextline.length());
             }
+        }
+        dis.close();
+        if (status) {
+            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                    ILogger.LL_INFO, "OCSPPublisher: successful");
+        } else {
+            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                    ILogger.LL_INFO, "OCSPPublisher: failed - " + error);
+        }
+    }
 
-            // use HttpRequest and POST
-            HttpRequest httpReq = new HttpRequest();
+    /**
+     * Sends the DER-encoded CRL as application/pkix-crl to the OCSP
+     * server. The connection is kept open for the next CRL as long as
+     * the server allows it, and opened again if it has been closed.
+     */
+    protected void publishBinary(X509CRL crl)
+            throws IOException, CRLException, ELdapException {
 
-            httpReq.setMethod("POST");
-            httpReq.setURI(path);
-            httpReq.setHeader("Connection", "Keep-Alive");
+        CMS.debug("OCSPPublisher: " +
+                "Host='" + mHost + "' Port='" + mPort +
+                "' URL='" + mPath + "' binary=true");
 
-            httpReq.setHeader("Content-Type",
-                    "application/x-www-form-urlencoded");
-            httpReq.setHeader("Content-Transfer-Encoding", "7bit");
+        synchronized (mConnectionMonitor) {
 
-            httpReq.setHeader("Content-Length",
-                    Integer.toString(query.length()));
-            httpReq.setContent(query.toString());
-            OutputStream os = socket.getOutputStream();
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(os, "UTF8");
+            boolean reused = mSocket != null;
+            HttpResponse response;
 
-            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
-                    ILogger.LL_INFO, "OCSPPublisher: start sending CRL");
-            long startTime = CMS.getCurrentDate().getTime();
-            CMS.debug("OCSPPublisher: start CRL sending startTime=" + startTime);
-            httpReq.write(outputStreamWriter);
-            long endTime = CMS.getCurrentDate().getTime();
-            CMS.debug("OCSPPublisher: done CRL sending endTime=" + endTime + " diff=" + (endTime - startTime));
-
-            // Read the response
-            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
-                    ILogger.LL_INFO, "OCSPPublisher: start getting response");
-            BufferedReader dis = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            String nextline;
-            String error = "";
-            boolean status = false;
+            try {
+                response = sendBinary(crl);
+
+            } catch (IOException e) {
+                closeConnection();
+                if (!reused) {
+                    throw e;
+                }
+                // the server may have closed the idle connection
+                CMS.debug("OCSPPublisher: reconnecting: " + e);
+                response = sendBinary(crl);
+            }
 
-            while ((nextline = dis.readLine()) != null) {
-                if (nextline.startsWith("status=")) {
-                    if (nextline.substring(7, nextline.length()).equals("0")) {
+            String connection = response.getHeader("connection");
+            boolean keepAlive = Http.Vers1_1.equals(response.getHttpVers()) ?
+                    !"close".equalsIgnoreCase(connection) :
+                    "keep-alive".equalsIgnoreCase(connection);
+
+            if (!keepAlive || response.getHeader("content-length") == null) {
+                closeConnection();
+            }
+
+            boolean status = false;
+            String error = "HTTP " + response.getStatusCode() + " " + response.getReasonPhrase();
+            String content = response.getContent();
+
+            if (content != null && "200".equals(response.getStatusCode())) {
+                error = "";
+                StringTokenizer st = new StringTokenizer(content, "\r\n");
+                while (st.hasMoreTokens()) {
+                    String nextline = st.nextToken();
+                    if (nextline.equals("status=0")) {
                         status = true;
                     }
-                }
-                if (nextline.startsWith("error=")) {
-                    error = nextline.substring(6, nextline.length());
+                    if (nextline.startsWith("error=")) {
+                        error = nextline.substring(6);
+                    }
                 }
             }
-            dis.close();
+
             if (status) {
                 mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
                         ILogger.LL_INFO, "OCSPPublisher: successful");
@@ -325,20 +450,68 @@ public class OCSPPublisher implements ILdapPublisher, IExtendedPluginInfo {
                 mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
                         ILogger.LL_INFO, "OCSPPublisher: failed - " + error);
             }
+        }
+    }
+
+    private HttpResponse sendBinary(X509CRL crl)
+            throws IOException, CRLException, ELdapException {
+
+        if (mSocket == null) {
+            mSocket = openConnection();
+            mReader = new BufferedReader(new InputStreamReader(mSocket.getInputStream(), "UTF-8"));
+        }
+
+        X509CRLImpl crlImpl = crl instanceof X509CRLImpl ? (X509CRLImpl) crl : null;
+        byte[] data = crlImpl == null ? crl.getEncoded() : null;
+        int length = crlImpl == null ? data.length : crlImpl.getEncodedLength();
+
+        StringBuilder header = new StringBuilder();
+        header.append(HttpRequest.POST + " " + mPath + " " + Http.HttpVers + Http.CRLF);
+        header.append("Connection: Keep-Alive" + Http.CRLF);
+        header.append("Content-Type: " + PKIX_CRL_CONTENT_TYPE + Http.CRLF);
+        header.append("Content-Length: " + length + Http.CRLF);
+        header.append(Http.CRLF);
+
+        OutputStream os = new BufferedOutputStream(mSocket.getOutputStream(), 65536);
+
+        mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                ILogger.LL_INFO, "OCSPPublisher: start sending CRL");
+        long startTime = CMS.getCurrentDate().getTime();
+        CMS.debug("OCSPPublisher: start CRL sending startTime=" + startTime + " length=" + length);
+
+        os.write(header.toString().getBytes("UTF-8"));
+        if (crlImpl == null) {
+            os.write(data);
+        } else {
+            crlImpl.writeEncoded(os);
+        }
+        os.flush();
+
+        long endTime = CMS.getCurrentDate().getTime();
+        CMS.debug("OCSPPublisher: done CRL sending endTime=" + endTime + " diff=" + (endTime - startTime));
+
+        mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
+                ILogger.LL_INFO, "OCSPPublisher: start getting response");
+        HttpResponse response = new HttpResponse();
+        response.parse(mReader);
+
+        return response;
+    }
+
+    private void closeConnection() {
+
+        if (mSocket == null) {
+            return;
+        }
 
+        try {
+            mSocket.close();
         } catch (IOException e) {
-            CMS.debug("OCSPPublisher: publish failed " + e.toString());
-            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
-                    ILogger.LL_FAILURE, CMS.getLogMessage("PUBLISH_OCSP_PUBLISHER_ERROR", e.toString()));
-        } catch (CRLException e) {
-            CMS.debug("OCSPPublisher: publish failed " + e.toString());
-            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
-                    ILogger.LL_FAILURE, CMS.getLogMessage("PUBLISH_OCSP_PUBLISHER_ERROR", e.toString()));
-        } catch (Exception e) {
-            CMS.debug("OCSPPublisher: publish failed " + e.toString());
-            mLogger.log(ILogger.EV_SYSTEM, ILogger.S_OTHER,
-                    ILogger.LL_FAILURE, CMS.getLogMessage("PUBLISH_OCSP_PUBLISHER_ERROR", e.toString()));
+            CMS.debug("OCSPPublisher: unable to close connection: " + e);
         }
+
+        mSocket = null;
+        mReader = null;
     }
 
     /**
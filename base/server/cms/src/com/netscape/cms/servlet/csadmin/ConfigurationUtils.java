@@ -131,6 +131,7 @@ import com.netscape.certsrv.usrgrp.EUsrGrpException;
 import com.netscape.certsrv.usrgrp.IGroup;
 import com.netscape.certsrv.usrgrp.IUGSubsystem;
 import com.netscape.certsrv.usrgrp.IUser;
+import com.netscape.cms.servlet.tks.SecureChannelProtocol;
 import com.netscape.cmsutil.crypto.CryptoUtil;
 import com.netscape.cmsutil.ldap.LDAPUtil;
 import com.netscape.cmsutil.util.Utils;
@@ -3902,6 +3903,7 @@ public class ConfigurationUtils {
 
             try {
                 CryptoUtil.importSharedSecret(sessionKeyData, sharedSecretData, dbNick, nick);
+                SecureChannelProtocol.invalidateSymKey(dbNick);
             } catch (Exception e) {
                 CMS.debug("getSharedSecret()): WARNING, Failed to automatically import shared secret. Please follow the manual procedure." + e.toString());
             }
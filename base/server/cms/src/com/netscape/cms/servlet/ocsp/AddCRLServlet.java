@@ -17,7 +17,10 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cms.servlet.ocsp;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
@@ -74,6 +77,7 @@ public class AddCRLServlet extends CMSServlet {
             "-----BEGIN CERTIFICATE REVOCATION LIST-----";
     public static final String END_HEADER =
             "-----END CERTIFICATE REVOCATION LIST-----";
+    public static final String PKIX_CRL_CONTENT_TYPE = "application/pkix-crl";
 
     private final static String TPL_FILE = "addCRL.template";
     private String mFormPath = null;
@@ -108,6 +112,8 @@ public class AddCRLServlet extends CMSServlet {
      * <li>http.param crl certificate revocation list, base-64, DER encoded wrapped in -----BEGIN CERTIFICATE REVOCATION
      * LIST-----, -----END CERTIFICATE REVOCATION LIST----- strings
      * <li>http.param noui if true, use minimal hardcoded text response
+     * <li>alternatively, a DER encoded CRL as application/pkix-crl request body, with a minimal text response
+     * <li>delta CRLs are applied to the CRL cache of the issuing point if they are based on its current CRL
      * <li>signed.audit LOGGING_SIGNED_AUDIT_CRL_RETRIEVAL used when CRLs are retrieved by the OCSP Responder ("agent"
      * or "EE")
      * <li>signed.audit LOGGING_SIGNED_AUDIT_CRL_VALIDATION used when CRL is retrieved and validation process occurs
@@ -171,26 +177,38 @@ public class AddCRLServlet extends CMSServlet {
                 }
             }
             log(ILogger.LL_INFO, "AddCRLServlet");
-            String b64 = cmsReq.getHttpReq().getParameter("crl");
-            if (CMS.debugOn())
-                CMS.debug("AddCRLServlet: b64=" + b64);
 
-            if (b64 == null) {
-                // store a message in the signed audit log file
-                auditMessage = CMS.getLogMessage(
-                        AuditEvent.CRL_RETRIEVAL,
-                        auditSubjectID,
-                        ILogger.FAILURE,
-                        auditCRLNum);
+            // a DER-encoded CRL in the request body instead of a form
+            String contentType = req.getContentType();
+            boolean binary = contentType != null &&
+                    contentType.toLowerCase().startsWith(PKIX_CRL_CONTENT_TYPE);
 
-                audit(auditMessage);
+            String b64 = null;
+            if (binary) {
+                CMS.debug("AddCRLServlet: binary CRL length=" + req.getContentLength());
 
-                throw new ECMSGWException(
-                        CMS.getUserMessage("CMS_GW_MISSING_CRL"));
+            } else {
+                b64 = cmsReq.getHttpReq().getParameter("crl");
+                if (CMS.debugOn())
+                    CMS.debug("AddCRLServlet: b64=" + b64);
+
+                if (b64 == null) {
+                    // store a message in the signed audit log file
+                    auditMessage = CMS.getLogMessage(
+                            AuditEvent.CRL_RETRIEVAL,
+                            auditSubjectID,
+                            ILogger.FAILURE,
+                            auditCRLNum);
+
+                    audit(auditMessage);
+
+                    throw new ECMSGWException(
+                            CMS.getUserMessage("CMS_GW_MISSING_CRL"));
+                }
             }
 
-            String nouiParm = cmsReq.getHttpReq().getParameter("noui");
-            boolean noUI = false;
+            String nouiParm = binary ? null : cmsReq.getHttpReq().getParameter("noui");
+            boolean noUI = binary;
 
             if (nouiParm != null && nouiParm.equals("true")) {
                 noUI = true;
@@ -228,7 +246,7 @@ public class AddCRLServlet extends CMSServlet {
             IArgBlock fixed = CMS.createArgBlock();
             CMSTemplateParams argSet = new CMSTemplateParams(header, fixed);
 
-            if (b64.indexOf(BEGIN_HEADER) == -1) {
+            if (!binary && b64.indexOf(BEGIN_HEADER) == -1) {
                 log(ILogger.LL_FAILURE,
                         CMS.getLogMessage("CMSGW_MISSING_CRL_HEADER"));
 
@@ -244,7 +262,7 @@ public class AddCRLServlet extends CMSServlet {
                 throw new ECMSGWException(CMS.getUserMessage(getLocale(req),
                                           "CMS_GW_MISSING_CRL_HEADER"));
             }
-            if (b64.indexOf(END_HEADER) == -1) {
+            if (!binary && b64.indexOf(END_HEADER) == -1) {
                 log(ILogger.LL_FAILURE,
                         CMS.getLogMessage("CMSGW_MISSING_CRL_FOOTER"));
 
@@ -271,7 +289,7 @@ public class AddCRLServlet extends CMSServlet {
                 if (statsSub != null) {
                     statsSub.startTiming("decode_crl");
                 }
-                crl = mapCRL1(b64);
+                crl = binary ? readCRL(req) : mapCRL1(b64);
                 if (statsSub != null) {
                     statsSub.endTiming("decode_crl");
                 }
@@ -412,9 +430,7 @@ public class AddCRLServlet extends CMSServlet {
                 }
             }
 
-            if ((pt.getThisUpdate() != null) &&
-                    (pt.getThisUpdate().getTime() >=
-                    crl.getThisUpdate().getTime())) {
+            if (isOlderCRL(pt, crl)) {
                 // error, the uploaded CRL is older than the current
                 CMS.debug("AddCRLServlet: no update, CRL is older");
                 log(ILogger.LL_INFO,
@@ -423,10 +439,8 @@ public class AddCRLServlet extends CMSServlet {
                 if (noUI) {
                     try {
                         resp.setContentType("application/text");
-                        resp.getOutputStream().write("status=1\n".getBytes());
-                        resp.getOutputStream().write(
-                                "error=Sent CRL is older than the current CRL\n".getBytes());
-                        resp.getOutputStream().flush();
+                        writeNoUIResponse(resp,
+                                "status=1\nerror=Sent CRL is older than the current CRL\n");
                         cmsReq.setStatus(ICMSRequest.SUCCESS);
 
                         // NOTE:  The signed audit events
@@ -451,59 +465,36 @@ public class AddCRLServlet extends CMSServlet {
             }
 
             if (crl.isDeltaCRL()) {
-                CMS.debug("AddCRLServlet: no update, Delta CRLs are not supported.");
-                log(ILogger.LL_INFO, "AddCRLServlet: no update, " +
-                        CMS.getUserMessage("CMS_GW_DELTA_CRL_NOT_SUPPORTED"));
-                if (noUI) {
-                    try {
-                        resp.setContentType("application/text");
-                        resp.getOutputStream().write("status=1\n".getBytes());
-                        resp.getOutputStream().write(
-                                "error=Delta CRLs are not supported.\n".getBytes());
-                        resp.getOutputStream().flush();
-                        cmsReq.setStatus(ICMSRequest.SUCCESS);
+                String error = null;
 
-                        return;
-                    } catch (Exception e) {
-                    }
-                } else {
-                    throw new ECMSGWException(CMS.getUserMessage("CMS_GW_DELTA_CRL_NOT_SUPPORTED"));
+                try {
+                    defStore.updateDeltaCRL(crl);
+                } catch (EBaseException e) {
+                    error = e.getMessage();
                 }
-            }
 
-            CMS.debug("AddCRLServlet: strt committing CRL");
-            log(ILogger.LL_INFO, "AddCRLServlet: Start Committing CRL");
-
-            // *****************************************************
-            // The commit transaction may take long time and
-            // there may have a system crash during the transaction
-            // *****************************************************
+                if (error != null) {
+                    CMS.debug("AddCRLServlet: no update, " + error);
+                    log(ILogger.LL_INFO, "AddCRLServlet: no update, " + error);
+                    if (noUI) {
+                        try {
+                            resp.setContentType("application/text");
+                            writeNoUIResponse(resp, "status=1\nerror=" + error + "\n");
+                            cmsReq.setStatus(ICMSRequest.SUCCESS);
+
+                            return;
+                        } catch (Exception e) {
+                        }
+                    } else {
+                        throw new ECMSGWException(error);
+                    }
+                }
 
-            IRepositoryRecord repRec = defStore.createRepositoryRecord();
+                log(ILogger.EV_AUDIT, AuditFormat.LEVEL, "Applied Delta CRL " +
+                        crl.getCRLNumber() + " " + Long.toString(crl.getThisUpdate().getTime()));
 
-            repRec.set(IRepositoryRecord.ATTR_SERIALNO,
-                    new BigInteger(Long.toString(crl.getThisUpdate().getTime())));
-            try {
-                defStore.addRepository(
-                        crl.getIssuerDN().getName(),
-                        Long.toString(crl.getThisUpdate().getTime()),
-                        repRec);
-                log(ILogger.EV_AUDIT, AuditFormat.LEVEL, "Added CRL Updated " +
-                        Long.toString(crl.getThisUpdate().getTime()));
-            } catch (Exception e) {
-                CMS.debug("AddCRLServlet: add repository e=" + e.toString());
-            }
-            log(ILogger.LL_INFO, "AddCRLServlet: Created CRL Repository " +
-                    Long.toString(crl.getThisUpdate().getTime()));
-
-            if (defStore.waitOnCRLUpdate()) {
-                defStore.updateCRL(crl);
             } else {
-                // when the CRL large, the thread is terminiated by the
-                // servlet framework before it can finish its work
-                UpdateCRLThread uct = new UpdateCRLThread(defStore, crl);
-
-                uct.start();
+                commitCRL(defStore, crl);
             }
 
             try {
@@ -512,8 +503,7 @@ public class AddCRLServlet extends CMSServlet {
                 if (noUI) {
                     CMS.debug("AddCRLServlet: return result noUI=true");
                     resp.setContentType("application/text");
-                    resp.getOutputStream().write("status=0".getBytes());
-                    resp.getOutputStream().flush();
+                    writeNoUIResponse(resp, "status=0");
                     cmsReq.setStatus(ICMSRequest.SUCCESS);
                 } else {
                     CMS.debug("AddCRLServlet: return result noUI=false");
@@ -568,6 +558,115 @@ public class AddCRLServlet extends CMSServlet {
         }
     }
 
+    /**
+     * Commits a full CRL to the default store.
+     */
+    private void commitCRL(IDefStore defStore, X509CRLImpl crl) throws EBaseException {
+        CMS.debug("AddCRLServlet: strt committing CRL");
+        log(ILogger.LL_INFO, "AddCRLServlet: Start Committing CRL");
+
+        // *****************************************************
+        // The commit transaction may take long time and
+        // there may have a system crash during the transaction
+        // *****************************************************
+
+        IRepositoryRecord repRec = defStore.createRepositoryRecord();
+
+        repRec.set(IRepositoryRecord.ATTR_SERIALNO,
+                new BigInteger(Long.toString(crl.getThisUpdate().getTime())));
+        try {
+            defStore.addRepository(
+                    crl.getIssuerDN().getName(),
+                    Long.toString(crl.getThisUpdate().getTime()),
+                    repRec);
+            log(ILogger.EV_AUDIT, AuditFormat.LEVEL, "Added CRL Updated " +
+                    Long.toString(crl.getThisUpdate().getTime()));
+        } catch (Exception e) {
+            CMS.debug("AddCRLServlet: add repository e=" + e.toString());
+        }
+        log(ILogger.LL_INFO, "AddCRLServlet: Created CRL Repository " +
+                Long.toString(crl.getThisUpdate().getTime()));
+
+        if (defStore.waitOnCRLUpdate()) {
+            defStore.updateCRL(crl);
+        } else {
+            // when the CRL large, the thread is terminiated by the
+            // servlet framework before it can finish its work
+            UpdateCRLThread uct = new UpdateCRLThread(defStore, crl);
+
+            uct.start();
+        }
+    }
+
+    /**
+     * Checks whether the received CRL is older than the current CRL.
+     * A full CRL is issued with the same thisUpdate as the delta CRL
+     * which may have been applied before it, so their CRL numbers
+     * are compared as well.
+     */
+    private boolean isOlderCRL(ICRLIssuingPointRecord pt, X509CRLImpl crl) {
+
+        if (pt.getThisUpdate() == null) {
+            return false;
+        }
+
+        long current = pt.getThisUpdate().getTime();
+        long received = crl.getThisUpdate().getTime();
+
+        if (current != received || crl.isDeltaCRL()) {
+            return current >= received;
+        }
+
+        BigInteger crlNumber = crl.getCRLNumber();
+        return crlNumber == null || pt.getCRLNumber() == null ||
+                crlNumber.compareTo(pt.getCRLNumber()) <= 0;
+    }
+
+    /**
+     * Writes a noUI response with its length so that the connection
+     * can be kept open for the next CRL.
+     */
+    private void writeNoUIResponse(HttpServletResponse resp, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        resp.setContentLength(bytes.length);
+        resp.getOutputStream().write(bytes);
+        resp.getOutputStream().flush();
+    }
+
+    /**
+     * Reads a DER-encoded CRL from the request body.
+     */
+    public X509CRLImpl readCRL(HttpServletRequest req)
+            throws IOException {
+
+        int length = req.getContentLength();
+        byte rawPub[];
+
+        try (InputStream in = req.getInputStream()) {
+            if (length >= 0) {
+                rawPub = new byte[length];
+                new DataInputStream(in).readFully(rawPub);
+            } else {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[65536];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    bos.write(buffer, 0, n);
+                }
+                rawPub = bos.toByteArray();
+            }
+        }
+
+        X509CRLImpl crl = null;
+
+        try {
+            crl = new X509CRLImpl(rawPub, false);
+        } catch (Exception e) {
+            throw new IOException(e.toString());
+        }
+        return crl;
+    }
+
     public X509CRLImpl mapCRL1(String mime64)
             throws IOException {
         mime64 = Cert.stripCRLBrackets(mime64.trim());
@@ -19,6 +19,7 @@ package com.netscape.cms.servlet.ocsp;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -34,12 +35,15 @@ import com.netscape.certsrv.base.EBaseException;
 import com.netscape.certsrv.base.IArgBlock;
 import com.netscape.certsrv.common.ICMSRequest;
 import com.netscape.certsrv.logging.ILogger;
+import com.netscape.certsrv.ocsp.IOCSPAuthority;
 import com.netscape.certsrv.ocsp.IOCSPService;
+import com.netscape.certsrv.ocsp.OCSPStats;
 import com.netscape.cms.servlet.base.CMSServlet;
 import com.netscape.cms.servlet.common.CMSRequest;
 import com.netscape.cms.servlet.common.CMSTemplate;
 import com.netscape.cms.servlet.common.CMSTemplateParams;
 import com.netscape.cms.servlet.common.ECMSGWException;
+import com.netscape.cmsutil.util.LatencyHistogram;
 
 /**
  * Retrieve information about the number of OCSP requests the OCSP
@@ -145,6 +149,26 @@ public class GetOCSPInfo extends CMSServlet {
             secs = (ca.getNumOCSPRequest() * 1000) / ca.getOCSPRequestTotalTime();
         }
         header.addLongValue("ReqSec", secs);
+
+        if (mAuthority instanceof IOCSPAuthority) {
+            IOCSPAuthority ocsp = (IOCSPAuthority) mAuthority;
+            header.addLongValue("signQueueDepth", ocsp.getSigningQueueDepth());
+            header.addLongValue("signQueueMaxDepth", ocsp.getMaxSigningQueueDepth());
+            header.addLongValue("signBatches", ocsp.getSigningBatches());
+            header.addLongValue("signLatency", ocsp.getSigningLatency());
+            header.addLongValue("signUtilization", ocsp.getSigningUtilization());
+
+            // latency percentiles in microseconds
+            addTimers(header, ocsp.getStats());
+
+            for (Map.Entry<String, OCSPStats> entry : ocsp.getAllIssuerStats().entrySet()) {
+                IArgBlock rarg = CMS.createArgBlock();
+                rarg.addStringValue("Id", entry.getKey());
+                rarg.addLongValue("numReq", entry.getValue().getRequests());
+                addTimers(rarg, entry.getValue());
+                argSet.addRepeatRecord(rarg);
+            }
+        }
         try {
             ServletOutputStream out = httpResp.getOutputStream();
 
@@ -162,4 +186,13 @@ public class GetOCSPInfo extends CMSServlet {
         return;
     }
 
+    private void addTimers(IArgBlock arg, OCSPStats stats) {
+        for (String name : OCSPStats.TIMERS) {
+            LatencyHistogram timer = stats.getTimer(name);
+            arg.addLongValue(name + "P50", timer.getPercentile(50));
+            arg.addLongValue(name + "P90", timer.getPercentile(90));
+            arg.addLongValue(name + "P99", timer.getPercentile(99));
+        }
+    }
+
 }
@@ -18,7 +18,6 @@
 package com.netscape.cms.servlet.ocsp;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
@@ -234,14 +233,7 @@ public class OCSPServlet extends CMSServlet {
             }
 
             if (response != null) {
-                ByteArrayOutputStream fos1 = new ByteArrayOutputStream();
-
-                response.encode(fos1);
-                fos1.close();
-
-                byte[] respbytes;
-
-                respbytes = fos1.toByteArray();
+                byte[] respbytes = response.getEncoded();
 
                 // print out OCSP response in debug mode so that
                 // we can validate the response
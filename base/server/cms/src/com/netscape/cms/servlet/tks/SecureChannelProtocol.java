@@ -8,6 +8,8 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mozilla.jss.CryptoManager;
 import org.mozilla.jss.CryptoManager.NotInitializedException;
@@ -48,6 +50,11 @@ public class SecureChannelProtocol {
     static final String DEFKEYSET_NAME = "defKeySet";
     static int protocol = 1;
 
+    // symmetric keys found on the tokens by token name and nickname
+    static final Map<String, SymmetricKey> symKeyCache = new ConcurrentHashMap<String, SymmetricKey>();
+    static final AtomicLong symKeyCacheHits = new AtomicLong();
+    static final AtomicLong symKeyEnumerations = new AtomicLong();
+
     public static final String encType = "enc";
     public static final String macType = "mac";
     public static final String kekType = "kek";
@@ -1096,10 +1103,29 @@ public class SecureChannelProtocol {
         if (token == null || name == null) {
             throw new EBaseException(method + "Invalid input data!");
         }
+
+        String cacheKey = getSymKeyCacheKey(token, name);
+
+        if (cacheKey != null) {
+            SymmetricKey cached = symKeyCache.get(cacheKey);
+
+            // a key deleted or renamed on the token no longer has this nickname
+            if (cached != null && name.equals(cached.getNickName())) {
+                symKeyCacheHits.incrementAndGet();
+                CMS.debug(method + "Found cached key: " + name);
+                return cached;
+            }
+
+            if (cached != null) {
+                symKeyCache.remove(cacheKey, cached);
+            }
+        }
+
         SymmetricKey[] keys;
 
         CMS.debug(method + "Searching for sym key: " + name);
         try {
+            symKeyEnumerations.incrementAndGet();
             keys = token.getCryptoStore().getSymmetricKeys();
         } catch (TokenException e) {
             throw new EBaseException(method + "Can't get the list of symmetric keys!");
@@ -1110,6 +1136,9 @@ public class SecureChannelProtocol {
             if (cur != null) {
                 if (name.equals(cur.getNickName())) {
                     CMS.debug(method + "Found key: " + name);
+                    if (cacheKey != null) {
+                        symKeyCache.put(cacheKey, cur);
+                    }
                     return cur;
                 }
             }
@@ -1119,6 +1148,48 @@ public class SecureChannelProtocol {
         return null;
     }
 
+    private static String getSymKeyCacheKey(CryptoToken token, String name) {
+        try {
+            return token.getName() + "\n" + name;
+        } catch (TokenException e) {
+            CMS.debug("SecureChannelProtocol.getSymKeyCacheKey: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Discards the cached symmetric key with the given nickname on all
+     * tokens. Must be called when a key is deleted or replaced.
+     */
+    public static void invalidateSymKey(String name) {
+        for (String cacheKey : symKeyCache.keySet()) {
+            if (cacheKey.endsWith("\n" + name)) {
+                symKeyCache.remove(cacheKey);
+            }
+        }
+    }
+
+    /**
+     * Discards all cached symmetric keys.
+     */
+    public static void invalidateSymKeys() {
+        symKeyCache.clear();
+    }
+
+    /**
+     * Returns how many symmetric key lookups were served from the cache.
+     */
+    public static long getSymKeyCacheHits() {
+        return symKeyCacheHits.get();
+    }
+
+    /**
+     * Returns how many times the symmetric keys of a token were enumerated.
+     */
+    public static long getSymKeyEnumerations() {
+        return symKeyEnumerations.get();
+    }
+
     public CryptoToken returnTokenByName(String name, CryptoManager manager) throws NoSuchTokenException, NotInitializedException {
 
         CMS.debug("returnTokenByName: requested name: " + name);
@@ -34,13 +34,24 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Timer;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -124,6 +135,8 @@ import com.netscape.cmscore.authentication.VerifiedCerts;
 import com.netscape.cmscore.authorization.AuthzSubsystem;
 import com.netscape.cmscore.base.ArgBlock;
 import com.netscape.cmscore.base.FileConfigStore;
+import com.netscape.cmscore.base.PropConfigStore;
+import com.netscape.cmscore.base.SourceConfigStore;
 import com.netscape.cmscore.base.SubsystemRegistry;
 import com.netscape.cmscore.cert.CertPrettyPrint;
 import com.netscape.cmscore.cert.CertUtils;
@@ -196,6 +209,7 @@ public class CMSEngine implements ICMSEngine {
     private static final String PROP_ID = "id";
     private static final String PROP_CLASS = "class";
     private static final String PROP_ENABLED = "enabled";
+    private static final String PROP_DEPENDS_ON = "dependsOn";
     private static final String SERVER_XML = "server.xml";
 
     // used for testing HSM issues
@@ -223,6 +237,7 @@ public class CMSEngine implements ICMSEngine {
     @SuppressWarnings("unused")
     private ISubsystem mOwner;
     private long mStartupTime = 0;
+    private long mInitTime = 0;
     private boolean isStarted = false;
     private StringBuffer mWarning = new StringBuffer();
     private ITimeSource mTimeSource = null;
@@ -525,6 +540,14 @@ public class CMSEngine implements ICMSEngine {
             throws EBaseException {
         mOwner = owner;
         mConfig = config;
+        mInitTime = System.currentTimeMillis();
+
+        SourceConfigStore source = getSourceConfigStore();
+        if (source != null && mConfig.getBoolean("debug.configLookupStats", false)) {
+            CMS.debug("CMSEngine: counting configuration lookups");
+            source.setLookupStatsEnabled(true);
+        }
+
         int state = mConfig.getInteger("cs.state");
 
         serverStatus = "starting";
@@ -855,6 +878,18 @@ public class CMSEngine implements ICMSEngine {
         }
     }
 
+    /**
+     * Returns the source of the main config store, or null if it is
+     * not a property config store.
+     */
+    private SourceConfigStore getSourceConfigStore() {
+        if (mConfig instanceof PropConfigStore
+                && ((PropConfigStore) mConfig).getSourceConfigStore() instanceof SourceConfigStore) {
+            return (SourceConfigStore) ((PropConfigStore) mConfig).getSourceConfigStore();
+        }
+        return null;
+    }
+
     public IConfigStore createFileConfigStore(String path) throws EBaseException {
         try {
             /* if the file is not there, create one */
@@ -1077,8 +1112,186 @@ public class CMSEngine implements ICMSEngine {
             throws EBaseException {
         if (sslist == null)
             return;
-        for (int i = 0; i < sslist.length; i++) {
-            initSubsystem(sslist[i], doSetId);
+        runSubsystems(sslist, false, doSetId);
+    }
+
+    /**
+     * Initializes or starts up the subsystems in a list. A subsystem
+     * without declared dependencies waits for all subsystems before it
+     * in the list, like a sequential startup. A subsystem that declares
+     * its dependencies (subsystem.N.dependsOn) only waits for those, so
+     * it may run concurrently with other subsystems.
+     * <P>
+     * Concurrent subsystems run on startup threads with the JSS thread
+     * token and the session context of the calling thread. The engine
+     * fields set up after a subsystem is initialized are shared, so
+     * that is done on the calling thread in list order once all
+     * subsystems of the list are initialized.
+     */
+    private void runSubsystems(SubsystemInfo[] sslist, final boolean startup, final boolean doSetId)
+            throws EBaseException {
+
+        boolean concurrent = false;
+        for (SubsystemInfo ssinfo : sslist) {
+            if (ssinfo.dependsOn != null) {
+                concurrent = true;
+            }
+        }
+
+        if (!concurrent) {
+            for (SubsystemInfo ssinfo : sslist) {
+                runSubsystem(ssinfo, startup, doSetId);
+                if (!startup) {
+                    initSubsystemSettings(ssinfo);
+                }
+            }
+            return;
+        }
+
+        // check all dependencies before running anything
+        Set<String> listed = new HashSet<String>();
+        for (SubsystemInfo ssinfo : sslist) {
+            listed.add(ssinfo.mId);
+        }
+
+        Set<String> before = new HashSet<String>();
+        for (SubsystemInfo ssinfo : sslist) {
+            if (ssinfo.dependsOn != null) {
+                for (String id : ssinfo.dependsOn) {
+                    // subsystems in earlier lists have completed already
+                    if (listed.contains(id) ? !before.contains(id) : mSSReg.get(id) == null) {
+                        throw new EBaseException("Subsystem " + ssinfo.mId + " depends on "
+                                + id + " which is not configured before it");
+                    }
+                }
+            }
+            before.add(ssinfo.mId);
+        }
+
+        CryptoToken token = null;
+        try {
+            token = CryptoManager.getInstance().getThreadToken();
+        } catch (CryptoManager.NotInitializedException e) {
+            // JSS has not been initialized yet
+        }
+
+        final CryptoToken threadToken = token;
+        final SessionContext sessionContext = SessionContext.getExistingContext();
+
+        ExecutorService executor = Executors.newFixedThreadPool(sslist.length, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CMSEngine-" + (startup ? "startup" : "init"));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        Hashtable<String, Future<Void>> futures = new Hashtable<String, Future<Void>>();
+
+        try {
+            List<Future<Void>> previous = new ArrayList<Future<Void>>();
+
+            for (final SubsystemInfo ssinfo : sslist) {
+                final List<Future<Void>> prerequisites = new ArrayList<Future<Void>>();
+
+                if (ssinfo.dependsOn == null) {
+                    prerequisites.addAll(previous);
+
+                } else {
+                    for (String id : ssinfo.dependsOn) {
+                        Future<Void> future = futures.get(id);
+                        if (future != null) {
+                            prerequisites.add(future);
+                        }
+                    }
+                }
+
+                Future<Void> future = completionService.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (Future<Void> prerequisite : prerequisites) {
+                            prerequisite.get();
+                        }
+                        if (threadToken != null) {
+                            CryptoManager.getInstance().setThreadToken(threadToken);
+                        }
+                        if (sessionContext != null) {
+                            SessionContext.setContext(sessionContext);
+                        }
+                        runSubsystem(ssinfo, startup, doSetId);
+                        return null;
+                    }
+                });
+
+                futures.put(ssinfo.mId, future);
+                previous.add(future);
+            }
+
+            // report the first failure, subsystems depending on
+            // the failed one fail with the same cause
+            for (int i = 0; i < sslist.length; i++) {
+                try {
+                    completionService.take().get();
+                } catch (InterruptedException e) {
+                    throw new EBaseException("Interrupted while waiting for subsystems: " + e, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    while (cause instanceof ExecutionException) {
+                        cause = cause.getCause();
+                    }
+                    if (cause instanceof EBaseException) {
+                        throw (EBaseException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new EBaseException("Unable to " + (startup ? "start" : "initialize")
+                            + " subsystems: " + cause, cause);
+                }
+            }
+
+        } finally {
+            // after a failure, stop the subsystems still waiting or running
+            for (Future<Void> future : futures.values()) {
+                future.cancel(true);
+            }
+            executor.shutdown();
+        }
+
+        if (!startup) {
+            for (SubsystemInfo ssinfo : sslist) {
+                initSubsystemSettings(ssinfo);
+            }
+        }
+    }
+
+    /**
+     * Initializes or starts up a subsystem and records when and how long.
+     */
+    private void runSubsystem(SubsystemInfo ssinfo, boolean startup, boolean doSetId)
+            throws EBaseException {
+
+        long start = System.currentTimeMillis();
+
+        try {
+            if (startup) {
+                startupSubsystem(ssinfo);
+            } else {
+                initSubsystem(ssinfo, doSetId);
+            }
+
+        } finally {
+            long time = System.currentTimeMillis() - start;
+            if (startup) {
+                ssinfo.startupStart = start;
+                ssinfo.startupTime = time;
+            } else {
+                ssinfo.initStart = start;
+                ssinfo.initTime = time;
+            }
         }
     }
 
@@ -1110,6 +1323,7 @@ public class CMSEngine implements ICMSEngine {
             String id = config.getString(PROP_ID);
             String classname = config.getString(PROP_CLASS);
             boolean enabled = config.getBoolean(PROP_ENABLED, true);
+            String dependsOn = config.getString(PROP_DEPENDS_ON, null);
             ISubsystem ss = null;
 
             try {
@@ -1124,11 +1338,30 @@ public class CMSEngine implements ICMSEngine {
                 throw new EBaseException(
                         CMS.getUserMessage("CMS_BASE_LOAD_FAILED_1", id, e.toString()));
             }
-            mDynSubsystems[i++] = new SubsystemInfo(id, ss, enabled);
+            mDynSubsystems[i] = new SubsystemInfo(id, ss, enabled);
+            if (dependsOn != null) {
+                mDynSubsystems[i].dependsOn = parseSubsystemIds(dependsOn);
+                Debug.trace("dyn subsystem " + id + " depends on " + dependsOn);
+            }
+            i++;
             Debug.trace("loaded dyn subsystem " + id);
         }
     }
 
+    /**
+     * Parses a comma-separated list of subsystem IDs.
+     */
+    private String[] parseSubsystemIds(String ids) {
+        List<String> list = new ArrayList<String>();
+        for (String id : ids.split(",")) {
+            id = id.trim();
+            if (!id.isEmpty()) {
+                list.add(id);
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
     /**
      * Set whether the given subsystem is enabled.
      *
@@ -1173,6 +1406,20 @@ public class CMSEngine implements ICMSEngine {
         }
         CMS.debug("CMSEngine: ready to init id=" + id);
         ss.init(this, ssConfig);
+    }
+
+    /**
+     * Sets up the engine fields that depend on an initialized subsystem.
+     * These fields are shared, so this runs on the engine thread even
+     * when the subsystem was initialized on a startup thread.
+     */
+    private void initSubsystemSettings(SubsystemInfo ssinfo)
+            throws EBaseException {
+        String id = ssinfo.mId;
+
+        if (!ssinfo.enabled) {
+            return;
+        }
 
         try {
             /*
@@ -1364,6 +1611,7 @@ public class CMSEngine implements ICMSEngine {
         // global admin servlet. (anywhere else more fit for this ?)
 
         mStartupTime = System.currentTimeMillis();
+        long rangesStart = mStartupTime;
 
         mQueue.removeLogEventListener(mWarningListener);
         if (!mWarning.toString().equals("")) {
@@ -1389,6 +1637,8 @@ public class CMSEngine implements ICMSEngine {
             kra.getKeyRepository().checkRanges();
         }
 
+        logStartupTimeline(System.currentTimeMillis() - rangesStart);
+
         /*LogDoc
          *
          * @phase server startup
@@ -1957,14 +2207,38 @@ public class CMSEngine implements ICMSEngine {
      */
     private void startupSubsystems(SubsystemInfo[] sslist)
             throws EBaseException {
-        ISubsystem ss = null;
+        runSubsystems(sslist, true, false);
+    }
 
-        for (int i = 0; i < sslist.length; i++) {
-            CMS.debug("CMSEngine: " + sslist[i].mId + " startup start");
-            ss = sslist[i].mInstance;
-            ss.startup();
-            CMS.debug("CMSEngine: " + sslist[i].mId + " startup done");
+    private void startupSubsystem(SubsystemInfo ssinfo)
+            throws EBaseException {
+        CMS.debug("CMSEngine: " + ssinfo.mId + " startup start");
+        ssinfo.mInstance.startup();
+        CMS.debug("CMSEngine: " + ssinfo.mId + " startup done");
+    }
+
+    /**
+     * Logs when each subsystem was initialized and started up, relative
+     * to the beginning of init(), and how long it took.
+     */
+    private void logStartupTimeline(long rangesTime) {
+        CMS.debug("CMSEngine: startup timeline (start+duration in ms):");
+
+        List<SubsystemInfo> all = new ArrayList<SubsystemInfo>();
+        all.addAll(Arrays.asList(mStaticSubsystems));
+        if (mDynSubsystems != null) {
+            all.addAll(Arrays.asList(mDynSubsystems));
         }
+        all.addAll(Arrays.asList(mFinalSubsystems));
+
+        for (SubsystemInfo ssinfo : all) {
+            CMS.debug("CMSEngine: - " + ssinfo.mId
+                    + ": init " + (ssinfo.initStart - mInitTime) + "+" + ssinfo.initTime
+                    + ", startup " + (ssinfo.startupStart - mInitTime) + "+" + ssinfo.startupTime);
+        }
+
+        CMS.debug("CMSEngine: - serial number ranges: " + rangesTime);
+        CMS.debug("CMSEngine: started in " + (System.currentTimeMillis() - mInitTime) + " ms");
     }
 
     public void disableRequests() {
@@ -2034,6 +2308,18 @@ public class CMSEngine implements ICMSEngine {
 
         CMS.debug("CMSEngine.shutdown()");
 
+        if (mVCList != null) {
+            CMS.debug("CMSEngine: " + mVCList);
+        }
+
+        SourceConfigStore source = getSourceConfigStore();
+        if (source != null && source.isLookupStatsEnabled()) {
+            CMS.debug("CMSEngine: most looked up configuration properties:");
+            for (Map.Entry<String, Long> entry : source.getLookupCounts(50).entrySet()) {
+                CMS.debug("CMSEngine: - " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+
         /*
                 CommandQueue commandQueue = new CommandQueue();
                 Thread t1 = new Thread(commandQueue);
@@ -2511,6 +2797,16 @@ class SubsystemInfo {
     public final ISubsystem mInstance;
     public final boolean enabled;
 
+    // IDs of the subsystems this one depends on, or null to depend
+    // on all subsystems before it
+    public String[] dependsOn;
+
+    // start times and durations in milliseconds
+    public volatile long initStart;
+    public volatile long initTime;
+    public volatile long startupStart;
+    public volatile long startupTime;
+
     public SubsystemInfo(String id, ISubsystem ssInstance) {
         this(id, ssInstance, true);
     }
@@ -18,42 +18,56 @@
 package com.netscape.cmscore.authentication;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.netscape.certsrv.apps.CMS;
 
 import netscape.security.x509.X509CertImpl;
 
 /**
  * class storing verified certificates.
+ * <P>
+ * The certificates are kept in a concurrent map keyed by serial number
+ * and encoding, so checks neither lock nor scan the whole list. When
+ * the list is full the oldest certificates are evicted first.
  *
  * @version $Revision$, $Date$
  */
 
 public class VerifiedCerts {
 
-    /* the value type of the dn component */
-    private int mFirst = 0;
-    private int mLast = 0;
-    private int mNext = 0;
-    private VerifiedCert[] mVCerts = null;
+    private int mSize = 0;
     private long mInterval = 0;
     private long mUnknownStateInterval = 0;
 
+    private ConcurrentHashMap<Key, Entry> mEntries = new ConcurrentHashMap<Key, Entry>();
+
+    /* entries in the order they were added, used for eviction */
+    private ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<Entry>();
+    private AtomicInteger mQueueSize = new AtomicInteger();
+
+    private AtomicLong mHits = new AtomicLong();
+    private AtomicLong mMisses = new AtomicLong();
+
     /**
      * Constructs verified certiificates list
      */
 
     public VerifiedCerts(int size, long interval) {
-        mVCerts = new VerifiedCert[size];
-        mInterval = interval;
-        mUnknownStateInterval = interval;
+        this(size, interval, interval);
     }
 
     public VerifiedCerts(int size, long interval, long unknownStateInterval) {
-        mVCerts = new VerifiedCert[size];
+        mSize = size;
         mInterval = interval;
         mUnknownStateInterval = unknownStateInterval;
     }
 
-    public synchronized void update(X509CertImpl cert, int status) {
+    public void update(X509CertImpl cert, int status) {
         if (cert != null) {
             byte[] certEncoded = null;
 
@@ -69,31 +83,31 @@ public class VerifiedCerts {
         }
     }
 
-    public synchronized void update(BigInteger serialNumber, byte[] certEncoded, int status) {
+    public void update(BigInteger serialNumber, byte[] certEncoded, int status) {
         if ((status == VerifiedCert.NOT_REVOKED ||
                 status == VerifiedCert.REVOKED ||
                 (status == VerifiedCert.CHECKED && mUnknownStateInterval > 0))
-                && mInterval > 0) {
-            if (mLast == mNext && mFirst == mNext) { // empty
-                mVCerts[mNext] = new VerifiedCert(serialNumber, certEncoded, status);
-                mNext = next(mNext);
-            } else if (mFirst == mNext) { // full
-                mFirst = next(mFirst);
-                mVCerts[mNext] = new VerifiedCert(serialNumber, certEncoded, status);
-                mLast = mNext;
-                mNext = next(mNext);
-            } else {
-                mVCerts[mNext] = new VerifiedCert(serialNumber, certEncoded, status);
-                mLast = mNext;
-                mNext = next(mNext);
+                && mInterval > 0 && mSize > 0) {
+
+            Entry entry = new Entry(new Key(serialNumber, certEncoded), status);
+            mEntries.put(entry.key, entry);
+            mQueue.add(entry);
+
+            // evict the oldest entry, which may have been replaced already
+            if (mQueueSize.incrementAndGet() > mSize) {
+                Entry oldest = mQueue.poll();
+                if (oldest != null) {
+                    mQueueSize.decrementAndGet();
+                    mEntries.remove(oldest.key, oldest);
+                }
             }
         }
     }
 
-    public synchronized int check(X509CertImpl cert) {
+    public int check(X509CertImpl cert) {
         int status = VerifiedCert.UNKNOWN;
 
-        if (mLast != mNext && mInterval > 0) { // if not empty and
+        if (!mEntries.isEmpty() && mInterval > 0) { // if not empty and
             if (cert != null) {
                 byte[] certEncoded = null;
 
@@ -110,49 +124,94 @@ public class VerifiedCerts {
         return status;
     }
 
-    public synchronized int check(BigInteger serialNumber, byte[] certEncoded) {
+    public int check(BigInteger serialNumber, byte[] certEncoded) {
         int status = VerifiedCert.UNKNOWN;
-        int i = mLast;
-
-        if (mVCerts != null && mLast != mNext && mInterval > 0) { // if not empty and
-            while (status == VerifiedCert.UNKNOWN) {
-                if (mVCerts[i] == null)
-                    return status;
-                status = mVCerts[i].check(serialNumber, certEncoded,
-                            mInterval, mUnknownStateInterval);
-                if (status == VerifiedCert.EXPIRED) {
-                    if (mFirst == mLast)
-                        mNext = mLast;
-                    else
-                        mFirst = next(i);
-                    break;
-                } else if (mFirst == i) {
-                    break;
-                } else {
-                    i = previous(i);
-                }
+
+        if (!mEntries.isEmpty() && mInterval > 0) { // if not empty and
+            long now = CMS.getCurrentDate().getTime();
+
+            Entry entry = certEncoded == null ? null : mEntries.get(new Key(serialNumber, certEncoded));
+
+            // certificates checked without encoding match any encoding
+            Entry checked = mUnknownStateInterval > 0 ? mEntries.get(new Key(serialNumber, null)) : null;
+
+            // the most recent entry wins
+            if (checked != null && (entry == null || checked.created > entry.created)) {
+                status = check(checked, now, mUnknownStateInterval);
+            } else if (entry != null) {
+                status = check(entry, now, mInterval);
             }
-            if (status == VerifiedCert.UNKNOWN)
-                status = mVCerts[i].check(serialNumber, certEncoded,
-                            mInterval, mUnknownStateInterval);
+        }
+
+        if (status == VerifiedCert.UNKNOWN || status == VerifiedCert.EXPIRED) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
         }
 
         return status;
     }
 
-    private int next(int i) {
-        i++;
-        if (i >= mVCerts.length)
-            i = 0;
+    private int check(Entry entry, long now, long interval) {
+        if (now > entry.created + interval * 1000) {
+            mEntries.remove(entry.key, entry);
+            return VerifiedCert.EXPIRED;
+        }
+        return entry.status;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public String toString() {
+        return "VerifiedCerts: size=" + size() + " hits=" + getHits() + " misses=" + getMisses();
+    }
+
+    static class Key {
 
-        return i;
+        BigInteger serialNumber;
+        byte[] certEncoded;
+        int hashCode;
+
+        Key(BigInteger serialNumber, byte[] certEncoded) {
+            this.serialNumber = serialNumber;
+            this.certEncoded = certEncoded;
+            this.hashCode = serialNumber.hashCode() * 31 + Arrays.hashCode(certEncoded);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Key))
+                return false;
+            Key key = (Key) object;
+            return hashCode == key.hashCode
+                    && serialNumber.equals(key.serialNumber)
+                    && Arrays.equals(certEncoded, key.certEncoded);
+        }
     }
 
-    private int previous(int i) {
-        if (i <= 0)
-            i = mVCerts.length;
-        i--;
+    static class Entry {
 
-        return i;
+        Key key;
+        int status;
+        long created;
+
+        Entry(Key key, int status) {
+            this.key = key;
+            this.status = status;
+            this.created = CMS.getCurrentDate().getTime();
+        }
     }
 }
@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.math.BigInteger;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Map;
@@ -207,6 +208,11 @@ public class PropConfigStore implements IConfigStore, Cloneable {
      * @param map the map
      */
     private synchronized void enumerate(Map<String, String> map) {
+        if (mSource instanceof SourceConfigStore) {
+            ((SourceConfigStore) mSource).getProperties(mStoreName, map);
+            return;
+        }
+
         Enumeration<String> e = mSource.keys();
         // We only want the keys which match the current substore name
         // without the current substore prefix.  This code works even
@@ -256,6 +262,7 @@ public class PropConfigStore implements IConfigStore, Cloneable {
      */
     public String getString(String name) throws EBaseException {
         String str = get(name);
+        String fullName = getFullName(name);
 
         if (str == null) {
             CMS.traceHashKey(mDebugType, getFullName(name), "<notpresent>");
@@ -265,6 +272,12 @@ public class PropConfigStore implements IConfigStore, Cloneable {
         // if (str.length() == 0) {
         //	throw new EPropertyNotDefined(getName() + "." + name);
         // }
+        Object cached = getTypedValue(fullName, str);
+        if (cached instanceof String) {
+            CMS.traceHashKey(mDebugType, fullName, (String) cached);
+            return (String) cached;
+        }
+
         String ret = null;
 
         try {
@@ -272,7 +285,8 @@ public class PropConfigStore implements IConfigStore, Cloneable {
         } catch (java.io.UnsupportedEncodingException e) {
             throw new EBaseException(CMS.getUserMessage("CMS_BASE_UTF8_NOT_SUPPORTED"));
         }
-        CMS.traceHashKey(mDebugType, getFullName(name), ret);
+        putTypedValue(fullName, str, ret);
+        CMS.traceHashKey(mDebugType, fullName, ret);
         return ret;
     }
 
@@ -390,9 +404,16 @@ public class PropConfigStore implements IConfigStore, Cloneable {
             throw new EPropertyNotDefined(CMS.getUserMessage("CMS_BASE_GET_PROPERTY_NOVALUE", getName() + "." + name));
         }
 
+        Object cached = getTypedValue(getFullName(name), value);
+        if (cached instanceof Boolean) {
+            return (Boolean) cached;
+        }
+
         if (value.equalsIgnoreCase("true")) {
+            putTypedValue(getFullName(name), value, Boolean.TRUE);
             return true;
         } else if (value.equalsIgnoreCase("false")) {
+            putTypedValue(getFullName(name), value, Boolean.FALSE);
             return false;
         } else {
             throw new EBaseException(CMS.getUserMessage("CMS_BASE_INVALID_PROPERTY_1", getName() + "." + name,
@@ -455,9 +476,16 @@ public class PropConfigStore implements IConfigStore, Cloneable {
         if (value.length() == 0) {
             throw new EPropertyNotDefined(CMS.getUserMessage("CMS_BASE_GET_PROPERTY_NOVALUE", getName() + "." + name));
         }
+        Object cached = getTypedValue(getFullName(name), value);
+        if (cached instanceof Integer) {
+            CMS.traceHashKey(mDebugType, getFullName(name), value);
+            return (Integer) cached;
+        }
         try {
             CMS.traceHashKey(mDebugType, getFullName(name), value);
-            return Integer.parseInt(value);
+            int result = Integer.parseInt(value);
+            putTypedValue(getFullName(name), value, result);
+            return result;
         } catch (NumberFormatException e) {
             throw new EBaseException(CMS.getUserMessage("CMS_BASE_INVALID_PROPERTY_1", getName() + "." + name, "int",
                     "number"));
@@ -515,13 +543,21 @@ public class PropConfigStore implements IConfigStore, Cloneable {
         if (value.length() == 0) {
             throw new EPropertyNotDefined(CMS.getUserMessage("CMS_BASE_GET_PROPERTY_NOVALUE", getName() + "." + name));
         }
+        Object cached = getTypedValue(getFullName(name), value);
+        if (cached instanceof BigInteger) {
+            return (BigInteger) cached;
+        }
         try {
+            BigInteger result;
             if (value.startsWith("0x") || value.startsWith("0X")) {
                 String val = value.substring(2);
 
-                return new BigInteger(val, 16);
+                result = new BigInteger(val, 16);
+            } else {
+                result = new BigInteger(value);
             }
-            return new BigInteger(value);
+            putTypedValue(getFullName(name), value, result);
+            return result;
         } catch (NumberFormatException e) {
             throw new EBaseException(CMS.getUserMessage("CMS_BASE_INVALID_PROPERTY_1", getName() + "." + name,
                     "BigInteger", "number"));
@@ -591,6 +627,19 @@ public class PropConfigStore implements IConfigStore, Cloneable {
      */
     @SuppressWarnings("unchecked")
     public void removeSubStore(String name) {
+        if (mSource instanceof SourceConfigStore) {
+            SourceConfigStore source = (SourceConfigStore) mSource;
+            String fullName = getFullName(name);
+
+            Map<String, String> map = new TreeMap<String, String>();
+            source.getProperties(fullName, map);
+
+            for (String key : map.keySet()) {
+                source.remove(fullName + "." + key);
+            }
+            return;
+        }
+
         // this operation is expensive!!!
 
         Enumeration<String> e = mSource.keys();
@@ -650,6 +699,10 @@ public class PropConfigStore implements IConfigStore, Cloneable {
      * @return a list of string-based property names
      */
     public Enumeration<String> getPropertyNames() {
+        if (mSource instanceof SourceConfigStore) {
+            return Collections.enumeration(((SourceConfigStore) mSource).getPropertyNames(mStoreName));
+        }
+
         // XXX - this operation is expensive!!!
         Map<String, String> map = getProperties();
 
@@ -672,6 +725,10 @@ public class PropConfigStore implements IConfigStore, Cloneable {
      * @return list of substore names
      */
     public Enumeration<String> getSubStoreNames() {
+        if (mSource instanceof SourceConfigStore) {
+            return Collections.enumeration(((SourceConfigStore) mSource).getSubStoreNames(mStoreName));
+        }
+
         // XXX - this operation is expensive!!!
         Map<String, String> map = getProperties();
 
@@ -719,6 +776,23 @@ public class PropConfigStore implements IConfigStore, Cloneable {
         }
     }
 
+    /**
+     * Returns the typed value memoized for a property if the property
+     * still has the given string value, or null.
+     */
+    private Object getTypedValue(String fullName, String value) {
+        if (mSource instanceof SourceConfigStore) {
+            return ((SourceConfigStore) mSource).getTypedValue(fullName, value);
+        }
+        return null;
+    }
+
+    private void putTypedValue(String fullName, String value, Object typedValue) {
+        if (mSource instanceof SourceConfigStore) {
+            ((SourceConfigStore) mSource).putTypedValue(fullName, value, typedValue);
+        }
+    }
+
     /**
      * Converts the substore parameters.
      *
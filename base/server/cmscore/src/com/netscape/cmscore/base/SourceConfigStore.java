@@ -17,12 +17,31 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cmscore.base;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.netscape.certsrv.base.ISourceConfigStore;
 
 /**
  * This class is is a wrapper to hide the Properties methods from
  * the PropConfigStore. Lucky for us, Properties already implements
  * almost every thing ISourceConfigStore requires.
+ * <P>
+ * The property names are also indexed in a tree of their dot-separated
+ * components, so that the properties and substores under a prefix can
+ * be listed without scanning every property. The index is maintained
+ * by put(), remove() and clear().
+ * <P>
+ * Typed values parsed from the properties (e.g. by getBoolean()) are
+ * memoized together with the string they were parsed from, so a value
+ * is parsed again only when the property changes.
  *
  * @version $Revision$, $Date$
  * @see java.util.Properties
@@ -34,6 +53,25 @@ public class SourceConfigStore extends SimpleProperties implements ISourceConfig
      */
     private static final long serialVersionUID = -1703553593020810628L;
 
+    /**
+     * Orders substore names like the property names they come from,
+     * i.e. "a" (from "a.x") after "a-b" (from "a-b.y").
+     */
+    private static final Comparator<String> SUBSTORE_ORDER = new Comparator<String>() {
+        public int compare(String name1, String name2) {
+            return (name1 + ".").compareTo(name2 + ".");
+        }
+    };
+
+    // rebuilt on demand, e.g. after deserialization
+    private transient Node mIndex;
+
+    private transient ConcurrentHashMap<String, TypedValue> mTypedValues =
+            new ConcurrentHashMap<String, TypedValue>();
+
+    // null unless lookup statistics are enabled
+    private transient volatile ConcurrentHashMap<String, AtomicLong> mLookups;
+
     /**
      * Retrieves a property from the config store
      * <P>
@@ -42,6 +80,10 @@ public class SourceConfigStore extends SimpleProperties implements ISourceConfig
      * @return property value
      */
     public String get(String name) {
+        ConcurrentHashMap<String, AtomicLong> lookups = mLookups;
+        if (lookups != null) {
+            countLookup(lookups, name);
+        }
         return super.get(name); // from Properties->Hashtable
     }
 
@@ -53,7 +95,300 @@ public class SourceConfigStore extends SimpleProperties implements ISourceConfig
      * @param value property value
      * @return
      */
-    public String put(String name, String value) {
-        return super.put(name, value); // from Properties->Hashtable
+    public synchronized String put(String name, String value) {
+        String oldValue = super.put(name, value); // from Properties->Hashtable
+        if (oldValue == null && mIndex != null) {
+            mIndex.add(name);
+        }
+        getTypedValues().remove(name);
+        return oldValue;
+    }
+
+    public synchronized String remove(Object key) {
+        String oldValue = super.remove(key);
+        if (oldValue != null && mIndex != null) {
+            mIndex.remove((String) key);
+        }
+        if (key != null) {
+            getTypedValues().remove(key);
+        }
+        return oldValue;
+    }
+
+    public synchronized void clear() {
+        super.clear();
+        mIndex = null;
+        getTypedValues().clear();
+    }
+
+    /**
+     * Returns the names of the properties directly under a prefix,
+     * in lexicographic order.
+     *
+     * @param prefix prefix without the trailing dot, or null for the top level
+     */
+    public synchronized List<String> getPropertyNames(String prefix) {
+        List<String> names = new ArrayList<String>();
+        Node node = getIndex().find(prefix);
+        if (node == null || node.children == null) {
+            return names;
+        }
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            if (entry.getValue().hasValue) {
+                names.add(entry.getKey());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Returns the names of the substores directly under a prefix, in
+     * the order of their property names.
+     *
+     * @param prefix prefix without the trailing dot, or null for the top level
+     */
+    public synchronized List<String> getSubStoreNames(String prefix) {
+        List<String> names = new ArrayList<String>();
+        Node node = getIndex().find(prefix);
+        if (node == null || node.children == null) {
+            return names;
+        }
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            if (entry.getValue().children != null) {
+                names.add(entry.getKey());
+            }
+        }
+        Collections.sort(names, SUBSTORE_ORDER);
+        return names;
+    }
+
+    /**
+     * Fills a map with the properties under a prefix, keyed by their
+     * names without the prefix.
+     *
+     * @param prefix prefix without the trailing dot, or null for all properties
+     * @param map the map to fill
+     */
+    public synchronized void getProperties(String prefix, Map<String, String> map) {
+        Node node = getIndex().find(prefix);
+        if (node == null || node.children == null) {
+            return;
+        }
+        String fullPrefix = prefix == null ? "" : prefix + ".";
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            collect(entry.getValue(), fullPrefix, entry.getKey(), map);
+        }
+    }
+
+    private void collect(Node node, String fullPrefix, String name, Map<String, String> map) {
+        if (node.hasValue) {
+            map.put(name, super.get(fullPrefix + name));
+        }
+        if (node.children == null) {
+            return;
+        }
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            collect(entry.getValue(), fullPrefix, name + "." + entry.getKey(), map);
+        }
+    }
+
+    private Node getIndex() {
+        if (mIndex == null) {
+            Node index = new Node();
+            for (String name : keySet()) {
+                index.add(name);
+            }
+            mIndex = index;
+        }
+        return mIndex;
+    }
+
+    private ConcurrentHashMap<String, TypedValue> getTypedValues() {
+        // transient fields are not initialized after deserialization
+        if (mTypedValues == null) {
+            mTypedValues = new ConcurrentHashMap<String, TypedValue>();
+        }
+        return mTypedValues;
+    }
+
+    /**
+     * Returns a typed value memoized for a property, or null if the
+     * property has changed since the value was parsed.
+     *
+     * @param name property name
+     * @param value current string value of the property
+     */
+    public Object getTypedValue(String name, String value) {
+        TypedValue typedValue = getTypedValues().get(name);
+        if (typedValue == null || typedValue.string != value) {
+            return null;
+        }
+        return typedValue.value;
+    }
+
+    /**
+     * Memoizes a typed value parsed from a property.
+     *
+     * @param name property name
+     * @param value string value the typed value was parsed from
+     * @param typedValue typed value
+     */
+    public void putTypedValue(String name, String value, Object typedValue) {
+        getTypedValues().put(name, new TypedValue(value, typedValue));
+    }
+
+    /**
+     * Enables or disables counting lookups per property. Disabling
+     * discards the counts.
+     */
+    public void setLookupStatsEnabled(boolean enabled) {
+        if (!enabled) {
+            mLookups = null;
+        } else if (mLookups == null) {
+            mLookups = new ConcurrentHashMap<String, AtomicLong>();
+        }
+    }
+
+    public boolean isLookupStatsEnabled() {
+        return mLookups != null;
+    }
+
+    private void countLookup(ConcurrentHashMap<String, AtomicLong> lookups, String name) {
+        AtomicLong count = lookups.get(name);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong current = lookups.putIfAbsent(name, count);
+            if (current != null) {
+                count = current;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Returns the most looked up properties with their lookup counts,
+     * in descending order of counts.
+     *
+     * @param max maximum number of properties to return
+     */
+    public Map<String, Long> getLookupCounts(int max) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        ConcurrentHashMap<String, AtomicLong> lookups = mLookups;
+        if (lookups == null) {
+            return result;
+        }
+
+        List<Map.Entry<String, AtomicLong>> entries =
+                new ArrayList<Map.Entry<String, AtomicLong>>(lookups.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, AtomicLong>>() {
+            public int compare(Map.Entry<String, AtomicLong> e1, Map.Entry<String, AtomicLong> e2) {
+                return Long.compare(e2.getValue().get(), e1.getValue().get());
+            }
+        });
+
+        for (Map.Entry<String, AtomicLong> entry : entries) {
+            if (result.size() >= max) {
+                break;
+            }
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * A component of the property names. The number of properties in
+     * the subtree is kept so that empty branches can be removed.
+     */
+    static class Node {
+
+        HashMap<String, Node> children;
+        boolean hasValue;
+        int size;
+
+        Node find(String prefix) {
+            if (prefix == null) {
+                return this;
+            }
+            Node node = this;
+            int start = 0;
+            while (node != null) {
+                int end = prefix.indexOf('.', start);
+                String name = end < 0 ? prefix.substring(start) : prefix.substring(start, end);
+                node = node.children == null ? null : node.children.get(name);
+                if (end < 0) {
+                    break;
+                }
+                start = end + 1;
+            }
+            return node;
+        }
+
+        void add(String key) {
+            Node node = this;
+            node.size++;
+            int start = 0;
+            while (true) {
+                int end = key.indexOf('.', start);
+                String name = end < 0 ? key.substring(start) : key.substring(start, end);
+                if (node.children == null) {
+                    node.children = new HashMap<String, Node>();
+                }
+                Node child = node.children.get(name);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(name, child);
+                }
+                node = child;
+                node.size++;
+                if (end < 0) {
+                    break;
+                }
+                start = end + 1;
+            }
+            node.hasValue = true;
+        }
+
+        void remove(String key) {
+            Node node = this;
+            node.size--;
+            int start = 0;
+            while (node != null) {
+                int end = key.indexOf('.', start);
+                String name = end < 0 ? key.substring(start) : key.substring(start, end);
+                Node child = node.children == null ? null : node.children.get(name);
+                if (child == null) {
+                    return;
+                }
+                child.size--;
+                if (child.size == 0) {
+                    node.children.remove(name);
+                    if (node.children.isEmpty()) {
+                        node.children = null;
+                    }
+                    return;
+                }
+                if (end < 0) {
+                    child.hasValue = false;
+                    return;
+                }
+                node = child;
+                start = end + 1;
+            }
+        }
+    }
+
+    /**
+     * A typed value and the string it was parsed from.
+     */
+    static class TypedValue {
+
+        String string;
+        Object value;
+
+        TypedValue(String string, Object value) {
+            this.string = string;
+            this.value = value;
+        }
     }
 }
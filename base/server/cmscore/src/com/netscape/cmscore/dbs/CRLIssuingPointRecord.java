@@ -18,12 +18,15 @@
 package com.netscape.cmscore.dbs;
 
 import java.math.BigInteger;
+import java.security.cert.CRLException;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Vector;
 
 import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
 
 import com.netscape.certsrv.apps.CMS;
 import com.netscape.certsrv.base.EBaseException;
@@ -54,6 +57,7 @@ public class CRLIssuingPointRecord implements ICRLIssuingPointRecord, IDBObj {
     protected byte mCRL[] = null;
     protected byte mCACert[] = null;
     protected Hashtable<BigInteger, RevokedCertificate> mCRLCache = null;
+    protected transient volatile RevokedSerialIndex mCRLCacheIndex = null;
     protected Hashtable<BigInteger, RevokedCertificate> mRevokedCerts = null;
     protected Hashtable<BigInteger, RevokedCertificate> mUnrevokedCerts = null;
     protected Hashtable<BigInteger, RevokedCertificate> mExpiredCerts = null;
@@ -148,7 +152,10 @@ public class CRLIssuingPointRecord implements ICRLIssuingPointRecord, IDBObj {
         } else if (name.equalsIgnoreCase(ATTR_CA_CERT)) {
             mCACert = (byte[]) obj;
         } else if (name.equalsIgnoreCase(ATTR_CRL_CACHE)) {
-            mCRLCache = (Hashtable<BigInteger, RevokedCertificate>) obj;
+            synchronized (this) {
+                mCRLCache = (Hashtable<BigInteger, RevokedCertificate>) obj;
+                mCRLCacheIndex = null;
+            }
         } else if (name.equalsIgnoreCase(ATTR_REVOKED_CERTS)) {
             mRevokedCerts = (Hashtable<BigInteger, RevokedCertificate>) obj;
         } else if (name.equalsIgnoreCase(ATTR_UNREVOKED_CERTS)) {
@@ -184,7 +191,7 @@ public class CRLIssuingPointRecord implements ICRLIssuingPointRecord, IDBObj {
         } else if (name.equalsIgnoreCase(ATTR_CA_CERT)) {
             return mCACert;
         } else if (name.equalsIgnoreCase(ATTR_CRL_CACHE)) {
-            return mCRLCache;
+            return getCRLCacheNoClone();
         } else if (name.equalsIgnoreCase(ATTR_REVOKED_CERTS)) {
             return mRevokedCerts;
         } else if (name.equalsIgnoreCase(ATTR_UNREVOKED_CERTS)) {
@@ -284,19 +291,54 @@ public class CRLIssuingPointRecord implements ICRLIssuingPointRecord, IDBObj {
         return mCACert;
     }
 
-    public Hashtable<BigInteger, RevokedCertificate> getCRLCacheNoClone() {
-        if (mCRLCache == null)
-            return null;
-        else
-            return mCRLCache;
+    /**
+     * Retrieves the CRL cache. If the cache has been released in favor
+     * of the compact index, a read-only view of the index is returned.
+     */
+    public synchronized Map<BigInteger, RevokedCertificate> getCRLCacheNoClone() {
+        if (mCRLCache == null && mCRLCacheIndex != null) {
+            return mCRLCacheIndex.asMap();
+        }
+        return mCRLCache;
     }
 
+    /**
+     * Retrieves a copy of the CRL cache. If the cache has been released
+     * in favor of the compact index, the copy is rebuilt from the index.
+     */
     @SuppressWarnings("unchecked")
-    public Hashtable<BigInteger, RevokedCertificate> getCRLCache() {
+    public synchronized Hashtable<BigInteger, RevokedCertificate> getCRLCache() {
+        if (mCRLCache == null && mCRLCacheIndex != null) {
+            try {
+                return mCRLCacheIndex.toHashtable();
+            } catch (CRLException e) {
+                CMS.debug("CRLIssuingPointRecord: unable to rebuild CRL cache: " + e);
+                return null;
+            }
+        }
         if (mCRLCache == null)
             return null;
-        else
-            return (Hashtable<BigInteger, RevokedCertificate>) mCRLCache.clone();
+        return (Hashtable<BigInteger, RevokedCertificate>) mCRLCache.clone();
+    }
+
+    public RevokedSerialIndex getRevokedSerialIndex() {
+        RevokedSerialIndex index = mCRLCacheIndex;
+        if (index != null)
+            return index;
+
+        synchronized (this) {
+            if (mCRLCacheIndex == null && mCRLCache != null) {
+                try {
+                    mCRLCacheIndex = new RevokedSerialIndex(mCRLCache.values());
+                    CMS.debug("CRLIssuingPointRecord: indexed " + mCRLCacheIndex.size() +
+                            " cached CRL entries in " + mCRLCacheIndex.getBufferSize() + " bytes");
+                    mCRLCache = null;
+                } catch (CRLException e) {
+                    CMS.debug("CRLIssuingPointRecord: unable to index CRL cache: " + e);
+                }
+            }
+            return mCRLCacheIndex;
+        }
     }
 
     /**
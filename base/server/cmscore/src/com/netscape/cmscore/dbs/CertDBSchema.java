@@ -33,6 +33,7 @@ public class CertDBSchema {
     public static final String LDAP_ATTR_CREATE_TIME = "dateOfCreate";
     public static final String LDAP_ATTR_MODIFY_TIME = "dateOfModify";
     public static final String LDAP_ATTR_PUBLIC_KEY_DATA = "publicKeyData";
+    public static final String LDAP_ATTR_PUBLIC_KEY_FINGERPRINT = "publicKeyFingerprint";
 
     public static final String LDAP_OC_CERT_RECORD = "certificateRecord";
     public static final String LDAP_ATTR_CERT_RECORD_ID = "certRecordId";
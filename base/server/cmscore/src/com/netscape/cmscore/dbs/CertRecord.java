@@ -17,8 +17,10 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cmscore.dbs;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -31,8 +33,12 @@ import com.netscape.certsrv.dbs.IDBObj;
 import com.netscape.certsrv.dbs.certdb.ICertRecord;
 import com.netscape.certsrv.dbs.certdb.IRevocationInfo;
 
+import netscape.security.util.DerInputStream;
+import netscape.security.util.DerSequenceView;
+import netscape.security.util.DerValue;
 import netscape.security.x509.CRLExtensions;
 import netscape.security.x509.CRLReasonExtension;
+import netscape.security.x509.CertificateValidity;
 import netscape.security.x509.RevocationReason;
 import netscape.security.x509.X509CertImpl;
 import netscape.security.x509.X509ExtensionException;
@@ -52,6 +58,12 @@ public class CertRecord implements IDBObj, ICertRecord {
     private static final long serialVersionUID = -6231895305929417777L;
     private BigInteger mId = null;
     private X509CertImpl mX509Certificate = null;
+    // encoded certificate which has not been decoded yet
+    private byte[] mEncodedCertificate = null;
+    private Date mNotBefore = null;
+    private Date mNotAfter = null;
+    private String mPublicKeyFingerprint = null;
+    private byte[] mPublicKeyData = null;
     private String mStatus = null;
     private String mAutoRenew = null;
     private MetaInfo mMetaInfo = null;
@@ -110,7 +122,7 @@ public class CertRecord implements IDBObj, ICertRecord {
         } else if (name.equalsIgnoreCase(ATTR_META_INFO)) {
             mMetaInfo = (MetaInfo) obj;
         } else if (name.equalsIgnoreCase(ATTR_X509CERT)) {
-            mX509Certificate = (X509CertImpl) obj;
+            setCertificate((X509CertImpl) obj);
         } else if (name.equalsIgnoreCase(ATTR_CERT_STATUS)) {
             mStatus = (String) obj;
         } else if (name.equalsIgnoreCase(ATTR_AUTO_RENEW)) {
@@ -141,7 +153,7 @@ public class CertRecord implements IDBObj, ICertRecord {
         } else if (name.equalsIgnoreCase(ATTR_META_INFO)) {
             return mMetaInfo;
         } else if (name.equalsIgnoreCase(ATTR_X509CERT)) {
-            return mX509Certificate;
+            return getCertificate();
         } else if (name.equalsIgnoreCase(ATTR_CERT_STATUS)) {
             return mStatus;
         } else if (name.equalsIgnoreCase(ATTR_AUTO_RENEW)) {
@@ -177,12 +189,75 @@ public class CertRecord implements IDBObj, ICertRecord {
     }
 
     /**
-     * Retrieves X509 certificate.
+     * Retrieves X509 certificate. A certificate read from the
+     * database is decoded on the first call.
      */
-    public X509CertImpl getCertificate() {
+    public synchronized X509CertImpl getCertificate() {
+        if (mX509Certificate == null && mEncodedCertificate != null) {
+            try {
+                mX509Certificate = new X509CertImpl(mEncodedCertificate);
+            } catch (CertificateException e) {
+                CMS.debug("CertRecord: unable to decode certificate " + mId + ": " + e);
+            }
+            mEncodedCertificate = null;
+        }
         return mX509Certificate;
     }
 
+    private synchronized void setCertificate(X509CertImpl cert) {
+        mX509Certificate = cert;
+        mEncodedCertificate = null;
+        mNotBefore = null;
+        mNotAfter = null;
+    }
+
+    /**
+     * Sets the DER encoding of the certificate, which is decoded
+     * when the certificate is retrieved.
+     */
+    public synchronized void setEncodedCertificate(byte[] der) {
+        mX509Certificate = null;
+        mEncodedCertificate = der;
+        mNotBefore = null;
+        mNotAfter = null;
+    }
+
+    /**
+     * Sets the validity of a certificate which has not been read
+     * from the database, e.g. when the search only returned the
+     * notBefore and notAfter attributes.
+     */
+    public synchronized void setValidity(Date notBefore, Date notAfter) {
+        mNotBefore = notBefore;
+        mNotAfter = notAfter;
+    }
+
+    /**
+     * Sets the public key attributes of a certificate which has not
+     * been read from the database, e.g. when the search only returned
+     * the publicKeyFingerprint or publicKeyData attributes.
+     */
+    public synchronized void setPublicKey(String fingerprint, byte[] data) {
+        mPublicKeyFingerprint = fingerprint;
+        mPublicKeyData = data;
+    }
+
+    /**
+     * Returns the publicKeyFingerprint attribute returned by the
+     * search, or null.
+     */
+    public synchronized String getPublicKeyFingerprint() {
+        return mPublicKeyFingerprint;
+    }
+
+    /**
+     * Returns the publicKeyData attribute returned by the search,
+     * or null.
+     */
+    public synchronized byte[] getPublicKeyData() {
+        return mPublicKeyData;
+    }
+
     /**
      * Retrieves meta information.
      */
@@ -245,18 +320,53 @@ public class CertRecord implements IDBObj, ICertRecord {
      * Retrieves certificate serial number.
      */
     public BigInteger getCertificateSerialNumber() {
-        return mX509Certificate.getSerialNumber();
+        return getCertificate().getSerialNumber();
     }
 
     /**
      * Retrieves not after.
      */
-    public Date getNotAfter() {
-        return mX509Certificate.getNotAfter();
+    public synchronized Date getNotAfter() {
+        if (mX509Certificate == null)
+            loadValidity();
+        if (mX509Certificate != null)
+            return mX509Certificate.getNotAfter();
+        return mNotAfter;
+    }
+
+    public synchronized Date getNotBefore() {
+        if (mX509Certificate == null)
+            loadValidity();
+        if (mX509Certificate != null)
+            return mX509Certificate.getNotBefore();
+        return mNotBefore;
     }
 
-    public Date getNotBefore() {
-        return mX509Certificate.getNotBefore();
+    /**
+     * Reads the validity from the encoded certificate without
+     * decoding the rest of it.
+     */
+    private synchronized void loadValidity() {
+        if (mX509Certificate != null || mEncodedCertificate == null || mNotAfter != null)
+            return;
+        try {
+            // Certificate ::= SEQUENCE { tbsCertificate, ... }
+            // TBSCertificate ::= SEQUENCE { [0] version OPTIONAL,
+            //     serialNumber, signature, issuer, validity, ... }
+            DerSequenceView cert = new DerSequenceView(DerValue.wrap(mEncodedCertificate));
+            DerSequenceView tbs = new DerSequenceView(cert.get(0));
+
+            int index = tbs.get(0).isContextSpecific((byte) 0) ? 1 : 0;
+            CertificateValidity validity = new CertificateValidity(
+                    new DerInputStream(tbs.get(index + 3).toByteArray()));
+
+            mNotBefore = (Date) validity.get(CertificateValidity.NOT_BEFORE);
+            mNotAfter = (Date) validity.get(CertificateValidity.NOT_AFTER);
+        } catch (IOException | RuntimeException e) {
+            // fall back to decoding the whole certificate
+            CMS.debug("CertRecord: unable to read validity of certificate " + mId + ": " + e);
+            getCertificate();
+        }
     }
 
     /**
@@ -19,18 +19,26 @@ package com.netscape.cmscore.dbs;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.codec.binary.Hex;
+
 import com.netscape.certsrv.apps.CMS;
 import com.netscape.certsrv.base.EBaseException;
 import com.netscape.certsrv.base.IConfigStore;
@@ -85,6 +93,8 @@ public class CertificateRepository extends Repository
     private static final String PROP_COLLISION_RECOVERY_STEPS = "collisionRecoverySteps";
     private static final String PROP_COLLISION_RECOVERY_REGENERATIONS = "collisionRecoveryRegenerations";
     private static final String PROP_MINIMUM_RANDOM_BITS = "minimumRandomBits";
+    private static final String PROP_RANDOM_SERIAL_NUMBER_BATCH_SIZE = "randomSerialNumberBatchSize";
+    private static final String PROP_RANDOM_SERIAL_NUMBER_BATCH_LIFETIME = "randomSerialNumberBatchLifetime";
     private static final BigInteger BI_MINUS_ONE = (BigInteger.ZERO).subtract(BigInteger.ONE);
 
     private IDBSubsystem mDBService;
@@ -105,9 +115,14 @@ public class CertificateRepository extends Repository
     private int mMinRandomBitLength = 4;
     private int mMaxCollisionRecoverySteps = 10;
     private int mMaxCollisionRecoveryRegenerations = 3;
+    private int mRandomSerialNumberBatchSize = 0;
+    private int mRandomSerialNumberBatchLifetime = 60;
     private IConfigStore mDBConfig = null;
     private boolean mForceModeChange = false;
 
+    private volatile boolean mPublicKeyFingerprintSearch;
+    private volatile PublicKeyBloomFilter mPublicKeyBloomFilter;
+
     public CertStatusUpdateTask certStatusUpdateTask;
     public RetrieveModificationsTask retrieveModificationsTask;
     public SerialNumberUpdateTask serialNumberUpdateTask;
@@ -135,6 +150,7 @@ public class CertificateRepository extends Repository
         CMS.debug("CertificateRepository:  setEnableRandomSerialNumbers   random="+random+"  updateMode="+updateMode);
         if (mEnableRandomSerialNumbers ^ random || forceModeChange) {
             mEnableRandomSerialNumbers = random;
+            mRandomSerialNumbers.clear();
             CMS.debug("CertificateRepository:  setEnableRandomSerialNumbers   switching to " +
                       ((random)?PROP_RANDOM_MODE:PROP_SEQUENTIAL_MODE) + " mode");
             if (updateMode) {
@@ -251,6 +267,122 @@ public class CertificateRepository extends Repository
         return nextSerialNumber;
     }
 
+    /**
+     * Random serial numbers which have been verified to be unused
+     * and which can be issued without another LDAP lookup.
+     */
+    private ConcurrentLinkedQueue<BigInteger> mRandomSerialNumbers = new ConcurrentLinkedQueue<BigInteger>();
+
+    /**
+     * Time after which the buffered serial numbers are not trusted
+     * anymore, since they may have been issued by a clone.
+     */
+    private long mRandomSerialNumbersExpiration;
+
+    /**
+     * Generates a batch of random serial numbers and checks all of them
+     * with a single search. The unused ones are added to the buffer.
+     * Must be called with nextSerialNumberMonitor held, since it uses
+     * the range.
+     */
+    private void fillRandomSerialNumbers() throws EBaseException {
+
+        Set<BigInteger> candidates = new LinkedHashSet<BigInteger>();
+        for (int i = 0; i < mRandomSerialNumberBatchSize; i++) {
+            candidates.add(getRandomSerialNumber(getRandomNumber()));
+        }
+        candidates.removeAll(mRandomSerialNumbers);
+
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        StringBuilder filter = new StringBuilder("(|");
+        for (BigInteger candidate : candidates) {
+            filter.append("(" + ICertRecord.ATTR_ID + "=" + candidate + ")");
+        }
+        filter.append(")");
+
+        try {
+            Enumeration<Object> e = findCertRecs(filter.toString(),
+                    new String[] { ICertRecord.ATTR_ID, "objectclass" });
+            while (e != null && e.hasMoreElements()) {
+                ICertRecord rec = (ICertRecord) e.nextElement();
+                if (rec != null && candidates.remove(rec.getSerialNumber())) {
+                    CMS.debug("CertificateRepository: fillRandomSerialNumbers  collision detected for serialNumber="
+                            + rec.getSerialNumber());
+                }
+            }
+        } catch (EBaseException e) {
+            CMS.debug("CertificateRepository: fillRandomSerialNumbers  Exception=" + e.getMessage());
+            return;
+        }
+
+        CMS.debug("CertificateRepository: fillRandomSerialNumbers  available=" + candidates.size());
+
+        if (mRandomSerialNumbers.isEmpty()) {
+            mRandomSerialNumbersExpiration = System.currentTimeMillis() + mRandomSerialNumberBatchLifetime * 1000L;
+        }
+        mRandomSerialNumbers.addAll(candidates);
+    }
+
+    /**
+     * Returns a verified random serial number in the current range from
+     * the buffer, refilling it if needed, or null if no serial number
+     * could be reserved. Must be called with nextSerialNumberMonitor held.
+     */
+    private BigInteger getBufferedSerialNumber() throws EBaseException {
+
+        if (!mRandomSerialNumbers.isEmpty() && System.currentTimeMillis() > mRandomSerialNumbersExpiration) {
+            CMS.debug("CertificateRepository: getBufferedSerialNumber  discarding expired serial numbers");
+            mRandomSerialNumbers.clear();
+        }
+
+        int i = 0;
+        while (true) {
+            BigInteger serialNumber = mRandomSerialNumbers.poll();
+
+            if (serialNumber == null) {
+                if (i >= mMaxCollisionRecoveryRegenerations) {
+                    return null;
+                }
+                fillRandomSerialNumbers();
+                i++;
+                continue;
+            }
+
+            // serial numbers left over from a previous range are discarded
+            if (isInRange(serialNumber)) {
+                return serialNumber;
+            }
+
+            CMS.debug("CertificateRepository: getBufferedSerialNumber  serialNumber="+
+                      serialNumber+" is out of range");
+        }
+    }
+
+    private boolean isInRange(BigInteger serialNumber) {
+        return (mMinSerialNo == null || serialNumber.compareTo(mMinSerialNo) >= 0) &&
+               (mMaxSerialNo == null || serialNumber.compareTo(mMaxSerialNo) <= 0);
+    }
+
+    /**
+     * Counts an issued random serial number and moves to the next range
+     * if needed.
+     */
+    private void countRandomSerialNumber(BigInteger nextSerialNumber) throws EBaseException {
+
+        if (mCounter.compareTo(BigInteger.ZERO) >= 0 &&
+            mMinSerialNo != null && mMaxSerialNo != null &&
+            isInRange(nextSerialNumber)) {
+            mCounter = mCounter.add(BigInteger.ONE);
+        }
+        CMS.debug("CertificateRepository: countRandomSerialNumber  nextSerialNumber="+
+                  nextSerialNumber+"  mCounter="+mCounter);
+
+        super.checkRange();
+    }
+
     private Object nextSerialNumberMonitor = new Object();
 
     public BigInteger getNextSerialNumber() throws
@@ -264,33 +396,32 @@ public class CertificateRepository extends Repository
             CMS.debug("CertificateRepository: getNextSerialNumber  mEnableRandomSerialNumbers="+mEnableRandomSerialNumbers);
 
             if (mEnableRandomSerialNumbers) {
-                int i = 0;
-                do {
-                    if (i > 0) {
-                        CMS.debug("CertificateRepository: getNextSerialNumber  regenerating serial number");
+                if (mRandomSerialNumberBatchSize > 0) {
+                    nextSerialNumber = getBufferedSerialNumber();
+                    if (nextSerialNumber == null) {
+                        CMS.debug("CertificateRepository: getNextSerialNumber  no buffered serial number available");
                     }
-                    randomNumber = getRandomNumber();
-                    nextSerialNumber = getRandomSerialNumber(randomNumber);
-                    nextSerialNumber = checkSerialNumbers(randomNumber, nextSerialNumber);
-                    i++;
-                } while (nextSerialNumber == null && i < mMaxCollisionRecoveryRegenerations);
+                }
 
                 if (nextSerialNumber == null) {
-                    CMS.debug("CertificateRepository: in getNextSerialNumber  nextSerialNumber is null");
-                    throw new EBaseException( "nextSerialNumber is null" );
+                    int i = 0;
+                    do {
+                        if (i > 0) {
+                            CMS.debug("CertificateRepository: getNextSerialNumber  regenerating serial number");
+                        }
+                        randomNumber = getRandomNumber();
+                        nextSerialNumber = getRandomSerialNumber(randomNumber);
+                        nextSerialNumber = checkSerialNumbers(randomNumber, nextSerialNumber);
+                        i++;
+                    } while (nextSerialNumber == null && i < mMaxCollisionRecoveryRegenerations);
                 }
 
-                if (mCounter.compareTo(BigInteger.ZERO) >= 0 &&
-                    mMinSerialNo != null && mMaxSerialNo != null &&
-                    nextSerialNumber != null &&
-                    nextSerialNumber.compareTo(mMinSerialNo) >= 0 &&
-                    nextSerialNumber.compareTo(mMaxSerialNo) <= 0) {
-                    mCounter = mCounter.add(BigInteger.ONE);
+                if (nextSerialNumber == null) {
+                    CMS.debug("CertificateRepository: in getNextSerialNumber  nextSerialNumber is null");
+                    throw new EBaseException( "nextSerialNumber is null" );
                 }
-                CMS.debug("CertificateRepository: getNextSerialNumber  nextSerialNumber="+
-                          nextSerialNumber+"  mCounter="+mCounter);
 
-                super.checkRange();
+                countRandomSerialNumber(nextSerialNumber);
             } else {
                 nextSerialNumber = super.getNextSerialNumber();
             }
@@ -434,6 +565,8 @@ public class CertificateRepository extends Repository
         mMinRandomBitLength = mDBConfig.getInteger(PROP_MINIMUM_RANDOM_BITS, 4);
         mMaxCollisionRecoverySteps = mDBConfig.getInteger(PROP_COLLISION_RECOVERY_STEPS, 10);
         mMaxCollisionRecoveryRegenerations = mDBConfig.getInteger(PROP_COLLISION_RECOVERY_REGENERATIONS, 3);
+        mRandomSerialNumberBatchSize = mDBConfig.getInteger(PROP_RANDOM_SERIAL_NUMBER_BATCH_SIZE, 0);
+        mRandomSerialNumberBatchLifetime = mDBConfig.getInteger(PROP_RANDOM_SERIAL_NUMBER_BATCH_LIFETIME, 60);
         boolean modeChange = (mEnableRandomSerialNumbers && crMode != null && crMode.equals(PROP_SEQUENTIAL_MODE)) ||
                              ((!mEnableRandomSerialNumbers) && crMode != null && crMode.equals(PROP_RANDOM_MODE));
         boolean enableRsnAtConfig = mEnableRandomSerialNumbers && CMS.isPreOpMode() &&
@@ -441,7 +574,9 @@ public class CertificateRepository extends Repository
         CMS.debug("CertificateRepository: getLastSerialNumberInRange"+
                   "  mEnableRandomSerialNumbers="+mEnableRandomSerialNumbers+
                   "  mMinRandomBitLength="+mMinRandomBitLength+
-                  "  CollisionRecovery="+mMaxCollisionRecoveryRegenerations+","+mMaxCollisionRecoverySteps);
+                  "  CollisionRecovery="+mMaxCollisionRecoveryRegenerations+","+mMaxCollisionRecoverySteps+
+                  "  mRandomSerialNumberBatchSize="+mRandomSerialNumberBatchSize+
+                  "  mRandomSerialNumberBatchLifetime="+mRandomSerialNumberBatchLifetime);
         CMS.debug("CertificateRepository: getLastSerialNumberInRange  modeChange="+modeChange+
                   "  enableRsnAtConfig="+enableRsnAtConfig+"  mForceModeChange="+mForceModeChange+
                   ((crMode != null)?"  mode="+crMode:""));
@@ -617,6 +752,115 @@ public class CertificateRepository extends Repository
         certStatusUpdateTask.start();
     }
 
+    /**
+     * Configures public key lookups.
+     *
+     * Certificate records store a fingerprint of the public key, but
+     * records added by older versions only get one when the database
+     * is upgraded, so searching by fingerprint has to be enabled once
+     * all records have been updated. Otherwise the full public key is
+     * searched.
+     *
+     * The Bloom filter avoids the search when a public key has not
+     * been issued before. It is loaded in the background and only
+     * knows the keys in the repository at that time and the keys of
+     * certificates added by this server, so it should not be used
+     * when other clones issue certificates.
+     *
+     * @param fingerprintSearch search public keys by fingerprint
+     * @param bloomFilterSize expected number of certificates, or 0 to
+     *            disable the Bloom filter
+     */
+    public void setPublicKeyLookup(boolean fingerprintSearch, int bloomFilterSize) {
+
+        CMS.debug("CertificateRepository: public key fingerprint search: " + fingerprintSearch);
+        mPublicKeyFingerprintSearch = fingerprintSearch;
+
+        if (bloomFilterSize <= 0) {
+            mPublicKeyBloomFilter = null;
+            return;
+        }
+
+        final PublicKeyBloomFilter bloomFilter = new PublicKeyBloomFilter(bloomFilterSize);
+        CMS.debug("CertificateRepository: public key Bloom filter size: " + bloomFilter.getSize() + " bits");
+        mPublicKeyBloomFilter = bloomFilter;
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                loadPublicKeyBloomFilter(bloomFilter);
+            }
+        }, "PublicKeyBloomFilterLoader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loadPublicKeyBloomFilter(PublicKeyBloomFilter bloomFilter) {
+
+        CMS.debug("CertificateRepository: loading public key Bloom filter");
+        long start = System.currentTimeMillis();
+
+        try {
+            // only read the keys, fingerprints are available once
+            // all records have been updated
+            String filter = "(" + ICertRecord.ATTR_CERT_STATUS + "=*)";
+            String[] attrs = { mPublicKeyFingerprintSearch
+                    ? ICertRecord.ATTR_X509CERT_PUBLIC_KEY_FINGERPRINT
+                    : ICertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA };
+            ICertRecordList list = findCertRecordsInList(filter, attrs, mTransitRecordPageSize);
+            int size = list.getSize();
+
+            for (int i = 0; i < size; i++) {
+
+                if (mPublicKeyBloomFilter != bloomFilter) {
+                    CMS.debug("CertificateRepository: public key Bloom filter replaced");
+                    return;
+                }
+
+                CertRecord record = (CertRecord) list.getCertRecord(i);
+                byte[] digest = null;
+
+                if (record != null && record.getPublicKeyFingerprint() != null) {
+                    digest = Hex.decodeHex(record.getPublicKeyFingerprint().toCharArray());
+
+                } else if (record != null && record.getPublicKeyData() != null) {
+                    digest = X509CertImplMapper.digestPublicKey(record.getPublicKeyData());
+                }
+
+                if (digest == null) {
+                    // a missing key would cause false negatives
+                    CMS.debug("CertificateRepository: unable to read public key of certificate record " + i
+                            + ", public key Bloom filter disabled");
+                    return;
+                }
+
+                bloomFilter.add(digest);
+            }
+
+            bloomFilter.setLoaded(true);
+            CMS.debug("CertificateRepository: loaded " + size + " public keys into Bloom filter in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+        } catch (Exception e) {
+            CMS.debug("CertificateRepository: unable to load public key Bloom filter: " + e);
+            CMS.debug(e);
+        }
+    }
+
+    private void addPublicKey(X509CertImpl cert) throws EBaseException {
+
+        PublicKeyBloomFilter bloomFilter = mPublicKeyBloomFilter;
+        if (bloomFilter == null) {
+            return;
+        }
+
+        try {
+            // record the key before it can be found in the repository
+            bloomFilter.add(X509CertImplMapper.digestPublicKey(cert.getPublicKey().getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new EBaseException(e);
+        }
+    }
+
     /**
      * interval value: (in seconds)
      * 0 - disable
@@ -732,6 +976,8 @@ public class CertificateRepository extends Repository
                     record.set(ICertRecord.ATTR_CERT_STATUS,
                             ICertRecord.STATUS_INVALID);
                 }
+
+                addPublicKey(x509cert);
             }
 
             s.add(name, record);
@@ -758,6 +1004,11 @@ public class CertificateRepository extends Repository
             String name = "cn" + "=" +
                     record.getSerialNumber().toString() + "," + getDN();
 
+            X509CertImpl x509cert = record.getCertificate();
+            if (x509cert != null) {
+                addPublicKey(x509cert);
+            }
+
             s.add(name, record);
         } finally {
             if (s != null)
@@ -1429,6 +1680,46 @@ public class CertificateRepository extends Repository
         return list;
     }
 
+    public List<ICertRecord> findCertRecordsByPublicKey(byte[] publicKey,
+            int pageSize) throws EBaseException {
+
+        List<ICertRecord> records = new ArrayList<ICertRecord>();
+
+        byte[] fingerprint;
+        try {
+            fingerprint = X509CertImplMapper.digestPublicKey(publicKey);
+        } catch (NoSuchAlgorithmException e) {
+            throw new EBaseException(e);
+        }
+
+        PublicKeyBloomFilter bloomFilter = mPublicKeyBloomFilter;
+        if (bloomFilter != null && bloomFilter.isLoaded() && !bloomFilter.mightContain(fingerprint)) {
+            CMS.debug("CertificateRepository: public key not found in Bloom filter");
+            return records;
+        }
+
+        String filter;
+        if (mPublicKeyFingerprintSearch) {
+            filter = "(" + ICertRecord.ATTR_X509CERT_PUBLIC_KEY_FINGERPRINT + "="
+                    + Hex.encodeHexString(fingerprint) + ")";
+        } else {
+            filter = "(" + ICertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA + "="
+                    + PublicKeyMapper.escapeBinaryData(publicKey) + ")";
+        }
+
+        ICertRecordList list = findCertRecordsInList(filter, null, pageSize);
+        int size = list.getSize();
+
+        if (size > 0) {
+            Enumeration<ICertRecord> e = list.getCertRecords(0, size - 1);
+            while (e != null && e.hasMoreElements()) {
+                records.add(e.nextElement());
+            }
+        }
+
+        return records;
+    }
+
     public ICertRecordList findCertRecordsInListRawJumpto(String filter,
             String attrs[], String jumpTo, String sortKey, int pageSize)
             throws EBaseException {
@@ -1974,7 +2265,8 @@ public class CertificateRepository extends Repository
             String[] attrs = null;
 
             if (mConsistencyCheck == false) {
-                attrs = new String[] { "objectclass", CertRecord.ATTR_ID, CertRecord.ATTR_X509CERT };
+                // the certificate itself is not needed, only its validity
+                attrs = new String[] { "objectclass", CertRecord.ATTR_ID, CertificateValidity.NOT_BEFORE };
             }
 
             CMS.debug("getInvalidCertificatesByNotBeforeDate filter " + ldapfilter);
@@ -2010,7 +2302,8 @@ public class CertificateRepository extends Repository
             String[] attrs = null;
 
             if (mConsistencyCheck == false) {
-                attrs = new String[] { "objectclass", CertRecord.ATTR_ID, CertRecord.ATTR_X509CERT };
+                // the certificate itself is not needed, only its validity
+                attrs = new String[] { "objectclass", CertRecord.ATTR_ID, CertificateValidity.NOT_AFTER };
             }
 
             CMS.debug("getValidCertsByNotAfterDate filter " + ldapfilter);
@@ -2039,7 +2332,7 @@ public class CertificateRepository extends Repository
 
             if (mConsistencyCheck == false) {
                 attrs = new String[] { "objectclass", CertRecord.ATTR_REVOKED_ON, CertRecord.ATTR_ID,
-                            CertRecord.ATTR_REVO_INFO, CertificateValidity.NOT_AFTER, CertRecord.ATTR_X509CERT };
+                            CertRecord.ATTR_REVO_INFO, CertificateValidity.NOT_AFTER };
             }
 
             CMS.debug("getRevokedCertificatesByNotAfterDate filter " + ldapfilter);
@@ -17,12 +17,20 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cmscore.dbs;
 
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.netscape.certsrv.apps.CMS;
 import com.netscape.certsrv.base.EBaseException;
@@ -56,6 +64,11 @@ import netscape.ldap.LDAPAttributeSet;
  */
 public class DBRegistry implements IDBRegistry, ISubsystem {
 
+    /**
+     * Maximum number of translated filters kept by getFilter().
+     */
+    public final static int FILTER_CACHE_SIZE = 500;
+
     private IConfigStore mConfig = null;
     private Hashtable<String, String[]> mOCclassNames = new Hashtable<String, String[]>();
     private Hashtable<String, NameAndObject> mOCldapNames = new Hashtable<String, NameAndObject>();
@@ -63,6 +76,19 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
     private IFilterConverter mConverter = null;
     private Vector<IDBDynAttrMapper> mDynAttrMappers = new Vector<IDBDynAttrMapper>();
 
+    // record mappers by sorted object classes, compiled on first use
+    private ConcurrentHashMap<String, RecordMapper> mRecordMappers = new ConcurrentHashMap<String, RecordMapper>();
+
+    // translated filters in least recently used order
+    private Map<String, String> mFilterCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > FILTER_CACHE_SIZE;
+                }
+            });
+
     private ILogger mLogger = CMS.getLogger();
 
     /**
@@ -118,6 +144,16 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
         mOCclassNames.clear();
         mOCldapNames.clear();
         mAttrufNames.clear();
+        clearCaches();
+    }
+
+    /**
+     * Discards compiled record mappers and translated filters
+     * after the registrations have changed.
+     */
+    private void clearCaches() {
+        mRecordMappers.clear();
+        mFilterCache.clear();
     }
 
     /**
@@ -132,6 +168,7 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
             mOCldapNames.put(sortAndConcate(
                     ldapNames).toLowerCase(),
                     new NameAndObject(className, c));
+            clearCaches();
         } catch (ClassNotFoundException e) {
 
             /*LogDoc
@@ -162,6 +199,7 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
         // should not allows 'objectclass' as attribute; it has
         // special meaning
         mAttrufNames.put(ufName.toLowerCase(), mapper);
+        clearCaches();
     }
 
     /**
@@ -173,6 +211,7 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
 
     public void registerDynamicMapper(IDBDynAttrMapper mapper) {
         mDynAttrMappers.add(mapper);
+        clearCaches();
     }
 
     /**
@@ -201,9 +240,19 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
      * <starval> ::= NULL | <value> '*' <starval>
      * <final> ::= NULL | <value>
      * </pre>
+     *
+     * Translated filters are cached, since searches tend to
+     * repeat the same filters.
      */
     public String getFilter(String filter) throws EBaseException {
-        return getFilter(filter, mConverter);
+        String ldapFilter = mFilterCache.get(filter);
+        if (ldapFilter != null) {
+            return ldapFilter;
+        }
+
+        ldapFilter = getFilter(filter, mConverter);
+        mFilterCache.put(filter, ldapFilter);
+        return ldapFilter;
     }
 
     public String getFilter(String filter, IFilterConverter c)
@@ -478,30 +527,26 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
 
         String[] s = attr.getStringValueArray();
         String sorted = sortAndConcate(s).toLowerCase();
-        NameAndObject no = mOCldapNames.get(sorted);
+        RecordMapper recordMapper = mRecordMappers.get(sorted);
 
-        if (no == null) {
-            throw new EDBException(
-                    CMS.getUserMessage("CMS_DBS_INVALID_CLASS_NAME", sorted));
+        if (recordMapper == null) {
+            NameAndObject no = mOCldapNames.get(sorted);
+
+            if (no == null) {
+                throw new EDBException(
+                        CMS.getUserMessage("CMS_DBS_INVALID_CLASS_NAME", sorted));
+            }
+            recordMapper = new RecordMapper((Class<?>) no.getObject());
         }
-        Class<?> c = (Class<?>) no.getObject();
 
         try {
-            IDBObj obj = (IDBObj) c.newInstance();
-            Enumeration<String> ee = obj.getSerializableAttrNames();
+            if (!recordMapper.isCompiled()) {
+                recordMapper.compile();
+                mRecordMappers.put(sorted, recordMapper);
+            }
 
-            while (ee.hasMoreElements()) {
-                String oname = ee.nextElement();
-                IDBAttrMapper mapper = mAttrufNames.get(oname.toLowerCase());
+            return recordMapper.createObject(attrs);
 
-                if (mapper == null) {
-                    throw new EDBException(
-                            CMS.getUserMessage("CMS_DBS_NO_MAPPER_FOUND", oname));
-                }
-                mapper.mapLDAPAttributeSetToObject(attrs,
-                        oname, obj);
-            }
-            return obj;
         } catch (Exception e) {
 
             /*LogDoc
@@ -520,23 +565,71 @@ public class DBRegistry implements IDBRegistry, ISubsystem {
      * Sorts and concate given strings.
      */
     private String sortAndConcate(String s[]) {
-        Vector<String> v = new Vector<String>();
+        String sorted[] = s.clone();
+        Arrays.sort(sorted);
 
-        // sort it first
-        for (int i = 0; i < s.length; i++) {
-            for (int j = 0; j < v.size(); j++) {
-                String t = v.elementAt(j);
+        StringBuilder result = new StringBuilder();
+        for (String value : sorted) {
+            result.append(value);
+        }
+        return result.toString();
+    }
 
-                if (s[i].compareTo(t) < 0) {
-                    v.insertElementAt(s[i], j);
-                    break;
-                }
+    /**
+     * Creates objects of a registered class from attribute sets.
+     * The constructor and the mapper of each serializable attribute
+     * are looked up once, instead of for every entry.
+     */
+    class RecordMapper {
+
+        private Class<?> mClass;
+        private Constructor<?> mConstructor;
+        private String mNames[];
+        private IDBAttrMapper mMappers[];
+
+        public RecordMapper(Class<?> c) {
+            mClass = c;
+        }
+
+        public boolean isCompiled() {
+            return mConstructor != null;
+        }
+
+        public void compile() throws Exception {
+            Constructor<?> constructor = mClass.getDeclaredConstructor();
+
+            // serializable attributes are the same for all objects of a class
+            IDBObj obj = (IDBObj) constructor.newInstance();
+            List<String> names = new ArrayList<String>();
+            Enumeration<String> e = obj.getSerializableAttrNames();
+
+            while (e.hasMoreElements()) {
+                names.add(e.nextElement());
+            }
+
+            mNames = names.toArray(new String[names.size()]);
+            mMappers = new IDBAttrMapper[mNames.length];
+
+            for (int i = 0; i < mNames.length; i++) {
+                // a missing mapper fails when an object is created
+                mMappers[i] = mAttrufNames.get(mNames[i].toLowerCase());
             }
-            if (i != (v.size() - 1))
-                v.addElement(s[i]);
+
+            mConstructor = constructor;
         }
 
-       return inStringFormat(v);
+        public IDBObj createObject(LDAPAttributeSet attrs) throws Exception {
+            IDBObj obj = (IDBObj) mConstructor.newInstance();
+
+            for (int i = 0; i < mNames.length; i++) {
+                if (mMappers[i] == null) {
+                    throw new EDBException(
+                            CMS.getUserMessage("CMS_DBS_NO_MAPPER_FOUND", mNames[i]));
+                }
+                mMappers[i].mapLDAPAttributeSetToObject(attrs, mNames[i], obj);
+            }
+            return obj;
+        }
     }
 }
 
@@ -122,6 +122,7 @@ public class DBSubsystem implements IDBSubsystem {
     private static final String PROP_LDAP = "ldap";
     private static final String PROP_NEXT_RANGE = "nextRange";
     private static final String PROP_ENABLE_SERIAL_MGMT = "enableSerialManagement";
+    private static final String PROP_COMPACT_CRL_CACHE = "compactCRLCache";
 
     // hash keys
     private static final String NAME = "name";
@@ -763,6 +764,16 @@ public class DBSubsystem implements IDBSubsystem {
                         DateMapper(CertDBSchema.LDAP_ATTR_NOT_BEFORE));
             }
 
+            if (!reg.isAttributeRegistered(CertRecord.ATTR_X509CERT_PUBLIC_KEY_FINGERPRINT)) {
+                reg.registerAttribute(CertRecord.ATTR_X509CERT_PUBLIC_KEY_FINGERPRINT, new
+                        StringMapper(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_FINGERPRINT));
+            }
+
+            if (!reg.isAttributeRegistered(CertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA)) {
+                reg.registerAttribute(CertRecord.ATTR_X509CERT_PUBLIC_KEY_DATA, new
+                        ByteArrayMapper(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_DATA));
+            }
+
             String crlRecordOC[] = new String[2];
 
             crlRecordOC[0] = CRLDBSchema.LDAP_OC_TOP;
@@ -791,14 +802,19 @@ public class DBSubsystem implements IDBSubsystem {
                     ByteArrayMapper(CRLDBSchema.LDAP_ATTR_DELTA_CRL));
             reg.registerAttribute(ICRLIssuingPointRecord.ATTR_CA_CERT, new
                     ByteArrayMapper(CRLDBSchema.LDAP_ATTR_CA_CERT));
+
+            // opt-in, the compact encoding cannot be read by older clones
+            boolean compactCRLCache = mDBConfig.getBoolean(PROP_COMPACT_CRL_CACHE, false);
+            CMS.debug("DBSubsystem: compact CRL cache: " + compactCRLCache);
+
             reg.registerAttribute(ICRLIssuingPointRecord.ATTR_CRL_CACHE, new
-                    ObjectStreamMapper(CRLDBSchema.LDAP_ATTR_CRL_CACHE));
+                    RevokedCertificatesMapper(CRLDBSchema.LDAP_ATTR_CRL_CACHE, compactCRLCache));
             reg.registerAttribute(ICRLIssuingPointRecord.ATTR_REVOKED_CERTS, new
-                    ObjectStreamMapper(CRLDBSchema.LDAP_ATTR_REVOKED_CERTS));
+                    RevokedCertificatesMapper(CRLDBSchema.LDAP_ATTR_REVOKED_CERTS, compactCRLCache));
             reg.registerAttribute(ICRLIssuingPointRecord.ATTR_UNREVOKED_CERTS, new
-                    ObjectStreamMapper(CRLDBSchema.LDAP_ATTR_UNREVOKED_CERTS));
+                    RevokedCertificatesMapper(CRLDBSchema.LDAP_ATTR_UNREVOKED_CERTS, compactCRLCache));
             reg.registerAttribute(ICRLIssuingPointRecord.ATTR_EXPIRED_CERTS, new
-                    ObjectStreamMapper(CRLDBSchema.LDAP_ATTR_EXPIRED_CERTS));
+                    RevokedCertificatesMapper(CRLDBSchema.LDAP_ATTR_EXPIRED_CERTS, compactCRLCache));
 
             boolean registered = reg.isObjectClassRegistered(RepositoryRecord.class.getName());
             CMS.debug("registered: " + registered);
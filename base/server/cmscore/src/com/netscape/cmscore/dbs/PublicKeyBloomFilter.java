@@ -0,0 +1,112 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmscore.dbs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of public key fingerprints. It answers whether a
+ * public key may have been issued before: a negative answer is
+ * definite, a positive answer has to be confirmed with a search.
+ * <P>
+ * The filter uses 10 bits and 7 probes per expected key, which gives
+ * a false positive rate of about 1% at the expected size. Keys can be
+ * added concurrently with lookups. The filter is only usable once it
+ * has been loaded with all fingerprints in the repository, so keys
+ * added while it is loading are recorded as well.
+ */
+public class PublicKeyBloomFilter {
+
+    public final static int BITS_PER_KEY = 10;
+    public final static int PROBES = 7;
+
+    private AtomicLongArray mBits;
+    private long mSize;
+    private volatile boolean mLoaded;
+
+    /**
+     * Constructs an empty filter.
+     *
+     * @param expectedKeys expected number of public keys
+     */
+    public PublicKeyBloomFilter(int expectedKeys) {
+        long size = Math.max(64, (long) expectedKeys * BITS_PER_KEY);
+        size = Math.min(size, (long) Integer.MAX_VALUE * 64);
+        mBits = new AtomicLongArray((int) ((size + 63) / 64));
+        mSize = (long) mBits.length() * 64;
+    }
+
+    /**
+     * Records a public key.
+     *
+     * @param fingerprint SHA-256 digest of the encoded public key
+     */
+    public void add(byte[] fingerprint) {
+        long h1 = getLong(fingerprint, 0);
+        long h2 = getLong(fingerprint, 8);
+
+        for (int i = 0; i < PROBES; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mSize;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << (bit & 63);
+
+            long value = mBits.get(index);
+            while ((value & mask) == 0 && !mBits.compareAndSet(index, value, value | mask)) {
+                value = mBits.get(index);
+            }
+        }
+    }
+
+    /**
+     * Returns false if the public key has definitely not been recorded.
+     *
+     * @param fingerprint SHA-256 digest of the encoded public key
+     */
+    public boolean mightContain(byte[] fingerprint) {
+        long h1 = getLong(fingerprint, 0);
+        long h2 = getLong(fingerprint, 8);
+
+        for (int i = 0; i < PROBES; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mSize;
+            if ((mBits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public void setLoaded(boolean loaded) {
+        mLoaded = loaded;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (data[i] & 0xff);
+        }
+        return value;
+    }
+}
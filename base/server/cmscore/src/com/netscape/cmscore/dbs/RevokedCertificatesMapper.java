@@ -0,0 +1,147 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmscore.dbs;
+
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.util.Enumeration;
+import java.util.Map;
+
+import netscape.ldap.LDAPAttribute;
+import netscape.ldap.LDAPAttributeSet;
+import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedCertificateCodec;
+
+import com.netscape.certsrv.apps.CMS;
+import com.netscape.certsrv.base.EBaseException;
+import com.netscape.certsrv.dbs.EDBException;
+import com.netscape.certsrv.dbs.IDBAttrMapper;
+import com.netscape.certsrv.dbs.IDBObj;
+
+/**
+ * A class represents an attribute mapper that maps a
+ * Hashtable of revoked certificates into the compact
+ * encoding of RevokedCertificateCodec, and vice versa.
+ * <P>
+ * The compact encoding is only written if enabled with
+ * dbs.compactCRLCache, since older clones cannot read it.
+ * Attributes stored by ObjectStreamMapper are always read,
+ * so once enabled, existing CRL caches are converted when
+ * they are next updated.
+ */
+public class RevokedCertificatesMapper implements IDBAttrMapper {
+
+    /**
+     * Entries are deflated if the encoding is larger than this.
+     */
+    public final static int DEFLATE_THRESHOLD = 1024;
+
+    private String mLdapName;
+    private boolean mCompact;
+    private ObjectStreamMapper mLegacyMapper;
+
+    /**
+     * Constructs revoked certificates mapper.
+     *
+     * @param ldapName LDAP attribute name
+     * @param compact true to write the compact encoding,
+     *            false to write serialized objects
+     */
+    public RevokedCertificatesMapper(String ldapName, boolean compact) {
+        mLdapName = ldapName;
+        mCompact = compact;
+        mLegacyMapper = new ObjectStreamMapper(ldapName);
+    }
+
+    /**
+     * Retrieves a list of supported ldap attributes.
+     */
+    public Enumeration<String> getSupportedLDAPAttributeNames() {
+        return mLegacyMapper.getSupportedLDAPAttributeNames();
+    }
+
+    /**
+     * Maps object to ldap attribute set.
+     */
+    public void mapObjectToLDAPAttributeSet(IDBObj parent, String name,
+            Object obj, LDAPAttributeSet attrs)
+            throws EBaseException {
+
+        if (!mCompact || !(obj instanceof Map)) {
+            mLegacyMapper.mapObjectToLDAPAttributeSet(parent, name, obj, attrs);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<BigInteger, RevokedCertificate> entries = (Map<BigInteger, RevokedCertificate>) obj;
+
+        try {
+            byte[] data = RevokedCertificateCodec.encode(entries.values(), false);
+            if (data.length > DEFLATE_THRESHOLD) {
+                data = RevokedCertificateCodec.deflate(data);
+            }
+
+            CMS.debug("RevokedCertificatesMapper: " + name + " entries=" + entries.size()
+                    + " size=" + data.length);
+            attrs.add(new LDAPAttribute(mLdapName, data));
+
+        } catch (CRLException e) {
+            CMS.debug("RevokedCertificatesMapper: " + e.getMessage());
+            throw new EDBException(
+                    CMS.getUserMessage("CMS_DBS_SERIALIZE_FAILED", name));
+        }
+    }
+
+    /**
+     * Maps LDAP attributes into object, and put the object
+     * into 'parent'.
+     */
+    public void mapLDAPAttributeSetToObject(LDAPAttributeSet attrs,
+            String name, IDBObj parent) throws EBaseException {
+
+        LDAPAttribute attr = attrs.getAttribute(mLdapName);
+
+        if (attr == null) {
+            return;
+        }
+
+        byte[] data = (byte[]) attr.getByteValues().nextElement();
+
+        if (!RevokedCertificateCodec.isEncoded(data)) {
+            mLegacyMapper.mapLDAPAttributeSetToObject(attrs, name, parent);
+            return;
+        }
+
+        try {
+            parent.set(name, RevokedCertificateCodec.decode(data));
+
+        } catch (CRLException e) {
+            CMS.debug("RevokedCertificatesMapper: " + e.getMessage());
+            throw new EDBException(
+                    CMS.getUserMessage("CMS_DBS_DESERIALIZE_FAILED", name));
+        }
+    }
+
+    /**
+     * Maps search filters into LDAP search filter.
+     */
+    public String mapSearchFilter(String name, String op,
+            String value) throws EBaseException {
+        return mLdapName + op + value;
+    }
+}
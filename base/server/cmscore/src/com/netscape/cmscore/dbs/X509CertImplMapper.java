@@ -17,6 +17,8 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cmscore.dbs;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.util.Date;
@@ -25,6 +27,8 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.Vector;
 
+import org.apache.commons.codec.binary.Hex;
+
 import netscape.ldap.LDAPAttribute;
 import netscape.ldap.LDAPAttributeSet;
 import netscape.security.extensions.NSCertTypeExtension;
@@ -67,6 +71,7 @@ public class X509CertImplMapper implements IDBAttrMapper {
         v.addElement(CertDBSchema.LDAP_ATTR_ALGORITHM);
         v.addElement(CertDBSchema.LDAP_ATTR_SIGNING_ALGORITHM);
         v.addElement(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_DATA);
+        v.addElement(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_FINGERPRINT);
         return v.elements();
     }
 
@@ -93,7 +98,10 @@ public class X509CertImplMapper implements IDBAttrMapper {
                     cert.getSubjectDN().getName()));
             attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_ISSUER,
                     cert.getIssuerDN().getName()));
-            attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_DATA, cert.getPublicKey().getEncoded()));
+            byte[] publicKey = cert.getPublicKey().getEncoded();
+            attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_DATA, publicKey));
+            attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_FINGERPRINT,
+                    getPublicKeyFingerprint(publicKey)));
             // make extension searchable
             Set<String> nonCritSet = cert.getNonCriticalExtensionOIDs();
 
@@ -165,9 +173,29 @@ public class X509CertImplMapper implements IDBAttrMapper {
         } catch (CertificateEncodingException e) {
             throw new EDBException(
                     CMS.getUserMessage("CMS_DBS_SERIALIZE_FAILED", name));
+        } catch (NoSuchAlgorithmException e) {
+            throw new EDBException(
+                    CMS.getUserMessage("CMS_DBS_SERIALIZE_FAILED", name));
         }
     }
 
+    /**
+     * Returns the SHA-256 digest of an encoded public key
+     * (SubjectPublicKeyInfo).
+     */
+    public static byte[] digestPublicKey(byte[] publicKey) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return digest.digest(publicKey);
+    }
+
+    /**
+     * Returns the value of the publicKeyFingerprint attribute for an
+     * encoded public key: the SHA-256 digest in lowercase hex.
+     */
+    public static String getPublicKeyFingerprint(byte[] publicKey) throws NoSuchAlgorithmException {
+        return Hex.encodeHexString(digestPublicKey(publicKey));
+    }
+
     private String getCertTypeExtensionInfo(X509CertImpl cert) {
         try {
             Extension ext = cert.getExtension("2.16.840.1.113730.1.1");
@@ -266,9 +294,37 @@ public class X509CertImplMapper implements IDBAttrMapper {
             if (attr != null) {
                 byte der[] = (byte[])
                         attr.getByteValues().nextElement();
+
+                if (parent instanceof CertRecord) {
+                    // decoded when the certificate is retrieved
+                    ((CertRecord) parent).setEncodedCertificate(der);
+                    return;
+                }
+
                 X509CertImpl impl = new X509CertImpl(der);
 
                 parent.set(name, impl);
+
+            } else if (parent instanceof CertRecord) {
+                // the search did not return the certificate,
+                // use the searchable validity if available
+                LDAPAttribute notBefore = attrs.getAttribute(CertDBSchema.LDAP_ATTR_NOT_BEFORE);
+                LDAPAttribute notAfter = attrs.getAttribute(CertDBSchema.LDAP_ATTR_NOT_AFTER);
+
+                ((CertRecord) parent).setValidity(
+                        notBefore == null ? null
+                                : DateMapper.dateFromDB((String) notBefore.getStringValues().nextElement()),
+                        notAfter == null ? null
+                                : DateMapper.dateFromDB((String) notAfter.getStringValues().nextElement()));
+
+                LDAPAttribute fingerprint = attrs.getAttribute(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_FINGERPRINT);
+                LDAPAttribute publicKey = attrs.getAttribute(CertDBSchema.LDAP_ATTR_PUBLIC_KEY_DATA);
+
+                ((CertRecord) parent).setPublicKey(
+                        fingerprint == null ? null
+                                : (String) fingerprint.getStringValues().nextElement(),
+                        publicKey == null ? null
+                                : (byte[]) publicKey.getByteValues().nextElement());
             }
         } catch (CertificateException e) {
             //throw new EDBException(
@@ -307,6 +363,8 @@ public class X509CertImplMapper implements IDBAttrMapper {
             name = CertDBSchema.LDAP_ATTR_ISSUER;
         } else if (suffix.equalsIgnoreCase(ICertRecord.X509CERT_PUBLIC_KEY_DATA)) {
             name = CertDBSchema.LDAP_ATTR_PUBLIC_KEY_DATA;
+        } else if (suffix.equalsIgnoreCase(ICertRecord.X509CERT_PUBLIC_KEY_FINGERPRINT)) {
+            name = CertDBSchema.LDAP_ATTR_PUBLIC_KEY_FINGERPRINT;
         } else if (suffix.equalsIgnoreCase(ICertRecord.X509CERT_DURATION)) {
             name = CertDBSchema.LDAP_ATTR_DURATION;
             value = DBSUtil.longToDB(Long.parseLong(value));
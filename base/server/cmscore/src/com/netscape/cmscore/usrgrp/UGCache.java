@@ -0,0 +1,176 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmscore.usrgrp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of LDAP lookup results for the user/group
+ * subsystem. Entries expire after a fixed time so that changes
+ * made directly in the directory are eventually seen; changes
+ * made through UGSubsystem invalidate the affected entries.
+ * <P>
+ * The least recently used entry is evicted when the cache is full.
+ * <P>
+ * A lookup that started before an invalidation must not store its
+ * result afterwards, so callers get the generation of the cache before
+ * the lookup and pass it to put().
+ */
+public class UGCache<K, V> {
+
+    private String mName;
+    private int mSize;
+    private long mTTL;
+
+    private LinkedHashMap<K, Entry<V>> mEntries;
+    private long mGeneration;
+
+    private AtomicLong mHits = new AtomicLong();
+    private AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Constructs a cache.
+     *
+     * @param name name of the cache
+     * @param size maximum number of entries, 0 to disable the cache
+     * @param ttl time to live of the entries in milliseconds
+     */
+    public UGCache(String name, final int size, long ttl) {
+        mName = name;
+        mSize = size;
+        mTTL = ttl;
+
+        mEntries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isEnabled() {
+        return mSize > 0;
+    }
+
+    /**
+     * Returns the cached value, or null if there is none or it
+     * has expired.
+     */
+    public V get(K key) {
+
+        if (!isEnabled()) {
+            return null;
+        }
+
+        synchronized (mEntries) {
+            Entry<V> entry = mEntries.get(key);
+
+            if (entry != null && entry.expires > System.currentTimeMillis()) {
+                mHits.incrementAndGet();
+                return entry.value;
+            }
+
+            if (entry != null) {
+                mEntries.remove(key);
+            }
+        }
+
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the generation of the cache, which changes whenever
+     * entries are invalidated.
+     */
+    public long getGeneration() {
+        synchronized (mEntries) {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Stores a value unless the cache was invalidated since the
+     * given generation.
+     */
+    public void put(K key, V value, long generation) {
+
+        if (!isEnabled() || value == null) {
+            return;
+        }
+
+        synchronized (mEntries) {
+            if (generation != mGeneration) {
+                return;
+            }
+            mEntries.put(key, new Entry<V>(value, System.currentTimeMillis() + mTTL));
+        }
+    }
+
+    public void remove(K key) {
+        synchronized (mEntries) {
+            mGeneration++;
+            mEntries.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (mEntries) {
+            mGeneration++;
+            mEntries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public String toString() {
+        return mName + ": size=" + size() + " hits=" + getHits() + " misses=" + getMisses();
+    }
+
+    static class Entry<V> {
+
+        V value;
+        long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -86,6 +86,11 @@ public final class UGSubsystem implements IUGSubsystem {
 
     protected static final String PROP_BASEDN = "basedn";
 
+    protected static final String PROP_CACHE_SIZE = "cache.size";
+    protected static final String PROP_CACHE_TTL = "cache.ttl";
+    protected static final int DEFAULT_CACHE_SIZE = 1000;
+    protected static final int DEFAULT_CACHE_TTL = 60; // seconds
+
     protected IConfigStore mConfig = null;
     protected transient LdapBoundConnFactory mLdapConnFactory = null;
     protected String mBaseDN = null;
@@ -93,6 +98,18 @@ public final class UGSubsystem implements IUGSubsystem {
 
     private transient ILogger mLogger = null;
 
+    // users by DN
+    private transient UGCache<String, User> mUserCache = new UGCache<String, User>("users", 0, 0);
+
+    // users by certificate string
+    private transient UGCache<String, User> mCertUserCache = new UGCache<String, User>("certificate users", 0, 0);
+
+    // group memberships by user DN and group name
+    private transient UGCache<String, Boolean> mMemberCache = new UGCache<String, Boolean>("group members", 0, 0);
+
+    // groups of a user by user DN
+    private transient UGCache<String, List<IGroup>> mUserGroupsCache = new UGCache<String, List<IGroup>>("user groups", 0, 0);
+
     // singleton enforcement
 
     private static UGSubsystem mInstance = new UGSubsystem();
@@ -131,6 +148,15 @@ public final class UGSubsystem implements IUGSubsystem {
         mLogger = CMS.getLogger();
         mConfig = config;
 
+        int cacheSize = mConfig.getInteger(PROP_CACHE_SIZE, DEFAULT_CACHE_SIZE);
+        long cacheTTL = mConfig.getInteger(PROP_CACHE_TTL, DEFAULT_CACHE_TTL) * 1000L;
+        CMS.debug("UGSubsystem: cache size: " + cacheSize + ", TTL: " + cacheTTL + " ms");
+
+        mUserCache = new UGCache<String, User>("users", cacheSize, cacheTTL);
+        mCertUserCache = new UGCache<String, User>("certificate users", cacheSize, cacheTTL);
+        mMemberCache = new UGCache<String, Boolean>("group members", cacheSize, cacheTTL);
+        mUserGroupsCache = new UGCache<String, List<IGroup>>("user groups", cacheSize, cacheTTL);
+
         // initialize LDAP connection factory
         try {
             IConfigStore ldapConfig = mConfig.getSubStore("ldap");
@@ -162,6 +188,10 @@ public final class UGSubsystem implements IUGSubsystem {
      * Disconnects usr/grp manager from the LDAP
      */
     public void shutdown() {
+        for (UGCache<?, ?> cache : getCaches()) {
+            CMS.debug("UGSubsystem: cache " + cache);
+        }
+
         try {
             if (mLdapConnFactory != null) {
                 mLdapConnFactory.reset();
@@ -175,6 +205,35 @@ public final class UGSubsystem implements IUGSubsystem {
         return new User(this, id);
     }
 
+    /**
+     * Returns the caches of LDAP lookups, e.g. to report their
+     * hit and miss counts.
+     */
+    public List<UGCache<?, ?>> getCaches() {
+        List<UGCache<?, ?>> caches = new ArrayList<UGCache<?, ?>>();
+        caches.add(mUserCache);
+        caches.add(mCertUserCache);
+        caches.add(mMemberCache);
+        caches.add(mUserGroupsCache);
+        return caches;
+    }
+
+    /**
+     * Discards cached users after a user or its certificates change.
+     */
+    protected void invalidateUsers() {
+        mUserCache.clear();
+        mCertUserCache.clear();
+    }
+
+    /**
+     * Discards cached group memberships after a group changes.
+     */
+    protected void invalidateGroups() {
+        mMemberCache.clear();
+        mUserGroupsCache.clear();
+    }
+
     public IGroup createGroup(String id) {
         return new Group(this, id);
     }
@@ -212,6 +271,13 @@ public final class UGSubsystem implements IUGSubsystem {
             userDN = userID;
         }
 
+        User cachedUser = mUserCache.get(userDN);
+        if (cachedUser != null) {
+            return new User(cachedUser);
+        }
+
+        long generation = mUserCache.getGeneration();
+
         try {
             LDAPConnection ldapconn = null;
 
@@ -230,7 +296,11 @@ public final class UGSubsystem implements IUGSubsystem {
                 Enumeration<IUser> e = buildUsers(res);
 
                 // user found
-                return e.nextElement();
+                IUser user = e.nextElement();
+                if (user instanceof User) {
+                    mUserCache.put(userDN, new User((User) user), generation);
+                }
+                return user;
 
             } finally {
                 if (ldapconn != null)
@@ -255,17 +325,27 @@ public final class UGSubsystem implements IUGSubsystem {
             return null;
         }
 
+        String certString = getCertificateString(cert);
+
+        User cachedUser = mCertUserCache.get(certString);
+        if (cachedUser != null) {
+            return new User(cachedUser);
+        }
+
+        long generation = mCertUserCache.getGeneration();
         LDAPConnection ldapconn = null;
 
         try {
             ldapconn = getConn();
-            String filter = LDAP_ATTR_USER_CERT_STRING + "=" + LDAPUtil.escapeFilter(getCertificateString(cert));
+            String filter = LDAP_ATTR_USER_CERT_STRING + "=" + LDAPUtil.escapeFilter(certString);
             LDAPSearchResults res =
                     ldapconn.search(getUserBaseDN(),
                             LDAPConnection.SCOPE_SUB, filter, null, false);
             Enumeration<IUser> e = buildUsers(res);
 
-            return (User) e.nextElement();
+            User user = (User) e.nextElement();
+            mCertUserCache.put(certString, new User(user), generation);
+            return user;
         } catch (LDAPException e) {
             log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_USRGRP_FIND_USER", e.toString()));
         } catch (ELdapException e) {
@@ -843,6 +923,7 @@ public final class UGSubsystem implements IUGSubsystem {
                 throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_USR_CERT_ERROR"));
 
             } finally {
+                invalidateUsers();
                 if (ldapconn != null)
                     returnConn(ldapconn);
             }
@@ -894,6 +975,7 @@ public final class UGSubsystem implements IUGSubsystem {
                 throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_USR_CERT_ERROR"));
 
             } finally {
+                invalidateUsers();
                 if (ldapconn != null)
                     returnConn(ldapconn);
             }
@@ -946,6 +1028,7 @@ public final class UGSubsystem implements IUGSubsystem {
                 throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_USR_CERT_ERROR"));
 
             } finally {
+                invalidateUsers();
                 if (ldapconn != null)
                     returnConn(ldapconn);
             }
@@ -1062,6 +1145,7 @@ public final class UGSubsystem implements IUGSubsystem {
                 throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_USR_CERT_ERROR"));
 
             } finally {
+                invalidateUsers();
                 if (ldapconn != null)
                     returnConn(ldapconn);
             }
@@ -1096,6 +1180,7 @@ public final class UGSubsystem implements IUGSubsystem {
             log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_USRGRP_ADD_USER_TO_GROUP", e.toString()));
 
         } finally {
+            invalidateGroups();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -1125,6 +1210,7 @@ public final class UGSubsystem implements IUGSubsystem {
             log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_USRGRP_REMOVE_USER_FROM_GROUP", e.toString()));
 
         } finally {
+            invalidateGroups();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -1160,6 +1246,8 @@ public final class UGSubsystem implements IUGSubsystem {
             log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_USRGRP_REMOVE_USER", e.toString()));
 
         } finally {
+            invalidateUsers();
+            invalidateGroups();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -1296,6 +1384,7 @@ public final class UGSubsystem implements IUGSubsystem {
             throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_MOD_USER_FAIL"));
 
         } finally {
+            invalidateUsers();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -1405,6 +1494,18 @@ public final class UGSubsystem implements IUGSubsystem {
             return null;
         }
 
+        // only the unfiltered groups are cached
+        boolean cacheable = StringUtils.isEmpty(filter);
+
+        if (cacheable) {
+            List<IGroup> cachedGroups = mUserGroupsCache.get(userDn);
+            if (cachedGroups != null) {
+                return copyGroups(cachedGroups).elements();
+            }
+        }
+
+        long generation = mUserGroupsCache.getGeneration();
+
         // search groups where the user is a member
         String ldapFilter = "(&(objectclass=groupofuniquenames)(uniqueMember=" + LDAPUtil.escapeFilter(userDn) + ")";
 
@@ -1432,7 +1533,14 @@ public final class UGSubsystem implements IUGSubsystem {
                     attrs,
                     false);
 
-            return buildGroups(res);
+            Enumeration<IGroup> groups = buildGroups(res);
+            if (!cacheable) {
+                return groups;
+            }
+
+            List<IGroup> list = Collections.list(groups);
+            mUserGroupsCache.put(userDn, copyGroups(list), generation);
+            return copyGroups(list).elements();
 
         } catch (LDAPException e) {
             log(ILogger.LL_FAILURE, CMS.getLogMessage("CMSCORE_USRGRP_LIST_GROUPS", e.toString()));
@@ -1448,6 +1556,25 @@ public final class UGSubsystem implements IUGSubsystem {
         return null;
     }
 
+    /**
+     * Copies groups built from the cn and description attributes.
+     */
+    protected Vector<IGroup> copyGroups(List<IGroup> groups) throws EUsrGrpException {
+        Vector<IGroup> v = new Vector<IGroup>(groups.size());
+
+        for (IGroup group : groups) {
+            IGroup copy = createGroup(this, group.getGroupID());
+            try {
+                copy.set("description", group.getDescription());
+            } catch (EBaseException e) {
+                throw new EUsrGrpException(e.getMessage());
+            }
+            v.addElement(copy);
+        }
+
+        return v;
+    }
+
     /**
      * builds an instance of a Group entry
      * @throws EUsrGrpException
@@ -1641,6 +1768,16 @@ public final class UGSubsystem implements IUGSubsystem {
      * by running an ldap search for the user in the group
      */
     protected boolean isMemberOfLdapGroup(String userid, String groupname) {
+        String key = userid + "\n" + groupname;
+
+        Boolean cached = mMemberCache.get(key);
+        if (cached != null) {
+            Debug.trace("authorization result (cached): " + cached);
+            return cached;
+        }
+
+        long generation = mMemberCache.getGeneration();
+
         String basedn = "cn=" + LDAPUtil.escapeRDNValue(groupname) + ",ou=groups," + mBaseDN;
         LDAPConnection ldapconn = null;
         boolean founduser = false;
@@ -1669,6 +1806,7 @@ public final class UGSubsystem implements IUGSubsystem {
                 founduser = true;
             }
             Debug.trace("authorization result: " + founduser);
+            mMemberCache.put(key, founduser, generation);
         } catch (LDAPException e) {
             String errMsg =
                     "isMemberOfLdapGroup: could not find group " + groupname + ". Error " + e;
@@ -1749,6 +1887,7 @@ public final class UGSubsystem implements IUGSubsystem {
             throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_ADD_GROUP_FAIL"));
 
         } finally {
+            invalidateGroups();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -1780,6 +1919,7 @@ public final class UGSubsystem implements IUGSubsystem {
             throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_REMOVE_GROUP_FAIL"));
 
         } finally {
+            invalidateGroups();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -1842,6 +1982,7 @@ public final class UGSubsystem implements IUGSubsystem {
             throw new EUsrGrpException(CMS.getUserMessage("CMS_USRGRP_MOD_GROUP_FAIL"));
 
         } finally {
+            invalidateGroups();
             if (ldapconn != null)
                 returnConn(ldapconn);
         }
@@ -99,6 +99,24 @@ public class User implements IUser {
         mUserid = userid;
     }
 
+    /**
+     * Constructs a copy of a user.
+     */
+    public User(User user) {
+        mBase = user.mBase;
+        mUserid = user.mUserid;
+        mUserDN = user.mUserDN;
+        mFullName = user.mFullName;
+        mPassword = user.mPassword;
+        mEmail = user.mEmail;
+        mPhone = user.mPhone;
+        mState = user.mState;
+        mCertDN = user.mCertDN;
+        mUserType = user.mUserType;
+        mx509Certs = user.mx509Certs == null ? null : user.mx509Certs.clone();
+        tpsProfiles = user.tpsProfiles == null ? null : new ArrayList<String>(user.tpsProfiles);
+    }
+
     /**
      * Retrieves the name of this identity.
      */
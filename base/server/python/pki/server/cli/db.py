@@ -21,10 +21,14 @@
 from __future__ import absolute_import
 from __future__ import print_function
 import getopt
+import hashlib
 import ldap
+import ldap.controls
+import ldap.modlist
 import nss.nss as nss
 import subprocess
 import sys
+import time
 import getpass
 
 import pki.cli
@@ -138,6 +142,10 @@ class DBSchemaUpgrade(pki.cli.CLI):
 
 
 class DBUpgrade(pki.cli.CLI):
+
+    PAGE_SIZE = 500
+    FINGERPRINT_ATTR = 'publicKeyFingerprint'
+
     def __init__(self):
         super(DBUpgrade, self).__init__(
             'upgrade', 'Upgrade PKI server database')
@@ -146,14 +154,23 @@ class DBUpgrade(pki.cli.CLI):
         print('Usage: pki-server db-upgrade [OPTIONS]')
         print()
         print('  -i, --instance <instance ID>       Instance ID (default: pki-tomcat).')
+        print('  -D, --bind-dn <Bind DN>            Connect DN (default: internal database user).')
+        print('  -w, --bind-password <password>     Password to connect to DB.')
         print('  -v, --verbose                      Run in verbose mode.')
         print('      --help                         Show help message.')
         print()
+        print('Public key fingerprint search is enabled in the CS.cfg of this')
+        print('instance once all certificate records have a fingerprint and the')
+        print('publicKeyFingerprint index exists in its Directory Server. The')
+        print('index requires write access to cn=config. Neither the setting nor')
+        print('the index is replicated, so run this command on every clone.')
+        print()
 
     def execute(self, argv):
         try:
             opts, _ = getopt.gnu_getopt(
-                argv, 'i:v', ['instance=', 'verbose', 'help'])
+                argv, 'i:D:w:v',
+                ['instance=', 'bind-dn=', 'bind-password=', 'verbose', 'help'])
 
         except getopt.GetoptError as e:
             print('ERROR: ' + str(e))
@@ -161,11 +178,19 @@ class DBUpgrade(pki.cli.CLI):
             sys.exit(1)
 
         instance_name = 'pki-tomcat'
+        bind_dn = None
+        bind_password = None
 
         for o, a in opts:
             if o in ('-i', '--instance'):
                 instance_name = a
 
+            elif o in ('-D', '--bind-dn'):
+                bind_dn = a
+
+            elif o in ('-w', '--bind-password'):
+                bind_password = a
+
             elif o in ('-v', '--verbose'):
                 self.set_verbose(True)
 
@@ -192,27 +217,98 @@ class DBUpgrade(pki.cli.CLI):
             sys.exit(1)
 
         base_dn = subsystem.config['internaldb.basedn']
-        conn = subsystem.open_database()
+        conn = subsystem.open_database(bind_dn=bind_dn,
+                                       bind_password=bind_password)
+
+        failures = 0
+        indexed = False
 
         try:
             repo_dn = 'ou=certificateRepository,ou=ca,%s' % base_dn
             if self.verbose:
                 print('Searching certificates records with missing issuerName in %s' % repo_dn)
 
-            entries = conn.ldap.search_s(
+            entries = self.search_paged(
+                conn,
                 repo_dn,
-                ldap.SCOPE_ONELEVEL,
                 '(&(objectclass=certificaterecord)(|(!(issuername=*))(issuername=)))',
                 None)
 
             for entry in entries:
                 self.add_issuer_name(conn, entry)
 
+            if self.verbose:
+                print('Searching certificates records with missing publicKeyFingerprint in %s'
+                      % repo_dn)
+
+            entries = self.search_paged(
+                conn,
+                repo_dn,
+                '(&(objectclass=certificaterecord)(!(publicKeyFingerprint=*)))',
+                ['publicKeyData'])
+
+            for entry in entries:
+                if not self.add_public_key_fingerprint(conn, entry):
+                    failures += 1
+
+            # certificate records can be searched by fingerprint once
+            # all of them have one and the attribute is indexed
+            if failures == 0:
+                indexed = self.add_public_key_fingerprint_index(subsystem, conn)
+
         finally:
             conn.close()
 
+        if failures:
+            print('WARNING: %d certificate records have no publicKeyFingerprint, '
+                  'public key fingerprint search not enabled' % failures)
+
+        elif not indexed:
+            print('WARNING: %s is not indexed, public key fingerprint search not enabled'
+                  % self.FINGERPRINT_ATTR)
+
+        else:
+            subsystem.config['ca.publicKeyFingerprintSearch'] = 'true'
+            subsystem.save()
+            print('Public key fingerprint search enabled in instance %s, '
+                  'run pki-server db-upgrade on each clone to enable it there'
+                  % instance_name)
+
         self.print_message('Upgrade complete')
 
+    def search_paged(self, conn, base_dn, search_filter, attrs):
+        """
+        Returns the entries under base_dn matching the filter, retrieved
+        one page at a time so that they are not all loaded at once.
+        """
+
+        control = ldap.controls.SimplePagedResultsControl(
+            True, size=self.PAGE_SIZE, cookie='')
+
+        while True:
+            msgid = conn.ldap.search_ext(
+                base_dn,
+                ldap.SCOPE_ONELEVEL,
+                search_filter,
+                attrs,
+                serverctrls=[control])
+
+            _, entries, _, serverctrls = conn.ldap.result3(msgid)
+
+            for entry in entries:
+                yield entry
+
+            cookie = None
+            for serverctrl in serverctrls:
+                if serverctrl.controlType == \
+                        ldap.controls.SimplePagedResultsControl.controlType:
+                    cookie = serverctrl.cookie
+
+            if not cookie:
+                break
+
+            control.cookie = cookie
+
     def add_issuer_name(self, conn, entry):
         dn, attrs = entry
 
@@ -232,3 +328,122 @@ class DBUpgrade(pki.cli.CLI):
             print(
                 'Failed to add issuerName to certificate {}: {}'
                 .format(attrs.get('cn', ['<unknown>'])[0], e))
+
+    def add_public_key_fingerprint(self, conn, entry):
+        dn, attrs = entry
+
+        if self.verbose:
+            print('Adding public key fingerprint to certificate record %s' % dn)
+
+        attr_key = attrs.get('publicKeyData')
+        if not attr_key:
+            print('Missing publicKeyData in certificate record %s' % dn)
+            return False
+
+        # SHA-256 digest of the SubjectPublicKeyInfo in lowercase hex
+        fingerprint = hashlib.sha256(attr_key[0]).hexdigest()
+
+        try:
+            conn.ldap.modify_s(dn, [(ldap.MOD_REPLACE, 'publicKeyFingerprint', fingerprint)])
+        except ldap.LDAPError as e:
+            print(
+                'Failed to add publicKeyFingerprint to certificate {}: {}'
+                .format(dn, e))
+            return False
+
+        return True
+
+    def add_public_key_fingerprint_index(self, subsystem, conn):
+        """
+        Adds the publicKeyFingerprint equality index to the database of
+        the instance if it does not exist, and indexes the existing
+        certificate records. Returns True if the attribute is indexed.
+        """
+
+        database = subsystem.config['internaldb.database']
+        index_dn = 'cn=%s,cn=index,cn=%s,cn=ldbm database,cn=plugins,cn=config' % \
+            (self.FINGERPRINT_ATTR, database)
+
+        try:
+            conn.ldap.search_s(index_dn, ldap.SCOPE_BASE)
+
+            # an existing index is updated on every write,
+            # including the fingerprints added above
+            if self.verbose:
+                print('Index %s already exists' % index_dn)
+            return True
+
+        except ldap.NO_SUCH_OBJECT:
+            pass
+
+        except ldap.LDAPError as e:
+            print('Unable to check index %s: %s' % (index_dn, e))
+            return False
+
+        if self.verbose:
+            print('Adding index %s' % index_dn)
+
+        try:
+            conn.ldap.add_s(index_dn, ldap.modlist.addModlist({
+                'objectClass': ['top', 'nsIndex'],
+                'cn': [self.FINGERPRINT_ATTR],
+                'nsSystemIndex': ['false'],
+                'nsIndexType': ['eq']}))
+
+        except ldap.LDAPError as e:
+            print('Unable to add index %s: %s' % (index_dn, e))
+            return False
+
+        if self.reindex(conn, database, self.FINGERPRINT_ATTR + ':eq'):
+            return True
+
+        # remove the index so that the next run indexes the records again
+        try:
+            conn.ldap.delete_s(index_dn)
+        except ldap.LDAPError as e:
+            print('Unable to remove index %s: %s' % (index_dn, e))
+
+        return False
+
+    def reindex(self, conn, database, index_attr):
+        """
+        Runs an index task for an attribute and waits for it to finish.
+        Returns True if the task succeeded.
+        """
+
+        name = 'index-%s-%d' % (self.FINGERPRINT_ATTR, int(time.time()))
+        task_dn = 'cn=%s,cn=index,cn=tasks,cn=config' % name
+
+        print('Indexing %s in %s' % (index_attr, database))
+
+        try:
+            conn.ldap.add_s(task_dn, ldap.modlist.addModlist({
+                'objectClass': ['top', 'extensibleObject'],
+                'cn': [name],
+                'ttl': ['10'],
+                'nsInstance': [database],
+                'nsIndexAttribute': [index_attr]}))
+
+            while True:
+                time.sleep(1)
+
+                if self.verbose:
+                    print('Checking %s' % task_dn)
+
+                try:
+                    _, attrs = conn.ldap.search_s(
+                        task_dn, ldap.SCOPE_BASE, attrlist=['nsTaskExitCode'])[0]
+                except ldap.NO_SUCH_OBJECT:
+                    # the task was removed after it finished
+                    return True
+
+                exit_code = attrs.get('nsTaskExitCode')
+                if exit_code:
+                    if int(exit_code[0]) != 0:
+                        print('Index task %s failed with exit code %s' % (task_dn, exit_code[0]))
+                        return False
+                    return True
+
+        except ldap.LDAPError as e:
+            print('Unable to index %s: %s' % (index_attr, e))
+            return False
@@ -0,0 +1,164 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.ca;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import netscape.security.x509.RevokedCertImpl;
+
+import com.netscape.cmscore.test.CMSBaseTestCase;
+
+public class CRLCacheJournalTest extends CMSBaseTestCase {
+
+    File file;
+    CRLCacheJournal journal;
+
+    public CRLCacheJournalTest(String name) {
+        super(name);
+    }
+
+    public void cmsTestSetUp() {
+        file = new File(System.getProperty("java.io.tmpdir"),
+                "crl-cache-" + System.nanoTime() + ".journal");
+        journal = new CRLCacheJournal(file);
+    }
+
+    public void cmsTestTearDown() {
+        journal.close();
+        file.delete();
+    }
+
+    public static Test suite() {
+        return new TestSuite(CRLCacheJournalTest.class);
+    }
+
+    public long appendEntries(int count) throws Exception {
+        long generation = journal.reset();
+
+        for (int i = 0; i < count; i++) {
+            BigInteger serialNumber = BigInteger.valueOf(1000 + i);
+            Date date = new Date(1500000000000L + i * 1000L);
+            journal.append(new CRLCacheJournal.Entry(
+                    CRLCacheJournal.REVOKED, serialNumber, date,
+                    new RevokedCertImpl(serialNumber, date)));
+        }
+
+        journal.close();
+        return generation;
+    }
+
+    public void truncate(long bytes) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - bytes);
+        }
+    }
+
+    public void corrupt(long position) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+        }
+    }
+
+    public void assertEntries(int count, List<CRLCacheJournal.Entry> entries) {
+        assertNotNull(entries);
+        assertEquals(count, entries.size());
+
+        for (int i = 0; i < count; i++) {
+            CRLCacheJournal.Entry entry = entries.get(i);
+            assertEquals(CRLCacheJournal.REVOKED, entry.getType());
+            assertEquals(BigInteger.valueOf(1000 + i), entry.getSerialNumber());
+            assertEquals(new Date(1500000000000L + i * 1000L), entry.getDate());
+            assertEquals(BigInteger.valueOf(1000 + i), entry.getRevokedCert().getSerialNumber());
+        }
+    }
+
+    public void testReplay() throws Exception {
+        long generation = appendEntries(3);
+        assertEquals(3, journal.getSize());
+
+        assertEntries(3, journal.read(generation));
+    }
+
+    public void testMissingJournal() throws Exception {
+        assertNull(journal.read(1));
+    }
+
+    public void testEmptyJournal() throws Exception {
+        long generation = appendEntries(0);
+
+        assertEntries(0, journal.read(generation));
+    }
+
+    public void testHeader() throws Exception {
+        long generation = appendEntries(3);
+
+        // journal of another snapshot
+        assertNull(journal.read(generation + 1));
+
+        // torn header
+        truncate(file.length() - 6);
+        assertNull(journal.read(generation));
+    }
+
+    public void testMagic() throws Exception {
+        long generation = appendEntries(3);
+        corrupt(0);
+
+        assertNull(journal.read(generation));
+    }
+
+    public void testTornEntry() throws Exception {
+        long generation = appendEntries(3);
+
+        // checksum missing
+        truncate(2);
+        assertEntries(2, journal.read(generation));
+
+        // data incomplete
+        truncate(10);
+        assertEntries(2, journal.read(generation));
+    }
+
+    public void testCorruptEntry() throws Exception {
+        long generation = appendEntries(3);
+
+        // last byte of the data of the last entry
+        corrupt(file.length() - 5);
+        assertEntries(2, journal.read(generation));
+    }
+
+    public void testReset() throws Exception {
+        long generation = appendEntries(3);
+
+        long newGeneration = journal.reset();
+        assertTrue(newGeneration > generation);
+        assertEquals(0, journal.getSize());
+
+        assertNull(journal.read(generation));
+        assertEntries(0, journal.read(newGeneration));
+    }
+}
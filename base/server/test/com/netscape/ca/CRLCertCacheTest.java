@@ -0,0 +1,158 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.ca;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import netscape.security.x509.RevokedCertImpl;
+import netscape.security.x509.RevokedCertificate;
+
+import com.netscape.cmscore.test.CMSBaseTestCase;
+
+public class CRLCertCacheTest extends CMSBaseTestCase {
+
+    CRLCertCache cache;
+
+    public CRLCertCacheTest(String name) {
+        super(name);
+    }
+
+    public void cmsTestSetUp() {
+        cache = new CRLCertCache();
+    }
+
+    public void cmsTestTearDown() {
+    }
+
+    public static Test suite() {
+        return new TestSuite(CRLCertCacheTest.class);
+    }
+
+    public RevokedCertificate createEntry(long serial) {
+        return createEntry(serial, new Date(1500000000000L + serial * 1000L));
+    }
+
+    public RevokedCertificate createEntry(long serial, Date revocationDate) {
+        return new RevokedCertImpl(BigInteger.valueOf(serial), revocationDate);
+    }
+
+    public void addEntries(int count) throws Exception {
+        for (int i = 1; i <= count; i++) {
+            cache.put(BigInteger.valueOf(i), createEntry(i));
+        }
+    }
+
+    public void testSettle() throws Exception {
+        addEntries(100);
+
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.getChangeCount());
+        assertNull(cache.getIndex());
+
+        cache.settle();
+
+        assertEquals(100, cache.size());
+        assertEquals(0, cache.getChangeCount());
+        assertEquals(100, cache.getIndex().size());
+
+        assertTrue(cache.containsKey(BigInteger.valueOf(50)));
+        assertEquals(createEntry(50).getRevocationDate(), cache.get(BigInteger.valueOf(50)).getRevocationDate());
+        assertEquals(createEntry(50).getRevocationDate(), cache.getRevocationDate(BigInteger.valueOf(50)));
+        assertNull(cache.get(BigInteger.valueOf(101)));
+    }
+
+    public void testOverlay() throws Exception {
+        addEntries(100);
+        cache.settle();
+
+        Date revocationDate = new Date(1600000000000L);
+
+        cache.remove(BigInteger.valueOf(10));
+        cache.remove(BigInteger.valueOf(1000));
+        cache.put(BigInteger.valueOf(20), createEntry(20, revocationDate));
+        cache.put(BigInteger.valueOf(200), createEntry(200));
+
+        assertEquals(100, cache.size());
+        assertEquals(3, cache.getChangeCount());
+        assertNull(cache.getIndex());
+
+        assertFalse(cache.containsKey(BigInteger.valueOf(10)));
+        assertNull(cache.getRevocationDate(BigInteger.valueOf(10)));
+        assertEquals(revocationDate, cache.getRevocationDate(BigInteger.valueOf(20)));
+        assertTrue(cache.containsKey(BigInteger.valueOf(200)));
+
+        // removing an entry added since the last settle leaves no change behind
+        cache.remove(BigInteger.valueOf(200));
+        assertEquals(99, cache.size());
+        assertEquals(2, cache.getChangeCount());
+
+        cache.settle();
+
+        assertEquals(99, cache.size());
+        assertEquals(99, cache.getIndex().size());
+        assertFalse(cache.containsKey(BigInteger.valueOf(10)));
+        assertEquals(revocationDate, cache.getRevocationDate(BigInteger.valueOf(20)));
+    }
+
+    public void testSnapshot() throws Exception {
+        addEntries(10);
+        cache.settle();
+        cache.remove(BigInteger.valueOf(1));
+        cache.put(BigInteger.valueOf(11), createEntry(11));
+
+        Iterator<Map.Entry<BigInteger, RevokedCertificate>> entries = cache.entrySet().iterator();
+        TreeSet<BigInteger> keys = new TreeSet<BigInteger>(cache.keySet());
+
+        // changes made after the snapshot are not seen
+        cache.put(BigInteger.valueOf(12), createEntry(12));
+        cache.remove(BigInteger.valueOf(2));
+
+        TreeSet<BigInteger> expected = new TreeSet<BigInteger>();
+        for (int i = 2; i <= 11; i++) {
+            expected.add(BigInteger.valueOf(i));
+        }
+        assertEquals(expected, keys);
+
+        int count = 0;
+        while (entries.hasNext()) {
+            Map.Entry<BigInteger, RevokedCertificate> entry = entries.next();
+            assertEquals(entry.getKey(), entry.getValue().getSerialNumber());
+            assertTrue(expected.contains(entry.getKey()));
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    public void testClear() throws Exception {
+        addEntries(10);
+        cache.settle();
+        cache.put(BigInteger.valueOf(11), createEntry(11));
+
+        cache.clear();
+
+        assertTrue(cache.isEmpty());
+        assertFalse(cache.containsKey(BigInteger.valueOf(1)));
+        assertFalse(cache.keySet().iterator().hasNext());
+    }
+}
@@ -0,0 +1,131 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cms.logging;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.netscape.certsrv.apps.CMS;
+import com.netscape.certsrv.base.IConfigStore;
+import com.netscape.certsrv.base.ISubsystem;
+import com.netscape.certsrv.common.NameValuePairs;
+import com.netscape.certsrv.logging.ELogException;
+import com.netscape.certsrv.logging.ILogEvent;
+import com.netscape.certsrv.logging.ILogEventListener;
+import com.netscape.certsrv.logging.SystemEvent;
+import com.netscape.cmscore.app.CMSEngineDefaultStub;
+import com.netscape.cmscore.test.CMSBaseTestCase;
+
+public class LogDispatcherTest extends CMSBaseTestCase {
+
+    LogDispatcher dispatcher;
+    CountDownLatch shutdownDone;
+
+    public LogDispatcherTest(String name) {
+        super(name);
+    }
+
+    public void cmsTestSetUp() {
+        shutdownDone = new CountDownLatch(1);
+
+        // shuts down the log queue like CMS.forceShutdown()
+        CMS.setCMSEngine(new CMSEngineDefaultStub() {
+            public void forceShutdown() {
+                dispatcher.shutdown();
+                shutdownDone.countDown();
+            }
+        });
+    }
+
+    public void cmsTestTearDown() {
+    }
+
+    public static Test suite() {
+        return new TestSuite(LogDispatcherTest.class);
+    }
+
+    public void testFailClosedShutdown() throws Exception {
+        dispatcher = new LogDispatcher(new FailingListener(), 10, LogDispatcher.BLOCK, 1000, true);
+        dispatcher.dispatch(new SystemEvent("first"));
+        dispatcher.dispatch(new SystemEvent("second"));
+
+        dispatcher.start();
+        LogDispatcher.DispatcherThread thread = dispatcher.thread;
+
+        // the listener failure shuts down CMS on the worker thread
+        assertTrue(shutdownDone.await(10, TimeUnit.SECONDS));
+
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNull(dispatcher.thread);
+        assertEquals(2, dispatcher.getFailed());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    static class FailingListener implements ILogEventListener {
+
+        public void log(ILogEvent event) throws ELogException {
+            throw new ELogException("unable to write " + event);
+        }
+
+        public void flush() {
+        }
+
+        public void shutdown() {
+        }
+
+        public IConfigStore getConfigStore() {
+            return null;
+        }
+
+        public void init(ISubsystem owner, IConfigStore config) {
+        }
+
+        public void startup() {
+        }
+
+        public NameValuePairs retrieveLogContent(Hashtable<String, String> req) {
+            return null;
+        }
+
+        public NameValuePairs retrieveLogList(Hashtable<String, String> req) {
+            return null;
+        }
+
+        public String getImplName() {
+            return "FailingListener";
+        }
+
+        public String getDescription() {
+            return "FailingListener";
+        }
+
+        public Vector<String> getDefaultParams() {
+            return null;
+        }
+
+        public Vector<String> getInstanceParams() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmscore.base;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.netscape.certsrv.base.EBaseException;
+import com.netscape.certsrv.base.IConfigStore;
+import com.netscape.cmscore.test.CMSBaseTestCase;
+
+public class PropConfigStoreTest extends CMSBaseTestCase {
+
+    PropConfigStore config;
+
+    public PropConfigStoreTest(String name) {
+        super(name);
+    }
+
+    public void cmsTestSetUp() {
+        config = new PropConfigStore(null);
+        config.putString("ca.crl.MasterCRL.enable", "true");
+        config.putString("ca.crl.MasterCRL.autoUpdateInterval", "240");
+        config.putString("ca.crl.MasterCRL.extension.CRLNumber.enable", "true");
+        config.putString("ca.crl.MasterCRL-2.enable", "false");
+        config.putString("ca.crl.enable", "true");
+        config.putString("ca.serial", "0x10");
+        config.putString("cs.type", "CA");
+    }
+
+    public void cmsTestTearDown() {
+    }
+
+    public static Test suite() {
+        return new TestSuite(PropConfigStoreTest.class);
+    }
+
+    public void testSubStoreNames() {
+        IConfigStore crl = config.getSubStore("ca").getSubStore("crl");
+
+        // substores are ordered like their property names
+        assertEquals(list("MasterCRL-2", "MasterCRL"), Collections.list(crl.getSubStoreNames()));
+        assertEquals(list("enable"), Collections.list(crl.getPropertyNames()));
+
+        assertEquals(list("ca", "cs"), Collections.list(config.getSubStoreNames()));
+        assertEquals(list(), Collections.list(config.getPropertyNames()));
+    }
+
+    public void testProperties() {
+        Map<String, String> properties = config.getSubStore("ca.crl.MasterCRL").getProperties();
+
+        assertEquals(3, properties.size());
+        assertEquals("240", properties.get("autoUpdateInterval"));
+        assertEquals("true", properties.get("extension.CRLNumber.enable"));
+        assertEquals(7, config.size());
+    }
+
+    public void testRemoveSubStore() {
+        config.getSubStore("ca.crl").removeSubStore("MasterCRL");
+
+        assertEquals(list("MasterCRL-2"), Collections.list(config.getSubStore("ca.crl").getSubStoreNames()));
+        assertNull(config.get("ca.crl.MasterCRL.enable"));
+        assertEquals("false", config.get("ca.crl.MasterCRL-2.enable"));
+        assertEquals(4, config.size());
+    }
+
+    public void testTypedValues() throws EBaseException {
+        IConfigStore crl = config.getSubStore("ca.crl.MasterCRL");
+
+        assertEquals(240, crl.getInteger("autoUpdateInterval"));
+        assertEquals(240, crl.getInteger("autoUpdateInterval", 0));
+        assertTrue(crl.getBoolean("enable"));
+        assertEquals(new BigInteger("16"), config.getBigInteger("ca.serial"));
+
+        // memoized values are replaced when the property changes
+        crl.putInteger("autoUpdateInterval", 60);
+        assertEquals(60, crl.getInteger("autoUpdateInterval"));
+        crl.putBoolean("enable", false);
+        assertFalse(crl.getBoolean("enable"));
+
+        crl.remove("autoUpdateInterval");
+        assertEquals(15, crl.getInteger("autoUpdateInterval", 15));
+    }
+
+    public List<String> list(String... names) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, names);
+        return list;
+    }
+}
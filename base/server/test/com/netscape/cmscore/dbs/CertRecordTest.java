@@ -0,0 +1,196 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmscore.dbs;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import netscape.ldap.LDAPAttribute;
+import netscape.ldap.LDAPAttributeSet;
+import netscape.security.util.DerOutputStream;
+import netscape.security.util.DerValue;
+import netscape.security.util.ObjectIdentifier;
+import netscape.security.x509.X509CertImpl;
+
+import com.netscape.certsrv.dbs.certdb.ICertRecord;
+import com.netscape.cmscore.test.CMSBaseTestCase;
+
+public class CertRecordTest extends CMSBaseTestCase {
+
+    X509CertImpl cert;
+
+    public CertRecordTest(String name) {
+        super(name);
+    }
+
+    public void cmsTestSetUp() {
+        try {
+            // v3 certificate with a version field and no extensions
+            cert = getFakeCert();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void cmsTestTearDown() {
+    }
+
+    public static Test suite() {
+        return new TestSuite(CertRecordTest.class);
+    }
+
+    /**
+     * Re-encodes the test certificate, optionally without its version
+     * field and with an extension. The signature is kept as is, it is
+     * not verified.
+     */
+    public byte[] encode(boolean version, boolean extensions) throws Exception {
+
+        DerValue certValue = new DerValue(cert.getEncoded());
+        DerValue tbsValue = certValue.data.getDerValue();
+
+        DerOutputStream tbs = new DerOutputStream();
+        while (tbsValue.data.available() > 0) {
+            DerValue field = tbsValue.data.getDerValue();
+            if (!version && field.isContextSpecific((byte) 0))
+                continue;
+            tbs.putDerValue(field);
+        }
+
+        if (extensions) {
+            // [3] { { basicConstraints, OCTET STRING { SEQUENCE {} } } }
+            DerOutputStream ext = new DerOutputStream();
+            ext.putOID(new ObjectIdentifier("2.5.29.19"));
+            ext.putOctetString(new byte[] { DerValue.tag_Sequence, 0 });
+
+            DerOutputStream extSeq = new DerOutputStream();
+            extSeq.write(DerValue.tag_Sequence, ext);
+
+            DerOutputStream exts = new DerOutputStream();
+            exts.write(DerValue.tag_Sequence, extSeq);
+
+            tbs.write(DerValue.createTag(DerValue.TAG_CONTEXT, true, (byte) 3), exts);
+        }
+
+        DerOutputStream body = new DerOutputStream();
+        body.write(DerValue.tag_Sequence, tbs);
+        while (certValue.data.available() > 0) {
+            body.putDerValue(certValue.data.getDerValue());
+        }
+
+        DerOutputStream out = new DerOutputStream();
+        out.write(DerValue.tag_Sequence, body);
+
+        return out.toByteArray();
+    }
+
+    public void assertValidity(CertRecord record) {
+        assertEquals(cert.getNotBefore(), record.getNotBefore());
+        assertEquals(cert.getNotAfter(), record.getNotAfter());
+    }
+
+    public void testV3Certificate() throws Exception {
+        CertRecord record = new CertRecord();
+        record.setEncodedCertificate(encode(true, true));
+
+        assertValidity(record);
+    }
+
+    public void testV3CertificateWithoutVersion() throws Exception {
+        // extensions without the version field, the validity is still
+        // the fourth field of the TBSCertificate
+        CertRecord record = new CertRecord();
+        record.setEncodedCertificate(encode(false, true));
+
+        assertValidity(record);
+    }
+
+    public void testV1Certificate() throws Exception {
+        byte[] der = encode(false, false);
+
+        CertRecord record = new CertRecord();
+        record.setEncodedCertificate(der);
+
+        assertValidity(record);
+
+        X509CertImpl decoded = record.getCertificate();
+        assertNotNull(decoded);
+        assertEquals(0, decoded.getVersion());
+        assertValidity(record);
+    }
+
+    public void testCorruptCertificate() throws Exception {
+        byte[] der = cert.getEncoded();
+
+        CertRecord record = new CertRecord();
+        record.setEncodedCertificate(Arrays.copyOf(der, der.length / 2));
+
+        assertNull(record.getNotAfter());
+        assertNull(record.getNotBefore());
+        assertNull(record.getCertificate());
+
+        record.setEncodedCertificate(new byte[] { DerValue.tag_Sequence, 3, 1, 2, 3 });
+
+        assertNull(record.getNotAfter());
+        assertNull(record.getCertificate());
+    }
+
+    public void testProjectedRecord() throws Exception {
+        // whole seconds, as stored in the database
+        Date notBefore = new Date(1500000000000L);
+        Date notAfter = new Date(1600000000000L);
+
+        LDAPAttributeSet attrs = new LDAPAttributeSet();
+        attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_NOT_BEFORE, DateMapper.dateToDB(notBefore)));
+        attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_NOT_AFTER, DateMapper.dateToDB(notAfter)));
+
+        CertRecord record = new CertRecord();
+        new X509CertImplMapper().mapLDAPAttributeSetToObject(attrs, ICertRecord.ATTR_X509CERT, record);
+
+        assertEquals(notBefore, record.getNotBefore());
+        assertEquals(notAfter, record.getNotAfter());
+        assertNull(record.getCertificate());
+    }
+
+    public void testLazyDecode() throws Exception {
+        byte[] der = cert.getEncoded();
+
+        LDAPAttributeSet attrs = new LDAPAttributeSet();
+        attrs.add(new LDAPAttribute(CertDBSchema.LDAP_ATTR_SIGNED_CERT + ";binary", der));
+
+        CertRecord record = new CertRecord();
+        new X509CertImplMapper().mapLDAPAttributeSetToObject(attrs, ICertRecord.ATTR_X509CERT, record);
+
+        // the validity is read before the certificate is decoded
+        assertValidity(record);
+
+        X509CertImpl decoded = record.getCertificate();
+        assertNotNull(decoded);
+        assertSame(decoded, record.getCertificate());
+        assertTrue(Arrays.equals(der, decoded.getEncoded()));
+        assertEquals(cert.getSerialNumber(), decoded.getSerialNumber());
+        assertValidity(record);
+
+        // a new encoding replaces the decoded certificate
+        record.setEncodedCertificate(encode(false, false));
+        assertNotSame(decoded, record.getCertificate());
+        assertValidity(record);
+    }
+}
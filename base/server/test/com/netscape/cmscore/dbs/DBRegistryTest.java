@@ -110,6 +110,18 @@ public class DBRegistryTest extends CMSBaseTestCase {
         assertTrue(extAttrMapper.mapLDAPAttrsCalled);
     }
 
+    public void testGetFilter() throws EBaseException {
+        String filter = "(" + IRequestRecord.ATTR_SOURCE_ID + "=foo)";
+
+        assertEquals("(sourceIdOut=foo)", registry.getFilter(filter));
+        assertEquals("(sourceIdOut=foo)", registry.getFilter(filter));
+
+        // translated filters are discarded when mappers change
+        registry.registerAttribute(IRequestRecord.ATTR_SOURCE_ID,
+                new StringMapper("sourceIdNew"));
+        assertEquals("(sourceIdNew=foo)", registry.getFilter(filter));
+    }
+
     static class DBSubsystemStub extends DBSubsystemDefaultStub {
         DBRegistry registry;
 
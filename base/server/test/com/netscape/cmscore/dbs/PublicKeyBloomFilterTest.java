@@ -0,0 +1,75 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmscore.dbs;
+
+import java.math.BigInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import com.netscape.cmscore.test.CMSBaseTestCase;
+
+public class PublicKeyBloomFilterTest extends CMSBaseTestCase {
+
+    public PublicKeyBloomFilterTest(String name) {
+        super(name);
+    }
+
+    public void cmsTestSetUp() {
+    }
+
+    public void cmsTestTearDown() {
+    }
+
+    public static Test suite() {
+        return new TestSuite(PublicKeyBloomFilterTest.class);
+    }
+
+    public byte[] fingerprint(int i) throws Exception {
+        return X509CertImplMapper.digestPublicKey(BigInteger.valueOf(i).toByteArray());
+    }
+
+    public void testFingerprint() throws Exception {
+        // SHA-256 of an empty key
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                X509CertImplMapper.getPublicKeyFingerprint(new byte[0]));
+    }
+
+    public void testLookup() throws Exception {
+        PublicKeyBloomFilter filter = new PublicKeyBloomFilter(1000);
+        assertFalse(filter.isLoaded());
+
+        for (int i = 0; i < 1000; i++) {
+            filter.add(fingerprint(i));
+        }
+
+        // no false negatives
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(fingerprint(i)));
+        }
+
+        // about 1% false positives
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (filter.mightContain(fingerprint(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 300);
+    }
+}
@@ -40,6 +40,7 @@ import com.netscape.certsrv.tps.cert.TPSCertResource;
 import com.netscape.certsrv.usrgrp.IUGSubsystem;
 import com.netscape.certsrv.usrgrp.IUser;
 import com.netscape.cms.servlet.base.PKIService;
+import com.netscape.cms.servlet.tks.SecureChannelProtocol;
 import com.netscape.cmsutil.crypto.CryptoUtil;
 import com.netscape.cmsutil.util.Utils;
 
@@ -384,6 +385,7 @@ public class TPSConnectorService extends PKIService implements TPSConnectorResou
             X509Certificate[] certs = user.getX509Certificates();
 
             CryptoUtil.deleteSharedSecret(nickname);
+            SecureChannelProtocol.invalidateSymKey(nickname);
             CryptoUtil.createSharedSecret(nickname);
 
             //Create des3 session sym key to wrap the shared secret.
@@ -433,6 +435,7 @@ public class TPSConnectorService extends PKIService implements TPSConnectorResou
                 return createNoContentResponse();
             }
             CryptoUtil.deleteSharedSecret(nickname);
+            SecureChannelProtocol.invalidateSymKey(nickname);
 
             cs.putString("tps." + id + ".nickname", "");
             cs.commit(true);
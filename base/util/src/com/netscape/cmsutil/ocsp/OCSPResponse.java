@@ -17,6 +17,7 @@
 // --- END COPYRIGHT BLOCK ---
 package com.netscape.cmsutil.ocsp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -46,6 +47,7 @@ public class OCSPResponse implements ASN1Value {
     private OCSPResponseStatus responseStatus = null;
     private ResponseBytes responseBytes = null;
     private SEQUENCE sequence;
+    private volatile byte[] encoded;
 
     public OCSPResponseStatus getResponseStatus() {
         return responseStatus;
@@ -82,9 +84,27 @@ public class OCSPResponse implements ASN1Value {
 
     public void encode(Tag implicitTag, OutputStream ostream)
             throws IOException {
+        if (encoded != null && TAG.equals(implicitTag)) {
+            ostream.write(encoded);
+            return;
+        }
         sequence.encode(implicitTag, ostream);
     }
 
+    /**
+     * Returns the DER encoding of this response. The encoding is
+     * computed once, so a response can be sent repeatedly without
+     * being encoded again.
+     */
+    public byte[] getEncoded() throws IOException {
+        if (encoded == null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            sequence.encode(TAG, bos);
+            encoded = bos.toByteArray();
+        }
+        return encoded;
+    }
+
     private static final Template templateInstance = new Template();
 
     public static Template getTemplate() {
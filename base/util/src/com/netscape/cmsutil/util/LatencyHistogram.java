@@ -0,0 +1,146 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.cmsutil.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A latency histogram that can be updated by many threads without
+ * locking.
+ * <p>
+ * Latencies are recorded in microseconds into power-of-two buckets:
+ * bucket 0 counts 0, bucket i counts values from 2^(i-1) to 2^i - 1.
+ * Percentiles are reported as the upper bound of the bucket holding
+ * them, so they are accurate within a factor of two, which is enough
+ * to alert on.
+ */
+public class LatencyHistogram {
+
+    public final static int BUCKETS = 40;
+
+    private final static LongBinaryOperator MAX = new LongBinaryOperator() {
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private LongAdder[] buckets = new LongAdder[BUCKETS];
+    private LongAdder count = new LongAdder();
+    private LongAdder total = new LongAdder();
+    private LongAccumulator max = new LongAccumulator(MAX, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param micros latency in microseconds
+     */
+    public void record(long micros) {
+
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        if (bucket >= BUCKETS) {
+            bucket = BUCKETS - 1;
+        }
+
+        buckets[bucket].increment();
+        count.increment();
+        total.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the recorded latencies in microseconds.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the average latency in microseconds.
+     */
+    public long getMean() {
+        long n = count.sum();
+        if (n == 0)
+            return 0;
+        return total.sum() / n;
+    }
+
+    /**
+     * Returns the highest recorded latency in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an estimate of a latency percentile.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the latency percentile in microseconds,
+     *         or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+
+        // the buckets may change while they are read, so count
+        // the snapshot instead of using the total count
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+
+        if (n == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        if (rank < 1) {
+            rank = 1;
+        }
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long bound = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(bound, getMax());
+            }
+        }
+
+        return getMax();
+    }
+}
@@ -62,6 +62,20 @@ class DerInputBuffer extends ByteArrayInputStream implements Cloneable {
         return retval;
     }
 
+    /**
+     * Returns the underlying buffer, which is shared, not copied.
+     */
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Returns the offset of the next byte to read in the underlying buffer.
+     */
+    int getPosition() {
+        return pos;
+    }
+
     int peek() throws IOException {
         if (pos >= count)
             throw new IOException("out of data");
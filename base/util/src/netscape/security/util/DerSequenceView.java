@@ -0,0 +1,95 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package netscape.security.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A view of the elements of a DER-encoded SEQUENCE or SET which shares
+ * the buffer of the encoding instead of copying it. Only the tag and
+ * length of each element are read when the view is created; an element
+ * is decoded when it is accessed.
+ * <P>
+ * Each access returns a new DerValue over the shared buffer, so a view
+ * may be used by multiple threads as long as the buffer is not modified.
+ */
+public class DerSequenceView {
+
+    private byte[] buffer;
+    private int[] offsets;
+    private int[] lengths;
+    private int size;
+
+    /**
+     * Creates a view of the elements of a sequence or set. The value
+     * itself is not consumed.
+     *
+     * @param value the sequence or set, which must not have been read.
+     * @exception IOException on decoding errors.
+     */
+    public DerSequenceView(DerValue value) throws IOException {
+
+        if (value.tag != DerValue.tag_Sequence && value.tag != DerValue.tag_Set)
+            throw new IOException("DerSequenceView rejects tag type " + value.tag);
+
+        DerInputBuffer in = value.buffer.dup();
+        buffer = in.getBuffer();
+        offsets = new int[16];
+        lengths = new int[16];
+
+        while (in.available() > 0) {
+            int offset = in.getPosition();
+
+            in.read(); // tag
+            int length = DerInputStream.getLength(in);
+            if (length > in.available())
+                throw new IOException("DerSequenceView: element " + size + " overruns the sequence");
+            in.skip(length);
+
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+
+            offsets[size] = offset;
+            lengths[size] = in.getPosition() - offset;
+            size++;
+        }
+    }
+
+    /**
+     * Returns the number of elements.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Decodes an element.
+     *
+     * @param index position of the element in the sequence.
+     * @return a new value sharing the buffer of the sequence.
+     * @exception IOException on decoding errors.
+     */
+    public DerValue get(int index) throws IOException {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Invalid element index: " + index);
+        return new DerInputStream(buffer, offsets[index], lengths[index]).getDerValue();
+    }
+}
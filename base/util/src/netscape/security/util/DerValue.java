@@ -291,6 +291,24 @@ public class DerValue {
         init(true, new ByteArrayInputStream(buf, offset, len));
     }
 
+    /**
+     * Get an ASN.1/DER encoded datum from a buffer without copying it.
+     * The entire buffer must hold exactly one datum, including its tag
+     * and length. The buffer is shared with the returned value and any
+     * value decoded from it, so it must not be modified afterwards.
+     *
+     * @param buf buffer holding a single DER-encoded datum.
+     */
+    public static DerValue wrap(byte[] buf) throws IOException {
+        DerInputStream in = new DerInputStream(buf);
+        DerValue value = in.getDerValue();
+
+        if (in.available() != 0)
+            throw new IOException("extra DER value data (wrap)");
+
+        return value;
+    }
+
     /**
      * Get an ASN1/DER encoded datum from an input stream. The
      * stream may have additional data following the encoded datum.
@@ -0,0 +1,347 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package netscape.security.x509;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import netscape.security.util.DerInputStream;
+import netscape.security.util.DerOutputStream;
+
+/**
+ * A compact binary encoding of a set of revoked certificates, used to
+ * store the CRL caches instead of a serialized Hashtable.
+ * <p>
+ * The encoding starts with a header:
+ *
+ * <pre>
+ * magic      4 bytes, "RCRT"
+ * version    1 byte
+ * flags      1 byte, FLAG_DEFLATE if the rest is deflated
+ * </pre>
+ *
+ * followed by the number of entries and the entries sorted by serial
+ * number:
+ *
+ * <pre>
+ * serial number      difference to the previous serial number,
+ *                    length-prefixed two's complement
+ * revocation date    difference to the previous date in milliseconds,
+ *                    zigzag-encoded
+ * reason code        1 byte, 0xFF if the entry has no reason code
+ * extensions         length-prefixed DER, 0 if there are none or only
+ *                    a non-critical reason code
+ * </pre>
+ *
+ * Lengths and counts are unsigned variable-length integers with 7 bits
+ * per byte.
+ */
+public class RevokedCertificateCodec {
+
+    public static final byte[] MAGIC = { 'R', 'C', 'R', 'T' };
+    public static final int VERSION = 1;
+
+    public static final int FLAG_DEFLATE = 0x01;
+
+    private static final int NO_REASON = 0xFF;
+
+    private static final Comparator<RevokedCertificate> SERIAL_ORDER = new Comparator<RevokedCertificate>() {
+        public int compare(RevokedCertificate entry1, RevokedCertificate entry2) {
+            return entry1.getSerialNumber().compareTo(entry2.getSerialNumber());
+        }
+    };
+
+    /**
+     * Checks whether the data starts with the header of this encoding.
+     */
+    public static boolean isEncoded(byte[] data) {
+
+        if (data == null || data.length < MAGIC.length + 2)
+            return false;
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Encodes revoked certificates.
+     *
+     * @param entries the revoked certificates, in any order
+     * @param deflate true to compress the entries
+     * @return the encoding
+     * @exception CRLException if the entry extensions cannot be encoded
+     */
+    public static byte[] encode(Collection<? extends RevokedCertificate> entries, boolean deflate)
+            throws CRLException {
+
+        RevokedCertificate[] sorted = entries.toArray(new RevokedCertificate[entries.size()]);
+        Arrays.sort(sorted, SERIAL_ORDER);
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            bos.write(MAGIC);
+            bos.write(VERSION);
+            bos.write(deflate ? FLAG_DEFLATE : 0);
+
+            DeflaterOutputStream dos = null;
+            OutputStream out = bos;
+
+            if (deflate) {
+                dos = new DeflaterOutputStream(bos);
+                out = dos;
+            }
+
+            DataOutputStream os = new DataOutputStream(out);
+
+            writeLength(os, sorted.length);
+
+            BigInteger lastSerial = BigInteger.ZERO;
+            long lastDate = 0;
+
+            for (RevokedCertificate entry : sorted) {
+
+                BigInteger serial = entry.getSerialNumber();
+                byte[] delta = serial.subtract(lastSerial).toByteArray();
+                writeLength(os, delta.length);
+                os.write(delta);
+                lastSerial = serial;
+
+                long date = entry.getRevocationDate().getTime();
+                writeSigned(os, date - lastDate);
+                lastDate = date;
+
+                CRLExtensions exts = entry.getExtensions();
+                RevocationReason reason = findReason(exts);
+                os.write(reason == null ? NO_REASON : reason.toInt());
+
+                if (exts == null || exts.isEmpty() || isReasonOnly(exts)) {
+                    writeLength(os, 0);
+                    continue;
+                }
+
+                try (DerOutputStream extOut = new DerOutputStream()) {
+                    exts.encode(extOut, false);
+                    byte[] encoded = extOut.toByteArray();
+                    writeLength(os, encoded.length);
+                    os.write(encoded);
+                }
+            }
+
+            os.flush();
+            if (dos != null) {
+                dos.finish();
+            }
+
+            return bos.toByteArray();
+
+        } catch (IOException e) {
+            throw new CRLException("Unable to encode revoked certificates: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compresses an encoding made without compression.
+     *
+     * @param data the encoding
+     * @return the compressed encoding, or the data itself if it is
+     *         already compressed
+     * @exception CRLException if the data is not a valid encoding
+     */
+    public static byte[] deflate(byte[] data) throws CRLException {
+
+        if (!isEncoded(data))
+            throw new CRLException("Invalid revoked certificates encoding");
+
+        int offset = MAGIC.length + 2;
+
+        if ((data[offset - 1] & FLAG_DEFLATE) != 0)
+            return data;
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            bos.write(data, 0, offset - 1);
+            bos.write(data[offset - 1] | FLAG_DEFLATE);
+
+            DeflaterOutputStream dos = new DeflaterOutputStream(bos);
+            dos.write(data, offset, data.length - offset);
+            dos.finish();
+
+            return bos.toByteArray();
+
+        } catch (IOException e) {
+            throw new CRLException("Unable to encode revoked certificates: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes revoked certificates.
+     *
+     * @param data the encoding
+     * @return the revoked certificates by serial number
+     * @exception CRLException if the data is not a valid encoding
+     */
+    public static Hashtable<BigInteger, RevokedCertificate> decode(byte[] data)
+            throws CRLException {
+
+        if (!isEncoded(data)) {
+            throw new CRLException("Invalid revoked certificates encoding");
+        }
+
+        int version = data[MAGIC.length] & 0xFF;
+        if (version != VERSION) {
+            throw new CRLException("Unsupported revoked certificates encoding version: " + version);
+        }
+
+        int flags = data[MAGIC.length + 1] & 0xFF;
+        int offset = MAGIC.length + 2;
+
+        InputStream in = new ByteArrayInputStream(data, offset, data.length - offset);
+        if ((flags & FLAG_DEFLATE) != 0) {
+            in = new InflaterInputStream(in);
+        }
+
+        try (DataInputStream is = new DataInputStream(in)) {
+
+            int size = readLength(is);
+            Hashtable<BigInteger, RevokedCertificate> table =
+                    new Hashtable<BigInteger, RevokedCertificate>(Math.max(size * 4 / 3 + 1, 11));
+
+            BigInteger lastSerial = BigInteger.ZERO;
+            long lastDate = 0;
+
+            for (int i = 0; i < size; i++) {
+
+                byte[] delta = new byte[readLength(is)];
+                is.readFully(delta);
+                BigInteger serial = lastSerial.add(new BigInteger(delta));
+                lastSerial = serial;
+
+                long date = lastDate + readSigned(is);
+                lastDate = date;
+
+                int code = is.readUnsignedByte();
+
+                byte[] encoded = new byte[readLength(is)];
+                is.readFully(encoded);
+
+                table.put(serial, createEntry(serial, new Date(date), code, encoded));
+            }
+
+            return table;
+
+        } catch (IOException | X509ExtensionException e) {
+            throw new CRLException("Unable to decode revoked certificates: " + e.getMessage());
+        }
+    }
+
+    private static RevokedCertificate createEntry(BigInteger serial, Date date, int code, byte[] encoded)
+            throws CRLException, IOException, X509ExtensionException {
+
+        if (encoded.length > 0) {
+            return new RevokedCertImpl(serial, date, new CRLExtensions(new DerInputStream(encoded)));
+        }
+
+        if (code == NO_REASON) {
+            return new RevokedCertImpl(serial, date);
+        }
+
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(RevocationReason.fromInt(code)));
+
+        return new RevokedCertImpl(serial, date, exts);
+    }
+
+    private static void writeLength(DataOutputStream os, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            os.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        os.write((int) value);
+    }
+
+    private static void writeSigned(DataOutputStream os, long value) throws IOException {
+        writeLength(os, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readLong(DataInputStream is) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = is.read();
+            if (b < 0)
+                throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Invalid variable-length integer");
+    }
+
+    private static int readLength(DataInputStream is) throws IOException {
+        long value = readLong(is);
+        if (value > Integer.MAX_VALUE)
+            throw new IOException("Invalid length: " + value);
+        return (int) value;
+    }
+
+    private static long readSigned(DataInputStream is) throws IOException {
+        long value = readLong(is);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static RevocationReason findReason(CRLExtensions exts) {
+
+        if (exts == null)
+            return null;
+
+        for (Extension ext : exts) {
+            if (ext instanceof CRLReasonExtension) {
+                return ((CRLReasonExtension) ext).getReason();
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isReasonOnly(CRLExtensions exts) {
+        if (exts.size() != 1)
+            return false;
+        Extension ext = exts.elementAt(0);
+        return ext instanceof CRLReasonExtension && !ext.isCritical();
+    }
+}
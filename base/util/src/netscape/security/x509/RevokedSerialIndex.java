@@ -0,0 +1,645 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package netscape.security.x509;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.cert.CRLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+import netscape.security.util.DerInputStream;
+import netscape.security.util.DerOutputStream;
+
+/**
+ * A compact, read-only index of revoked certificates.
+ * <p>
+ * A Hashtable&lt;BigInteger, RevokedCertificate&gt; costs a few hundred
+ * bytes of heap per entry and synchronizes every lookup. This index
+ * keeps the entries sorted by serial number in a direct (off-heap)
+ * buffer of fixed-width records:
+ *
+ * <pre>
+ * serial number      key length bytes, two's complement, sign-extended
+ * revocation date    8 bytes, milliseconds since the epoch
+ * reason code        1 byte, 0xFF if the entry has no reason code
+ * extensions offset  4 bytes, -1 if not stored
+ * extensions length  4 bytes
+ * </pre>
+ *
+ * The key length is the length of the longest serial number in the
+ * index. Entry extensions other than a single non-critical reason code
+ * are kept DER-encoded in a second direct buffer, so the original
+ * entries can be rebuilt with {@link #getRevokedCertificate}.
+ * <p>
+ * The index is immutable once built, so lookups are lock-free and can be
+ * done from any number of threads. Changes are applied with
+ * {@link #merge}, which builds a new index.
+ */
+public class RevokedSerialIndex {
+
+    private static final int DATE_LENGTH = 8;
+    private static final int REASON_LENGTH = 1;
+    private static final int OFFSET_LENGTH = 4;
+    private static final int LENGTH_LENGTH = 4;
+
+    private static final byte NO_REASON = (byte) 0xFF;
+    private static final int NO_EXTENSIONS = -1;
+
+    private static final Comparator<RevokedCertificate> SERIAL_ORDER = new Comparator<RevokedCertificate>() {
+        public int compare(RevokedCertificate entry1, RevokedCertificate entry2) {
+            return entry1.getSerialNumber().compareTo(entry2.getSerialNumber());
+        }
+    };
+
+    private final int size;
+    private final int keyLength;
+    private final int recordLength;
+
+    private final ByteBuffer records;
+    private final ByteBuffer extensions;
+
+    /**
+     * Builds an index of the given revoked certificates.
+     *
+     * @param entries the revoked certificates, in any order
+     * @exception CRLException if the entry extensions cannot be encoded
+     */
+    public RevokedSerialIndex(Collection<? extends RevokedCertificate> entries)
+            throws CRLException {
+
+        RevokedCertificate[] sorted = entries.toArray(new RevokedCertificate[entries.size()]);
+        Arrays.sort(sorted, SERIAL_ORDER);
+
+        size = sorted.length;
+
+        int length = 1;
+        for (RevokedCertificate entry : sorted) {
+            length = Math.max(length, entry.getSerialNumber().toByteArray().length);
+        }
+        keyLength = length;
+        recordLength = getRecordLength(keyLength);
+
+        records = allocateRecords(size, recordLength);
+
+        try (DerOutputStream extOut = new DerOutputStream()) {
+
+            for (RevokedCertificate entry : sorted) {
+                putEntry(records, keyLength, extOut, entry.getSerialNumber(), entry);
+            }
+
+            extensions = toBuffer(extOut.toByteArray());
+
+        } catch (IOException e) {
+            throw new CRLException("Unable to index revoked certificates: " + e.getMessage());
+        }
+    }
+
+    private RevokedSerialIndex(int size, int keyLength, ByteBuffer records, ByteBuffer extensions) {
+        this.size = size;
+        this.keyLength = keyLength;
+        this.recordLength = getRecordLength(keyLength);
+        this.records = records;
+        this.extensions = extensions;
+    }
+
+    /**
+     * Builds a new index with the given changes applied to the entries
+     * of this index. The records of the unchanged entries are copied
+     * as they are, so these entries are not rebuilt.
+     *
+     * @param changes new or replaced entries by serial number, with
+     *            null values for the entries to remove
+     * @return the new index, or this index if there are no changes
+     * @exception CRLException if the entry extensions cannot be encoded
+     */
+    public RevokedSerialIndex merge(Map<BigInteger, ? extends RevokedCertificate> changes)
+            throws CRLException {
+
+        if (changes.isEmpty())
+            return this;
+
+        TreeMap<BigInteger, RevokedCertificate> sorted = new TreeMap<BigInteger, RevokedCertificate>(changes);
+
+        int newSize = size;
+        int newKeyLength = keyLength;
+
+        for (Map.Entry<BigInteger, RevokedCertificate> change : sorted.entrySet()) {
+            boolean present = contains(change.getKey());
+            if (change.getValue() == null) {
+                if (present)
+                    newSize--;
+            } else {
+                if (!present)
+                    newSize++;
+                newKeyLength = Math.max(newKeyLength, change.getKey().toByteArray().length);
+            }
+        }
+
+        ByteBuffer newRecords = allocateRecords(newSize, getRecordLength(newKeyLength));
+
+        try (DerOutputStream extOut = new DerOutputStream()) {
+
+            Iterator<Map.Entry<BigInteger, RevokedCertificate>> iterator = sorted.entrySet().iterator();
+            Map.Entry<BigInteger, RevokedCertificate> change = iterator.next();
+            int next = 0;
+
+            while (next < size || change != null) {
+
+                BigInteger serialNumber = next < size ? getSerialNumber(next) : null;
+
+                if (serialNumber != null && (change == null || serialNumber.compareTo(change.getKey()) < 0)) {
+                    copyRecord(next++, serialNumber, newRecords, newKeyLength, extOut);
+                    continue;
+                }
+
+                if (change.getValue() != null) {
+                    putEntry(newRecords, newKeyLength, extOut, change.getKey(), change.getValue());
+                }
+
+                if (serialNumber != null && serialNumber.equals(change.getKey())) {
+                    next++;
+                }
+
+                change = iterator.hasNext() ? iterator.next() : null;
+            }
+
+            return new RevokedSerialIndex(newSize, newKeyLength, newRecords, toBuffer(extOut.toByteArray()));
+
+        } catch (IOException e) {
+            throw new CRLException("Unable to index revoked certificates: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of revoked certificates in this index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of off-heap bytes used by this index.
+     */
+    public long getBufferSize() {
+        return records.capacity() + extensions.capacity();
+    }
+
+    /**
+     * Checks whether a certificate is in this index.
+     *
+     * @param serialNumber certificate serial number
+     * @return true if the certificate is revoked
+     */
+    public boolean contains(BigInteger serialNumber) {
+        return find(serialNumber) >= 0;
+    }
+
+    /**
+     * Returns the revocation date of a certificate.
+     *
+     * @param serialNumber certificate serial number
+     * @return the revocation date, or null if the certificate is not in this index
+     */
+    public Date getRevocationDate(BigInteger serialNumber) {
+        int index = find(serialNumber);
+        if (index < 0)
+            return null;
+        return new Date(records.getLong(position(index) + keyLength));
+    }
+
+    /**
+     * Returns the revocation reason of a certificate.
+     *
+     * @param serialNumber certificate serial number
+     * @return the revocation reason, or null if the certificate is not in
+     *         this index or its entry has no reason code
+     */
+    public RevocationReason getRevocationReason(BigInteger serialNumber) {
+        int index = find(serialNumber);
+        if (index < 0)
+            return null;
+        return getReason(index);
+    }
+
+    /**
+     * Rebuilds the CRL entry of a certificate.
+     *
+     * @param serialNumber certificate serial number
+     * @return the CRL entry, or null if the certificate is not in this index
+     * @exception CRLException if the entry extensions cannot be decoded
+     */
+    public RevokedCertificate getRevokedCertificate(BigInteger serialNumber)
+            throws CRLException {
+        int index = find(serialNumber);
+        if (index < 0)
+            return null;
+        return getRevokedCertificate(index, serialNumber);
+    }
+
+    /**
+     * Rebuilds a Hashtable of all CRL entries in this index.
+     *
+     * @exception CRLException if the entry extensions cannot be decoded
+     */
+    public Hashtable<BigInteger, RevokedCertificate> toHashtable() throws CRLException {
+
+        Hashtable<BigInteger, RevokedCertificate> table = new Hashtable<BigInteger, RevokedCertificate>();
+
+        for (int i = 0; i < size; i++) {
+            BigInteger serialNumber = getSerialNumber(i);
+            table.put(serialNumber, getRevokedCertificate(i, serialNumber));
+        }
+
+        return table;
+    }
+
+    /**
+     * Returns a read-only map of the CRL entries backed by this index.
+     * The entries are rebuilt when they are accessed. The map is
+     * serialized as a Hashtable.
+     */
+    public Map<BigInteger, RevokedCertificate> asMap() {
+        return new MapView();
+    }
+
+    private static int getRecordLength(int keyLength) {
+        return keyLength + DATE_LENGTH + REASON_LENGTH + OFFSET_LENGTH + LENGTH_LENGTH;
+    }
+
+    private static ByteBuffer allocateRecords(int size, int recordLength) throws CRLException {
+
+        long capacity = (long) size * recordLength;
+        if (capacity > Integer.MAX_VALUE) {
+            throw new CRLException("Too many revoked certificates to index: " + size);
+        }
+
+        return ByteBuffer.allocateDirect((int) capacity);
+    }
+
+    private static ByteBuffer toBuffer(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length);
+        buffer.put(encoded);
+        return buffer;
+    }
+
+    /**
+     * Appends the record of an entry, and its extensions if they are
+     * not a single non-critical reason code.
+     */
+    private static void putEntry(ByteBuffer records, int keyLength, DerOutputStream extOut,
+            BigInteger serialNumber, RevokedCertificate entry) throws IOException, CRLException {
+
+        records.put(toKey(serialNumber, keyLength));
+        records.putLong(entry.getRevocationDate().getTime());
+
+        CRLExtensions exts = entry.getExtensions();
+        RevocationReason reason = findReason(exts);
+
+        records.put(reason == null ? NO_REASON : (byte) reason.toInt());
+
+        if (exts == null || exts.isEmpty() || isReasonOnly(exts)) {
+            records.putInt(NO_EXTENSIONS);
+            records.putInt(0);
+            return;
+        }
+
+        int offset = extOut.size();
+        exts.encode(extOut, false);
+
+        records.putInt(offset);
+        records.putInt(extOut.size() - offset);
+    }
+
+    /**
+     * Appends a copy of a record of this index, with the key widened
+     * to the given length.
+     */
+    private void copyRecord(int index, BigInteger serialNumber, ByteBuffer target, int targetKeyLength,
+            DerOutputStream extOut) throws IOException {
+
+        int position = position(index) + keyLength;
+
+        target.put(toKey(serialNumber, targetKeyLength));
+        target.putLong(records.getLong(position));
+        target.put(records.get(position + DATE_LENGTH));
+        position += DATE_LENGTH + REASON_LENGTH;
+
+        int offset = records.getInt(position);
+        int length = records.getInt(position + OFFSET_LENGTH);
+
+        if (offset == NO_EXTENSIONS) {
+            target.putInt(NO_EXTENSIONS);
+            target.putInt(0);
+            return;
+        }
+
+        target.putInt(extOut.size());
+        target.putInt(length);
+        extOut.write(getExtensions(offset, length));
+    }
+
+    private byte[] getExtensions(int offset, int length) {
+
+        // absolute bulk reads are not available, so read from a
+        // private view of the buffer
+        ByteBuffer view = extensions.duplicate();
+        view.position(offset);
+
+        byte[] encoded = new byte[length];
+        view.get(encoded);
+
+        return encoded;
+    }
+
+    private BigInteger getSerialNumber(int index) {
+        byte[] key = new byte[keyLength];
+        int position = position(index);
+        for (int j = 0; j < keyLength; j++) {
+            key[j] = records.get(position + j);
+        }
+        return new BigInteger(key);
+    }
+
+    /**
+     * Returns the offset of a record. The capacity of the buffer has
+     * been checked when the index was built, so the offset fits.
+     */
+    private int position(int index) {
+        long position = (long) index * recordLength;
+        if (index < 0 || position >= records.capacity())
+            throw new IndexOutOfBoundsException("Invalid record index: " + index);
+        return (int) position;
+    }
+
+    private RevokedCertificate getRevokedCertificate(int index, BigInteger serialNumber)
+            throws CRLException {
+
+        int position = position(index) + keyLength;
+        Date revocationDate = new Date(records.getLong(position));
+        position += DATE_LENGTH + REASON_LENGTH;
+
+        int offset = records.getInt(position);
+        int length = records.getInt(position + OFFSET_LENGTH);
+
+        RevocationReason reason = getReason(index);
+
+        if (offset == NO_EXTENSIONS && reason == null) {
+            return new RevokedCertImpl(serialNumber, revocationDate);
+        }
+
+        CRLExtensions exts;
+        try {
+            if (offset == NO_EXTENSIONS) {
+                exts = new CRLExtensions();
+                exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(reason));
+
+            } else {
+                exts = new CRLExtensions(new DerInputStream(getExtensions(offset, length)));
+            }
+
+        } catch (IOException | X509ExtensionException e) {
+            throw new CRLException("Unable to decode entry extensions: " + e.getMessage());
+        }
+
+        return new RevokedCertImpl(serialNumber, revocationDate, exts);
+    }
+
+    private RevocationReason getReason(int index) {
+        byte code = records.get(position(index) + keyLength + DATE_LENGTH);
+        if (code == NO_REASON)
+            return null;
+        return RevocationReason.fromInt(code);
+    }
+
+    /**
+     * Binary search over the sorted records.
+     *
+     * @return the record index, or -1 if not found
+     */
+    private int find(BigInteger serialNumber) {
+
+        byte[] key = toKey(serialNumber);
+        if (key == null)
+            return -1;
+
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(mid, key);
+
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compares the key of a record with the given key. The first byte
+     * holds the sign so it is compared as signed, the others as unsigned.
+     */
+    private int compare(int index, byte[] key) {
+
+        int offset = position(index);
+
+        int result = Byte.compare(records.get(offset), key[0]);
+        if (result != 0)
+            return result;
+
+        for (int i = 1; i < keyLength; i++) {
+            result = (records.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (result != 0)
+                return result;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Converts a serial number into a fixed-width key.
+     *
+     * @return the key, or null if the serial number is too long to be
+     *         in this index
+     */
+    private byte[] toKey(BigInteger serialNumber) {
+        return toKey(serialNumber, keyLength);
+    }
+
+    private static byte[] toKey(BigInteger serialNumber, int keyLength) {
+
+        byte[] bytes = serialNumber.toByteArray();
+        if (bytes.length > keyLength)
+            return null;
+
+        byte[] key = new byte[keyLength];
+        int padding = keyLength - bytes.length;
+
+        Arrays.fill(key, 0, padding, serialNumber.signum() < 0 ? (byte) 0xFF : (byte) 0);
+        System.arraycopy(bytes, 0, key, padding, bytes.length);
+
+        return key;
+    }
+
+    private static RevocationReason findReason(CRLExtensions exts) {
+
+        if (exts == null)
+            return null;
+
+        for (Extension ext : exts) {
+            if (ext instanceof CRLReasonExtension) {
+                return ((CRLReasonExtension) ext).getReason();
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isReasonOnly(CRLExtensions exts) {
+        if (exts.size() != 1)
+            return false;
+        Extension ext = exts.elementAt(0);
+        return ext instanceof CRLReasonExtension && !ext.isCritical();
+    }
+
+    /**
+     * Read-only map view of the index.
+     */
+    class MapView extends AbstractMap<BigInteger, RevokedCertificate> implements Serializable {
+
+        private static final long serialVersionUID = 6180346223937264470L;
+
+        public int size() {
+            return size;
+        }
+
+        public boolean containsKey(Object key) {
+            return key instanceof BigInteger && contains((BigInteger) key);
+        }
+
+        public RevokedCertificate get(Object key) {
+            if (!(key instanceof BigInteger))
+                return null;
+            try {
+                return getRevokedCertificate((BigInteger) key);
+            } catch (CRLException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        public Set<BigInteger> keySet() {
+            return new AbstractSet<BigInteger>() {
+
+                public int size() {
+                    return size;
+                }
+
+                public boolean contains(Object key) {
+                    return containsKey(key);
+                }
+
+                public Iterator<BigInteger> iterator() {
+                    return new Iterator<BigInteger>() {
+
+                        int next = 0;
+
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        public BigInteger next() {
+                            if (next >= size)
+                                throw new NoSuchElementException();
+                            return getSerialNumber(next++);
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        public Set<Map.Entry<BigInteger, RevokedCertificate>> entrySet() {
+            return new AbstractSet<Map.Entry<BigInteger, RevokedCertificate>>() {
+
+                public int size() {
+                    return size;
+                }
+
+                public Iterator<Map.Entry<BigInteger, RevokedCertificate>> iterator() {
+                    return new Iterator<Map.Entry<BigInteger, RevokedCertificate>>() {
+
+                        int next = 0;
+
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        public Map.Entry<BigInteger, RevokedCertificate> next() {
+                            if (next >= size)
+                                throw new NoSuchElementException();
+
+                            BigInteger serialNumber = getSerialNumber(next);
+                            try {
+                                return new SimpleImmutableEntry<BigInteger, RevokedCertificate>(
+                                        serialNumber, getRevokedCertificate(next++, serialNumber));
+                            } catch (CRLException e) {
+                                throw new IllegalStateException(e.getMessage(), e);
+                            }
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            try {
+                return toHashtable();
+            } catch (CRLException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
+}
@@ -34,6 +34,8 @@ import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -43,6 +45,7 @@ import java.util.Set;
 import netscape.security.util.BigInt;
 import netscape.security.util.DerInputStream;
 import netscape.security.util.DerOutputStream;
+import netscape.security.util.DerSequenceView;
 import netscape.security.util.DerValue;
 import netscape.security.util.ObjectIdentifier;
 
@@ -102,6 +105,8 @@ public class X509CRLImpl extends X509CRL {
     private Date nextUpdate = null;
     //    private static final Hashtable revokedCerts = new Hashtable();
     private Hashtable<BigInteger, RevokedCertificate> revokedCerts = new Hashtable<BigInteger, RevokedCertificate>();
+    // encoded revoked certs of a parsed CRL, decoded on demand
+    private RevokedCertIndex revokedCertIndex;
     //    private static CRLExtensions    extensions = null;
     private CRLExtensions extensions = null;
     private boolean entriesIncluded = true;
@@ -115,6 +120,10 @@ public class X509CRLImpl extends X509CRL {
      * need to examine and use CRL contents. Note that the buffer
      * must include only one CRL, and no "garbage" may be left at
      * the end.
+     * <P>
+     * The buffer is not copied, so it must not be modified afterwards.
+     * The revoked certificates are indexed by serial number and only
+     * decoded when they are accessed.
      *
      * @param crlData the encoded bytes, with no trailing padding.
      * @exception CRLException on parsing errors.
@@ -123,7 +132,7 @@ public class X509CRLImpl extends X509CRL {
     public X509CRLImpl(byte[] crlData)
             throws CRLException, X509ExtensionException {
         try {
-            DerValue in = new DerValue(crlData);
+            DerValue in = DerValue.wrap(crlData);
 
             parse(in);
             signedCRL = crlData;
@@ -136,7 +145,7 @@ public class X509CRLImpl extends X509CRL {
             throws CRLException, X509ExtensionException {
         try {
             entriesIncluded = includeEntries;
-            DerValue in = new DerValue(crlData);
+            DerValue in = DerValue.wrap(crlData);
 
             parse(in, includeEntries);
             signedCRL = crlData;
@@ -297,6 +306,31 @@ public class X509CRLImpl extends X509CRL {
         return dup;
     }
 
+    /**
+     * Returns the length of the ASN.1 DER encoded form of this CRL.
+     *
+     * @exception CRLException if an encoding error occurs.
+     */
+    public int getEncodedLength() throws CRLException {
+        if (signedCRL == null)
+            throw new CRLException("Null CRL to encode");
+        return signedCRL.length;
+    }
+
+    /**
+     * Writes the ASN.1 DER encoded form of this CRL to the OutputStream
+     * without copying it.
+     *
+     * @param out the OutputStream to write to.
+     * @exception CRLException if an encoding error occurs.
+     * @exception IOException if the output cannot be written.
+     */
+    public void writeEncoded(OutputStream out) throws CRLException, IOException {
+        if (signedCRL == null)
+            throw new CRLException("Null CRL to encode");
+        out.write(signedCRL);
+    }
+
     /**
      * Returns true if signedCRL was set.
      *
@@ -341,8 +375,9 @@ public class X509CRLImpl extends X509CRL {
             if (nextUpdate != null)
                 tmp.putUTCTime(nextUpdate);
 
-            if (!revokedCerts.isEmpty()) {
-                for (Enumeration<RevokedCertificate> e = revokedCerts.elements(); e.hasMoreElements();)
+            Hashtable<BigInteger, RevokedCertificate> entries = getRevokedCerts();
+            if (!entries.isEmpty()) {
+                for (Enumeration<RevokedCertificate> e = entries.elements(); e.hasMoreElements();)
                     ((RevokedCertImpl) e.nextElement()).encode(rCerts);
                 tmp.write(DerValue.tag_Sequence, rCerts);
             }
@@ -532,11 +567,12 @@ public class X509CRLImpl extends X509CRL {
                 + "\n");
         if (nextUpdate != null)
             sb.append("Next Update: " + nextUpdate + "\n");
-        if (revokedCerts.isEmpty())
+        Hashtable<BigInteger, RevokedCertificate> entries = getRevokedCerts();
+        if (entries.isEmpty())
             sb.append("\nNO certificates have been revoked\n");
         else {
             sb.append("\nRevoked Certificates:\n");
-            for (Enumeration<RevokedCertificate> e = revokedCerts.elements(); e.hasMoreElements();)
+            for (Enumeration<RevokedCertificate> e = entries.elements(); e.hasMoreElements();)
                 sb.append(e.nextElement());
         }
         if (extensions != null) {
@@ -560,6 +596,8 @@ public class X509CRLImpl extends X509CRL {
      *         false otherwise.
      */
     public boolean isRevoked(BigInteger serialNumber) {
+        if (revokedCertIndex != null)
+            return revokedCertIndex.contains(serialNumber);
         if (revokedCerts == null || revokedCerts.isEmpty())
             return false;
         return revokedCerts.containsKey(serialNumber);
@@ -657,6 +695,14 @@ public class X509CRLImpl extends X509CRL {
      * @see RevokedCertificate
      */
     public X509CRLEntry getRevokedCertificate(BigInteger serialNumber) {
+        if (revokedCertIndex != null) {
+            try {
+                return revokedCertIndex.get(serialNumber);
+            } catch (CRLException | X509ExtensionException e) {
+                throw new IllegalStateException("Unable to parse revoked certificate "
+                        + serialNumber + ": " + e.getMessage(), e);
+            }
+        }
         if (revokedCerts == null || revokedCerts.isEmpty())
             return null;
         return revokedCerts.get(serialNumber);
@@ -671,24 +717,28 @@ public class X509CRLImpl extends X509CRL {
      * @see RevokedCertificate
      */
     public Set<RevokedCertificate> getRevokedCertificates() {
-        if (revokedCerts == null || revokedCerts.isEmpty())
+        Hashtable<BigInteger, RevokedCertificate> entries = getRevokedCerts();
+        if (entries == null || entries.isEmpty())
             return null;
         else {
-            Set<RevokedCertificate> certSet = new LinkedHashSet<RevokedCertificate>(revokedCerts.values());
+            Set<RevokedCertificate> certSet = new LinkedHashSet<RevokedCertificate>(entries.values());
             return certSet;
         }
     }
 
     @SuppressWarnings("unchecked")
     public Hashtable<BigInteger, RevokedCertificate> getListOfRevokedCertificates() {
-        if (revokedCerts == null) {
+        Hashtable<BigInteger, RevokedCertificate> entries = getRevokedCerts();
+        if (entries == null) {
             return null;
         } else {
-            return (Hashtable<BigInteger, RevokedCertificate>) revokedCerts.clone();
+            return (Hashtable<BigInteger, RevokedCertificate>) entries.clone();
         }
     }
 
     public int getNumberOfRevokedCertificates() {
+        if (revokedCertIndex != null)
+            return revokedCertIndex.size();
         if (revokedCerts == null)
             return -1;
         else
@@ -950,6 +1000,22 @@ public class X509CRLImpl extends X509CRL {
         return entriesIncluded;
     }
 
+    /**
+     * Returns the revoked certificates, decoding them if the CRL was
+     * parsed from its encoded form.
+     */
+    private synchronized Hashtable<BigInteger, RevokedCertificate> getRevokedCerts() {
+        if (revokedCerts == null && revokedCertIndex != null) {
+            try {
+                revokedCerts = revokedCertIndex.getAll();
+            } catch (CRLException | X509ExtensionException e) {
+                throw new IllegalStateException("Unable to parse revoked certificates: "
+                        + e.getMessage(), e);
+            }
+        }
+        return revokedCerts;
+    }
+
     /*********************************************************************/
     /*
      * Parses an X.509 CRL, should be used only by constructors.
@@ -1048,16 +1114,9 @@ public class X509CRLImpl extends X509CRL {
         if ((nextByte == DerValue.tag_SequenceOf)
                 && (!((nextByte & 0x0c0) == 0x080))) {
             if (includeEntries) {
-                DerValue[] badCerts = derStrm.getSequence(4);
-                for (int i = 0; i < badCerts.length; i++) {
-                    RevokedCertImpl entry = new RevokedCertImpl(badCerts[i]);
-                    if (entry.hasExtensions() && (version == 0))
-                        throw new CRLException("Invalid encoding, extensions" +
-                                " not supported in CRL v1 entries.");
-
-                    revokedCerts.put(entry.getSerialNumber(),
-                                     entry);
-                }
+                // the entries are decoded when they are accessed
+                revokedCertIndex = new RevokedCertIndex(derStrm.getDerValue(), version);
+                revokedCerts = null;
             } else {
                 derStrm.skipSequence(4);
             }
@@ -1075,4 +1134,107 @@ public class X509CRLImpl extends X509CRL {
             extensions = new CRLExtensions(tmp.data);
         }
     }
+
+    /**
+     * Index of the encoded revoked certificates of a parsed CRL, sorted
+     * by serial number. Only the serial numbers are decoded when the
+     * index is built, so a lookup decodes at most one entry.
+     */
+    static class RevokedCertIndex {
+
+        private DerSequenceView entries;
+
+        // serial numbers in ascending order and the positions of
+        // their entries in the CRL
+        private BigInteger[] serialNumbers;
+        private int[] positions;
+
+        RevokedCertIndex(DerValue val, int version) throws CRLException, IOException {
+
+            entries = new DerSequenceView(val);
+
+            final BigInteger[] serials = new BigInteger[entries.size()];
+            Integer[] order = new Integer[serials.length];
+
+            for (int i = 0; i < serials.length; i++) {
+                DerValue entry = entries.get(i);
+                if (entry.tag != DerValue.tag_Sequence)
+                    throw new CRLException("Invalid encoded RevokedCertificate, " +
+                            "starting sequence tag missing.");
+
+                serials[i] = entry.data.getInteger().toBigInteger();
+
+                byte nextByte = (byte) entry.data.peekByte();
+                if (nextByte != DerValue.tag_UtcTime && nextByte != DerValue.tag_GeneralizedTime)
+                    throw new CRLException("Invalid encoding for RevokedCertificates");
+                entry.data.getDerValue();
+
+                if (entry.data.available() != 0 && version == 0)
+                    throw new CRLException("Invalid encoding, extensions" +
+                            " not supported in CRL v1 entries.");
+
+                order[i] = i;
+            }
+
+            // stable sort, so the last of duplicate entries comes last
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return serials[i1].compareTo(serials[i2]);
+                }
+            });
+
+            // keep the last of duplicate entries like the Hashtable does
+            int size = 0;
+            serialNumbers = new BigInteger[order.length];
+            positions = new int[order.length];
+
+            for (int i = 0; i < order.length; i++) {
+                if (i + 1 < order.length && serials[order[i]].equals(serials[order[i + 1]]))
+                    continue;
+                serialNumbers[size] = serials[order[i]];
+                positions[size] = order[i];
+                size++;
+            }
+
+            if (size < order.length) {
+                serialNumbers = Arrays.copyOf(serialNumbers, size);
+                positions = Arrays.copyOf(positions, size);
+            }
+        }
+
+        int size() {
+            return serialNumbers.length;
+        }
+
+        boolean contains(BigInteger serialNumber) {
+            return Arrays.binarySearch(serialNumbers, serialNumber) >= 0;
+        }
+
+        RevokedCertImpl get(BigInteger serialNumber) throws CRLException, X509ExtensionException {
+            int i = Arrays.binarySearch(serialNumbers, serialNumber);
+            if (i < 0)
+                return null;
+            return decode(positions[i]);
+        }
+
+        /**
+         * Decodes all entries into a table in CRL order.
+         */
+        Hashtable<BigInteger, RevokedCertificate> getAll() throws CRLException, X509ExtensionException {
+            Hashtable<BigInteger, RevokedCertificate> table = new Hashtable<BigInteger, RevokedCertificate>();
+            for (int i = 0; i < entries.size(); i++) {
+                RevokedCertImpl entry = decode(i);
+                table.put(entry.getSerialNumber(), entry);
+            }
+            return table;
+        }
+
+        private RevokedCertImpl decode(int position) throws CRLException, X509ExtensionException {
+            try {
+                return new RevokedCertImpl(entries.get(position));
+            } catch (IOException e) {
+                throw new CRLException("Parsing error: " + e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,432 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package netscape.security.x509;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.SignatureException;
+import java.security.cert.CRLException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+
+import netscape.security.util.BigInt;
+import netscape.security.util.DerOutputStream;
+import netscape.security.util.DerValue;
+
+/**
+ * Encodes and signs an X.509 CRL without building the whole
+ * CRL in memory.
+ * <p>
+ * Unlike {@link X509CRLImpl}, which keeps every revoked entry in a
+ * Hashtable and encodes the CRL into several intermediate byte arrays,
+ * this writer takes an iterator over the revoked entries and spools
+ * their DER encoding to a temporary file. Once the length of the
+ * revokedCertificates sequence is known, the TBSCertList is fed to the
+ * signer piece by piece, and the signed CertificateList is written
+ * straight to the output stream.
+ * <p>
+ * The iterator is consumed exactly once. Callers that want a sorted CRL
+ * must supply the entries in serial number order.
+ * <p>
+ * The encoded entries can be kept in a file (see {@link #setEntriesFile}).
+ * If they were written in serial number order, the next CRL can be
+ * produced by merging a sorted set of changes into that file: unchanged
+ * entries are copied as they are, and only the changed ones are encoded.
+ *
+ * @see X509CRLImpl
+ */
+public class X509CRLStreamWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final static boolean isExplicit = true;
+
+    /**
+     * Receives the encoded TBSCertList and produces the signature.
+     */
+    public interface Signer {
+
+        /**
+         * Feeds the next chunk of the TBSCertList to the signature.
+         */
+        public void update(byte[] data, int offset, int length)
+                throws SignatureException;
+
+        /**
+         * Completes the signature over the data passed to update().
+         *
+         * @return raw signature bits
+         */
+        public byte[] sign() throws SignatureException;
+    }
+
+    private X500Name issuer;
+    private AlgorithmId sigAlgId;
+    private Date thisUpdate;
+    private Date nextUpdate;
+    private CRLExtensions extensions;
+    private int version;
+    private File tempDir;
+    private File entriesFile;
+
+    private long entryCount;
+    private long entriesLength;
+
+    /**
+     * Constructs a streaming CRL writer.
+     *
+     * @param issuer the name of the CA issuing this CRL.
+     * @param algId signing algorithm id
+     * @param thisDate the Date of this issue.
+     * @param nextDate the Date of the next CRL.
+     * @param crlExts the CRL extensions.
+     */
+    public X509CRLStreamWriter(X500Name issuer, AlgorithmId algId,
+            Date thisDate, Date nextDate, CRLExtensions crlExts) {
+        this.issuer = issuer;
+        this.sigAlgId = algId;
+        this.thisUpdate = thisDate;
+        this.nextUpdate = nextDate;
+        if (crlExts != null) {
+            this.extensions = crlExts;
+            this.version = 1;
+        }
+    }
+
+    /**
+     * Sets the directory used to spool the encoded revoked entries.
+     * If not set, the default temporary-file directory is used.
+     */
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Keeps the encoded revoked entries of this CRL in the given file
+     * instead of a temporary file, so that it can be passed to
+     * {@link #write(File, SortedMap, Signer, OutputStream)} for the next CRL.
+     */
+    public void setEntriesFile(File entriesFile) {
+        this.entriesFile = entriesFile;
+    }
+
+    /**
+     * Returns the number of revoked entries written by the last call
+     * to write().
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public AlgorithmId getSigAlgId() {
+        return sigAlgId;
+    }
+
+    /**
+     * Encodes the CRL, signs it and writes the signed CRL to the
+     * output stream.
+     *
+     * @param entries revoked entries, in the order they should appear
+     * @param signer signer that receives the TBSCertList
+     * @param out the stream receiving the DER encoded signed CRL
+     * @return the number of bytes written to out
+     *
+     * @exception CRLException on encoding or I/O errors.
+     * @exception X509ExtensionException on extension encoding errors.
+     * @exception SignatureException on signature errors.
+     */
+    public long write(final Iterator<? extends RevokedCertificate> entries,
+            Signer signer, OutputStream out)
+            throws CRLException, X509ExtensionException, SignatureException {
+
+        return write(new EntrySource() {
+            public void writeEntries(OutputStream os, DerOutputStream tmp)
+                    throws IOException, CRLException, X509ExtensionException {
+
+                while (entries.hasNext()) {
+                    writeEntry(entries.next(), os, tmp);
+                }
+            }
+        }, signer, out);
+    }
+
+    /**
+     * Encodes the CRL by applying changes to the revoked entries of a
+     * previous CRL, signs it and writes the signed CRL to the output
+     * stream. The previous entries must be sorted by serial number,
+     * which is the case if they were written from a sorted iterator.
+     *
+     * @param previousEntries entries file of a previous CRL
+     * @param changes new or updated entries by serial number; a null
+     *            value removes the entry
+     * @param signer signer that receives the TBSCertList
+     * @param out the stream receiving the DER encoded signed CRL
+     * @return the number of bytes written to out
+     *
+     * @exception CRLException on encoding or I/O errors.
+     * @exception X509ExtensionException on extension encoding errors.
+     * @exception SignatureException on signature errors.
+     */
+    public long write(final File previousEntries,
+            final SortedMap<BigInteger, ? extends RevokedCertificate> changes,
+            Signer signer, OutputStream out)
+            throws CRLException, X509ExtensionException, SignatureException {
+
+        return write(new EntrySource() {
+            public void writeEntries(OutputStream os, DerOutputStream tmp)
+                    throws IOException, CRLException, X509ExtensionException {
+
+                Iterator<? extends Map.Entry<BigInteger, ? extends RevokedCertificate>> i =
+                        changes.entrySet().iterator();
+                Map.Entry<BigInteger, ? extends RevokedCertificate> change = i.hasNext() ? i.next() : null;
+
+                try (InputStream in = new BufferedInputStream(new FileInputStream(previousEntries), BUFFER_SIZE)) {
+                    while (true) {
+                        in.mark(1);
+                        if (in.read() < 0)
+                            break;
+                        in.reset();
+
+                        DerValue entry = new DerValue(in);
+                        BigInteger serialNumber =
+                                new SerialNumber(entry.data.getDerValue()).getNumber().toBigInteger();
+
+                        // changes sorted before this entry are new entries
+                        while (change != null && change.getKey().compareTo(serialNumber) < 0) {
+                            writeEntry(change.getValue(), os, tmp);
+                            change = i.hasNext() ? i.next() : null;
+                        }
+
+                        if (change != null && change.getKey().equals(serialNumber)) {
+                            // updated or removed entry
+                            writeEntry(change.getValue(), os, tmp);
+                            change = i.hasNext() ? i.next() : null;
+                            continue;
+                        }
+
+                        // unchanged entry, copy the previous encoding
+                        entry.data.getDerValue(); // revocationDate
+                        if (entry.data.available() != 0) {
+                            // entry extensions require a v2 CRL
+                            version = 1;
+                        }
+                        tmp.reset();
+                        entry.encode(tmp);
+                        tmp.writeTo(os);
+                        entriesLength += tmp.size();
+                        entryCount++;
+                    }
+                }
+
+                while (change != null) {
+                    writeEntry(change.getValue(), os, tmp);
+                    change = i.hasNext() ? i.next() : null;
+                }
+            }
+        }, signer, out);
+    }
+
+    private long write(EntrySource source, Signer signer, OutputStream out)
+            throws CRLException, X509ExtensionException, SignatureException {
+
+        File spool = null;
+        try {
+            spool = entriesFile != null ? entriesFile : File.createTempFile("crl", ".der", tempDir);
+
+            writeEntries(source, spool);
+
+            byte[] head = encodeHead();
+            byte[] entriesHeader = entriesLength > 0 ?
+                    encodeHeader(DerValue.tag_Sequence, entriesLength) : new byte[0];
+            byte[] tail = encodeTail();
+
+            long tbsLength = head.length + entriesHeader.length + entriesLength + tail.length;
+            byte[] tbsHeader = encodeHeader(DerValue.tag_Sequence, tbsLength);
+
+            // first pass: feed the TBSCertList to the signer
+            SignerOutputStream sigOut = new SignerOutputStream(signer);
+            writeTBSCertList(sigOut, tbsHeader, head, entriesHeader, spool, tail);
+            byte[] signature = signer.sign();
+
+            byte[] trailer;
+            try (DerOutputStream tmp = new DerOutputStream()) {
+                sigAlgId.encode(tmp);
+                tmp.putBitString(signature);
+                trailer = tmp.toByteArray();
+            }
+
+            // second pass: write the signed CRL
+            long crlLength = tbsHeader.length + tbsLength + trailer.length;
+            byte[] crlHeader = encodeHeader(DerValue.tag_Sequence, crlLength);
+
+            out.write(crlHeader);
+            writeTBSCertList(out, tbsHeader, head, entriesHeader, spool, tail);
+            out.write(trailer);
+            out.flush();
+
+            return crlHeader.length + crlLength;
+
+        } catch (IOException e) {
+            throw new CRLException("Encoding error: " + e.getMessage());
+
+        } finally {
+            if (spool != null && spool != entriesFile && !spool.delete()) {
+                spool.deleteOnExit();
+            }
+        }
+    }
+
+    private void writeEntries(EntrySource source, File spool)
+            throws IOException, CRLException, X509ExtensionException {
+
+        entryCount = 0;
+        entriesLength = 0;
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(spool), BUFFER_SIZE);
+                DerOutputStream tmp = new DerOutputStream()) {
+            source.writeEntries(os, tmp);
+        }
+    }
+
+    private void writeEntry(RevokedCertificate entry, OutputStream os, DerOutputStream tmp)
+            throws IOException, CRLException, X509ExtensionException {
+
+        if (entry == null)
+            return;
+
+        if (entry.hasExtensions())
+            version = 1;
+
+        tmp.reset();
+        if (entry instanceof RevokedCertImpl) {
+            ((RevokedCertImpl) entry).encode(tmp);
+        } else {
+            new RevokedCertImpl(entry.getSerialNumber(),
+                    entry.getRevocationDate(),
+                    entry.getExtensions()).encode(tmp);
+        }
+        tmp.writeTo(os);
+
+        entriesLength += tmp.size();
+        entryCount++;
+    }
+
+    /**
+     * Encodes the TBSCertList fields preceding the revoked entries.
+     */
+    private byte[] encodeHead() throws IOException {
+        try (DerOutputStream tmp = new DerOutputStream()) {
+            if (version != 0) // v2 crl encode version
+                tmp.putInteger(new BigInt(version));
+            sigAlgId.encode(tmp);
+            issuer.encode(tmp);
+
+            // from 2050 should encode GeneralizedTime
+            tmp.putUTCTime(thisUpdate);
+
+            if (nextUpdate != null)
+                tmp.putUTCTime(nextUpdate);
+
+            return tmp.toByteArray();
+        }
+    }
+
+    /**
+     * Encodes the TBSCertList fields following the revoked entries.
+     */
+    private byte[] encodeTail() throws IOException, CRLException {
+        try (DerOutputStream tmp = new DerOutputStream()) {
+            if (extensions != null)
+                extensions.encode(tmp, isExplicit);
+            return tmp.toByteArray();
+        }
+    }
+
+    private void writeTBSCertList(OutputStream out, byte[] tbsHeader, byte[] head,
+            byte[] entriesHeader, File spool, byte[] tail) throws IOException {
+
+        out.write(tbsHeader);
+        out.write(head);
+        out.write(entriesHeader);
+
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(spool), BUFFER_SIZE)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+
+        out.write(tail);
+    }
+
+    /**
+     * Encodes the tag and length octets of a DER value.
+     */
+    private static byte[] encodeHeader(byte tag, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("CRL too large to encode: " + length + " bytes");
+
+        try (DerOutputStream tmp = new DerOutputStream()) {
+            tmp.write(tag);
+            tmp.putLength((int) length);
+            return tmp.toByteArray();
+        }
+    }
+
+    /**
+     * Writes the encoded revoked entries to the spool file.
+     */
+    private interface EntrySource {
+        public void writeEntries(OutputStream os, DerOutputStream tmp)
+                throws IOException, CRLException, X509ExtensionException;
+    }
+
+    /**
+     * Adapts a Signer to an OutputStream.
+     */
+    private static class SignerOutputStream extends OutputStream {
+
+        private Signer signer;
+
+        SignerOutputStream(Signer signer) {
+            this.signer = signer;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                signer.update(b, off, len);
+            } catch (SignatureException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -178,7 +178,8 @@ public class X509CertImpl extends X509Certificate
         info = certInfo;
 
         try {
-            DerValue in = new DerValue(certData);
+            // the buffer is kept as the encoding, so it can be shared
+            DerValue in = DerValue.wrap(certData);
 
             parse(in);
             signedCert = certData;
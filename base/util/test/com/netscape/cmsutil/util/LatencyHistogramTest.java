@@ -0,0 +1,66 @@
+package com.netscape.cmsutil.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMean());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500500, histogram.getTotal());
+        Assert.assertEquals(500, histogram.getMean());
+        Assert.assertEquals(1000, histogram.getMax());
+
+        // 500 is in the 256-511 bucket
+        Assert.assertEquals(511, histogram.getPercentile(50));
+
+        // 990 is in the 512-1023 bucket, capped by the maximum
+        Assert.assertEquals(1000, histogram.getPercentile(99));
+
+        Assert.assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(j % 100);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(80000, histogram.getCount());
+        Assert.assertEquals(8 * 100 * 4950, histogram.getTotal());
+        Assert.assertEquals(99, histogram.getMax());
+    }
+}
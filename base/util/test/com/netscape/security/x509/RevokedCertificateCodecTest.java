@@ -0,0 +1,117 @@
+package com.netscape.security.x509;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import netscape.security.x509.CRLExtensions;
+import netscape.security.x509.CRLReasonExtension;
+import netscape.security.x509.InvalidityDateExtension;
+import netscape.security.x509.RevocationReason;
+import netscape.security.x509.RevokedCertImpl;
+import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedCertificateCodec;
+
+public class RevokedCertificateCodecTest {
+
+    public RevokedCertificate createEntry(BigInteger serial, RevocationReason reason) throws Exception {
+
+        Date revocationDate = new Date(1400000000000L + serial.longValue() % 1000000L * 1000L);
+
+        if (reason == null) {
+            return new RevokedCertImpl(serial, revocationDate);
+        }
+
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(reason));
+
+        return new RevokedCertImpl(serial, revocationDate, exts);
+    }
+
+    public List<RevokedCertificate> createEntries() throws Exception {
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+
+        // serial numbers of different lengths, in no particular order
+        entries.add(createEntry(new BigInteger("7f00112233445566778899aabbccddeeff", 16),
+                RevocationReason.KEY_COMPROMISE));
+        for (int i = 1000; i > 0; i--) {
+            entries.add(createEntry(BigInteger.valueOf(i * 3), i % 2 == 0 ? RevocationReason.SUPERSEDED : null));
+        }
+
+        // entry with more than a reason code
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(RevocationReason.KEY_COMPROMISE));
+        exts.set(InvalidityDateExtension.NAME, new InvalidityDateExtension(new Date(1300000000000L)));
+        entries.add(new RevokedCertImpl(BigInteger.valueOf(3001), new Date(1200000000000L), exts));
+
+        return entries;
+    }
+
+    public void assertEntries(List<RevokedCertificate> entries, Hashtable<BigInteger, RevokedCertificate> table)
+            throws Exception {
+
+        Assert.assertEquals(entries.size(), table.size());
+
+        for (RevokedCertificate entry : entries) {
+            RevokedCertificate decoded = table.get(entry.getSerialNumber());
+            Assert.assertNotNull(decoded);
+            Assert.assertArrayEquals(entry.getEncoded(), decoded.getEncoded());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+
+        byte[] data = RevokedCertificateCodec.encode(new ArrayList<RevokedCertificate>(), false);
+
+        Assert.assertTrue(RevokedCertificateCodec.isEncoded(data));
+        Assert.assertTrue(RevokedCertificateCodec.decode(data).isEmpty());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+
+        List<RevokedCertificate> entries = createEntries();
+
+        byte[] data = RevokedCertificateCodec.encode(entries, false);
+        assertEntries(entries, RevokedCertificateCodec.decode(data));
+
+        byte[] deflated = RevokedCertificateCodec.encode(entries, true);
+        Assert.assertTrue(deflated.length < data.length);
+        assertEntries(entries, RevokedCertificateCodec.decode(deflated));
+
+        // compressing an existing encoding gives the same result
+        Assert.assertArrayEquals(deflated, RevokedCertificateCodec.deflate(data));
+        Assert.assertSame(deflated, RevokedCertificateCodec.deflate(deflated));
+    }
+
+    @Test
+    public void testSmallerThanSerializedHashtable() throws Exception {
+
+        List<RevokedCertificate> entries = createEntries();
+
+        Hashtable<BigInteger, RevokedCertificate> table = new Hashtable<BigInteger, RevokedCertificate>();
+        for (RevokedCertificate entry : entries) {
+            table.put(entry.getSerialNumber(), entry);
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(table);
+        os.close();
+
+        byte[] serialized = bos.toByteArray();
+        Assert.assertFalse(RevokedCertificateCodec.isEncoded(serialized));
+
+        byte[] data = RevokedCertificateCodec.encode(entries, false);
+        Assert.assertTrue(data.length * 4 < serialized.length);
+    }
+}
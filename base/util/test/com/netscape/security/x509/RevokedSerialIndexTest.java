@@ -0,0 +1,213 @@
+package com.netscape.security.x509;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import netscape.security.x509.CRLExtensions;
+import netscape.security.x509.CRLReasonExtension;
+import netscape.security.x509.InvalidityDateExtension;
+import netscape.security.x509.RevocationReason;
+import netscape.security.x509.RevokedCertImpl;
+import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.RevokedSerialIndex;
+
+public class RevokedSerialIndexTest {
+
+    public RevokedCertificate createEntry(BigInteger serial, RevocationReason reason) throws Exception {
+
+        Date revocationDate = new Date(1400000000000L + serial.longValue() % 1000000L * 1000L);
+
+        if (reason == null) {
+            return new RevokedCertImpl(serial, revocationDate);
+        }
+
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(reason));
+
+        return new RevokedCertImpl(serial, revocationDate, exts);
+    }
+
+    @Test
+    public void testEmptyIndex() throws Exception {
+
+        RevokedSerialIndex index = new RevokedSerialIndex(new ArrayList<RevokedCertificate>());
+
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.contains(BigInteger.ONE));
+        Assert.assertNull(index.getRevocationDate(BigInteger.ONE));
+        Assert.assertTrue(index.toHashtable().isEmpty());
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+
+        // serial numbers of different lengths, in no particular order
+        BigInteger large = new BigInteger("7f00112233445566778899aabbccddeeff", 16);
+        entries.add(createEntry(large, RevocationReason.KEY_COMPROMISE));
+        for (int i = 1000; i > 0; i--) {
+            entries.add(createEntry(BigInteger.valueOf(i * 3), i % 2 == 0 ? RevocationReason.SUPERSEDED : null));
+        }
+
+        RevokedSerialIndex index = new RevokedSerialIndex(entries);
+
+        Assert.assertEquals(entries.size(), index.size());
+
+        for (RevokedCertificate entry : entries) {
+            BigInteger serial = entry.getSerialNumber();
+            Assert.assertTrue(index.contains(serial));
+            Assert.assertEquals(entry.getRevocationDate(), index.getRevocationDate(serial));
+        }
+
+        Assert.assertFalse(index.contains(BigInteger.ZERO));
+        Assert.assertFalse(index.contains(BigInteger.valueOf(3001)));
+        Assert.assertFalse(index.contains(large.add(BigInteger.ONE)));
+        Assert.assertFalse(index.contains(large.shiftLeft(8)));
+
+        Assert.assertEquals(RevocationReason.KEY_COMPROMISE, index.getRevocationReason(large));
+        Assert.assertEquals(RevocationReason.SUPERSEDED, index.getRevocationReason(BigInteger.valueOf(6)));
+        Assert.assertNull(index.getRevocationReason(BigInteger.valueOf(3)));
+    }
+
+    @Test
+    public void testRebuildEntries() throws Exception {
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+        entries.add(createEntry(BigInteger.valueOf(1), null));
+        entries.add(createEntry(BigInteger.valueOf(2), RevocationReason.CERTIFICATE_HOLD));
+
+        // entry with more than a reason code
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(RevocationReason.KEY_COMPROMISE));
+        exts.set(InvalidityDateExtension.NAME, new InvalidityDateExtension(new Date(1300000000000L)));
+        entries.add(new RevokedCertImpl(BigInteger.valueOf(3), new Date(1400000000000L), exts));
+
+        RevokedSerialIndex index = new RevokedSerialIndex(entries);
+        Hashtable<BigInteger, RevokedCertificate> table = index.toHashtable();
+
+        Assert.assertEquals(entries.size(), table.size());
+
+        for (RevokedCertificate entry : entries) {
+            RevokedCertificate rebuilt = index.getRevokedCertificate(entry.getSerialNumber());
+            Assert.assertArrayEquals(entry.getEncoded(), rebuilt.getEncoded());
+            Assert.assertArrayEquals(entry.getEncoded(), table.get(entry.getSerialNumber()).getEncoded());
+        }
+
+        Assert.assertEquals(RevocationReason.KEY_COMPROMISE, index.getRevocationReason(BigInteger.valueOf(3)));
+    }
+
+    @Test
+    public void testMapView() throws Exception {
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+        for (int i = 1; i <= 100; i++) {
+            entries.add(createEntry(BigInteger.valueOf(i * 7), i % 3 == 0 ? RevocationReason.KEY_COMPROMISE : null));
+        }
+
+        RevokedSerialIndex index = new RevokedSerialIndex(entries);
+        Map<BigInteger, RevokedCertificate> map = index.asMap();
+
+        Assert.assertEquals(entries.size(), map.size());
+        Assert.assertTrue(map.containsKey(BigInteger.valueOf(7)));
+        Assert.assertFalse(map.containsKey(BigInteger.valueOf(8)));
+        Assert.assertNull(map.get(BigInteger.valueOf(8)));
+
+        int count = 0;
+        for (Map.Entry<BigInteger, RevokedCertificate> entry : map.entrySet()) {
+            Assert.assertEquals(entry.getKey(), entry.getValue().getSerialNumber());
+            count++;
+        }
+        Assert.assertEquals(entries.size(), count);
+
+        // the view is serialized as a Hashtable
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
+            os.writeObject(map);
+        }
+
+        Object copy;
+        try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            copy = is.readObject();
+        }
+
+        Assert.assertTrue(copy instanceof Hashtable);
+        Assert.assertEquals(index.toHashtable().keySet(), ((Hashtable<?, ?>) copy).keySet());
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+        for (int i = 1; i <= 100; i++) {
+            entries.add(createEntry(BigInteger.valueOf(i * 5), i % 4 == 0 ? RevocationReason.SUPERSEDED : null));
+        }
+
+        // entry with more than a reason code, kept by the merge
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLReasonExtension.NAME, new CRLReasonExtension(RevocationReason.KEY_COMPROMISE));
+        exts.set(InvalidityDateExtension.NAME, new InvalidityDateExtension(new Date(1300000000000L)));
+        RevokedCertificate kept = new RevokedCertImpl(BigInteger.valueOf(1000), new Date(1400000000000L), exts);
+        entries.add(kept);
+
+        RevokedSerialIndex index = new RevokedSerialIndex(entries);
+
+        Map<BigInteger, RevokedCertificate> changes = new HashMap<BigInteger, RevokedCertificate>();
+
+        // removed, replaced, added before, between and after the entries,
+        // and a longer serial number that widens the keys
+        BigInteger large = new BigInteger("7f00112233445566778899aabbccddeeff", 16);
+        changes.put(BigInteger.valueOf(5), null);
+        changes.put(BigInteger.valueOf(6), null);
+        changes.put(BigInteger.valueOf(10), createEntry(BigInteger.valueOf(10), RevocationReason.KEY_COMPROMISE));
+        changes.put(BigInteger.valueOf(1), createEntry(BigInteger.valueOf(1), null));
+        changes.put(BigInteger.valueOf(12), createEntry(BigInteger.valueOf(12), RevocationReason.CERTIFICATE_HOLD));
+        changes.put(large, createEntry(large, null));
+
+        RevokedSerialIndex merged = index.merge(changes);
+
+        Map<BigInteger, RevokedCertificate> expected = new TreeMap<BigInteger, RevokedCertificate>();
+        for (RevokedCertificate entry : entries) {
+            expected.put(entry.getSerialNumber(), entry);
+        }
+        for (Map.Entry<BigInteger, RevokedCertificate> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                expected.remove(change.getKey());
+            } else {
+                expected.put(change.getKey(), change.getValue());
+            }
+        }
+
+        Assert.assertEquals(expected.size(), merged.size());
+        Assert.assertEquals(expected.keySet(), new TreeSet<BigInteger>(merged.asMap().keySet()));
+
+        for (RevokedCertificate entry : expected.values()) {
+            RevokedCertificate rebuilt = merged.getRevokedCertificate(entry.getSerialNumber());
+            Assert.assertArrayEquals(entry.getEncoded(), rebuilt.getEncoded());
+        }
+
+        Assert.assertFalse(merged.contains(BigInteger.valueOf(6)));
+        Assert.assertEquals(RevocationReason.KEY_COMPROMISE, merged.getRevocationReason(BigInteger.valueOf(10)));
+
+        // the original index is unchanged
+        Assert.assertEquals(entries.size(), index.size());
+        Assert.assertTrue(index.contains(BigInteger.valueOf(5)));
+        Assert.assertNull(index.getRevocationReason(BigInteger.valueOf(10)));
+
+        Assert.assertSame(index, index.merge(new HashMap<BigInteger, RevokedCertificate>()));
+    }
+}
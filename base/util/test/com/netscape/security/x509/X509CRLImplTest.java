@@ -0,0 +1,100 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2018 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package com.netscape.security.x509;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRLEntry;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import netscape.security.x509.RevokedCertImpl;
+import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.X500Name;
+import netscape.security.x509.X509CRLImpl;
+
+public class X509CRLImplTest {
+
+    static KeyPair keyPair;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    public byte[] createCRL(RevokedCertificate[] entries) throws Exception {
+        X509CRLImpl crl = new X509CRLImpl(
+                new X500Name("CN=CA Signing Certificate,O=EXAMPLE"),
+                new Date(1500000000000L), new Date(1500086400000L), entries);
+        crl.sign(keyPair.getPrivate(), "SHA256withRSA");
+        return crl.getEncoded();
+    }
+
+    public RevokedCertificate createEntry(int serial) {
+        return new RevokedCertImpl(BigInteger.valueOf(serial), new Date(1400000000000L + serial * 1000L));
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+
+        // entries are not sorted by serial number
+        RevokedCertificate[] entries = new RevokedCertificate[500];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = createEntry((i * 7919) % 1000 + 1);
+        }
+
+        byte[] encoded = createCRL(entries);
+        X509CRLImpl crl = new X509CRLImpl(encoded);
+
+        Assert.assertEquals(500, crl.getNumberOfRevokedCertificates());
+
+        for (RevokedCertificate entry : entries) {
+            BigInteger serialNumber = entry.getSerialNumber();
+            Assert.assertTrue(crl.isRevoked(serialNumber));
+
+            X509CRLEntry found = crl.getRevokedCertificate(serialNumber);
+            Assert.assertEquals(serialNumber, found.getSerialNumber());
+            Assert.assertEquals(entry.getRevocationDate(), found.getRevocationDate());
+        }
+
+        Assert.assertFalse(crl.isRevoked(BigInteger.valueOf(0)));
+        Assert.assertNull(crl.getRevokedCertificate(BigInteger.valueOf(1001)));
+
+        Assert.assertEquals(500, crl.getRevokedCertificates().size());
+        Assert.assertEquals(500, crl.getListOfRevokedCertificates().size());
+        Assert.assertArrayEquals(encoded, crl.getEncoded());
+    }
+
+    @Test
+    public void testWithoutEntries() throws Exception {
+
+        X509CRLImpl crl = new X509CRLImpl(createCRL(new RevokedCertificate[] {
+                createEntry(1), createEntry(2)
+        }), false);
+
+        Assert.assertFalse(crl.areEntriesIncluded());
+        Assert.assertFalse(crl.isRevoked(BigInteger.valueOf(1)));
+        Assert.assertEquals(0, crl.getNumberOfRevokedCertificates());
+    }
+}
@@ -0,0 +1,163 @@
+package com.netscape.security.x509;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import netscape.security.x509.AlgorithmId;
+import netscape.security.x509.RevokedCertImpl;
+import netscape.security.x509.RevokedCertificate;
+import netscape.security.x509.X500Name;
+import netscape.security.x509.X509CRLImpl;
+import netscape.security.x509.X509CRLStreamWriter;
+
+public class X509CRLStreamWriterTest {
+
+    static KeyPair keyPair;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    public X509CRLStreamWriter createWriter() throws Exception {
+        return new X509CRLStreamWriter(
+                new X500Name("CN=CA Signing Certificate,O=EXAMPLE"),
+                AlgorithmId.get("SHA256withRSA"),
+                new Date(1500000000000L), new Date(1500086400000L), null);
+    }
+
+    public X509CRLStreamWriter.Signer createSigner() throws Exception {
+
+        // RSA PKCS#1 v1.5 signatures are deterministic
+        final Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+
+        return new X509CRLStreamWriter.Signer() {
+            public void update(byte[] data, int offset, int length) throws SignatureException {
+                signature.update(data, offset, length);
+            }
+
+            public byte[] sign() throws SignatureException {
+                return signature.sign();
+            }
+        };
+    }
+
+    public byte[] writeCRL(List<RevokedCertificate> entries) throws Exception {
+        return writeCRL(entries, null);
+    }
+
+    public byte[] writeCRL(List<RevokedCertificate> entries, File entriesFile) throws Exception {
+
+        X509CRLStreamWriter writer = createWriter();
+        writer.setEntriesFile(entriesFile);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = writer.write(entries.iterator(), createSigner(), out);
+
+        Assert.assertEquals(entries.size(), writer.getEntryCount());
+        Assert.assertEquals(out.size(), size);
+
+        return out.toByteArray();
+    }
+
+    public RevokedCertificate createEntry(int serial) {
+        return new RevokedCertImpl(BigInteger.valueOf(serial), new Date(1400000000000L + serial * 1000L));
+    }
+
+    public void verify(X509CRLImpl crl) throws Exception {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initVerify(keyPair.getPublic());
+        signature.update(crl.getTBSCertList());
+        Assert.assertTrue(signature.verify(crl.getSignature()));
+    }
+
+    @Test
+    public void testEmptyCRL() throws Exception {
+
+        byte[] encoded = writeCRL(new ArrayList<RevokedCertificate>());
+
+        X509CRLImpl crl = new X509CRLImpl(encoded);
+        verify(crl);
+
+        Assert.assertNull(crl.getRevokedCertificates());
+        Assert.assertEquals(new Date(1500000000000L), crl.getThisUpdate());
+        Assert.assertEquals(new Date(1500086400000L), crl.getNextUpdate());
+    }
+
+    @Test
+    public void testRevokedEntries() throws Exception {
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+        for (int i = 1; i <= 1000; i++) {
+            entries.add(createEntry(i * 7));
+        }
+
+        byte[] encoded = writeCRL(entries);
+
+        X509CRLImpl crl = new X509CRLImpl(encoded);
+        verify(crl);
+
+        Assert.assertEquals(1000, crl.getRevokedCertificates().size());
+        Assert.assertTrue(crl.isRevoked(BigInteger.valueOf(7)));
+        Assert.assertTrue(crl.isRevoked(BigInteger.valueOf(7000)));
+        Assert.assertFalse(crl.isRevoked(BigInteger.valueOf(8)));
+    }
+
+    @Test
+    public void testMergeChanges() throws Exception {
+
+        File previousEntries = File.createTempFile("crl", ".entries");
+        previousEntries.deleteOnExit();
+
+        List<RevokedCertificate> entries = new ArrayList<RevokedCertificate>();
+        for (int i = 1; i <= 100; i++) {
+            entries.add(createEntry(i * 10));
+        }
+        writeCRL(entries, previousEntries);
+
+        SortedMap<BigInteger, RevokedCertificate> changes = new TreeMap<BigInteger, RevokedCertificate>();
+        changes.put(BigInteger.valueOf(5), createEntry(5)); // before the first entry
+        changes.put(BigInteger.valueOf(10), null); // remove the first entry
+        changes.put(BigInteger.valueOf(505), createEntry(505)); // new entry in the middle
+        changes.put(BigInteger.valueOf(600), null); // remove an entry in the middle
+        changes.put(BigInteger.valueOf(777), null); // remove a missing entry
+        changes.put(BigInteger.valueOf(1000), createEntry(1000)); // replace the last entry
+        changes.put(BigInteger.valueOf(2000), createEntry(2000)); // after the last entry
+
+        X509CRLStreamWriter writer = createWriter();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(previousEntries, changes, createSigner(), out);
+
+        // the same CRL encoded from the complete list of entries
+        List<RevokedCertificate> expected = new ArrayList<RevokedCertificate>();
+        expected.add(createEntry(5));
+        for (int i = 2; i <= 100; i++) {
+            if (i == 60)
+                continue;
+            if (i == 51)
+                expected.add(createEntry(505));
+            expected.add(createEntry(i * 10));
+        }
+        expected.add(createEntry(2000));
+
+        Assert.assertEquals(expected.size(), writer.getEntryCount());
+        Assert.assertArrayEquals(writeCRL(expected), out.toByteArray());
+    }
+}